@@ -327,7 +327,7 @@ public class LocalArtifactCache implements ArtifactCache {
     return updatedKeyToArtifact.entrySet().stream()
         .map(
             kv ->
-                FetchExecutor.EXECUTOR.submit(
+                FetchExecutor.forArtifact(kv.getValue()).submit(
                     () -> {
                       try {
                         copyLocally(
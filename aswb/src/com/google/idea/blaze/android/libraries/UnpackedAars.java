@@ -195,7 +195,7 @@ public class UnpackedAars {
       }
 
       // update cache files
-      Unpacker.unpack(projectState, updatedKeys, aarCache);
+      Unpacker.unpack(context, projectState, updatedKeys, aarCache);
 
       if (!updatedKeys.isEmpty()) {
         context.output(PrintOutput.log(String.format("Copied %d AARs", updatedKeys.size())));
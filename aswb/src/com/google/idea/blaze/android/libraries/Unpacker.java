@@ -18,16 +18,21 @@ package com.google.idea.blaze.android.libraries;
 
 import static com.android.SdkConstants.FN_LINT_JAR;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
 import com.google.idea.blaze.base.io.FileOperationProvider;
-import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.scope.BlazeContext;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.util.io.FileUtil;
-import com.intellij.util.io.ZipUtil;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -35,10 +40,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Unzip prefetched aars to local cache directories. AARs are directories with many files. {@see
@@ -62,24 +71,75 @@ import java.util.concurrent.ExecutionException;
 public final class Unpacker {
   private static final Logger logger = Logger.getInstance(Unpacker.class);
 
+  // unpacking is mostly disk bound, so it's kept separate from (and smaller than) FetchExecutor
+  private static final ListeningExecutorService UNPACK_EXECUTOR =
+      MoreExecutors.listeningDecorator(
+          AppExecutorUtil.createBoundedApplicationPoolExecutor(
+              "AarUnpackExecutor", Math.min(8, Runtime.getRuntime().availableProcessors())));
+
   /** Updated prefetched aars to aar directory. */
   public static void unpack(
-      ImmutableMap<String, AarLibraryContents> toCache, Set<String> updatedKeys, AarCache aarCache)
+      BlazeContext context,
+      ImmutableMap<String, AarLibraryContents> toCache,
+      Set<String> updatedKeys,
+      AarCache aarCache)
       throws ExecutionException, InterruptedException {
-    unpackAarsToDir(toCache, updatedKeys, aarCache);
+    unpackAarsToDir(context, toCache, updatedKeys, aarCache);
   }
 
   private static void unpackAarsToDir(
-      ImmutableMap<String, AarLibraryContents> toCache, Set<String> updatedKeys, AarCache aarCache)
+      BlazeContext context,
+      ImmutableMap<String, AarLibraryContents> toCache,
+      Set<String> updatedKeys,
+      AarCache aarCache)
       throws ExecutionException, InterruptedException {
+    if (updatedKeys.isEmpty()) {
+      return;
+    }
     FileOperationProvider ops = FileOperationProvider.getInstance();
-    List<ListenableFuture<?>> futures = new ArrayList<>();
+    Stopwatch timer = Stopwatch.createStarted();
+    List<ListenableFuture<UnpackStats>> futures = new ArrayList<>();
     updatedKeys.forEach(
         key ->
             futures.add(
-                FetchExecutor.EXECUTOR.submit(
-                    () -> unpackAarToDir(ops, toCache.get(key), aarCache))));
-    Futures.allAsList(futures).get();
+                UNPACK_EXECUTOR.submit(() -> unpackAarToDir(ops, toCache.get(key), aarCache))));
+    List<UnpackStats> stats = Futures.allAsList(futures).get();
+    context.output(PrintOutput.log(summarize(stats, timer.elapsed(TimeUnit.MILLISECONDS))));
+  }
+
+  /** The amount of data written while unpacking a single AAR, and how long it took. */
+  private static final class UnpackStats {
+    final long bytesWritten;
+    final long elapsedMillis;
+
+    UnpackStats(long bytesWritten, long elapsedMillis) {
+      this.bytesWritten = bytesWritten;
+      this.elapsedMillis = elapsedMillis;
+    }
+  }
+
+  private static String summarize(List<UnpackStats> stats, long totalMillis) {
+    long totalBytes = stats.stream().mapToLong(s -> s.bytesWritten).sum();
+    long[] latencies = stats.stream().mapToLong(s -> s.elapsedMillis).sorted().toArray();
+    double megabytesPerSecond = totalBytes / 1048576.0 / Math.max(totalMillis, 1) * 1000;
+    return String.format(
+        "Unpacked %d AARs (%d kB) in %d ms, %.1f MB/s. Per-AAR latency: median %d ms, "
+            + "p90 %d ms, max %d ms",
+        stats.size(),
+        totalBytes / 1024,
+        totalMillis,
+        megabytesPerSecond,
+        percentile(latencies, 50),
+        percentile(latencies, 90),
+        percentile(latencies, 100));
+  }
+
+  private static long percentile(long[] sorted, int percentile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+    return sorted[Math.max(index, 0)];
   }
 
   /**
@@ -87,22 +147,15 @@ public final class Unpacker {
    * directory. A timestamp file will be created to decide if updated is needed when a new .aar file
    * with same name is found next time.
    */
-  private static void unpackAarToDir(
+  private static UnpackStats unpackAarToDir(
       FileOperationProvider ops, AarLibraryContents aarLibraryContents, AarCache aarCache) {
+    Stopwatch timer = Stopwatch.createStarted();
+    long bytesWritten = 0;
     String cacheKey = UnpackedAarUtils.getAarDirName(aarLibraryContents.aar());
     try {
       File aarDir = aarCache.recreateAarDir(ops, cacheKey);
-      // TODO(brendandouglas): decompress via ZipInputStream so we don't require a local file
-      File toCopy = getOrCreateLocalFile(aarLibraryContents.aar());
-      ZipUtil.extract(
-          toCopy,
-          aarDir,
-          // Skip jars except lint.jar. We will copy jar in AarLibraryContents instead.
-          // That could give us freedom in the future to use an ijar or header jar instead,
-          // which is more lightweight. But it's not applied to lint.jar
-          (dir, name) -> name.equals(FN_LINT_JAR) || !name.endsWith(".jar"));
-
       BlazeArtifact aar = aarLibraryContents.aar();
+      bytesWritten += extract(aar, aarDir);
 
       try {
         aarCache.createTimeStampFile(
@@ -117,7 +170,7 @@ public final class Unpacker {
         try (InputStream stream = aarLibraryContents.jar().getInputStream()) {
           Path destination = Paths.get(UnpackedAarUtils.getJarFile(aarDir).getPath());
           ops.mkdirs(destination.getParent().toFile());
-          Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
+          bytesWritten += Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
         } catch (Exception e) {
           logger.warn("Failed to copy class jar for " + aar, e);
         }
@@ -128,7 +181,7 @@ public final class Unpacker {
         try (InputStream stream = srcjar.getInputStream()) {
           Path destination = aarDir.toPath().resolve(UnpackedAarUtils.getSrcJarName(srcjar));
           ops.mkdirs(destination.getParent().toFile());
-          Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
+          bytesWritten += Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
         } catch (Exception e) {
           logger.warn("Failed to copy source jar for " + aar, e);
         }
@@ -140,22 +193,48 @@ public final class Unpacker {
               aarLibraryContents.aar(), aarCache.aarDirForKey(cacheKey)),
           e);
     }
+    return new UnpackStats(bytesWritten, timer.elapsed(TimeUnit.MILLISECONDS));
   }
 
-  /** Returns a locally-accessible file mirroring the contents of this {@link BlazeArtifact}. */
-  private static File getOrCreateLocalFile(BlazeArtifact artifact) throws IOException {
-    if (artifact instanceof LocalFileArtifact) {
-      return ((LocalFileArtifact) artifact).getFile();
-    }
-    File tmpFile =
-        FileUtil.createTempFile(
-            "local-aar-file",
-            Integer.toHexString(UnpackedAarUtils.getArtifactKey(artifact).hashCode()),
-            /* deleteOnExit= */ true);
-    try (InputStream stream = artifact.getInputStream()) {
-      Files.copy(stream, Paths.get(tmpFile.getPath()), StandardCopyOption.REPLACE_EXISTING);
-      return tmpFile;
+  /**
+   * Extracts the AAR in a single streaming pass, without first copying it to a local file. Returns
+   * the number of bytes written.
+   */
+  @VisibleForTesting
+  static long extract(BlazeArtifact aar, File aarDir) throws IOException {
+    Path root = aarDir.toPath().toAbsolutePath().normalize();
+    long bytesWritten = 0;
+    try (ZipInputStream zip = new ZipInputStream(new BufferedInputStream(aar.getInputStream()))) {
+      ZipEntry entry;
+      while ((entry = zip.getNextEntry()) != null) {
+        Path destination = root.resolve(entry.getName()).normalize();
+        if (!destination.startsWith(root)) {
+          throw new IOException("Invalid AAR entry: " + entry.getName());
+        }
+        if (entry.isDirectory()) {
+          Files.createDirectories(destination);
+          continue;
+        }
+        if (!shouldExtract(destination.getFileName().toString())) {
+          continue;
+        }
+        Files.createDirectories(destination.getParent());
+        bytesWritten += Files.copy(zip, destination, StandardCopyOption.REPLACE_EXISTING);
+        if (entry.getTime() != -1) {
+          Files.setLastModifiedTime(destination, FileTime.fromMillis(entry.getTime()));
+        }
+      }
     }
+    return bytesWritten;
+  }
+
+  /**
+   * Skip jars except lint.jar. We will copy jar in AarLibraryContents instead. That could give us
+   * freedom in the future to use an ijar or header jar instead, which is more lightweight. But it's
+   * not applied to lint.jar
+   */
+  private static boolean shouldExtract(String fileName) {
+    return fileName.equals(FN_LINT_JAR) || !fileName.endsWith(".jar");
   }
 
   private Unpacker() {}
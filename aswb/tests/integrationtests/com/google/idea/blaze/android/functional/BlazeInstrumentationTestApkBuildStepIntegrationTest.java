@@ -102,7 +102,7 @@ public class BlazeInstrumentationTestApkBuildStepIntegrationTest
     mockBuildResultHelper = mock(BuildResultHelper.class);
     when(mockBuildResultHelper.getBuildOutput())
         .thenReturn(
-            new ParsedBepOutput(null, getExecRoot(), null, null, 0, BuildResult.SUCCESS, 0));
+            new ParsedBepOutput(null, getExecRoot(), null, 0, BuildResult.SUCCESS, 0));
     BuildSystemProviderWrapper buildSystem = new BuildSystemProviderWrapper(() -> getProject());
     buildSystem.setBuildResultHelperSupplier(() -> mockBuildResultHelper);
     registerExtension(BuildSystemProvider.EP_NAME, buildSystem);
@@ -292,7 +292,7 @@ public class BlazeInstrumentationTestApkBuildStepIntegrationTest
 
     // Return null execroot
     when(mockBuildResultHelper.getBuildOutput())
-        .thenReturn(new ParsedBepOutput(null, null, null, null, 0, BuildResult.SUCCESS, 0));
+        .thenReturn(new ParsedBepOutput(null, null, null, 0, BuildResult.SUCCESS, 0));
 
     // Setup interceptor for fake running of blaze commands and capture details.
     ExternalTaskInterceptor externalTaskInterceptor = new ExternalTaskInterceptor();
@@ -111,7 +111,7 @@ public class FullApkBuildStepIntegrationTest extends BlazeAndroidIntegrationTest
     mockBuildResultHelper = mock(BuildResultHelper.class);
     when(mockBuildResultHelper.getBuildOutput())
         .thenReturn(
-            new ParsedBepOutput(null, getExecRoot(), null, null, 0, BuildResult.SUCCESS, 0));
+            new ParsedBepOutput(null, getExecRoot(), null, 0, BuildResult.SUCCESS, 0));
     BuildSystemProviderWrapper buildSystem = new BuildSystemProviderWrapper(() -> getProject());
     buildSystem.setBuildResultHelperSupplier(() -> mockBuildResultHelper);
     registerExtension(BuildSystemProvider.EP_NAME, buildSystem);
@@ -379,7 +379,7 @@ public class FullApkBuildStepIntegrationTest extends BlazeAndroidIntegrationTest
   public void build_withNullExecRoot_shouldFail() throws Exception {
     // Return null execroot
     when(mockBuildResultHelper.getBuildOutput())
-        .thenReturn(new ParsedBepOutput(null, null, null, null, 0, BuildResult.SUCCESS, 0));
+        .thenReturn(new ParsedBepOutput(null, null, null, 0, BuildResult.SUCCESS, 0));
 
     // Return fake deploy info proto and mocked deploy info data object.
     AndroidDeployInfo fakeProto = AndroidDeployInfo.newBuilder().build();
@@ -287,7 +287,7 @@ public final class MobileInstallBuildStepIntegrationTest extends MobileInstallBu
   public void nullExecRoot() throws Exception {
     // Return null execroot
     when(mockBuildResultHelper.getBuildOutput())
-        .thenReturn(new ParsedBepOutput(null, null, null, null, 0, BuildResult.SUCCESS, 0));
+        .thenReturn(new ParsedBepOutput(null, null, null, 0, BuildResult.SUCCESS, 0));
 
     // Mobile-install build step requires only one device be active.  DeviceFutures class is final,
     // so we have to make one with a stub AndroidDevice.
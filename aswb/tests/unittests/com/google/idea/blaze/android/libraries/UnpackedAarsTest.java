@@ -519,6 +519,7 @@ public class UnpackedAarsTest extends BlazeTestCase {
 
     String messages = writingOutputSink.getMessages();
     assertThat(messages).contains("Copied 2 AARs");
+    assertThat(messages).contains("Unpacked 2 AARs");
     assertThat(messages).contains("Removed 1 AARs");
   }
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.android.libraries;
+
+import static com.android.SdkConstants.FN_LINT_JAR;
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Unpacker}. */
+@RunWith(JUnit4.class)
+public class UnpackerTest {
+  // zip entries store times with a precision of two seconds
+  private static final long ENTRY_TIME = 1_600_000_000_000L;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private File aarDir;
+
+  @Before
+  public void setUp() throws IOException {
+    aarDir = folder.newFolder("cache", "lib.aar");
+  }
+
+  @Test
+  public void extract_writesEntriesWithTheirTimestamps() throws IOException {
+    File aar =
+        createAar(
+            ImmutableMap.of(
+                "AndroidManifest.xml", "<manifest/>",
+                "res/values/strings.xml", "<resources/>",
+                "R.txt", "int string app_name 0x7f010001"));
+
+    long bytesWritten = Unpacker.extract(new SourceArtifact(aar), aarDir);
+
+    File strings = new File(aarDir, "res/values/strings.xml");
+    assertThat(read(strings)).isEqualTo("<resources/>");
+    assertThat(read(new File(aarDir, "AndroidManifest.xml"))).isEqualTo("<manifest/>");
+    assertThat(read(new File(aarDir, "R.txt"))).isEqualTo("int string app_name 0x7f010001");
+    assertThat(strings.lastModified()).isEqualTo(ENTRY_TIME);
+    assertThat(bytesWritten)
+        .isEqualTo(
+            "<manifest/>".length()
+                + "<resources/>".length()
+                + "int string app_name 0x7f010001".length());
+  }
+
+  @Test
+  public void extract_skipsJarsOtherThanLintJar() throws IOException {
+    File aar =
+        createAar(
+            ImmutableMap.of(
+                "classes.jar", "classes",
+                "libs/dependency.jar", "dependency",
+                FN_LINT_JAR, "lint",
+                "res/raw/data.jar.txt", "data"));
+
+    Unpacker.extract(new SourceArtifact(aar), aarDir);
+
+    assertThat(new File(aarDir, "classes.jar").exists()).isFalse();
+    assertThat(new File(aarDir, "libs/dependency.jar").exists()).isFalse();
+    assertThat(read(new File(aarDir, FN_LINT_JAR))).isEqualTo("lint");
+    assertThat(read(new File(aarDir, "res/raw/data.jar.txt"))).isEqualTo("data");
+  }
+
+  @Test
+  public void extract_rejectsEntryOutsideAarDirectory() throws IOException {
+    File aar =
+        createAar(
+            ImmutableMap.of(
+                "res/values/strings.xml", "<resources/>", "../evil.txt", "outside the aar"));
+
+    assertExtractFails(aar);
+    assertThat(new File(aarDir.getParentFile(), "evil.txt").exists()).isFalse();
+  }
+
+  @Test
+  public void extract_rejectsNestedEntryOutsideAarDirectory() throws IOException {
+    File aar = createAar(ImmutableMap.of("res/../../../evil.txt", "outside the aar"));
+
+    assertExtractFails(aar);
+    assertThat(new File(folder.getRoot(), "evil.txt").exists()).isFalse();
+  }
+
+  @Test
+  public void extract_allowsEntryWithParentReferenceInsideAarDirectory() throws IOException {
+    File aar = createAar(ImmutableMap.of("res/../R.txt", "int string app_name 0x7f010001"));
+
+    Unpacker.extract(new SourceArtifact(aar), aarDir);
+
+    assertThat(read(new File(aarDir, "R.txt"))).isEqualTo("int string app_name 0x7f010001");
+  }
+
+  private void assertExtractFails(File aar) {
+    try {
+      Unpacker.extract(new SourceArtifact(aar), aarDir);
+      fail("Expected the AAR to be rejected");
+    } catch (IOException expected) {
+      assertThat(expected).hasMessageThat().contains("Invalid AAR entry");
+    }
+  }
+
+  private File createAar(Map<String, String> entries) throws IOException {
+    File aar = folder.newFile();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(aar))) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        zipEntry.setTime(ENTRY_TIME);
+        zip.putNextEntry(zipEntry);
+        zip.write(entry.getValue().getBytes(UTF_8));
+        zip.closeEntry();
+      }
+    }
+    return aar;
+  }
+
+  private static String read(File file) throws IOException {
+    return new String(Files.readAllBytes(file.toPath()), UTF_8);
+  }
+}
@@ -100,7 +100,6 @@ public class MobileInstallBuildStepTestCase extends BlazeAndroidIntegrationTestC
                 /*buildId=*/ null,
                 /*localExecRoot=*/ getExecRoot(),
                 /*fileSets=*/ null,
-                /*targetFileSets=*/ null,
                 /*syncStartTimeMillis=*/ 0,
                 /*buildResult=*/ BuildResult.SUCCESS,
                 /*bepBytesConsumed=*/ 0));
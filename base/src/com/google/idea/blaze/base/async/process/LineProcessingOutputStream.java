@@ -20,8 +20,20 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import java.io.OutputStream;
-
-/** An base output stream which marshals output into newline-delimited segments for processing. */
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * An base output stream which marshals output into newline-delimited segments for processing.
+ *
+ * <p>Output is split into lines at the byte level, and each line is decoded as UTF-8 once it's
+ * complete, so multi-byte characters split across writes are decoded correctly. Each byte is
+ * scanned once, and only the bytes of an incomplete trailing line are buffered between writes.
+ */
 public final class LineProcessingOutputStream extends OutputStream {
 
   /** A line processor */
@@ -34,12 +46,49 @@ public final class LineProcessingOutputStream extends OutputStream {
     boolean processLine(String line);
   }
 
-  private final StringBuffer stringBuffer = new StringBuffer();
-  private volatile boolean closed;
+  /**
+   * A line processor which accepts lines as a {@link CharSequence}. If every processor of a stream
+   * is one of these, lines are passed as a reused view rather than allocating a string per line.
+   */
+  public interface CharSequenceLineProcessor extends LineProcessor {
+    /**
+     * Process a single, complete line of output. The line is only valid for the duration of this
+     * call, and mustn't be retained.
+     *
+     * @return Whether line processing should continue
+     */
+    boolean processLine(CharSequence line);
+
+    @Override
+    default boolean processLine(String line) {
+      return processLine((CharSequence) line);
+    }
+  }
+
+  private static final int INITIAL_BUFFER_SIZE = 1024;
+  // buffers grown beyond this size by unusually long lines aren't retained
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
   private final ImmutableList<LineProcessor> lineProcessors;
+  private final boolean charSequenceMode;
+
+  // the bytes of the current incomplete line
+  private byte[] pending = new byte[INITIAL_BUFFER_SIZE];
+  private int pendingLength;
+  // whether the last line ended with '\r', in which case an immediately following '\n' completes
+  // the same line break, even if it arrives in a later write
+  private boolean afterCarriageReturn;
+
+  @Nullable private CharsetDecoder decoder;
+  @Nullable private CharBuffer chars;
+
+  private volatile boolean closed;
 
   LineProcessingOutputStream(ImmutableList<LineProcessor> lineProcessors) {
     this.lineProcessors = lineProcessors;
+    this.charSequenceMode =
+        !lineProcessors.isEmpty()
+            && lineProcessors.stream().allMatch(p -> p instanceof CharSequenceLineProcessor);
   }
 
   public static LineProcessingOutputStream of(LineProcessor... lineProcessors) {
@@ -52,42 +101,33 @@ public final class LineProcessingOutputStream extends OutputStream {
 
   @Override
   public synchronized void write(byte[] b, int off, int len) {
-    if (!closed) {
-      String text = new String(b, off, len, UTF_8);
-      stringBuffer.append(text);
-
-      while (true) {
-        int lineBreakIndex = -1;
-        int lineBreakLength = 0;
-        for (int i = 0; i < stringBuffer.length(); ++i) {
-          char c = stringBuffer.charAt(i);
-          if (c == '\r' || c == '\n') {
-            lineBreakIndex = i;
-            lineBreakLength = 1;
-            if (c == '\r'
-                && (i + 1) < stringBuffer.length()
-                && stringBuffer.charAt(i + 1) == '\n') {
-              ++lineBreakLength;
-            }
-            break;
-          }
-        }
-
-        if (lineBreakIndex == -1) {
-          return;
-        }
-
-        String line = stringBuffer.substring(0, lineBreakIndex);
-
-        stringBuffer.delete(0, lineBreakIndex + lineBreakLength);
-
-        for (LineProcessor lineProcessor : lineProcessors) {
-          if (!lineProcessor.processLine(line)) {
-            break;
-          }
-        }
+    if (closed) {
+      return;
+    }
+    int end = off + len;
+    int lineStart = off;
+    for (int i = off; i < end; i++) {
+      byte c = b[i];
+      if (c != '\n' && c != '\r') {
+        continue;
+      }
+      if (c == '\n' && afterCarriageReturn && i == lineStart && pendingLength == 0) {
+        // the second half of a "\r\n" line break
+        afterCarriageReturn = false;
+        lineStart = i + 1;
+        continue;
       }
+      afterCarriageReturn = c == '\r';
+      if (pendingLength == 0) {
+        processLine(b, lineStart, i - lineStart);
+      } else {
+        appendPending(b, lineStart, i - lineStart);
+        processLine(pending, 0, pendingLength);
+        clearPending();
+      }
+      lineStart = i + 1;
     }
+    appendPending(b, lineStart, end - lineStart);
   }
 
   @Override
@@ -100,4 +140,61 @@ public final class LineProcessingOutputStream extends OutputStream {
     closed = true;
     super.close();
   }
+
+  private void appendPending(byte[] b, int off, int len) {
+    if (len == 0) {
+      return;
+    }
+    if (pendingLength + len > pending.length) {
+      pending = Arrays.copyOf(pending, Math.max(pendingLength + len, pending.length * 2));
+    }
+    System.arraycopy(b, off, pending, pendingLength, len);
+    pendingLength += len;
+  }
+
+  private void clearPending() {
+    pendingLength = 0;
+    if (pending.length > MAX_RETAINED_BUFFER_SIZE) {
+      pending = new byte[INITIAL_BUFFER_SIZE];
+    }
+  }
+
+  private void processLine(byte[] b, int off, int len) {
+    if (charSequenceMode) {
+      CharSequence line = decode(b, off, len);
+      for (LineProcessor lineProcessor : lineProcessors) {
+        if (!((CharSequenceLineProcessor) lineProcessor).processLine(line)) {
+          break;
+        }
+      }
+      return;
+    }
+    String line = new String(b, off, len, UTF_8);
+    for (LineProcessor lineProcessor : lineProcessors) {
+      if (!lineProcessor.processLine(line)) {
+        break;
+      }
+    }
+  }
+
+  /** Decodes the given bytes into a reused buffer, replacing malformed input like new String. */
+  private CharBuffer decode(byte[] b, int off, int len) {
+    if (decoder == null) {
+      decoder =
+          UTF_8
+              .newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+    // UTF-8 never decodes to more chars than bytes
+    if (chars == null || chars.capacity() < len || chars.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+      chars = CharBuffer.allocate(Math.max(len, INITIAL_BUFFER_SIZE));
+    }
+    chars.clear();
+    decoder.reset();
+    decoder.decode(ByteBuffer.wrap(b, off, len), chars, /* endOfInput= */ true);
+    decoder.flush(chars);
+    chars.flip();
+    return chars;
+  }
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * An index over the named sets of files reported in the build event protocol.
+ *
+ * <p>File sets are numbered in BEP order, and the DAG of named sets is walked once, when the index
+ * is built. Only file sets directly reported by a top-level target carry configuration, output
+ * group and target data; every other file set points to the top-level file set it was first reached
+ * from, and shares that data rather than copying it.
+ *
+ * <p>Each output group maps to a {@link BitSet} of the file sets belonging to it. The artifacts of
+ * each output group, and of the whole build, are collected on first use and then reused.
+ */
+public final class BepFileSetIndex {
+
+  /**
+   * Parsed artifacts for each file set, or null if the file set isn't reachable from a top-level
+   * target with a known configuration.
+   */
+  private final ImmutableList<OutputArtifact>[] outputs;
+
+  /** For each file set, the index of the top-level file set it inherits data from, or -1. */
+  private final int[] roots;
+
+  /** Top-level file set data, keyed by file set index. */
+  private final ImmutableMap<Integer, TopLevelData> topLevelData;
+
+  private final ImmutableMap<String, BitSet> outputGroupFileSets;
+  private final ImmutableSetMultimap<String, Integer> targetFileSets;
+
+  private final Supplier<ImmutableSet<OutputArtifact>> allArtifacts =
+      Suppliers.memoize(this::collectAllArtifacts);
+  private final Map<String, ImmutableList<OutputArtifact>> outputGroupArtifacts =
+      new ConcurrentHashMap<>();
+
+  private BepFileSetIndex(
+      ImmutableList<OutputArtifact>[] outputs,
+      int[] roots,
+      ImmutableMap<Integer, TopLevelData> topLevelData,
+      ImmutableMap<String, BitSet> outputGroupFileSets,
+      ImmutableSetMultimap<String, Integer> targetFileSets) {
+    this.outputs = outputs;
+    this.roots = roots;
+    this.topLevelData = topLevelData;
+    this.outputGroupFileSets = outputGroupFileSets;
+    this.targetFileSets = targetFileSets;
+  }
+
+  static Builder builder() {
+    return new Builder();
+  }
+
+  /** Returns all output artifacts of the build, in BEP order. */
+  ImmutableSet<OutputArtifact> getAllArtifacts() {
+    return allArtifacts.get();
+  }
+
+  /** Returns the artifacts in the file sets directly reported by the given target. */
+  ImmutableSet<OutputArtifact> getDirectArtifactsForTarget(String label) {
+    ImmutableSet.Builder<OutputArtifact> artifacts = ImmutableSet.builder();
+    for (int fileSet : targetFileSets.get(label)) {
+      // only valid file sets are recorded for each target
+      artifacts.addAll(outputs[fileSet]);
+    }
+    return artifacts.build();
+  }
+
+  /** Returns the distinct artifacts in the given output group, in BEP order. */
+  ImmutableList<OutputArtifact> getOutputGroupArtifacts(String outputGroup) {
+    BitSet fileSets = outputGroupFileSets.get(outputGroup);
+    if (fileSets == null) {
+      return ImmutableList.of();
+    }
+    return outputGroupArtifacts.computeIfAbsent(
+        outputGroup, g -> collectArtifacts(fileSets).asList());
+  }
+
+  /** Returns the output data for each artifact, one entry per file set it appears in. */
+  Stream<BepArtifactData> getArtifactData() {
+    return validFileSets()
+        .boxed()
+        .flatMap(
+            i -> {
+              TopLevelData data = topLevelData.get(roots[i]);
+              return outputs[i].stream()
+                  .map(a -> new BepArtifactData(a, data.outputGroups, data.targets));
+            });
+  }
+
+  private ImmutableSet<OutputArtifact> collectAllArtifacts() {
+    BitSet all = new BitSet(outputs.length);
+    validFileSets().forEach(all::set);
+    return collectArtifacts(all);
+  }
+
+  private ImmutableSet<OutputArtifact> collectArtifacts(BitSet fileSets) {
+    ImmutableSet.Builder<OutputArtifact> artifacts = ImmutableSet.builder();
+    fileSets.stream().forEach(i -> artifacts.addAll(outputs[i]));
+    return artifacts.build();
+  }
+
+  private IntStream validFileSets() {
+    return IntStream.range(0, outputs.length).filter(i -> outputs[i] != null);
+  }
+
+  /** Configuration, output groups and targets reported for a top-level file set. */
+  private static final class TopLevelData {
+    @Nullable final String configMnemonic;
+    final ImmutableSet<String> outputGroups;
+    final ImmutableSet<String> targets;
+
+    TopLevelData(
+        @Nullable String configMnemonic, Set<String> outputGroups, Set<String> targets) {
+      this.configMnemonic = configMnemonic;
+      this.outputGroups = ImmutableSet.copyOf(outputGroups);
+      this.targets = ImmutableSet.copyOf(targets);
+    }
+  }
+
+  /** Collects BEP events in stream order, then builds the index. */
+  static final class Builder {
+    private final Map<String, NamedSetOfFiles> namedSets = new LinkedHashMap<>();
+    private final Map<String, TopLevelBuilder> topLevelFileSets = new LinkedHashMap<>();
+    private final ImmutableSetMultimap.Builder<String, String> targetFileSets =
+        ImmutableSetMultimap.builder();
+
+    private Builder() {}
+
+    void addNamedSet(String id, NamedSetOfFiles namedSet) {
+      namedSets.put(id, namedSet);
+    }
+
+    /** Records that a top-level target reported the given file sets in an output group. */
+    void addOutputGroup(
+        String target, String configId, String outputGroup, Collection<String> fileSetIds) {
+      targetFileSets.putAll(target, fileSetIds);
+      for (String id : fileSetIds) {
+        TopLevelBuilder builder = topLevelFileSets.computeIfAbsent(id, k -> new TopLevelBuilder());
+        builder.configId = configId;
+        builder.outputGroups.add(outputGroup);
+        builder.targets.add(target);
+      }
+    }
+
+    /**
+     * Builds the index. Only top-level targets have configuration, output group and target data
+     * explicitly provided in BEP, so each other file set inherits it from the first top-level file
+     * set it is reachable from.
+     */
+    @SuppressWarnings("unchecked") // generic array creation
+    BepFileSetIndex build(Map<String, String> configIdToMnemonic, long startTimeMillis) {
+      int size = namedSets.size();
+      Map<String, Integer> indices = new HashMap<>(size * 2);
+      List<NamedSetOfFiles> sets = new ArrayList<>(size);
+      namedSets.forEach(
+          (id, set) -> {
+            indices.put(id, sets.size());
+            sets.add(set);
+          });
+
+      int[] roots = new int[size];
+      Arrays.fill(roots, -1);
+      ArrayDeque<Integer> toVisit = new ArrayDeque<>();
+      ImmutableMap.Builder<Integer, TopLevelData> topLevelData = ImmutableMap.builder();
+      topLevelFileSets.forEach(
+          (id, builder) -> {
+            Integer index = indices.get(id);
+            if (index == null) {
+              return;
+            }
+            roots[index] = index;
+            toVisit.add(index);
+            topLevelData.put(
+                index,
+                new TopLevelData(
+                    configIdToMnemonic.get(builder.configId),
+                    builder.outputGroups,
+                    builder.targets));
+          });
+      while (!toVisit.isEmpty()) {
+        int index = toVisit.remove();
+        for (NamedSetOfFilesId child : sets.get(index).getFileSetsList()) {
+          Integer childIndex = indices.get(child.getId());
+          if (childIndex != null && roots[childIndex] == -1) {
+            roots[childIndex] = roots[index];
+            toVisit.add(childIndex);
+          }
+        }
+      }
+      ImmutableMap<Integer, TopLevelData> data = topLevelData.build();
+
+      ImmutableList<OutputArtifact>[] outputs = new ImmutableList[size];
+      Map<String, BitSet> outputGroupFileSets = new HashMap<>();
+      for (int i = 0; i < size; i++) {
+        TopLevelData root = roots[i] == -1 ? null : data.get(roots[i]);
+        if (root == null || root.configMnemonic == null) {
+          continue;
+        }
+        outputs[i] = parseFiles(sets.get(i), root.configMnemonic, startTimeMillis);
+        for (String group : root.outputGroups) {
+          outputGroupFileSets.computeIfAbsent(group, g -> new BitSet(size)).set(i);
+        }
+      }
+
+      ImmutableSetMultimap.Builder<String, Integer> targetIndices = ImmutableSetMultimap.builder();
+      targetFileSets
+          .build()
+          .forEach(
+              (target, id) -> {
+                Integer index = indices.get(id);
+                if (index != null && outputs[index] != null) {
+                  targetIndices.put(target, index);
+                }
+              });
+      return new BepFileSetIndex(
+          outputs,
+          roots,
+          data,
+          ImmutableMap.copyOf(outputGroupFileSets),
+          targetIndices.build());
+    }
+
+    private static ImmutableList<OutputArtifact> parseFiles(
+        NamedSetOfFiles namedSet, String config, long startTimeMillis) {
+      return namedSet.getFilesList().stream()
+          .map(f -> OutputArtifactParser.parseArtifact(f, config, startTimeMillis))
+          .filter(Objects::nonNull)
+          .collect(toImmutableList());
+    }
+  }
+
+  private static final class TopLevelBuilder {
+    @Nullable String configId;
+    final Set<String> outputGroups = new LinkedHashSet<>();
+    final Set<String> targets = new LinkedHashSet<>();
+  }
+}
@@ -32,8 +32,10 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import javax.annotation.Nullable;
 
@@ -54,21 +56,72 @@ public final class BuildEventProtocolOutputReader {
    */
   public static BlazeTestResults parseTestResults(BuildEventStreamProvider streamProvider)
       throws BuildEventStreamException {
-    Map<String, String> configIdToMnemonic = new HashMap<>();
-    Map<String, Kind> labelToKind = new HashMap<>();
-    Map<String, String> labelToMnemonic = new HashMap<>();
-    long startTimeMillis = 0L;
+    TestResultParser parser = new TestResultParser();
     ImmutableList.Builder<BlazeTestResult> results = ImmutableList.builder();
     BuildEventStreamProtos.BuildEvent event;
     while ((event = streamProvider.getNext()) != null) {
+      BlazeTestResult result = parser.parse(event);
+      if (result != null) {
+        results.add(result);
+      }
+    }
+    return BlazeTestResults.fromFlatList(results.build());
+  }
+
+  /**
+   * Reads test results from {@link BuildEventStreamProvider} as they're reported, passing the
+   * results of each target to {@code consumer} as soon as BEP reports its test summary, i.e. once
+   * all its shards, runs and attempts have finished. Results of any targets without a test summary
+   * are passed on once the end of the stream is reached.
+   *
+   * @throws BuildEventStreamException if the BEP {@link BuildEventStreamProvider} is incorrectly
+   *     formatted
+   */
+  public static void streamTestResults(
+      BuildEventStreamProvider streamProvider,
+      BiConsumer<Label, ImmutableList<BlazeTestResult>> consumer)
+      throws BuildEventStreamException {
+    TestResultParser parser = new TestResultParser();
+    Map<String, ImmutableList.Builder<BlazeTestResult>> pendingResults = new LinkedHashMap<>();
+    BuildEventStreamProtos.BuildEvent event;
+    while ((event = streamProvider.getNext()) != null) {
+      if (event.getId().getIdCase() == BuildEventStreamProtos.BuildEventId.IdCase.TEST_SUMMARY) {
+        String label = event.getId().getTestSummary().getLabel();
+        ImmutableList.Builder<BlazeTestResult> results = pendingResults.remove(label);
+        if (results != null) {
+          consumer.accept(Label.create(label), results.build());
+        }
+        continue;
+      }
+      BlazeTestResult result = parser.parse(event);
+      if (result != null) {
+        pendingResults
+            .computeIfAbsent(event.getId().getTestResult().getLabel(), l -> ImmutableList.builder())
+            .add(result);
+      }
+    }
+    pendingResults.forEach(
+        (label, results) -> consumer.accept(Label.create(label), results.build()));
+  }
+
+  /** Tracks the state needed to parse test results from a stream of build events. */
+  private static final class TestResultParser {
+    private final Map<String, String> configIdToMnemonic = new HashMap<>();
+    private final Map<String, Kind> labelToKind = new HashMap<>();
+    private final Map<String, String> labelToMnemonic = new HashMap<>();
+    private long startTimeMillis = 0L;
+
+    /** Returns the test result reported by the given event, if any. */
+    @Nullable
+    BlazeTestResult parse(BuildEventStreamProtos.BuildEvent event) {
       switch (event.getId().getIdCase()) {
         case STARTED:
           startTimeMillis = event.getStarted().getStartTimeMillis();
-          continue;
+          return null;
         case CONFIGURATION:
           configIdToMnemonic.put(
               event.getId().getConfiguration().getId(), event.getConfiguration().getMnemonic());
-          continue;
+          return null;
         case TARGET_COMPLETED:
           String label = event.getId().getTargetCompleted().getLabel();
           labelToMnemonic.put(
@@ -79,28 +132,26 @@ public final class BuildEventProtocolOutputReader {
           if (kind != null) {
             labelToKind.put(label, kind);
           }
-          continue;
+          return null;
         case TARGET_CONFIGURED:
           label = event.getId().getTargetConfigured().getLabel();
           kind = parseTargetKind(event.getConfigured().getTargetKind());
           if (kind != null) {
             labelToKind.put(label, kind);
           }
-          continue;
+          return null;
         case TEST_RESULT:
           label = event.getId().getTestResult().getLabel();
-          results.add(
-              parseTestResult(
-                  label,
-                  labelToKind.get(label),
-                  labelToMnemonic.get(label),
-                  event.getTestResult(),
-                  startTimeMillis));
-          continue;
-        default: // continue
+          return parseTestResult(
+              label,
+              labelToKind.get(label),
+              labelToMnemonic.get(label),
+              event.getTestResult(),
+              startTimeMillis);
+        default:
+          return null;
       }
     }
-    return BlazeTestResults.fromFlatList(results.build());
   }
 
   /** Convert BEP 'target_kind' to our internal format */
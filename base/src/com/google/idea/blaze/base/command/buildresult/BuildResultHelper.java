@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.command.buildresult;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Interner;
 import com.google.idea.blaze.base.model.primitives.Label;
+import java.io.File;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Predicate;
@@ -32,6 +33,16 @@ public interface BuildResultHelper extends AutoCloseable {
    */
   List<String> getBuildFlags();
 
+  /**
+   * Returns the local file BEP output is written to during the build, if there is one.
+   *
+   * <p>The file may be read while the build is still running, e.g. via {@link
+   * TailingBuildEventStreamProvider}, to start processing build events before the build completes.
+   */
+  default Optional<File> getBepOutputFile() {
+    return Optional.empty();
+  }
+
   /**
    * Parses the BEP output data and returns the corresponding {@link ParsedBepOutput}. May only be
    * called once, after the build is complete.
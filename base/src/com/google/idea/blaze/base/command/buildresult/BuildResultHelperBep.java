@@ -46,6 +46,11 @@ public class BuildResultHelperBep implements BuildResultHelper {
     return BuildEventProtocolUtils.getBuildFlags(outputFile);
   }
 
+  @Override
+  public Optional<File> getBepOutputFile() {
+    return Optional.of(outputFile);
+  }
+
   @Override
   public ParsedBepOutput getBuildOutput(Optional<String> completedBuildId)
       throws GetArtifactsException {
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multimaps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.devtools.intellij.model.ProjectData.LocalFileOrOutputArtifact;
+import com.google.errorprone.annotations.MustBeClosed;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifactParser.LocalFileParser;
+import com.google.idea.blaze.base.command.buildresult.cas.BytestreamUri;
+import com.google.idea.blaze.base.command.buildresult.cas.CasBlobFetcher;
+import com.google.idea.blaze.base.command.buildresult.cas.ContentAddressableStorage;
+import com.google.idea.blaze.base.command.buildresult.cas.Digest;
+import com.google.idea.blaze.base.command.buildresult.cas.DigestDiskCache;
+import com.google.idea.blaze.base.filecache.ArtifactState;
+import com.google.idea.blaze.base.filecache.ArtifactStateProtoConverter;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * A blaze output artifact which was only uploaded to a remote cache, and is referenced by a
+ * 'bytestream://' URI (e.g. when building with --remote_download_minimal).
+ *
+ * <p>Contents are read from the {@link ContentAddressableStorage} registered for the URI's
+ * authority, via the local {@link DigestDiskCache}.
+ */
+public final class CasOutputArtifact implements RemoteOutputArtifact {
+
+  private static final Logger logger = Logger.getInstance(CasOutputArtifact.class);
+
+  private final BytestreamUri uri;
+  private final String hashId;
+  private final String blazeOutRelativePath;
+  private final String configurationMnemonic;
+  private final long syncStartTimeMillis;
+
+  private CasOutputArtifact(
+      BytestreamUri uri,
+      String hashId,
+      String blazeOutRelativePath,
+      String configurationMnemonic,
+      long syncStartTimeMillis) {
+    this.uri = uri;
+    this.hashId = hashId;
+    this.blazeOutRelativePath = blazeOutRelativePath;
+    this.configurationMnemonic = configurationMnemonic;
+    this.syncStartTimeMillis = syncStartTimeMillis;
+  }
+
+  /** Returns the artifact for the given 'bytestream://' URI, or null if it isn't valid. */
+  @Nullable
+  public static CasOutputArtifact create(
+      String uri,
+      String blazeOutRelativePath,
+      String configurationMnemonic,
+      long syncStartTimeMillis) {
+    BytestreamUri parsed = BytestreamUri.parse(uri);
+    return parsed != null
+        ? new CasOutputArtifact(
+            parsed, uri, blazeOutRelativePath, configurationMnemonic, syncStartTimeMillis)
+        : null;
+  }
+
+  /**
+   * Fetches any of the given artifacts which aren't yet in the local {@link DigestDiskCache}. Blobs
+   * from the same remote instance are read in batches, each batch running on the given executor.
+   * Artifacts of any other type are ignored.
+   */
+  public static ListenableFuture<?> fetchAll(
+      Collection<? extends RemoteOutputArtifact> artifacts, ListeningExecutorService executor) {
+    ImmutableListMultimap<ImmutableList<String>, CasOutputArtifact> byInstance =
+        Multimaps.index(
+            Iterables.filter(artifacts, CasOutputArtifact.class),
+            a -> ImmutableList.of(a.uri.authority(), a.uri.instanceName()));
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    for (ImmutableList<String> instance : byInstance.keySet()) {
+      ContentAddressableStorage storage = ContentAddressableStorage.forAuthority(instance.get(0));
+      if (storage == null) {
+        // reading these artifacts will fail later, with a more specific error
+        logger.warn("No remote cache client for " + instance.get(0));
+        continue;
+      }
+      futures.add(
+          new CasBlobFetcher(storage, instance.get(1), DigestDiskCache.getInstance())
+              .fetch(
+                  byInstance.get(instance).stream()
+                      .map(CasOutputArtifact::getDigest)
+                      .collect(toImmutableList()),
+                  executor));
+    }
+    return Futures.allAsList(futures);
+  }
+
+  public Digest getDigest() {
+    return uri.digest();
+  }
+
+  @Override
+  public long getLength() {
+    return uri.digest().sizeBytes();
+  }
+
+  @Override
+  @MustBeClosed
+  public BufferedInputStream getInputStream() throws IOException {
+    return new BufferedInputStream(new FileInputStream(fetch()));
+  }
+
+  /**
+   * Places the artifact's contents at the given path, hard-linking to the {@link DigestDiskCache}
+   * where possible so the contents aren't stored twice.
+   */
+  public void copyTo(Path destination) throws IOException {
+    Path cached = fetch().toPath();
+    Files.deleteIfExists(destination);
+    try {
+      Files.createLink(destination, cached);
+    } catch (IOException | UnsupportedOperationException e) {
+      Files.copy(cached, destination, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /** Returns the blob in the local {@link DigestDiskCache}, fetching it first if necessary. */
+  private File fetch() throws IOException {
+    DigestDiskCache cache = DigestDiskCache.getInstance();
+    File cached = cache.get(uri.digest());
+    if (cached != null) {
+      return cached;
+    }
+    ContentAddressableStorage storage = ContentAddressableStorage.forAuthority(uri.authority());
+    if (storage == null) {
+      throw new FileNotFoundException("No remote cache client for " + hashId);
+    }
+    new CasBlobFetcher(storage, uri.instanceName(), cache).fetch(ImmutableList.of(uri.digest()));
+    cached = cache.get(uri.digest());
+    if (cached == null) {
+      throw new FileNotFoundException("Failed to fetch " + hashId);
+    }
+    return cached;
+  }
+
+  @Override
+  public void prefetch() {
+    try {
+      fetch();
+    } catch (IOException e) {
+      logger.warn("Failed to prefetch " + this, e);
+    }
+  }
+
+  @Override
+  public String getHashId() {
+    return hashId;
+  }
+
+  @Override
+  public long getSyncTimeMillis() {
+    return syncStartTimeMillis;
+  }
+
+  @Override
+  public String getConfigurationMnemonic() {
+    return configurationMnemonic;
+  }
+
+  @Override
+  public String getRelativePath() {
+    return blazeOutRelativePath;
+  }
+
+  @Override
+  public ArtifactState toArtifactState() {
+    return new State(blazeOutRelativePath, hashId, syncStartTimeMillis);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    }
+    if (!(obj instanceof CasOutputArtifact)) {
+      return false;
+    }
+    CasOutputArtifact that = (CasOutputArtifact) obj;
+    return blazeOutRelativePath.equals(that.blazeOutRelativePath) && hashId.equals(that.hashId);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(blazeOutRelativePath, hashId);
+  }
+
+  @Override
+  public String toString() {
+    return blazeOutRelativePath;
+  }
+
+  /** Serialization state of a {@link CasOutputArtifact}. */
+  static final class State implements ArtifactState {
+    private final String blazeOutPath;
+    private final String hashId;
+    private final long syncStartTimeMillis;
+
+    State(String blazeOutPath, String hashId, long syncStartTimeMillis) {
+      this.blazeOutPath = blazeOutPath;
+      this.hashId = hashId;
+      this.syncStartTimeMillis = syncStartTimeMillis;
+    }
+
+    @Override
+    public String getKey() {
+      return blazeOutPath;
+    }
+
+    /** The contents only changed if the digest (and therefore the URI) changed. */
+    @Override
+    public boolean isMoreRecent(ArtifactState output) {
+      if (!(output instanceof State)) {
+        return true;
+      }
+      State that = (State) output;
+      return !hashId.equals(that.hashId) && syncStartTimeMillis <= that.syncStartTimeMillis;
+    }
+
+    @Override
+    public LocalFileOrOutputArtifact serializeToProto() {
+      return LocalFileOrOutputArtifact.newBuilder()
+          .setArtifact(
+              ProjectData.OutputArtifact.newBuilder()
+                  .setRelativePath(blazeOutPath)
+                  .setId(hashId)
+                  .setSyncStartTimeMillis(syncStartTimeMillis))
+          .build();
+    }
+
+    @Override
+    public int hashCode() {
+      return blazeOutPath.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (obj == this) {
+        return true;
+      }
+      return obj instanceof State && blazeOutPath.equals(((State) obj).blazeOutPath);
+    }
+  }
+
+  /**
+   * Parses 'bytestream://' URIs in the build event protocol, if a {@link ContentAddressableStorage}
+   * is available for them.
+   */
+  public static class BepParser implements OutputArtifactParser {
+    @Override
+    @Nullable
+    public OutputArtifact parse(
+        BuildEventStreamProtos.File file, String configurationMnemonic, long syncStartTimeMillis) {
+      String uri = file.getUri();
+      if (!uri.startsWith(BytestreamUri.SCHEME)) {
+        return null;
+      }
+      CasOutputArtifact artifact =
+          create(
+              uri,
+              LocalFileParser.getBlazeOutRelativePath(file, configurationMnemonic),
+              configurationMnemonic,
+              syncStartTimeMillis);
+      if (artifact == null
+          || ContentAddressableStorage.forAuthority(artifact.uri.authority()) == null) {
+        return null;
+      }
+      return artifact;
+    }
+  }
+
+  /** Restores serialized {@link CasOutputArtifact}s. */
+  public static class ProtoParser implements RemoteOutputArtifact.Parser {
+    @Override
+    @Nullable
+    public RemoteOutputArtifact parseProto(ProjectData.OutputArtifact proto) {
+      if (!proto.getId().startsWith(BytestreamUri.SCHEME)) {
+        return null;
+      }
+      String relativePath = proto.getRelativePath();
+      // the blaze-out-relative path starts with the configuration mnemonic
+      int mnemonicEnd = relativePath.indexOf('/');
+      return create(
+          proto.getId(),
+          relativePath,
+          mnemonicEnd == -1 ? "" : relativePath.substring(0, mnemonicEnd),
+          proto.getSyncStartTimeMillis());
+    }
+  }
+
+  /** Restores serialized {@link State}s. */
+  public static class StateConverter implements ArtifactStateProtoConverter {
+    @Override
+    @Nullable
+    public ArtifactState parseProto(LocalFileOrOutputArtifact proto) {
+      if (!proto.hasArtifact() || !proto.getArtifact().getId().startsWith(BytestreamUri.SCHEME)) {
+        return null;
+      }
+      ProjectData.OutputArtifact artifact = proto.getArtifact();
+      return new State(
+          artifact.getRelativePath(), artifact.getId(), artifact.getSyncStartTimeMillis());
+    }
+  }
+}
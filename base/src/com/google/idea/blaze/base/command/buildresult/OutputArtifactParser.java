@@ -72,7 +72,7 @@ public interface OutputArtifactParser {
       }
     }
 
-    private static String getBlazeOutRelativePath(
+    static String getBlazeOutRelativePath(
         BuildEventStreamProtos.File file, String configurationMnemonic) {
       List<String> pathPrefixList = file.getPathPrefixList();
       if (pathPrefixList.size() <= 1) {
@@ -24,30 +24,20 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Interners;
-import com.google.common.collect.Queues;
-import com.google.common.collect.SetMultimap;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
-import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.aspects.BuildResult;
 import java.io.InputStream;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Queue;
-import java.util.Set;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 import javax.annotation.Nullable;
 
 /** A data class representing blaze's build event protocol (BEP) output for a build. */
@@ -82,9 +72,7 @@ public final class ParsedBepOutput {
 
     BuildEventStreamProtos.BuildEvent event;
     Map<String, String> configIdToMnemonic = new HashMap<>();
-    Set<String> topLevelFileSets = new HashSet<>();
-    Map<String, FileSet.Builder> fileSets = new LinkedHashMap<>();
-    ImmutableSetMultimap.Builder<String, String> targetToFileSets = ImmutableSetMultimap.builder();
+    BepFileSetIndex.Builder fileSets = BepFileSetIndex.builder();
     String localExecRoot = null;
     String buildId = null;
     long startTimeMillis = 0L;
@@ -102,11 +90,9 @@ public final class ParsedBepOutput {
               event.getId().getConfiguration().getId(), event.getConfiguration().getMnemonic());
           continue;
         case NAMED_SET:
-          NamedSetOfFiles namedSet = internNamedSet(event.getNamedSetOfFiles(), interner);
-          fileSets.compute(
+          fileSets.addNamedSet(
               event.getId().getNamedSet().getId(),
-              (k, v) ->
-                  v != null ? v.setNamedSet(namedSet) : FileSet.builder().setNamedSet(namedSet));
+              internNamedSet(event.getNamedSetOfFiles(), interner));
           continue;
         case TARGET_COMPLETED:
           String label = event.getId().getTargetCompleted().getLabel();
@@ -115,23 +101,7 @@ public final class ParsedBepOutput {
           event
               .getCompleted()
               .getOutputGroupList()
-              .forEach(
-                  o -> {
-                    List<String> sets = getFileSets(o);
-                    targetToFileSets.putAll(label, sets);
-                    topLevelFileSets.addAll(sets);
-                    for (String id : sets) {
-                      fileSets.compute(
-                          id,
-                          (k, v) -> {
-                            FileSet.Builder builder = (v != null) ? v : FileSet.builder();
-                            return builder
-                                .setConfigId(configId)
-                                .addOutputGroups(ImmutableSet.of(o.getName()))
-                                .addTargets(ImmutableSet.of(label));
-                          });
-                    }
-                  });
+              .forEach(o -> fileSets.addOutputGroup(label, configId, o.getName(), getFileSets(o)));
           continue;
         case STARTED:
           buildId = Strings.emptyToNull(event.getStarted().getUuid());
@@ -148,14 +118,10 @@ public final class ParsedBepOutput {
     if (emptyBuildEventStream) {
       throw new BuildEventStreamException("No build events found");
     }
-    ImmutableMap<String, FileSet> filesMap =
-        fillInTransitiveFileSetData(
-            fileSets, topLevelFileSets, configIdToMnemonic, startTimeMillis);
     return new ParsedBepOutput(
         buildId,
         localExecRoot,
-        filesMap,
-        targetToFileSets.build(),
+        fileSets.build(configIdToMnemonic, startTimeMillis),
         startTimeMillis,
         buildResult,
         stream.getBytesConsumed());
@@ -167,50 +133,13 @@ public final class ParsedBepOutput {
         .collect(Collectors.toList());
   }
 
-  /**
-   * Only top-level targets have configuration mnemonic, producing target, and output group data
-   * explicitly provided in BEP. This method fills in that data for the transitive closure.
-   */
-  private static ImmutableMap<String, FileSet> fillInTransitiveFileSetData(
-      Map<String, FileSet.Builder> fileSets,
-      Set<String> topLevelFileSets,
-      Map<String, String> configIdToMnemonic,
-      long startTimeMillis) {
-    Queue<String> toVisit = Queues.newArrayDeque(topLevelFileSets);
-    Set<String> visited = new HashSet<>(topLevelFileSets);
-    while (!toVisit.isEmpty()) {
-      String setId = toVisit.remove();
-      FileSet.Builder fileSet = fileSets.get(setId);
-      if (fileSet.namedSet == null) {
-        continue;
-      }
-      fileSet.namedSet.getFileSetsList().stream()
-          .map(NamedSetOfFilesId::getId)
-          .filter(s -> !visited.contains(s))
-          .forEach(
-              child -> {
-                fileSets.get(child).updateFromParent(fileSet);
-                toVisit.add(child);
-                visited.add(child);
-              });
-    }
-    return fileSets.entrySet().stream()
-        .filter(e -> e.getValue().isValid(configIdToMnemonic))
-        .collect(
-            toImmutableMap(
-                Map.Entry::getKey, e -> e.getValue().build(configIdToMnemonic, startTimeMillis)));
-  }
-
   @Nullable public final String buildId;
 
   /** A path to the local execroot */
   @Nullable private final String localExecRoot;
 
-  /** A map from file set ID to file set, with the same ordering as the BEP stream. */
-  private final ImmutableMap<String, FileSet> fileSets;
-
-  /** The set of named file sets directly produced by each target. */
-  private final SetMultimap<String, String> targetFileSets;
+  /** The named sets of files reported in BEP, and the output groups and targets they belong to. */
+  private final BepFileSetIndex fileSets;
 
   final long syncStartTimeMillis;
 
@@ -221,15 +150,13 @@ public final class ParsedBepOutput {
   public ParsedBepOutput(
       @Nullable String buildId,
       @Nullable String localExecRoot,
-      ImmutableMap<String, FileSet> fileSets,
-      ImmutableSetMultimap<String, String> targetFileSets,
+      BepFileSetIndex fileSets,
       long syncStartTimeMillis,
       BuildResult buildResult,
       long bepBytesConsumed) {
     this.buildId = buildId;
     this.localExecRoot = localExecRoot;
     this.fileSets = fileSets;
-    this.targetFileSets = targetFileSets;
     this.syncStartTimeMillis = syncStartTimeMillis;
     this.buildResult = buildResult;
     this.bepBytesConsumed = bepBytesConsumed;
@@ -252,9 +179,7 @@ public final class ParsedBepOutput {
 
   /** Returns all output artifacts of the build. */
   public ImmutableSet<OutputArtifact> getAllOutputArtifacts(Predicate<String> pathFilter) {
-    return fileSets.values().stream()
-        .map(s -> s.parsedOutputs)
-        .flatMap(List::stream)
+    return fileSets.getAllArtifacts().stream()
         .filter(o -> pathFilter.test(o.getRelativePath()))
         .collect(toImmutableSet());
   }
@@ -262,21 +187,15 @@ public final class ParsedBepOutput {
   /** Returns the set of artifacts directly produced by the given target. */
   public ImmutableSet<OutputArtifact> getDirectArtifactsForTarget(
       Label label, Predicate<String> pathFilter) {
-    return targetFileSets.get(label.toString()).stream()
-        .map(s -> fileSets.get(s).parsedOutputs)
-        .flatMap(List::stream)
+    return fileSets.getDirectArtifactsForTarget(label.toString()).stream()
         .filter(o -> pathFilter.test(o.getRelativePath()))
         .collect(toImmutableSet());
   }
 
   public ImmutableList<OutputArtifact> getOutputGroupArtifacts(
       String outputGroup, Predicate<String> pathFilter) {
-    return fileSets.values().stream()
-        .filter(f -> f.outputGroups.contains(outputGroup))
-        .map(f -> f.parsedOutputs)
-        .flatMap(List::stream)
+    return fileSets.getOutputGroupArtifacts(outputGroup).stream()
         .filter(o -> pathFilter.test(o.getRelativePath()))
-        .distinct()
         .collect(toImmutableList());
   }
 
@@ -285,92 +204,11 @@ public final class ParsedBepOutput {
    * the build.
    */
   public ImmutableMap<String, BepArtifactData> getFullArtifactData() {
-    return fileSets.values().stream()
-        .flatMap(FileSet::toPerArtifactData)
+    return fileSets
+        .getArtifactData()
         .collect(toImmutableMap(d -> d.artifact.getKey(), d -> d, BepArtifactData::update));
   }
 
-  private static ImmutableList<OutputArtifact> parseFiles(
-      NamedSetOfFiles namedSet, String config, long startTimeMillis) {
-    return namedSet.getFilesList().stream()
-        .map(f -> OutputArtifactParser.parseArtifact(f, config, startTimeMillis))
-        .filter(Objects::nonNull)
-        .collect(toImmutableList());
-  }
-
-  private static class FileSet {
-    private final ImmutableList<OutputArtifact> parsedOutputs;
-    private final ImmutableSet<String> outputGroups;
-    private final ImmutableSet<String> targets;
-
-    FileSet(
-        NamedSetOfFiles namedSet,
-        String configuration,
-        long startTimeMillis,
-        Set<String> outputGroups,
-        Set<String> targets) {
-      this.parsedOutputs = parseFiles(namedSet, configuration, startTimeMillis);
-      this.outputGroups = ImmutableSet.copyOf(outputGroups);
-      this.targets = ImmutableSet.copyOf(targets);
-    }
-
-    static Builder builder() {
-      return new Builder();
-    }
-
-    private Stream<BepArtifactData> toPerArtifactData() {
-      return parsedOutputs.stream().map(a -> new BepArtifactData(a, outputGroups, targets));
-    }
-
-    private static class Builder {
-      @Nullable NamedSetOfFiles namedSet;
-      @Nullable String configId;
-      final Set<String> outputGroups = new HashSet<>();
-      final Set<String> targets = new HashSet<>();
-
-      @CanIgnoreReturnValue
-      Builder updateFromParent(Builder parent) {
-        configId = parent.configId;
-        outputGroups.addAll(parent.outputGroups);
-        targets.addAll(parent.targets);
-        return this;
-      }
-
-      @CanIgnoreReturnValue
-      Builder setNamedSet(NamedSetOfFiles namedSet) {
-        this.namedSet = namedSet;
-        return this;
-      }
-
-      @CanIgnoreReturnValue
-      Builder setConfigId(String configId) {
-        this.configId = configId;
-        return this;
-      }
-
-      @CanIgnoreReturnValue
-      Builder addOutputGroups(Set<String> outputGroups) {
-        this.outputGroups.addAll(outputGroups);
-        return this;
-      }
-
-      @CanIgnoreReturnValue
-      Builder addTargets(Set<String> targets) {
-        this.targets.addAll(targets);
-        return this;
-      }
-
-      boolean isValid(Map<String, String> configIdToMnemonic) {
-        return namedSet != null && configId != null && configIdToMnemonic.get(configId) != null;
-      }
-
-      FileSet build(Map<String, String> configIdToMnemonic, long startTimeMillis) {
-        return new FileSet(
-            namedSet, configIdToMnemonic.get(configId), startTimeMillis, outputGroups, targets);
-      }
-    }
-  }
-
   /**
    * Returns a copy of a {@link BuildEventStreamProtos.NamedSetOfFiles} with interned string
    * references.
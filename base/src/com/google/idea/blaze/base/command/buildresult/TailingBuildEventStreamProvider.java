@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import com.google.common.io.CountingInputStream;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BuildEventStreamProvider} reading a BEP output file which may still be written to by a
+ * running build.
+ *
+ * <p>Reaching the end of the file blocks until either more data is written, or {@link
+ * #buildFinished} is called. Partially written events are therefore never observed.
+ */
+public final class TailingBuildEventStreamProvider
+    implements BuildEventStreamProvider, AutoCloseable {
+
+  private static final long POLL_INTERVAL_MILLIS = 50;
+
+  private final TailingInputStream tailingStream;
+  private final CountingInputStream countingStream;
+
+  public TailingBuildEventStreamProvider(File bepOutputFile) {
+    this.tailingStream = new TailingInputStream(bepOutputFile);
+    this.countingStream = new CountingInputStream(new BufferedInputStream(tailingStream));
+  }
+
+  /**
+   * Signals that the build has finished writing to the BEP output file. Subsequent reads return
+   * the remaining events, then end-of-stream.
+   */
+  public void buildFinished() {
+    tailingStream.finished = true;
+  }
+
+  @Nullable
+  @Override
+  public BuildEvent getNext() throws BuildEventStreamException {
+    return BuildEventStreamProvider.parseNextEventFromStream(countingStream);
+  }
+
+  @Override
+  public long getBytesConsumed() {
+    return countingStream.getCount();
+  }
+
+  @Override
+  public void close() {
+    buildFinished();
+    try {
+      tailingStream.close();
+    } catch (IOException e) {
+      // ignore -- the file is read-only from our side
+    }
+  }
+
+  /** An {@link InputStream} which polls for more data at end-of-file until told otherwise. */
+  private static class TailingInputStream extends InputStream {
+    private final File file;
+    @Nullable private InputStream delegate;
+    private volatile boolean finished = false;
+
+    TailingInputStream(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      int read = read(b, 0, 1);
+      return read == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (true) {
+        // read the flag before reading from the file, so we never miss data written just before
+        // the build finished
+        boolean finishedBeforeRead = finished;
+        if (delegate == null && file.exists()) {
+          delegate = new FileInputStream(file);
+        }
+        if (delegate != null) {
+          int read = delegate.read(b, off, len);
+          if (read > 0) {
+            return read;
+          }
+        }
+        if (finishedBeforeRead) {
+          return -1;
+        }
+        try {
+          Thread.sleep(POLL_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for build events");
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (delegate != null) {
+        delegate.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult.cas;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A parsed 'bytestream://' URI, as reported in the build event protocol for outputs which were
+ * only uploaded to a remote cache, of the form:
+ *
+ * <pre>bytestream://{authority}/[{instance_name}/]blobs/{hash}/{size}</pre>
+ */
+@AutoValue
+public abstract class BytestreamUri {
+
+  public static final String SCHEME = "bytestream://";
+
+  private static final CharMatcher HEX = CharMatcher.anyOf("0123456789abcdef");
+
+  /** Returns the parsed URI, or null if it isn't a valid 'bytestream://' blob URI. */
+  @Nullable
+  public static BytestreamUri parse(String uri) {
+    if (!uri.startsWith(SCHEME)) {
+      return null;
+    }
+    String rest = uri.substring(SCHEME.length());
+    int authorityEnd = rest.indexOf('/');
+    if (authorityEnd <= 0) {
+      return null;
+    }
+    List<String> segments = Splitter.on('/').splitToList(rest.substring(authorityEnd + 1));
+    int blobs = segments.size() - 3;
+    if (blobs < 0 || !segments.get(blobs).equals("blobs")) {
+      return null;
+    }
+    String hash = segments.get(blobs + 1);
+    if (hash.isEmpty() || !HEX.matchesAllOf(hash)) {
+      return null;
+    }
+    long sizeBytes;
+    try {
+      sizeBytes = Long.parseLong(segments.get(blobs + 2));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (sizeBytes < 0) {
+      return null;
+    }
+    return new AutoValue_BytestreamUri(
+        rest.substring(0, authorityEnd),
+        Joiner.on('/').join(segments.subList(0, blobs)),
+        Digest.create(hash, sizeBytes));
+  }
+
+  /** The host (and optional port) of the remote cache. */
+  public abstract String authority();
+
+  /** The remote instance name, or an empty string for the default instance. */
+  public abstract String instanceName();
+
+  public abstract Digest digest();
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult.cas;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Copies blobs from a {@link ContentAddressableStorage} into a {@link DigestDiskCache}.
+ *
+ * <p>Small blobs are grouped into as few batch reads as the storage's batch size limit allows.
+ * Blobs too large to fit in a batch are streamed individually.
+ */
+public final class CasBlobFetcher {
+
+  private final ContentAddressableStorage storage;
+  private final String instanceName;
+  private final DigestDiskCache cache;
+
+  public CasBlobFetcher(
+      ContentAddressableStorage storage, String instanceName, DigestDiskCache cache) {
+    this.storage = storage;
+    this.instanceName = instanceName;
+    this.cache = cache;
+  }
+
+  /**
+   * Fetches all blobs which aren't already cached, running each batch read or streamed read as a
+   * separate task on the given executor.
+   */
+  public ListenableFuture<?> fetch(Collection<Digest> digests, ListeningExecutorService executor) {
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    for (List<Digest> batch : planBatches(digests)) {
+      futures.add(
+          executor.submit(
+              () -> {
+                fetchBatch(batch);
+                return null;
+              }));
+    }
+    return Futures.allAsList(futures);
+  }
+
+  /** Fetches all blobs which aren't already cached, on the calling thread. */
+  public void fetch(Collection<Digest> digests) throws IOException {
+    for (List<Digest> batch : planBatches(digests)) {
+      fetchBatch(batch);
+    }
+  }
+
+  /**
+   * Groups the uncached digests into batches no larger than the storage's batch size limit. Blobs
+   * larger than the limit each get a batch of their own, and are streamed.
+   */
+  @VisibleForTesting
+  ImmutableList<List<Digest>> planBatches(Collection<Digest> digests) {
+    long maxBatchSize = storage.getMaxBatchSizeBytes();
+    ImmutableList.Builder<List<Digest>> batches = ImmutableList.builder();
+    List<Digest> batch = new ArrayList<>();
+    long batchSize = 0;
+    Set<Digest> unique = new LinkedHashSet<>(digests);
+    for (Digest digest : unique) {
+      if (cache.get(digest) != null) {
+        continue;
+      }
+      if (digest.sizeBytes() > maxBatchSize) {
+        batches.add(ImmutableList.of(digest));
+        continue;
+      }
+      if (batchSize + digest.sizeBytes() > maxBatchSize) {
+        batches.add(batch);
+        batch = new ArrayList<>();
+        batchSize = 0;
+      }
+      batch.add(digest);
+      batchSize += digest.sizeBytes();
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches.build();
+  }
+
+  private void fetchBatch(List<Digest> batch) throws IOException {
+    if (batch.size() == 1 && batch.get(0).sizeBytes() > storage.getMaxBatchSizeBytes()) {
+      Digest digest = batch.get(0);
+      try (InputStream stream = storage.read(instanceName, digest)) {
+        cache.put(digest, stream);
+      }
+      return;
+    }
+    Map<Digest, byte[]> blobs = storage.batchReadBlobs(instanceName, batch);
+    for (Digest digest : batch) {
+      byte[] content = blobs.get(digest);
+      if (content == null) {
+        throw new FileNotFoundException("Blob " + digest + " not found in the remote cache");
+      }
+      cache.put(digest, content);
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult.cas;
+
+import com.google.errorprone.annotations.MustBeClosed;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * A client for a remote content-addressable store of build outputs, mirroring the Remote Execution
+ * API's ContentAddressableStorage.BatchReadBlobs and ByteStream.Read methods.
+ */
+public interface ContentAddressableStorage {
+
+  /** The batch size limit to use if the server doesn't report one (the default gRPC limit). */
+  long DEFAULT_MAX_BATCH_SIZE_BYTES = 4L * 1024 * 1024;
+
+  /** Returns the storage for the given 'bytestream://' URI authority, or null if there is none. */
+  @Nullable
+  static ContentAddressableStorage forAuthority(String authority) {
+    return Arrays.stream(Provider.EP_NAME.getExtensions())
+        .map(p -> p.getStorage(authority))
+        .filter(Objects::nonNull)
+        .findFirst()
+        .orElse(null);
+  }
+
+  /**
+   * Reads several blobs in a single request. Blobs which aren't in the store are left out of the
+   * result.
+   */
+  Map<Digest, byte[]> batchReadBlobs(String instanceName, Collection<Digest> digests)
+      throws IOException;
+
+  /**
+   * Streams the contents of a single blob, for blobs too large to be read in a batch.
+   *
+   * @throws FileNotFoundException if the blob isn't in the store
+   */
+  @MustBeClosed
+  InputStream read(String instanceName, Digest digest) throws IOException;
+
+  /** The maximum total size of the blobs read in a single {@link #batchReadBlobs} call. */
+  default long getMaxBatchSizeBytes() {
+    return DEFAULT_MAX_BATCH_SIZE_BYTES;
+  }
+
+  /** Provides clients for the remote caches referenced by BEP 'bytestream://' URIs. */
+  interface Provider {
+    ExtensionPointName<Provider> EP_NAME =
+        ExtensionPointName.create("com.google.idea.blaze.ContentAddressableStorageProvider");
+
+    /** Returns a client for the given URI authority, or null if this provider doesn't handle it. */
+    @Nullable
+    ContentAddressableStorage getStorage(String authority);
+  }
+}
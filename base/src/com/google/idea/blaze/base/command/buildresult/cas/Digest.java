@@ -0,0 +1,55 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult.cas;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/** Identifies a blob in a {@link ContentAddressableStorage} by its hash and size. */
+@AutoValue
+public abstract class Digest {
+
+  /** The length of a hex-encoded SHA-256 hash, the Remote Execution API's default. */
+  private static final int SHA256_HEX_LENGTH = 64;
+
+  public static Digest create(String hash, long sizeBytes) {
+    return new AutoValue_Digest(hash, sizeBytes);
+  }
+
+  /** Returns the SHA-256 digest of the given bytes. */
+  public static Digest of(byte[] content) {
+    return create(Hashing.sha256().hashBytes(content).toString(), content.length);
+  }
+
+  /** The lowercase, hex-encoded hash of the blob. */
+  public abstract String hash();
+
+  public abstract long sizeBytes();
+
+  /**
+   * Returns true if the given content hash matches this digest. Only SHA-256 hashes can be
+   * verified; digests using any other function match any content.
+   */
+  boolean matches(HashCode sha256) {
+    return hash().length() != SHA256_HEX_LENGTH || hash().equals(sha256.toString());
+  }
+
+  @Override
+  public final String toString() {
+    return hash() + "/" + sizeBytes();
+  }
+}
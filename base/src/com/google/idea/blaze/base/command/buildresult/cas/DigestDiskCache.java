@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult.cas;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.ByteStreams;
+import com.google.errorprone.annotations.Keep;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import javax.annotation.Nullable;
+
+/**
+ * A local, digest-keyed cache of blobs read from a {@link ContentAddressableStorage}, shared by all
+ * projects.
+ *
+ * <p>Blobs are verified against their digest before being added. Once the cache has grown by a
+ * tenth of its maximum size, the least recently used blobs are deleted.
+ *
+ * <p>Cached blobs are hard-linked into project output directories, so recency is tracked in memory
+ * rather than by touching the blobs' modification times. Blobs not used since startup are treated
+ * as older than any used blob, and ordered amongst themselves by modification time.
+ */
+public final class DigestDiskCache {
+
+  public static DigestDiskCache getInstance() {
+    return ServiceManager.getService(DigestDiskCache.class);
+  }
+
+  private static final Logger logger = Logger.getInstance(DigestDiskCache.class);
+
+  private static final long DEFAULT_MAX_SIZE_BYTES = 10L * 1024 * 1024 * 1024;
+
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+  private final File root;
+  private final long maxSizeBytes;
+  private final AtomicLong bytesAddedSinceTrim = new AtomicLong();
+  /** The order in which blobs were last used, keyed by path. Larger values are more recent. */
+  private final ConcurrentMap<Path, Long> lastUsed = new ConcurrentHashMap<>();
+  private final AtomicLong useCounter = new AtomicLong();
+
+  @Keep // Instantiated as an IntelliJ application service.
+  DigestDiskCache() {
+    this(new File(PathManager.getSystemPath(), "blaze/cas"), DEFAULT_MAX_SIZE_BYTES);
+  }
+
+  @VisibleForTesting
+  public DigestDiskCache(File root, long maxSizeBytes) {
+    this.root = root;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  /** Returns the cached blob with the given digest, or null if it isn't cached. */
+  @Nullable
+  public File get(Digest digest) {
+    Path path = getPath(digest);
+    try {
+      if (Files.size(path) != digest.sizeBytes()) {
+        return null;
+      }
+      markUsed(path);
+      return path.toFile();
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /** Adds a blob to the cache, returning the cached file. */
+  public File put(Digest digest, byte[] content) throws IOException {
+    return put(digest, new ByteArrayInputStream(content));
+  }
+
+  /**
+   * Adds a blob to the cache, returning the cached file.
+   *
+   * @throws IOException if the content doesn't match the digest
+   */
+  public File put(Digest digest, InputStream content) throws IOException {
+    Path path = getPath(digest);
+    Files.createDirectories(path.getParent());
+    Path temp =
+        Files.createTempFile(path.getParent(), path.getFileName().toString(), TEMP_FILE_SUFFIX);
+    try {
+      HashingInputStream hashing = new HashingInputStream(Hashing.sha256(), content);
+      long size;
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        size = ByteStreams.copy(hashing, out);
+      }
+      if (size != digest.sizeBytes() || !digest.matches(hashing.hash())) {
+        throw new IOException(
+            String.format("Blob %s doesn't match its digest (read %d bytes)", digest, size));
+      }
+      Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    markUsed(path);
+    if (bytesAddedSinceTrim.addAndGet(digest.sizeBytes()) > maxSizeBytes / 10) {
+      bytesAddedSinceTrim.set(0);
+      trimToSize(maxSizeBytes);
+    }
+    return path.toFile();
+  }
+
+  private void markUsed(Path path) {
+    lastUsed.put(path, useCounter.incrementAndGet());
+  }
+
+  /**
+   * Deletes the least recently used blobs until the cache is no larger than the given size.
+   * Temporary files still being written by {@link #put} are neither counted nor deleted.
+   */
+  @VisibleForTesting
+  void trimToSize(long sizeBytes) {
+    List<BlobFile> blobs = new ArrayList<>();
+    long totalBytes = 0;
+    try (Stream<Path> files = Files.walk(root.toPath(), 2)) {
+      for (Path path : (Iterable<Path>) files::iterator) {
+        if (!Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)
+            || path.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+          continue;
+        }
+        BlobFile blob =
+            new BlobFile(
+                path,
+                Files.size(path),
+                lastUsed.get(path),
+                Files.getLastModifiedTime(path).toMillis());
+        blobs.add(blob);
+        totalBytes += blob.size;
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to list the remote output cache at " + root, e);
+      return;
+    }
+    blobs.sort(
+        Comparator.comparing((BlobFile b) -> b.lastUsed != null)
+            .thenComparingLong(b -> b.lastUsed != null ? b.lastUsed : b.modifiedMillis));
+    for (BlobFile blob : blobs) {
+      if (totalBytes <= sizeBytes) {
+        return;
+      }
+      try {
+        Files.deleteIfExists(blob.path);
+        lastUsed.remove(blob.path);
+        totalBytes -= blob.size;
+      } catch (IOException e) {
+        logger.warn(e);
+      }
+    }
+  }
+
+  /** Blobs are sharded by the first two characters of their hash, to keep directories small. */
+  private Path getPath(Digest digest) {
+    String hash = digest.hash();
+    String name = hash + "_" + digest.sizeBytes();
+    return root.toPath().resolve(hash.substring(0, Math.min(2, hash.length()))).resolve(name);
+  }
+
+  private static final class BlobFile {
+    final Path path;
+    final long size;
+    @Nullable final Long lastUsed;
+    final long modifiedMillis;
+
+    BlobFile(Path path, long size, @Nullable Long lastUsed, long modifiedMillis) {
+      this.path = path;
+      this.size = size;
+      this.lastUsed = lastUsed;
+      this.modifiedMillis = modifiedMillis;
+    }
+  }
+}
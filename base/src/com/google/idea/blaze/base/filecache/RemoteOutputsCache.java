@@ -29,6 +29,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.errorprone.annotations.Keep;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.CasOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
@@ -241,9 +242,20 @@ public final class RemoteOutputsCache {
     updated.forEach(
         (key, artifact) ->
             futures.add(
-                FetchExecutor.EXECUTOR.submit(
+                FetchExecutor.forArtifact(artifact).submit(
                     () -> {
                       Path destination = new File(cacheDir, key).toPath();
+                      if (artifact instanceof CasOutputArtifact) {
+                        try {
+                          // shares the contents with the digest cache, where possible
+                          ((CasOutputArtifact) artifact).copyTo(destination);
+                        } catch (IOException e) {
+                          logger.warn(
+                              String.format("Fail to copy artifact %s to %s", artifact, cacheDir),
+                              e);
+                        }
+                        return;
+                      }
                       try (InputStream stream = artifact.getInputStream()) {
                         Files.copy(stream, destination, StandardCopyOption.REPLACE_EXISTING);
                       } catch (IOException e) {
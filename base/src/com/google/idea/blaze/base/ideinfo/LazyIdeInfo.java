@@ -0,0 +1,178 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * Holds one of a target's language-specific ide infos, either already decoded, or as its serialized
+ * proto, to be decoded on first access.
+ *
+ * <p>Most language-specific info is never read after sync, and the serialized proto is several
+ * times smaller than the decoded object graph. Decoded values are only softly reachable, so they're
+ * dropped again under memory pressure, and decoded afresh when next needed.
+ *
+ * <p>Holders are compared by their serialized protos, so that diffing target maps after a sync
+ * doesn't decode every info.
+ */
+abstract class LazyIdeInfo<P extends Message, T extends ProtoWrapper<P>>
+    implements ProtoWrapper<P> {
+
+  /** Returns the decoded value. */
+  abstract T get();
+
+  @Nullable
+  static <P extends Message, T extends ProtoWrapper<P>> LazyIdeInfo<P, T> of(@Nullable T value) {
+    return value != null ? new Decoded<>(value) : null;
+  }
+
+  /**
+   * Returns a holder which keeps {@code proto} serialized, decoding it with {@code decoder} when
+   * first accessed.
+   */
+  static <P extends Message, T extends ProtoWrapper<P>> LazyIdeInfo<P, T> lazy(
+      P proto, Parser<P> parser, Function<P, T> decoder) {
+    return new Serialized<>(serialize(proto), parser, decoder);
+  }
+
+  /**
+   * Serializes the proto deterministically, so that equal protos have equal bytes regardless of
+   * the iteration order of their map fields.
+   */
+  private static byte[] serialize(Message proto) {
+    byte[] bytes = new byte[proto.getSerializedSize()];
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    output.useDeterministicSerialization();
+    try {
+      proto.writeTo(output);
+    } catch (IOException e) {
+      // writing to a correctly sized array can't fail
+      throw new IllegalStateException(e);
+    }
+    output.checkNoSpaceLeft();
+    return bytes;
+  }
+
+  /** Returns the deterministically serialized proto. */
+  abstract byte[] serialized();
+
+  /** Returns whether the value is currently decoded and cached. */
+  @VisibleForTesting
+  abstract boolean isDecoded();
+
+  @Override
+  public final boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof LazyIdeInfo)) {
+      return false;
+    }
+    return Arrays.equals(serialized(), ((LazyIdeInfo<?, ?>) o).serialized());
+  }
+
+  @Override
+  public final int hashCode() {
+    return Arrays.hashCode(serialized());
+  }
+
+  private static final class Decoded<P extends Message, T extends ProtoWrapper<P>>
+      extends LazyIdeInfo<P, T> {
+    private final T value;
+
+    Decoded(T value) {
+      this.value = value;
+    }
+
+    @Override
+    T get() {
+      return value;
+    }
+
+    @Override
+    public P toProto() {
+      return value.toProto();
+    }
+
+    /** Only built values are held decoded, and they're rarely compared, so this isn't cached. */
+    @Override
+    byte[] serialized() {
+      return serialize(value.toProto());
+    }
+
+    @Override
+    boolean isDecoded() {
+      return true;
+    }
+  }
+
+  private static final class Serialized<P extends Message, T extends ProtoWrapper<P>>
+      extends LazyIdeInfo<P, T> {
+    private final byte[] bytes;
+    private final Parser<P> parser;
+    private final Function<P, T> decoder;
+    @Nullable private volatile SoftReference<T> cached;
+
+    Serialized(byte[] bytes, Parser<P> parser, Function<P, T> decoder) {
+      this.bytes = bytes;
+      this.parser = parser;
+      this.decoder = decoder;
+    }
+
+    @Override
+    T get() {
+      SoftReference<T> ref = cached;
+      T value = ref != null ? ref.get() : null;
+      if (value == null) {
+        // racing threads may each decode, but the results are equal
+        value = decoder.apply(toProto());
+        cached = new SoftReference<>(value);
+      }
+      return value;
+    }
+
+    /** Re-parses the serialized proto, without decoding it. */
+    @Override
+    public P toProto() {
+      try {
+        return parser.parseFrom(bytes);
+      } catch (InvalidProtocolBufferException e) {
+        // the bytes were serialized from a valid message
+        throw new IllegalStateException(e);
+      }
+    }
+
+    @Override
+    byte[] serialized() {
+      return bytes;
+    }
+
+    @Override
+    boolean isDecoded() {
+      SoftReference<T> ref = cached;
+      return ref != null && ref.get() != null;
+    }
+  }
+}
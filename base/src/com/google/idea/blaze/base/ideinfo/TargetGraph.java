@@ -0,0 +1,213 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A compact, int-indexed view of the dependency edges and source files of a {@link TargetMap}.
+ *
+ * <p>Every target is assigned a dense ID in target map iteration order, so targets occupy IDs
+ * {@code [0, getTargetCount())}. Dependency keys which aren't in the target map are assigned the
+ * IDs after that. Dependency edges and source files are stored in flat int arrays, with one offset
+ * per target (compressed sparse row layout), and each distinct source {@link ArtifactLocation} is
+ * stored once in a shared table.
+ *
+ * <p>The graph is a transient working structure for computing indexes derived from the target
+ * map. It isn't retained by the target map, so callers should drop it once they're done with it
+ * rather than holding on to it alongside the target map.
+ */
+public final class TargetGraph {
+
+  private final ImmutableList<TargetIdeInfo> targets;
+  private final int targetCount;
+  private final Map<TargetKey, Integer> ids;
+  private final TargetKey[] keys;
+
+  private final int[] dependencyOffsets;
+  private final int[] dependencies;
+
+  private final ArtifactLocation[] sources;
+  private final int[] sourceOffsets;
+  private final int[] sourceIds;
+
+  private TargetGraph(
+      ImmutableList<TargetIdeInfo> targets,
+      int targetCount,
+      Map<TargetKey, Integer> ids,
+      TargetKey[] keys,
+      int[] dependencyOffsets,
+      int[] dependencies,
+      ArtifactLocation[] sources,
+      int[] sourceOffsets,
+      int[] sourceIds) {
+    this.targets = targets;
+    this.targetCount = targetCount;
+    this.ids = ids;
+    this.keys = keys;
+    this.dependencyOffsets = dependencyOffsets;
+    this.dependencies = dependencies;
+    this.sources = sources;
+    this.sourceOffsets = sourceOffsets;
+    this.sourceIds = sourceIds;
+  }
+
+  public static TargetGraph create(TargetMap targetMap) {
+    ImmutableList<TargetIdeInfo> targets = targetMap.targets().asList();
+    int targetCount = targets.size();
+    Map<TargetKey, Integer> ids = new HashMap<>(targetCount * 2);
+    List<TargetKey> keys = new ArrayList<>(targetCount);
+    for (TargetIdeInfo target : targets) {
+      ids.put(target.getKey(), keys.size());
+      keys.add(target.getKey());
+    }
+
+    int[] dependencyOffsets = new int[targetCount + 1];
+    IntList dependencies = new IntList(targetCount * 4);
+    Map<ArtifactLocation, Integer> sourceTable = new HashMap<>();
+    List<ArtifactLocation> sources = new ArrayList<>();
+    int[] sourceOffsets = new int[targetCount + 1];
+    IntList sourceIds = new IntList(targetCount * 2);
+
+    for (int id = 0; id < targetCount; id++) {
+      TargetIdeInfo target = targets.get(id);
+      dependencyOffsets[id] = dependencies.size;
+      for (Dependency dep : target.getDependencies()) {
+        TargetKey depKey = dep.getTargetKey();
+        Integer depId = ids.get(depKey);
+        if (depId == null) {
+          depId = keys.size();
+          ids.put(depKey, depId);
+          keys.add(depKey);
+        }
+        dependencies.add(depId);
+      }
+      sourceOffsets[id] = sourceIds.size;
+      for (ArtifactLocation source : target.getSources()) {
+        Integer sourceId = sourceTable.get(source);
+        if (sourceId == null) {
+          sourceId = sources.size();
+          sourceTable.put(source, sourceId);
+          sources.add(source);
+        }
+        sourceIds.add(sourceId);
+      }
+    }
+    dependencyOffsets[targetCount] = dependencies.size;
+    sourceOffsets[targetCount] = sourceIds.size;
+
+    return new TargetGraph(
+        targets,
+        targetCount,
+        ids,
+        keys.toArray(new TargetKey[0]),
+        dependencyOffsets,
+        dependencies.toArray(),
+        sources.toArray(new ArtifactLocation[0]),
+        sourceOffsets,
+        sourceIds.toArray());
+  }
+
+  /** The number of targets in the target map. Target IDs are less than this value. */
+  public int getTargetCount() {
+    return targetCount;
+  }
+
+  /**
+   * The number of assigned IDs, including those of dependency keys which aren't in the target map.
+   */
+  public int getKeyCount() {
+    return keys.length;
+  }
+
+  /** Returns true if the given ID belongs to a target in the target map. */
+  public boolean isTarget(int id) {
+    return id < targetCount;
+  }
+
+  /** Returns the ID of the given key, or -1 if it isn't a target or a dependency of one. */
+  public int getId(TargetKey key) {
+    Integer id = ids.get(key);
+    return id != null ? id : -1;
+  }
+
+  public TargetKey getKey(int id) {
+    return keys[id];
+  }
+
+  /** Returns the target with the given ID, or null if the ID doesn't belong to a target. */
+  @Nullable
+  public TargetIdeInfo getTarget(int id) {
+    return isTarget(id) ? targets.get(id) : null;
+  }
+
+  /** The number of direct dependencies of the given target, including duplicates. */
+  public int getDependencyCount(int targetId) {
+    return dependencyOffsets[targetId + 1] - dependencyOffsets[targetId];
+  }
+
+  /** Returns the ID of the {@code index}th direct dependency of the given target. */
+  public int getDependency(int targetId, int index) {
+    return dependencies[dependencyOffsets[targetId] + index];
+  }
+
+  /** The number of distinct source files across all targets. */
+  public int getSourceCount() {
+    return sources.length;
+  }
+
+  /** Returns the source file with the given source ID. */
+  public ArtifactLocation getSource(int sourceId) {
+    return sources[sourceId];
+  }
+
+  /** The number of source files of the given target. */
+  public int getSourceCount(int targetId) {
+    return sourceOffsets[targetId + 1] - sourceOffsets[targetId];
+  }
+
+  /** Returns the source ID of the {@code index}th source file of the given target. */
+  public int getSourceId(int targetId, int index) {
+    return sourceIds[sourceOffsets[targetId] + index];
+  }
+
+  /** A minimal growable int array, to avoid boxing while building the graph. */
+  private static final class IntList {
+    private int[] values;
+    private int size;
+
+    IntList(int initialCapacity) {
+      values = new int[Math.max(initialCapacity, 16)];
+    }
+
+    void add(int value) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = value;
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+}
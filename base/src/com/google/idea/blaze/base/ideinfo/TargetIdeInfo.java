@@ -19,6 +19,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.aspect.Common;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo.Dependency.DependencyType;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
@@ -31,7 +32,12 @@ import java.util.Collection;
 import java.util.Objects;
 import javax.annotation.Nullable;
 
-/** Simple implementation of TargetIdeInfo. */
+/**
+ * Simple implementation of TargetIdeInfo.
+ *
+ * <p>When read from a proto, the larger language-specific infos are kept serialized until first
+ * accessed (see {@link LazyIdeInfo}).
+ */
 public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetIdeInfo> {
   private final TargetKey key;
   private final Kind kind;
@@ -39,21 +45,28 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
   private final ImmutableList<Dependency> dependencies;
   private final ImmutableList<String> tags;
   private final ImmutableSet<ArtifactLocation> sources;
-  @Nullable private final CIdeInfo cIdeInfo;
-  @Nullable private final CToolchainIdeInfo cToolchainIdeInfo;
-  @Nullable private final JavaIdeInfo javaIdeInfo;
-  @Nullable private final AndroidIdeInfo androidIdeInfo;
-  @Nullable private final AndroidSdkIdeInfo androidSdkIdeInfo;
+  @Nullable private final LazyIdeInfo<IntellijIdeInfo.CIdeInfo, CIdeInfo> cIdeInfo;
+  @Nullable
+  private final LazyIdeInfo<IntellijIdeInfo.CToolchainIdeInfo, CToolchainIdeInfo> cToolchainIdeInfo;
+  @Nullable private final LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> javaIdeInfo;
+  @Nullable
+  private final LazyIdeInfo<IntellijIdeInfo.AndroidIdeInfo, AndroidIdeInfo> androidIdeInfo;
+  @Nullable
+  private final LazyIdeInfo<IntellijIdeInfo.AndroidSdkIdeInfo, AndroidSdkIdeInfo> androidSdkIdeInfo;
   @Nullable private final AndroidAarIdeInfo androidAarIdeInfo;
   @Nullable private final AndroidInstrumentationInfo androidInstrumentationInfo;
-  @Nullable private final PyIdeInfo pyIdeInfo;
-  @Nullable private final GoIdeInfo goIdeInfo;
+  @Nullable private final LazyIdeInfo<IntellijIdeInfo.PyIdeInfo, PyIdeInfo> pyIdeInfo;
+  @Nullable private final LazyIdeInfo<IntellijIdeInfo.GoIdeInfo, GoIdeInfo> goIdeInfo;
   @Nullable private final JsIdeInfo jsIdeInfo;
   @Nullable private final TsIdeInfo tsIdeInfo;
   @Nullable private final DartIdeInfo dartIdeInfo;
   @Nullable private final TestIdeInfo testIdeInfo;
-  @Nullable private final JavaToolchainIdeInfo javaToolchainIdeInfo;
-  @Nullable private final KotlinToolchainIdeInfo kotlinToolchainIdeInfo;
+  @Nullable
+  private final LazyIdeInfo<IntellijIdeInfo.JavaToolchainIdeInfo, JavaToolchainIdeInfo>
+      javaToolchainIdeInfo;
+  @Nullable
+  private final LazyIdeInfo<IntellijIdeInfo.KotlinToolchainIdeInfo, KotlinToolchainIdeInfo>
+      kotlinToolchainIdeInfo;
   @Nullable private final Long syncTimeMillis;
 
   private TargetIdeInfo(
@@ -63,21 +76,23 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
       ImmutableList<Dependency> dependencies,
       ImmutableList<String> tags,
       ImmutableSet<ArtifactLocation> sources,
-      @Nullable CIdeInfo cIdeInfo,
-      @Nullable CToolchainIdeInfo cToolchainIdeInfo,
-      @Nullable JavaIdeInfo javaIdeInfo,
-      @Nullable AndroidIdeInfo androidIdeInfo,
-      @Nullable AndroidSdkIdeInfo androidSdkIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.CIdeInfo, CIdeInfo> cIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.CToolchainIdeInfo, CToolchainIdeInfo> cToolchainIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> javaIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.AndroidIdeInfo, AndroidIdeInfo> androidIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.AndroidSdkIdeInfo, AndroidSdkIdeInfo> androidSdkIdeInfo,
       @Nullable AndroidAarIdeInfo androidAarIdeInfo,
       @Nullable AndroidInstrumentationInfo androidInstrumentationInfo,
-      @Nullable PyIdeInfo pyIdeInfo,
-      @Nullable GoIdeInfo goIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.PyIdeInfo, PyIdeInfo> pyIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.GoIdeInfo, GoIdeInfo> goIdeInfo,
       @Nullable JsIdeInfo jsIdeInfo,
       @Nullable TsIdeInfo tsIdeInfo,
       @Nullable DartIdeInfo dartIdeInfo,
       @Nullable TestIdeInfo testIdeInfo,
-      @Nullable JavaToolchainIdeInfo javaToolchainIdeInfo,
-      @Nullable KotlinToolchainIdeInfo kotlinToolchainIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.JavaToolchainIdeInfo, JavaToolchainIdeInfo>
+          javaToolchainIdeInfo,
+      @Nullable LazyIdeInfo<IntellijIdeInfo.KotlinToolchainIdeInfo, KotlinToolchainIdeInfo>
+          kotlinToolchainIdeInfo,
       @Nullable Long syncTimeMillis) {
     this.key = key;
     this.kind = kind;
@@ -116,30 +131,44 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
     if (key == null || kind == null) {
       return null;
     }
+    // sources are needed eagerly, so are read directly from the protos of the lazily decoded infos
     ImmutableSet.Builder<ArtifactLocation> sourcesBuilder = ImmutableSet.builder();
-    CIdeInfo cIdeInfo = null;
+    LazyIdeInfo<IntellijIdeInfo.CIdeInfo, CIdeInfo> cIdeInfo = null;
     if (proto.hasCIdeInfo()) {
-      cIdeInfo = CIdeInfo.fromProto(proto.getCIdeInfo());
-      sourcesBuilder.addAll(cIdeInfo.getSources());
-      sourcesBuilder.addAll(cIdeInfo.getHeaders());
-      sourcesBuilder.addAll(cIdeInfo.getTextualHeaders());
-    }
-    JavaIdeInfo javaIdeInfo = null;
+      IntellijIdeInfo.CIdeInfo cProto = proto.getCIdeInfo();
+      cIdeInfo =
+          LazyIdeInfo.lazy(cProto, IntellijIdeInfo.CIdeInfo.parser(), CIdeInfo::fromProto);
+      addSources(sourcesBuilder, cProto.getSourceList());
+      addSources(sourcesBuilder, cProto.getHeaderList());
+      addSources(sourcesBuilder, cProto.getTextualHeaderList());
+    }
+    LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> javaIdeInfo = null;
     if (proto.hasJavaIdeInfo()) {
-      javaIdeInfo = JavaIdeInfo.fromProto(proto.getJavaIdeInfo());
-      sourcesBuilder.addAll(
-          ProtoWrapper.map(proto.getJavaIdeInfo().getSourcesList(), ArtifactLocation::fromProto));
-    }
-    PyIdeInfo pyIdeInfo = null;
+      javaIdeInfo =
+          LazyIdeInfo.lazy(
+              proto.getJavaIdeInfo(),
+              IntellijIdeInfo.JavaIdeInfo.parser(),
+              JavaIdeInfo::fromProto);
+      addSources(sourcesBuilder, proto.getJavaIdeInfo().getSourcesList());
+    }
+    LazyIdeInfo<IntellijIdeInfo.PyIdeInfo, PyIdeInfo> pyIdeInfo = null;
     if (proto.hasPyIdeInfo()) {
-      pyIdeInfo = PyIdeInfo.fromProto(proto.getPyIdeInfo());
-      sourcesBuilder.addAll(pyIdeInfo.getSources());
+      pyIdeInfo =
+          LazyIdeInfo.lazy(
+              proto.getPyIdeInfo(), IntellijIdeInfo.PyIdeInfo.parser(), PyIdeInfo::fromProto);
+      addSources(sourcesBuilder, proto.getPyIdeInfo().getSourcesList());
     }
-    GoIdeInfo goIdeInfo = null;
+    LazyIdeInfo<IntellijIdeInfo.GoIdeInfo, GoIdeInfo> goIdeInfo = null;
     if (proto.hasGoIdeInfo()) {
-      goIdeInfo = GoIdeInfo.fromProto(proto.getGoIdeInfo(), key.getLabel(), kind);
-      sourcesBuilder.addAll(goIdeInfo.getSources());
-    }
+      Label label = key.getLabel();
+      goIdeInfo =
+          LazyIdeInfo.lazy(
+              proto.getGoIdeInfo(),
+              IntellijIdeInfo.GoIdeInfo.parser(),
+              go -> GoIdeInfo.fromProto(go, label, kind));
+      addSources(sourcesBuilder, proto.getGoIdeInfo().getSourcesList());
+    }
+    // js, ts and dart infos are only lists of sources, so there's nothing to gain by deferring them
     JsIdeInfo jsIdeInfo = null;
     if (proto.hasJsIdeInfo()) {
       jsIdeInfo = JsIdeInfo.fromProto(proto.getJsIdeInfo());
@@ -170,12 +199,23 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
         sourcesBuilder.build(),
         cIdeInfo,
         proto.hasCToolchainIdeInfo()
-            ? CToolchainIdeInfo.fromProto(proto.getCToolchainIdeInfo())
+            ? LazyIdeInfo.lazy(
+                proto.getCToolchainIdeInfo(),
+                IntellijIdeInfo.CToolchainIdeInfo.parser(),
+                CToolchainIdeInfo::fromProto)
             : null,
         javaIdeInfo,
-        proto.hasAndroidIdeInfo() ? AndroidIdeInfo.fromProto(proto.getAndroidIdeInfo()) : null,
+        proto.hasAndroidIdeInfo()
+            ? LazyIdeInfo.lazy(
+                proto.getAndroidIdeInfo(),
+                IntellijIdeInfo.AndroidIdeInfo.parser(),
+                AndroidIdeInfo::fromProto)
+            : null,
         proto.hasAndroidSdkIdeInfo()
-            ? AndroidSdkIdeInfo.fromProto(proto.getAndroidSdkIdeInfo())
+            ? LazyIdeInfo.lazy(
+                proto.getAndroidSdkIdeInfo(),
+                IntellijIdeInfo.AndroidSdkIdeInfo.parser(),
+                AndroidSdkIdeInfo::fromProto)
             : null,
         proto.hasAndroidAarIdeInfo()
             ? AndroidAarIdeInfo.fromProto(proto.getAndroidAarIdeInfo())
@@ -190,14 +230,28 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
         dartIdeInfo,
         proto.hasTestInfo() ? TestIdeInfo.fromProto(proto.getTestInfo()) : null,
         proto.hasJavaToolchainIdeInfo()
-            ? JavaToolchainIdeInfo.fromProto(proto.getJavaToolchainIdeInfo())
+            ? LazyIdeInfo.lazy(
+                proto.getJavaToolchainIdeInfo(),
+                IntellijIdeInfo.JavaToolchainIdeInfo.parser(),
+                JavaToolchainIdeInfo::fromProto)
             : null,
         proto.hasKtToolchainIdeInfo()
-            ? KotlinToolchainIdeInfo.fromProto(proto.getKtToolchainIdeInfo())
+            ? LazyIdeInfo.lazy(
+                proto.getKtToolchainIdeInfo(),
+                IntellijIdeInfo.KotlinToolchainIdeInfo.parser(),
+                KotlinToolchainIdeInfo::fromProto)
             : null,
         syncTime);
   }
 
+  private static void addSources(
+      ImmutableSet.Builder<ArtifactLocation> sources,
+      Iterable<Common.ArtifactLocation> protos) {
+    for (Common.ArtifactLocation proto : protos) {
+      sources.add(ArtifactLocation.fromProto(proto));
+    }
+  }
+
   @Override
   public IntellijIdeInfo.TargetIdeInfo toProto() {
     IntellijIdeInfo.TargetIdeInfo.Builder builder =
@@ -288,27 +342,27 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
 
   @Nullable
   public CIdeInfo getcIdeInfo() {
-    return cIdeInfo;
+    return cIdeInfo != null ? cIdeInfo.get() : null;
   }
 
   @Nullable
   public CToolchainIdeInfo getcToolchainIdeInfo() {
-    return cToolchainIdeInfo;
+    return cToolchainIdeInfo != null ? cToolchainIdeInfo.get() : null;
   }
 
   @Nullable
   public JavaIdeInfo getJavaIdeInfo() {
-    return javaIdeInfo;
+    return javaIdeInfo != null ? javaIdeInfo.get() : null;
   }
 
   @Nullable
   public AndroidIdeInfo getAndroidIdeInfo() {
-    return androidIdeInfo;
+    return androidIdeInfo != null ? androidIdeInfo.get() : null;
   }
 
   @Nullable
   public AndroidSdkIdeInfo getAndroidSdkIdeInfo() {
-    return androidSdkIdeInfo;
+    return androidSdkIdeInfo != null ? androidSdkIdeInfo.get() : null;
   }
 
   @Nullable
@@ -323,12 +377,12 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
 
   @Nullable
   public PyIdeInfo getPyIdeInfo() {
-    return pyIdeInfo;
+    return pyIdeInfo != null ? pyIdeInfo.get() : null;
   }
 
   @Nullable
   public GoIdeInfo getGoIdeInfo() {
-    return goIdeInfo;
+    return goIdeInfo != null ? goIdeInfo.get() : null;
   }
 
   @Nullable
@@ -353,12 +407,12 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
 
   @Nullable
   public JavaToolchainIdeInfo getJavaToolchainIdeInfo() {
-    return javaToolchainIdeInfo;
+    return javaToolchainIdeInfo != null ? javaToolchainIdeInfo.get() : null;
   }
 
   @Nullable
   public KotlinToolchainIdeInfo getKotlinToolchainIdeInfo() {
-    return kotlinToolchainIdeInfo;
+    return kotlinToolchainIdeInfo != null ? kotlinToolchainIdeInfo.get() : null;
   }
 
   @Nullable
@@ -366,6 +420,35 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
     return syncTimeMillis != null ? Instant.ofEpochMilli(syncTimeMillis) : null;
   }
 
+  /**
+   * Returns whether this target holds the very same info objects as {@code other}, other than its
+   * sync time, e.g. because one was derived from the other by {@link #updateSyncTime}. This is a
+   * cheap, conservative check: equal targets which were decoded separately aren't recognized.
+   */
+  public boolean sharesInfoWith(TargetIdeInfo other) {
+    return key == other.key
+        && kind == other.kind
+        && buildFile == other.buildFile
+        && dependencies == other.dependencies
+        && tags == other.tags
+        && sources == other.sources
+        && cIdeInfo == other.cIdeInfo
+        && cToolchainIdeInfo == other.cToolchainIdeInfo
+        && javaIdeInfo == other.javaIdeInfo
+        && androidIdeInfo == other.androidIdeInfo
+        && androidSdkIdeInfo == other.androidSdkIdeInfo
+        && androidAarIdeInfo == other.androidAarIdeInfo
+        && androidInstrumentationInfo == other.androidInstrumentationInfo
+        && pyIdeInfo == other.pyIdeInfo
+        && goIdeInfo == other.goIdeInfo
+        && jsIdeInfo == other.jsIdeInfo
+        && tsIdeInfo == other.tsIdeInfo
+        && dartIdeInfo == other.dartIdeInfo
+        && testIdeInfo == other.testIdeInfo
+        && javaToolchainIdeInfo == other.javaToolchainIdeInfo
+        && kotlinToolchainIdeInfo == other.kotlinToolchainIdeInfo;
+  }
+
   public TargetInfo toTargetInfo() {
     return TargetInfo.builder(getKey().getLabel(), getKind().getKindString())
         .setTestSize(getTestIdeInfo() != null ? getTestIdeInfo().getTestSize() : null)
@@ -588,21 +671,21 @@ public final class TargetIdeInfo implements ProtoWrapper<IntellijIdeInfo.TargetI
           dependencies.build(),
           tags.build(),
           sources.build(),
-          cIdeInfo,
-          cToolchainIdeInfo,
-          javaIdeInfo,
-          androidIdeInfo,
+          LazyIdeInfo.of(cIdeInfo),
+          LazyIdeInfo.of(cToolchainIdeInfo),
+          LazyIdeInfo.of(javaIdeInfo),
+          LazyIdeInfo.of(androidIdeInfo),
           null,
           androidAarIdeInfo,
           androidInstrumentationInfo,
-          pyIdeInfo,
-          goIdeInfo,
+          LazyIdeInfo.of(pyIdeInfo),
+          LazyIdeInfo.of(goIdeInfo),
           jsIdeInfo,
           tsIdeInfo,
           dartIdeInfo,
           testIdeInfo,
-          javaToolchainIdeInfo,
-          kotlinToolchainIdeInfo,
+          LazyIdeInfo.of(javaToolchainIdeInfo),
+          LazyIdeInfo.of(kotlinToolchainIdeInfo),
           syncTime);
     }
   }
@@ -18,16 +18,130 @@ package com.google.idea.blaze.base.ideinfo;
 import com.google.common.base.Functions;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.devtools.intellij.model.ProjectData;
+import java.lang.ref.WeakReference;
 import java.util.Objects;
 import javax.annotation.Nullable;
 
 /** Map of configured targets (and soon aspects). */
 public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
-  private final ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+
+  /**
+   * A source of targets which are only decoded on first access, e.g. from a memory-mapped project
+   * data file. Implementations are responsible for caching decoded targets, and must be
+   * thread-safe.
+   */
+  public interface LazyTargetSource {
+    /** All target keys available from this source, in iteration order. */
+    ImmutableSet<TargetKey> keys();
+
+    /** Returns the target for the given key, or null if it isn't present or can't be decoded. */
+    @Nullable
+    TargetIdeInfo get(TargetKey key);
+  }
+
+  /**
+   * The targets which differ between a target map and the map it was derived from. Targets which
+   * only differ in their sync time are not included.
+   *
+   * <p>The base map is only weakly referenced, so that a chain of deltas doesn't retain every
+   * earlier target map. Anything wanting to apply a delta must hold its own strong reference to
+   * the base until it has done so.
+   */
+  public static final class Delta {
+    private final WeakReference<TargetMap> base;
+    private final ImmutableMap<TargetKey, TargetIdeInfo> previousTargets;
+    private final ImmutableSet<TargetKey> changedKeys;
+
+    private Delta(
+        TargetMap base,
+        ImmutableMap<TargetKey, TargetIdeInfo> previousTargets,
+        ImmutableSet<TargetKey> changedKeys) {
+      this.base = new WeakReference<>(base);
+      this.previousTargets = previousTargets;
+      this.changedKeys = changedKeys;
+    }
+
+    /** The keys of all targets which were added, removed or changed. */
+    public ImmutableSet<TargetKey> getChangedKeys() {
+      return changedKeys;
+    }
+
+    /**
+     * Returns the target with the given key from the base target map, or null if it wasn't
+     * present there. Only valid for keys in {@link #getChangedKeys}.
+     */
+    @Nullable
+    public TargetIdeInfo getPreviousTarget(TargetKey key) {
+      return previousTargets.get(key);
+    }
+  }
+
+  // when more than 1/4 of the targets changed, incremental updates aren't worth retaining a delta
+  private static final int MAX_DELTA_FRACTION = 4;
+
+  @Nullable private final LazyTargetSource lazySource;
+  @Nullable private volatile ImmutableMap<TargetKey, TargetIdeInfo> targetMap;
+  @Nullable private final Delta delta;
 
   public TargetMap(ImmutableMap<TargetKey, TargetIdeInfo> targetMap) {
+    this(targetMap, null);
+  }
+
+  private TargetMap(ImmutableMap<TargetKey, TargetIdeInfo> targetMap, @Nullable Delta delta) {
+    this.lazySource = null;
     this.targetMap = targetMap;
+    this.delta = delta;
+  }
+
+  private TargetMap(LazyTargetSource lazySource) {
+    this.lazySource = lazySource;
+    this.targetMap = null;
+    this.delta = null;
+  }
+
+  /**
+   * Returns a {@link TargetMap} which was derived from {@code base} by adding, removing or changing
+   * the targets with the given keys. All other targets are unchanged other than their sync time.
+   *
+   * <p>The delta is recorded so that data derived from {@code base} can be updated incrementally.
+   * See {@link #getDeltaFrom}.
+   */
+  public static TargetMap derivedFrom(
+      TargetMap base,
+      ImmutableMap<TargetKey, TargetIdeInfo> targetMap,
+      ImmutableSet<TargetKey> changedKeys) {
+    if (changedKeys.size() > targetMap.size() / MAX_DELTA_FRACTION) {
+      return new TargetMap(targetMap);
+    }
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> previousTargets = ImmutableMap.builder();
+    for (TargetKey key : changedKeys) {
+      TargetIdeInfo previous = base.get(key);
+      if (previous != null) {
+        previousTargets.put(key, previous);
+      }
+    }
+    return new TargetMap(targetMap, new Delta(base, previousTargets.build(), changedKeys));
+  }
+
+  /**
+   * Returns the changes made to {@code base} to produce this target map, or null if this map
+   * wasn't directly derived from {@code base}.
+   */
+  @Nullable
+  public Delta getDeltaFrom(TargetMap base) {
+    return delta != null && delta.base.get() == base ? delta : null;
+  }
+
+  /**
+   * Returns a {@link TargetMap} which decodes individual targets from the given source when they're
+   * first requested. {@link #get}, {@link #contains} and {@link #size} stay lazy. Bulk accessors
+   * such as {@link #targets()} and {@link #map()}, as well as {@link #equals} and {@link
+   * #hashCode}, decode all remaining targets.
+   */
+  public static TargetMap lazy(LazyTargetSource source) {
+    return new TargetMap(source);
   }
 
   public static TargetMap fromProto(ProjectData.TargetMap proto) {
@@ -41,25 +155,49 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
   @Override
   public ProjectData.TargetMap toProto() {
     ProjectData.TargetMap.Builder builder = ProjectData.TargetMap.newBuilder();
-    targetMap.values().stream().map(TargetIdeInfo::toProto).forEach(builder::addTargets);
+    map().values().stream().map(TargetIdeInfo::toProto).forEach(builder::addTargets);
     return builder.build();
   }
 
   @Nullable
   public TargetIdeInfo get(TargetKey key) {
-    return targetMap.get(key);
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      return map.get(key);
+    }
+    return lazySource.keys().contains(key) ? lazySource.get(key) : null;
   }
 
   public boolean contains(TargetKey key) {
-    return targetMap.containsKey(key);
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      return map.containsKey(key);
+    }
+    return get(key) != null;
   }
 
   public ImmutableCollection<TargetIdeInfo> targets() {
-    return targetMap.values();
+    return map().values();
   }
 
   public ImmutableMap<TargetKey, TargetIdeInfo> map() {
-    return targetMap;
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    if (map != null) {
+      return map;
+    }
+    synchronized (this) {
+      if (targetMap == null) {
+        ImmutableMap.Builder<TargetKey, TargetIdeInfo> builder = ImmutableMap.builder();
+        for (TargetKey key : lazySource.keys()) {
+          TargetIdeInfo target = lazySource.get(key);
+          if (target != null) {
+            builder.put(key, target);
+          }
+        }
+        targetMap = builder.build();
+      }
+      return targetMap;
+    }
   }
 
   @Override
@@ -71,15 +209,20 @@ public final class TargetMap implements ProtoWrapper<ProjectData.TargetMap> {
       return false;
     }
     TargetMap other = (TargetMap) o;
-    return Objects.equals(targetMap, other.targetMap);
+    return Objects.equals(map(), other.map());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(targetMap);
+    return Objects.hash(map());
   }
 
+  /**
+   * Returns the number of targets. For lazily decoded maps, this doesn't account for targets which
+   * fail to decode.
+   */
   public int size() {
-    return this.targetMap.size();
+    ImmutableMap<TargetKey, TargetIdeInfo> map = targetMap;
+    return map != null ? map.size() : lazySource.keys().size();
   }
 }
@@ -25,6 +25,8 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.CopyOption;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
@@ -85,6 +87,20 @@ public class FileOperationProvider {
     return file.getCanonicalFile();
   }
 
+  /**
+   * Reads the basic attributes of the file itself, without following symlinks, in a single system
+   * call. Returns null if the file doesn't exist.
+   */
+  @Nullable
+  public BasicFileAttributes readAttributesNoFollowLinks(File file) throws IOException {
+    try {
+      return Files.readAttributes(
+          file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
   public Path createTempFile(
       Path tempDirectory, String prefix, String suffix, FileAttribute<?>... attributes)
       throws IOException {
@@ -38,6 +38,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.TextRange;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.regex.Matcher;
@@ -107,14 +108,162 @@ public class BlazeIssueParser {
   /** Used by BlazeIssueParser. Generally implemented by subclassing SingleLineParser */
   public interface Parser {
     ParseResult parse(String currentLine, List<String> previousLines);
+
+    /**
+     * A cheap test which every line this parser matches must pass. Lines which fail it aren't
+     * passed to {@link #parse}, unless they continue a multi-line match started by this parser.
+     */
+    default LineFilter lineFilter() {
+      return LineFilter.ANY;
+    }
+  }
+
+  /**
+   * A necessary condition for a {@link Parser} to match a line, made up of a literal prefix, any
+   * number of literal substrings, and optionally arbitrary predicates.
+   *
+   * <p>Filters are evaluated together for all parsers, with each distinct prefix and substring
+   * checked at most once per line, so most lines are rejected without running any regex.
+   */
+  public static final class LineFilter {
+    public static final LineFilter ANY = new LineFilter("", ImmutableList.of(), ImmutableList.of());
+
+    private static final String REGEX_METACHARACTERS = "\\^$.|?*+()[]{}";
+    private static final String REGEX_QUANTIFIERS = "?*+{";
+
+    private final String prefix;
+    private final ImmutableList<String> substrings;
+    private final ImmutableList<Predicate<String>> conditions;
+
+    private LineFilter(
+        String prefix,
+        ImmutableList<String> substrings,
+        ImmutableList<Predicate<String>> conditions) {
+      this.prefix = prefix;
+      this.substrings = substrings;
+      this.conditions = conditions;
+    }
+
+    public static LineFilter startingWith(String prefix) {
+      return new LineFilter(prefix, ImmutableList.of(), ImmutableList.of());
+    }
+
+    public static LineFilter containing(String substring) {
+      return new LineFilter("", ImmutableList.of(substring), ImmutableList.of());
+    }
+
+    public static LineFilter matching(Predicate<String> condition) {
+      return new LineFilter("", ImmutableList.of(), ImmutableList.of(condition));
+    }
+
+    /**
+     * Returns a filter derived from the literal text at the start of a regex: a prefix if the
+     * regex is anchored with '^', otherwise a substring. Returns {@link #ANY} if the regex has a
+     * top-level alternation, or doesn't start with any literal text.
+     */
+    public static LineFilter fromRegex(String regex) {
+      if (hasTopLevelAlternation(regex)) {
+        return ANY;
+      }
+      boolean anchored = regex.startsWith("^");
+      int start = anchored ? 1 : 0;
+      int end = start;
+      while (end < regex.length() && REGEX_METACHARACTERS.indexOf(regex.charAt(end)) < 0) {
+        end++;
+      }
+      if (end < regex.length() && REGEX_QUANTIFIERS.indexOf(regex.charAt(end)) >= 0) {
+        // the quantifier applies to the last literal character
+        end--;
+      }
+      if (end <= start) {
+        return ANY;
+      }
+      String literal = regex.substring(start, end);
+      return anchored ? startingWith(literal) : containing(literal);
+    }
+
+    private static boolean hasTopLevelAlternation(String regex) {
+      int depth = 0;
+      boolean inCharacterClass = false;
+      for (int i = 0; i < regex.length(); i++) {
+        char c = regex.charAt(i);
+        if (c == '\\') {
+          i++;
+        } else if (inCharacterClass) {
+          inCharacterClass = c != ']';
+        } else if (c == '[') {
+          inCharacterClass = true;
+        } else if (c == '(') {
+          depth++;
+        } else if (c == ')') {
+          depth--;
+        } else if (c == '|' && depth == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Returns a filter which only passes lines passing both this filter and {@code other}. */
+    public LineFilter and(LineFilter other) {
+      String combinedPrefix;
+      if (other.prefix.startsWith(prefix)) {
+        combinedPrefix = other.prefix;
+      } else if (prefix.startsWith(other.prefix)) {
+        combinedPrefix = prefix;
+      } else {
+        throw new IllegalArgumentException(
+            String.format("Conflicting line prefixes '%s' and '%s'", prefix, other.prefix));
+      }
+      return new LineFilter(
+          combinedPrefix,
+          ImmutableList.<String>builder().addAll(substrings).addAll(other.substrings).build(),
+          ImmutableList.<Predicate<String>>builder()
+              .addAll(conditions)
+              .addAll(other.conditions)
+              .build());
+    }
+
+    /** Tests a single line against this filter, without sharing any work between filters. */
+    public boolean test(String line) {
+      if (!line.startsWith(prefix)) {
+        return false;
+      }
+      for (String substring : substrings) {
+        if (!line.contains(substring)) {
+          return false;
+        }
+      }
+      for (Predicate<String> condition : conditions) {
+        if (!condition.test(line)) {
+          return false;
+        }
+      }
+      return true;
+    }
   }
 
   /** Base for a Parser that consumes a single contextless line at a time, matched via regex */
   public abstract static class SingleLineParser implements Parser {
     final Pattern pattern;
+    private final LineFilter lineFilter;
 
     public SingleLineParser(String regex) {
+      this(regex, LineFilter.ANY);
+    }
+
+    /**
+     * @param lineFilter a condition lines must pass to match {@code regex}, in addition to the one
+     *     derived from the regex's literal prefix
+     */
+    public SingleLineParser(String regex, LineFilter lineFilter) {
       pattern = Pattern.compile(regex);
+      this.lineFilter = LineFilter.fromRegex(regex).and(lineFilter);
+    }
+
+    @Override
+    public LineFilter lineFilter() {
+      return lineFilter;
     }
 
     @Override
@@ -187,7 +336,8 @@ public class BlazeIssueParser {
       super(
           "^File \"([^:]*\\.py)\", " // file path
               + "line ([0-9]+), " // line number
-              + "(.*)$"); // message
+              + "(.*)$", // message
+          LineFilter.containing(".py\", line "));
       this.project = project;
     }
 
@@ -217,10 +367,21 @@ public class BlazeIssueParser {
               + "(fatal error|error|warning|note|internal problem|context|info)"
               + "(?::| -)? " // optional colon or hyphen separator
               + ")?"
-              + "(.*)$"); // message
+              + "(.*)$", // message
+          LineFilter.matching(DefaultCompileParser::hasLineNumberAfterFirstColon));
       this.project = project;
     }
 
+    /** The file path can't contain a colon, so the first colon must precede the line number. */
+    private static boolean hasLineNumberAfterFirstColon(String line) {
+      int colon = line.indexOf(':');
+      if (colon <= 0 || colon + 1 >= line.length()) {
+        return false;
+      }
+      char c = line.charAt(colon + 1);
+      return c >= '0' && c <= '9';
+    }
+
     @Override
     protected IssueOutput createIssue(Matcher matcher) {
       final File file = FileResolver.resolveToFile(project, matcher.group(1));
@@ -260,6 +421,13 @@ public class BlazeIssueParser {
     private static final Pattern PATTERN =
         Pattern.compile(
             "(ERROR): (.*?):([0-9]+):([0-9]+): (Traceback \\(most recent call last\\):)");
+    private static final LineFilter LINE_FILTER =
+        LineFilter.containing("ERROR: ").and(LineFilter.containing("Traceback (most recent"));
+
+    @Override
+    public LineFilter lineFilter() {
+      return LINE_FILTER;
+    }
 
     @Override
     public ParseResult parse(String currentLine, List<String> previousLines) {
@@ -294,7 +462,7 @@ public class BlazeIssueParser {
 
   static class BuildParser extends SingleLineParser {
     BuildParser() {
-      super("^ERROR: (/.*?BUILD):([0-9]+):([0-9]+): (.*)$");
+      super("^ERROR: (/.*?BUILD):([0-9]+):([0-9]+): (.*)$", LineFilter.containing("BUILD:"));
     }
 
     @Nullable
@@ -318,7 +486,7 @@ public class BlazeIssueParser {
 
   static class SkylarkErrorParser extends SingleLineParser {
     SkylarkErrorParser() {
-      super("^ERROR: (/.*?\\.bzl):([0-9]+):([0-9]+): (.*)$");
+      super("^ERROR: (/.*?\\.bzl):([0-9]+):([0-9]+): (.*)$", LineFilter.containing(".bzl:"));
     }
 
     @Override
@@ -336,7 +504,9 @@ public class BlazeIssueParser {
 
   static class LinelessBuildParser extends SingleLineParser {
     LinelessBuildParser() {
-      super("^ERROR: (.*?):char offsets [0-9]+--[0-9]+: (.*)$");
+      super(
+          "^ERROR: (.*?):char offsets [0-9]+--[0-9]+: (.*)$",
+          LineFilter.containing(":char offsets "));
     }
 
     @Override
@@ -352,7 +522,9 @@ public class BlazeIssueParser {
     private final WorkspaceRoot workspaceRoot;
 
     FileNotFoundBuildParser(WorkspaceRoot workspaceRoot) {
-      super("^ERROR: .*? Unable to load file '(.*?)': (.*)$");
+      super(
+          "^ERROR: .*? Unable to load file '(.*?)': (.*)$",
+          LineFilter.containing(" Unable to load file '"));
       this.workspaceRoot = workspaceRoot;
     }
 
@@ -485,8 +657,11 @@ public class BlazeIssueParser {
 
   private List<String> multilineMatchResult = new ArrayList<>();
 
+  private final CombinedLineFilter lineFilter;
+
   public BlazeIssueParser(ImmutableList<Parser> parsers) {
     this.parsers = parsers;
+    this.lineFilter = new CombinedLineFilter(parsers);
   }
 
   @Nullable
@@ -505,7 +680,12 @@ public class BlazeIssueParser {
       // multi line match failed, continue with other parsers
     }
 
-    for (Parser parser : parsers) {
+    lineFilter.reset(line);
+    for (int i = 0; i < parsers.size(); i++) {
+      if (!lineFilter.test(i)) {
+        continue;
+      }
+      Parser parser = parsers.get(i);
       ParseResult issue = parser.parse(line, ImmutableList.of());
       if (issue.needsMoreInput) {
         multilineMatchingParser = parser;
@@ -520,6 +700,91 @@ public class BlazeIssueParser {
     return null;
   }
 
+  /**
+   * Evaluates the {@link LineFilter}s of a list of parsers against one line at a time, testing each
+   * distinct prefix and substring at most once per line, and only when a parser needs it.
+   */
+  private static final class CombinedLineFilter {
+    private static final byte UNKNOWN = 0;
+    private static final byte PASSED = 1;
+    private static final byte FAILED = 2;
+
+    private final String[] prefixes;
+    private final String[] substrings;
+    /** Per parser, the index of its prefix in {@link #prefixes}, or -1 if it has none. */
+    private final int[] prefixIndices;
+    /** Per parser, the indices of its substrings in {@link #substrings}. */
+    private final int[][] substringIndices;
+
+    private final ImmutableList<ImmutableList<Predicate<String>>> conditions;
+    private final byte[] prefixResults;
+    private final byte[] substringResults;
+    private String line = "";
+
+    CombinedLineFilter(ImmutableList<Parser> parsers) {
+      List<String> prefixList = new ArrayList<>();
+      List<String> substringList = new ArrayList<>();
+      prefixIndices = new int[parsers.size()];
+      substringIndices = new int[parsers.size()][];
+      ImmutableList.Builder<ImmutableList<Predicate<String>>> conditions = ImmutableList.builder();
+      for (int i = 0; i < parsers.size(); i++) {
+        LineFilter filter = parsers.get(i).lineFilter();
+        prefixIndices[i] = filter.prefix.isEmpty() ? -1 : indexOf(prefixList, filter.prefix);
+        substringIndices[i] =
+            filter.substrings.stream().mapToInt(s -> indexOf(substringList, s)).toArray();
+        conditions.add(filter.conditions);
+      }
+      this.prefixes = prefixList.toArray(new String[0]);
+      this.substrings = substringList.toArray(new String[0]);
+      this.conditions = conditions.build();
+      this.prefixResults = new byte[prefixes.length];
+      this.substringResults = new byte[substrings.length];
+    }
+
+    private static int indexOf(List<String> list, String value) {
+      int index = list.indexOf(value);
+      if (index >= 0) {
+        return index;
+      }
+      list.add(value);
+      return list.size() - 1;
+    }
+
+    void reset(String line) {
+      this.line = line;
+      Arrays.fill(prefixResults, UNKNOWN);
+      Arrays.fill(substringResults, UNKNOWN);
+    }
+
+    /** Whether the parser at the given index could match the current line. */
+    boolean test(int parserIndex) {
+      int prefixIndex = prefixIndices[parserIndex];
+      if (prefixIndex >= 0) {
+        if (prefixResults[prefixIndex] == UNKNOWN) {
+          prefixResults[prefixIndex] = line.startsWith(prefixes[prefixIndex]) ? PASSED : FAILED;
+        }
+        if (prefixResults[prefixIndex] == FAILED) {
+          return false;
+        }
+      }
+      for (int substringIndex : substringIndices[parserIndex]) {
+        if (substringResults[substringIndex] == UNKNOWN) {
+          substringResults[substringIndex] =
+              line.contains(substrings[substringIndex]) ? PASSED : FAILED;
+        }
+        if (substringResults[substringIndex] == FAILED) {
+          return false;
+        }
+      }
+      for (Predicate<String> condition : conditions.get(parserIndex)) {
+        if (!condition.test(line)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
   /**
    * The union of the two ranges. If one of the ranges is null, returns the other. If both are null,
    * returns null.
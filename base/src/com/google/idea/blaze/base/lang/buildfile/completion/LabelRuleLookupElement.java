@@ -20,6 +20,8 @@ import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildRuleNameIndex;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 import javax.annotation.Nullable;
@@ -42,8 +44,13 @@ public class LabelRuleLookupElement extends BuildLookupElement {
     }
 
     String ruleFragment = LabelUtils.getRuleComponent(originalString);
+    // the index only creates PSI for matching rules, rather than every rule in the file
+    List<FuncallExpression> candidates = BuildRuleNameIndex.findWithPrefix(file, ruleFragment);
+    if (candidates == null) {
+      candidates = Arrays.asList(file.getTopLevelFuncalls());
+    }
     List<BuildLookupElement> lookups = Lists.newArrayList();
-    for (FuncallExpression target : file.findChildrenByClass(FuncallExpression.class)) {
+    for (FuncallExpression target : candidates) {
       String targetName = target.getName();
       if (targetName == null
           || Objects.equals(target.getName(), excluded)
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileListener;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileMoveEvent;
+import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Caches glob results per package directory and set of patterns.
+ *
+ * <p>Globs are evaluated against the VFS, and an entry is dropped whenever a file is created,
+ * deleted, moved or renamed under its package directory (or one of the directory's ancestors is).
+ * Content changes don't affect glob results, so don't invalidate anything.
+ */
+public class GlobCache {
+
+  private static final BoolExperiment enabled = new BoolExperiment("blaze.glob.cache", true);
+
+  /** Past this many cached packages, the cache is cleared rather than growing further. */
+  private static final int MAX_PACKAGES = 2000;
+
+  public static GlobCache getInstance(Project project) {
+    return ServiceManager.getService(project, GlobCache.class);
+  }
+
+  /** Cached results, keyed by package directory path. */
+  private final Map<String, Map<Key, ImmutableList<File>>> cache = new ConcurrentHashMap<>();
+
+  /**
+   * Incremented before each invalidation, so results which were being computed at the time aren't
+   * left in the cache.
+   */
+  private final AtomicLong modificationCount = new AtomicLong();
+
+  public GlobCache(Project project) {
+    VirtualFileManager.getInstance().addVirtualFileListener(new FileListener(), project);
+  }
+
+  /**
+   * Returns the sorted files in {@code packageDir} matching the includes and not the excludes.
+   *
+   * <p>Results are cached, so {@code directoryFilter} must only depend on the contents of {@code
+   * packageDir}, e.g. to skip sub-packages.
+   */
+  public ImmutableList<File> glob(
+      File packageDir,
+      List<String> includes,
+      List<String> excludes,
+      boolean excludeDirectories,
+      Predicate<File> directoryFilter)
+      throws IOException, InterruptedException {
+    UnixGlob.Builder builder =
+        UnixGlob.forPath(packageDir)
+            .addPatterns(includes)
+            .addExcludes(excludes)
+            .setExcludeDirectories(excludeDirectories)
+            .setDirectoryFilter(directoryFilter);
+    if (!enabled.getValue()) {
+      return ImmutableList.copyOf(builder.glob());
+    }
+    String path = packageDir.getPath();
+    Key key = Key.create(includes, excludes, excludeDirectories);
+    Map<Key, ImmutableList<File>> packageGlobs = cache.get(path);
+    ImmutableList<File> files = packageGlobs != null ? packageGlobs.get(key) : null;
+    if (files != null) {
+      return files;
+    }
+    long count = modificationCount.get();
+    files = ImmutableList.copyOf(builder.setUseVirtualFileSystem(true).glob());
+    if (cache.size() >= MAX_PACKAGES) {
+      cache.clear();
+    }
+    cache.computeIfAbsent(path, p -> new ConcurrentHashMap<>()).put(key, files);
+    if (modificationCount.get() != count) {
+      // the package may have changed while the glob was evaluated
+      cache.remove(path);
+    }
+    return files;
+  }
+
+  /** Drops the cached globs of any package containing the file, or contained in it. */
+  private void invalidate(File file, boolean isDirectory) {
+    modificationCount.incrementAndGet();
+    if (cache.isEmpty()) {
+      return;
+    }
+    for (File dir = file; dir != null; dir = dir.getParentFile()) {
+      cache.remove(dir.getPath());
+    }
+    if (isDirectory) {
+      String path = file.getPath();
+      cache.keySet().removeIf(dir -> FileUtil.isAncestor(path, dir, /* strict= */ true));
+    }
+  }
+
+  private void invalidate(VirtualFile file) {
+    invalidate(new File(file.getPath()), file.isDirectory());
+  }
+
+  private class FileListener implements VirtualFileListener {
+    @Override
+    public void fileCreated(VirtualFileEvent event) {
+      invalidate(event.getFile());
+    }
+
+    @Override
+    public void fileDeleted(VirtualFileEvent event) {
+      invalidate(event.getFile());
+    }
+
+    @Override
+    public void fileMoved(VirtualFileMoveEvent event) {
+      VirtualFile file = event.getFile();
+      invalidate(new File(event.getOldParent().getPath(), file.getName()), file.isDirectory());
+      invalidate(file);
+    }
+
+    @Override
+    public void propertyChanged(VirtualFilePropertyEvent event) {
+      if (!VirtualFile.PROP_NAME.equals(event.getPropertyName())) {
+        return;
+      }
+      VirtualFile file = event.getFile();
+      VirtualFile parent = file.getParent();
+      if (parent != null) {
+        String oldName = (String) event.getOldValue();
+        invalidate(new File(parent.getPath(), oldName), file.isDirectory());
+      }
+      invalidate(file);
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract ImmutableList<String> includes();
+
+    abstract ImmutableList<String> excludes();
+
+    abstract boolean excludeDirectories();
+
+    static Key create(List<String> includes, List<String> excludes, boolean excludeDirectories) {
+      return new AutoValue_GlobCache_Key(
+          ImmutableList.copyOf(includes), ImmutableList.copyOf(excludes), excludeDirectories);
+    }
+  }
+}
@@ -19,7 +19,6 @@ import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
@@ -30,15 +29,20 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
 import com.google.idea.blaze.base.lang.buildfile.validation.GlobPatternValidator;
 import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -61,15 +65,20 @@ import javax.annotation.Nullable;
 public final class UnixGlob {
   private UnixGlob() {}
 
+  /** Compiled wildcard patterns, shared between globs. */
+  private static final Cache<String, Pattern> patternCache =
+      CacheBuilder.newBuilder().maximumSize(1000).build();
+
   private static Set<File> globInternal(
       File base,
       Collection<String> patterns,
       boolean excludeDirectories,
       Predicate<File> dirPred,
-      ThreadPoolExecutor threadPool)
+      FileOperationProvider fileOperations,
+      @Nullable ThreadPoolExecutor threadPool)
       throws IOException, InterruptedException {
 
-    GlobVisitor visitor = (threadPool == null) ? new GlobVisitor() : new GlobVisitor(threadPool);
+    GlobVisitor visitor = new GlobVisitor(fileOperations, threadPool);
     return visitor.glob(base, patterns, excludeDirectories, dirPred);
   }
 
@@ -92,10 +101,10 @@ public final class UnixGlob {
     return list;
   }
 
-  /** Calls {@link #matches(String, String, Cache) matches(pattern, str, null)} */
+  /** Calls {@link #matches(String, String, Cache)} with the shared pattern cache. */
   public static boolean matches(String pattern, String str) {
     try {
-      return matches(pattern, str, null);
+      return matches(pattern, str, patternCache);
     } catch (PatternSyntaxException e) {
       return false;
     }
@@ -217,6 +226,7 @@ public final class UnixGlob {
     private boolean excludeDirectories;
     private Predicate<File> pathFilter;
     private ThreadPoolExecutor threadPool;
+    private boolean useVirtualFileSystem;
 
     /** Creates a glob builder with the given base path. */
     public Builder(File base) {
@@ -297,6 +307,17 @@ public final class UnixGlob {
       return this;
     }
 
+    /**
+     * If set to true, the glob is evaluated against the VFS rather than the file system, so doesn't
+     * see changes which haven't yet been refreshed into the VFS. Directories not yet loaded into
+     * the VFS are read from the file system.
+     */
+    @CanIgnoreReturnValue
+    public Builder setUseVirtualFileSystem(boolean useVirtualFileSystem) {
+      this.useVirtualFileSystem = useVirtualFileSystem;
+      return this;
+    }
+
     /**
      * If set, the given predicate is called for every directory encountered. If it returns false,
      * the corresponding item is not returned in the output and directories are not traversed
@@ -314,8 +335,14 @@ public final class UnixGlob {
      * @throws InterruptedException if the thread is interrupted.
      */
     public List<File> glob() throws IOException, InterruptedException {
-      Set<File> included = globInternal(base, patterns, excludeDirectories, pathFilter, threadPool);
-      Set<File> excluded = globInternal(base, excludes, excludeDirectories, pathFilter, threadPool);
+      FileOperationProvider fileOperations =
+          useVirtualFileSystem
+              ? new VirtualFileOperations(VirtualFileSystemProvider.getInstance().getSystem())
+              : FileOperationProvider.getInstance();
+      Set<File> included =
+          globInternal(base, patterns, excludeDirectories, pathFilter, fileOperations, threadPool);
+      Set<File> excluded =
+          globInternal(base, excludes, excludeDirectories, pathFilter, fileOperations, threadPool);
       included.removeAll(excluded);
       return Ordering.<File>natural().immutableSortedCopy(included);
     }
@@ -367,32 +394,22 @@ public final class UnixGlob {
   private static final class GlobVisitor {
     // These collections are used across workers and must therefore be thread-safe.
     private final Set<File> results = Sets.newConcurrentHashSet();
-    private final Cache<String, Pattern> cache =
-        CacheBuilder.newBuilder()
-            .build(
-                new CacheLoader<String, Pattern>() {
-                  @Override
-                  public Pattern load(String wildcard) {
-                    return makePatternFromWildcard(wildcard);
-                  }
-                });
+    private final Cache<String, Pattern> cache = patternCache;
 
     private final GlobFuture result;
-    private final ThreadPoolExecutor executor;
+    @Nullable private final ThreadPoolExecutor executor;
     private final AtomicLong pendingOps = new AtomicLong(0);
     private final AtomicReference<IOException> failure = new AtomicReference<>();
-    private final FileOperationProvider fileOperationProvider = FileOperationProvider.getInstance();
+    private final FileOperationProvider fileOperationProvider;
     private volatile boolean canceled = false;
 
-    private GlobVisitor(ThreadPoolExecutor executor) {
+    private GlobVisitor(
+        FileOperationProvider fileOperationProvider, @Nullable ThreadPoolExecutor executor) {
+      this.fileOperationProvider = fileOperationProvider;
       this.executor = executor;
       this.result = new GlobFuture(this);
     }
 
-    private GlobVisitor() {
-      this(null);
-    }
-
     /**
      * Performs wildcard globbing: returns the sorted list of filenames that match any of {@code
      * patterns} relative to {@code base}. Directories are traversed if and only if they match
@@ -616,7 +633,60 @@ public final class UnixGlob {
 
     @Nullable
     private File[] getChildren(File file) {
-      return FileOperationProvider.getInstance().listFiles(file);
+      return fileOperationProvider.listFiles(file);
+    }
+  }
+
+  /**
+   * Reads the VFS snapshot rather than the file system. The files listed are remembered, so the
+   * visitor's checks on them don't need to look them up by path.
+   */
+  private static final class VirtualFileOperations extends FileOperationProvider {
+    private final LocalFileSystem fileSystem;
+    private final Map<File, VirtualFile> listedFiles = new ConcurrentHashMap<>();
+
+    private VirtualFileOperations(LocalFileSystem fileSystem) {
+      this.fileSystem = fileSystem;
+    }
+
+    @Override
+    public boolean exists(File file) {
+      VirtualFile vf = getVirtualFile(file);
+      return vf != null && vf.exists();
+    }
+
+    @Override
+    public boolean isDirectory(File file) {
+      VirtualFile vf = getVirtualFile(file);
+      return vf != null && vf.isDirectory();
+    }
+
+    @Override
+    public boolean isFile(File file) {
+      VirtualFile vf = getVirtualFile(file);
+      return vf != null && vf.exists() && !vf.isDirectory();
+    }
+
+    @Nullable
+    @Override
+    public File[] listFiles(File file) {
+      VirtualFile vf = getVirtualFile(file);
+      if (vf == null || !vf.isDirectory()) {
+        return null;
+      }
+      VirtualFile[] children = vf.getChildren();
+      File[] files = new File[children.length];
+      for (int i = 0; i < children.length; i++) {
+        files[i] = new File(file, children[i].getName());
+        listedFiles.put(files[i], children[i]);
+      }
+      return files;
+    }
+
+    @Nullable
+    private VirtualFile getVirtualFile(File file) {
+      VirtualFile vf = listedFiles.get(file);
+      return vf != null && vf.isValid() ? vf : fileSystem.findFileByPath(file.getPath());
     }
   }
 }
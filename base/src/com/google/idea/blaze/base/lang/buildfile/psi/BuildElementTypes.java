@@ -15,14 +15,19 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
-import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
-import com.intellij.psi.tree.IFileElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.BuildFileElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FuncallElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.FunctionStatementElementType;
+import com.google.idea.blaze.base.lang.buildfile.stubs.LoadStatementElementType;
 import com.intellij.psi.tree.TokenSet;
 
-/** Collects the types used by the PsiBuilder to construct the AST */
+/**
+ * Collects the types used by the PsiBuilder to construct the AST. Top-level rules, load statements
+ * and function definitions also have stubs.
+ */
 public interface BuildElementTypes {
 
-  IFileElementType BUILD_FILE = new IFileElementType(BuildFileType.INSTANCE.getLanguage());
+  BuildFileElementType BUILD_FILE = new BuildFileElementType();
 
   // Statements
   BuildElementType RETURN_STATEMENT = new BuildElementType("return", ReturnStatement.class);
@@ -32,9 +37,8 @@ public interface BuildElementTypes {
   BuildElementType AUGMENTED_ASSIGNMENT =
       new BuildElementType("aug_assign", AugmentedAssignmentStatement.class);
   BuildElementType FLOW_STATEMENT = new BuildElementType("flow", FlowStatement.class);
-  BuildElementType LOAD_STATEMENT = new BuildElementType("load", LoadStatement.class);
-  BuildElementType FUNCTION_STATEMENT =
-      new BuildElementType("function_def", FunctionStatement.class);
+  LoadStatementElementType LOAD_STATEMENT = new LoadStatementElementType();
+  FunctionStatementElementType FUNCTION_STATEMENT = new FunctionStatementElementType();
   BuildElementType FOR_STATEMENT = new BuildElementType("for", ForStatement.class);
   BuildElementType IF_STATEMENT = new BuildElementType("if", IfStatement.class);
 
@@ -66,8 +70,7 @@ public interface BuildElementTypes {
       new BuildElementType("dict_entry", DictionaryEntryLiteral.class);
   BuildElementType BINARY_OP_EXPRESSION =
       new BuildElementType("binary_op", BinaryOpExpression.class);
-  BuildElementType FUNCALL_EXPRESSION =
-      new BuildElementType("function_call", FuncallExpression.class);
+  FuncallElementType FUNCALL_EXPRESSION = new FuncallElementType();
   BuildElementType DOT_EXPRESSION = new BuildElementType("dot_expr", DotExpression.class);
   BuildElementType STRING_LITERAL = new BuildElementType("string", StringLiteral.class);
   BuildElementType INTEGER_LITERAL = new BuildElementType("int", IntegerLiteral.class);
@@ -15,9 +15,12 @@
  */
 package com.google.idea.blaze.base.lang.buildfile.psi;
 
+import com.google.common.collect.Iterables;
 import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
 import com.google.idea.blaze.base.lang.buildfile.references.QuoteType;
 import com.google.idea.blaze.base.lang.buildfile.search.BlazePackage;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildRuleNameIndex;
+import com.google.idea.blaze.base.lang.buildfile.search.LoadedSymbolIndex;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.workspace.WorkspaceHelper;
 import com.intellij.extapi.psi.PsiFileBase;
@@ -27,10 +30,15 @@ import com.intellij.openapi.project.Project;
 import com.intellij.psi.FileViewProvider;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiNamedElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubTree;
+import com.intellij.util.ArrayFactory;
 import com.intellij.util.PathUtil;
 import com.intellij.util.Processor;
 import icons.BlazeIcons;
 import java.io.File;
+import java.util.Arrays;
+import java.util.Collection;
 import javax.annotation.Nullable;
 import javax.swing.Icon;
 
@@ -128,10 +136,41 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
         : null;
   }
 
-  /** Finds a top-level rule with a "name" keyword argument with the given value. */
+  /** The top-level function calls in this file. Doesn't require parsing the file. */
+  public FuncallExpression[] getTopLevelFuncalls() {
+    return getTopLevelChildren(
+        BuildElementTypes.FUNCALL_EXPRESSION, FuncallExpression.class, FuncallExpression[]::new);
+  }
+
+  /** The load statements in this file. Doesn't require parsing the file. */
+  public LoadStatement[] getLoadStatements() {
+    return getTopLevelChildren(
+        BuildElementTypes.LOAD_STATEMENT, LoadStatement.class, LoadStatement[]::new);
+  }
+
+  /**
+   * Returns the top-level children of the given type. If the AST isn't already loaded, these come
+   * from the stub tree instead.
+   */
+  private <T extends BuildElement> T[] getTopLevelChildren(
+      IStubElementType<?, T> type, Class<T> psiClass, ArrayFactory<T> arrayFactory) {
+    StubTree stubTree = getStubTree();
+    return stubTree != null
+        ? stubTree.getRoot().getChildrenByType(type, arrayFactory)
+        : findChildrenByClass(psiClass);
+  }
+
+  /**
+   * Finds a top-level rule with a "name" keyword argument with the given value. Uses the rule name
+   * index where possible, to avoid creating PSI for every rule in the file.
+   */
   @Nullable
   public FuncallExpression findRule(String name) {
-    for (FuncallExpression expr : findChildrenByClass(FuncallExpression.class)) {
+    Collection<FuncallExpression> indexed = BuildRuleNameIndex.find(this, name);
+    if (indexed != null) {
+      return Iterables.getFirst(indexed, null);
+    }
+    for (FuncallExpression expr : getTopLevelFuncalls()) {
       String ruleName = expr.getNameArgumentValue();
       if (name.equals(ruleName)) {
         return expr;
@@ -150,9 +189,19 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
     return null;
   }
 
+  /**
+   * Finds a function loaded into this file under the given name. Uses the loaded symbol index where
+   * possible, to avoid creating PSI for every load statement in the file.
+   */
   @Nullable
   public FunctionStatement findLoadedFunction(String name) {
-    for (LoadStatement loadStatement : findChildrenByClass(LoadStatement.class)) {
+    Collection<LoadStatement> indexed = LoadedSymbolIndex.find(this, name);
+    Iterable<LoadStatement> loadStatements =
+        indexed != null ? indexed : Arrays.asList(getLoadStatements());
+    for (LoadStatement loadStatement : loadStatements) {
+      if (!Arrays.asList(loadStatement.getVisibleSymbolNames()).contains(name)) {
+        continue;
+      }
       for (LoadedSymbol loadedSymbol : loadStatement.getImportedSymbolElements()) {
         if (name.equals(loadedSymbol.getSymbolString())) {
           PsiElement element = loadedSymbol.getLoadedElement();
@@ -230,7 +279,8 @@ public class BuildFile extends PsiFileBase implements BuildElement, DocStringOwn
   }
 
   public FunctionStatement[] getFunctionDeclarations() {
-    return findChildrenByClass(FunctionStatement.class);
+    return getTopLevelChildren(
+        BuildElementTypes.FUNCTION_STATEMENT, FunctionStatement.class, FunctionStatement[]::new);
   }
 
   @Override
@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.lang.buildfile.references;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.lang.buildfile.globbing.GlobCache;
 import com.google.idea.blaze.base.lang.buildfile.globbing.UnixGlob;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.Expression;
@@ -114,12 +115,13 @@ public class GlobReference extends PsiPolyVariantCachingReference {
     Project project = element.getProject();
     try {
       List<File> files =
-          UnixGlob.forPath(containingDirectory)
-              .addPatterns(includes)
-              .addExcludes(excludes)
-              .setExcludeDirectories(directoriesExcluded)
-              .setDirectoryFilter(directoryFilter(project, containingDirectory.getPath()))
-              .glob();
+          GlobCache.getInstance(project)
+              .glob(
+                  containingDirectory,
+                  includes,
+                  excludes,
+                  directoriesExcluded,
+                  directoryFilter(project, containingDirectory.getPath()));
 
       List<ResolveResult> results = Lists.newArrayListWithCapacity(files.size());
       for (File file : files) {
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.StringLiteral;
+import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.TargetName;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.DefaultFileTypeSpecificInputFilter;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.DataInputOutputUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Indexes the labels referenced from BUILD and Skylark files, mapping each to the offsets of the
+ * string literals referencing them.
+ *
+ * <p>Absolute labels are normalized, so each spelling of a label maps to the same key.
+ * Package-local labels can't be normalized without knowing the file's package, so are keyed by
+ * target name, and should be looked up within a single package.
+ */
+public class BuildLabelIndex extends FileBasedIndexExtension<String, List<Integer>> {
+
+  /** Whether to look up labels via this index, rather than searching text. */
+  private static final BoolExperiment enabled = new BoolExperiment("blaze.build.label.index", true);
+
+  static final ID<String, List<Integer>> NAME = ID.create("blaze.BuildLabelIndex");
+  private static final int VERSION = 2;
+
+  /** The key for references to a label, in any of its absolute forms. */
+  static String labelKey(Label label) {
+    return label.toString();
+  }
+
+  /** The key for references to any target in the label's package. */
+  static String packageKey(Label label) {
+    return "package:" + label.toString().split(":", 2)[0];
+  }
+
+  /** The key for package-local references to a target name, with or without a leading colon. */
+  static String localKey(String targetName) {
+    return ":" + targetName;
+  }
+
+  /** The key for loads of a Skylark file using the deprecated, colon-free form of its label. */
+  static String deprecatedLoadKey(String path) {
+    return "load:" + path;
+  }
+
+  /**
+   * Returns the files in scope containing indexed string literals for {@code key}, along with the
+   * start offsets of those literals.
+   */
+  static List<Pair<VirtualFile, List<Integer>>> find(
+      Project project, String key, GlobalSearchScope scope) {
+    List<Pair<VirtualFile, List<Integer>>> results = new ArrayList<>();
+    FileBasedIndex.getInstance()
+        .processValues(
+            NAME,
+            key,
+            /* inFile= */ null,
+            (file, offsets) -> {
+              results.add(Pair.create(file, offsets));
+              return true;
+            },
+            GlobalSearchScope.getScopeRestrictedByFileTypes(scope, BuildFileType.INSTANCE));
+    return results;
+  }
+
+  /** Whether the index can currently be used to look up labels. */
+  public static boolean isAvailable(Project project) {
+    return enabled.getValue() && !DumbService.isDumb(project);
+  }
+
+  /** Returns the indexed string literal starting at {@code offset}, if any. */
+  @Nullable
+  static StringLiteral findStringLiteral(PsiFile file, int offset) {
+    PsiElement leaf = file.findElementAt(offset);
+    StringLiteral literal = PsiTreeUtil.getParentOfType(leaf, StringLiteral.class, false);
+    return literal != null && literal.getTextRange().getStartOffset() == offset ? literal : null;
+  }
+
+  @Override
+  public ID<String, List<Integer>> getName() {
+    return NAME;
+  }
+
+  @Override
+  public DataIndexer<String, List<Integer>, FileContent> getIndexer() {
+    return BuildLabelIndex::index;
+  }
+
+  @Override
+  public KeyDescriptor<String> getKeyDescriptor() {
+    return EnumeratorStringDescriptor.INSTANCE;
+  }
+
+  @Override
+  public DataExternalizer<List<Integer>> getValueExternalizer() {
+    return OffsetsExternalizer.INSTANCE;
+  }
+
+  @Override
+  public int getVersion() {
+    return VERSION;
+  }
+
+  @Override
+  public FileBasedIndex.InputFilter getInputFilter() {
+    return new DefaultFileTypeSpecificInputFilter(BuildFileType.INSTANCE);
+  }
+
+  @Override
+  public boolean dependsOnFileContent() {
+    return true;
+  }
+
+  private static Map<String, List<Integer>> index(FileContent content) {
+    Map<String, List<Integer>> offsets = new HashMap<>();
+    PsiFile file = content.getPsiFile();
+    for (StringLiteral literal : PsiTreeUtil.findChildrenOfType(file, StringLiteral.class)) {
+      String string = literal.getStringContents();
+      if (LabelUtils.isAbsolute(string)) {
+        Label label = LabelUtils.createLabelFromString(/* blazePackage= */ null, string);
+        if (label == null) {
+          continue;
+        }
+        add(offsets, labelKey(label), literal);
+        add(offsets, packageKey(label), literal);
+        if (!string.contains(":") && isLoadedFile(literal)) {
+          add(offsets, deprecatedLoadKey(string), literal);
+        }
+      } else {
+        String targetName = string.startsWith(":") ? string.substring(1) : string;
+        if (TargetName.createIfValid(targetName) != null) {
+          add(offsets, localKey(targetName), literal);
+        }
+      }
+    }
+    return offsets;
+  }
+
+  private static boolean isLoadedFile(StringLiteral literal) {
+    LoadStatement load = literal.getLoadStatementParent();
+    return load != null && literal.equals(load.getImportPsiElement());
+  }
+
+  private static void add(Map<String, List<Integer>> offsets, String key, StringLiteral literal) {
+    int offset = literal.getTextRange().getStartOffset();
+    offsets.computeIfAbsent(key, k -> new ArrayList<>()).add(offset);
+  }
+
+  private static class OffsetsExternalizer implements DataExternalizer<List<Integer>> {
+    static final OffsetsExternalizer INSTANCE = new OffsetsExternalizer();
+
+    @Override
+    public void save(DataOutput out, List<Integer> offsets) throws IOException {
+      DataInputOutputUtil.writeINT(out, offsets.size());
+      int previous = 0;
+      for (int offset : offsets) {
+        // offsets are ascending, so store the (smaller) deltas between them
+        DataInputOutputUtil.writeINT(out, offset - previous);
+        previous = offset;
+      }
+    }
+
+    @Override
+    public List<Integer> read(DataInput in) throws IOException {
+      int count = DataInputOutputUtil.readINT(in);
+      ImmutableList.Builder<Integer> offsets = ImmutableList.builderWithExpectedSize(count);
+      int offset = 0;
+      for (int i = 0; i < count; i++) {
+        offset += DataInputOutputUtil.readINT(in);
+        offsets.add(offset);
+      }
+      return offsets.build();
+    }
+  }
+}
@@ -20,14 +20,20 @@ import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile.BlazeFileType;
 import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
 import com.google.idea.blaze.base.lang.buildfile.psi.NamedBuildElement;
+import com.google.idea.blaze.base.lang.buildfile.psi.StringLiteral;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.lang.buildfile.references.LabelUtils;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.openapi.application.QueryExecutorBase;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDirectory;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiNamedElement;
 import com.intellij.psi.PsiReference;
 import com.intellij.psi.search.GlobalSearchScope;
 import com.intellij.psi.search.LocalSearchScope;
@@ -38,7 +44,10 @@ import com.intellij.util.Processor;
 import java.util.List;
 import javax.annotation.Nullable;
 
-/** String search for references in BUILD files */
+/**
+ * Searches for references in BUILD files, via the {@link BuildLabelIndex} where possible, otherwise
+ * by string search.
+ */
 public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, SearchParameters> {
 
   public BuildReferenceSearcher() {
@@ -48,8 +57,8 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
   @Override
   public void processQuery(SearchParameters params, Processor<? super PsiReference> consumer) {
     PsiElement element = params.getElementToSearch();
-    if (element instanceof NamedBuildElement) {
-      String fnName = ((NamedBuildElement) element).getName();
+    if (element instanceof NamedBuildElement || element instanceof FunctionStatement) {
+      String fnName = ((PsiNamedElement) element).getName();
       if (fnName != null) {
         searchForString(params, element, fnName);
       }
@@ -58,7 +67,7 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
 
     PsiFile file = ResolveUtil.asFileSearch(element);
     if (file != null) {
-      processFileReferences(params, file);
+      processFileReferences(params, file, consumer);
       return;
     }
     if (!(element instanceof FuncallExpression)) {
@@ -74,6 +83,19 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
       searchForExternalWorkspace(params, localFile, funcall);
       return;
     }
+    if (useIndex(params)) {
+      GlobalSearchScope scope = (GlobalSearchScope) params.getScopeDeterminedByUser();
+      // package-local references are only valid from the rule's own BUILD file
+      GlobalSearchScope localScope = scope.intersectWith(GlobalSearchScope.fileScope(localFile));
+      if (searchIndex(element, scope, BuildLabelIndex.labelKey(label), consumer)) {
+        searchIndex(
+            element,
+            localScope,
+            BuildLabelIndex.localKey(label.targetName().toString()),
+            consumer);
+      }
+      return;
+    }
     List<String> stringsToSearch = LabelUtils.getAllValidLabelStrings(label, true);
     for (String string : stringsToSearch) {
       if (LabelUtils.isAbsolute(string)) {
@@ -89,10 +111,18 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
   }
 
   /** Find all references to the given file within BUILD files. */
-  private void processFileReferences(SearchParameters params, PsiFile file) {
+  private void processFileReferences(
+      SearchParameters params, PsiFile file, Processor<? super PsiReference> consumer) {
+    boolean useIndex = useIndex(params);
     if (file instanceof BuildFile) {
       BuildFile buildFile = (BuildFile) file;
-      processBuildFileReferences(params, buildFile);
+      if (useIndex) {
+        if (!searchIndexForBuildFile(params, buildFile, consumer)) {
+          return;
+        }
+      } else {
+        processBuildFileReferences(params, buildFile);
+      }
       if (buildFile.getBlazeFileType() == BlazeFileType.BuildPackage) {
         return;
       }
@@ -107,6 +137,19 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
     if (label == null) {
       return;
     }
+    if (useIndex) {
+      GlobalSearchScope scope = (GlobalSearchScope) params.getScopeDeterminedByUser();
+      if (!(file instanceof BuildFile)
+          && !searchIndex(file, scope, BuildLabelIndex.labelKey(label), consumer)) {
+        return;
+      }
+      searchIndex(
+          file,
+          scope.intersectWith(blazePackage.getSearchScope(true)),
+          BuildLabelIndex.localKey(label.targetName().toString()),
+          consumer);
+      return;
+    }
     if (!(file instanceof BuildFile)) {
       // search globally, for an absolute label reference
       String absoluteLabel = String.format("//%s:%s", label.blazePackage(), label.targetName());
@@ -143,6 +186,68 @@ public class BuildReferenceSearcher extends QueryExecutorBase<PsiReference, Sear
     }
   }
 
+  /**
+   * Find references to both the file itself, and build targets defined in the file, via the {@link
+   * BuildLabelIndex}. Returns false if the consumer stopped the search.
+   */
+  private static boolean searchIndexForBuildFile(
+      SearchParameters params, BuildFile file, Processor<? super PsiReference> consumer) {
+    Label label = file.getBuildLabel();
+    if (label == null) {
+      return true;
+    }
+    GlobalSearchScope scope = (GlobalSearchScope) params.getScopeDeterminedByUser();
+    if (file.getBlazeFileType() == BlazeFileType.BuildPackage) {
+      return searchIndex(file, scope, BuildLabelIndex.packageKey(label), consumer);
+    }
+    return searchIndex(file, scope, BuildLabelIndex.labelKey(label), consumer)
+        && searchIndex(
+            file,
+            scope,
+            BuildLabelIndex.deprecatedLoadKey(label.toString().replace(':', '/')),
+            consumer);
+  }
+
+  /**
+   * Whether to look up label references in the {@link BuildLabelIndex}. Searches in local scopes,
+   * typically a single file, are left to the text search.
+   */
+  private static boolean useIndex(SearchParameters params) {
+    return BuildLabelIndex.isAvailable(params.getProject())
+        && params.getScopeDeterminedByUser() instanceof GlobalSearchScope;
+  }
+
+  /**
+   * Passes the references to {@code element} from the string literals indexed under {@code key} to
+   * the consumer. Returns false if the consumer stopped the search.
+   */
+  private static boolean searchIndex(
+      PsiElement element,
+      GlobalSearchScope scope,
+      String key,
+      Processor<? super PsiReference> consumer) {
+    PsiManager manager = element.getManager();
+    for (Pair<VirtualFile, List<Integer>> hit :
+        BuildLabelIndex.find(element.getProject(), key, scope)) {
+      PsiFile file = manager.findFile(hit.first);
+      if (file == null) {
+        continue;
+      }
+      for (int offset : hit.second) {
+        StringLiteral literal = BuildLabelIndex.findStringLiteral(file, offset);
+        if (literal == null) {
+          continue;
+        }
+        for (PsiReference reference : literal.getReferences()) {
+          if (reference.isReferenceTo(element) && !consumer.process(reference)) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+
   /**
    * Search for package-local references.<br>
    * Returns null if the resulting scope is empty
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StringStubIndexExtension;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.stubs.StubIndexKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Indexes the top-level rules of BUILD files by their "name" argument, so that a rule can be found
+ * without parsing its BUILD file, or creating PSI for every other rule in it.
+ */
+public class BuildRuleNameIndex extends StringStubIndexExtension<FuncallExpression> {
+
+  /** Whether to look up rules and loaded symbols via the stub indexes. */
+  private static final BoolExperiment enabled = new BoolExperiment("blaze.build.stub.index", true);
+
+  public static final StubIndexKey<String, FuncallExpression> KEY =
+      StubIndexKey.createIndexKey("blaze.BuildRuleNameIndex");
+
+  /**
+   * Returns the scope to look up the file's contents in, or null if the stub indexes can't be used
+   * for it. Files with a loaded AST are cheaper to search directly, and may have changes which
+   * haven't been indexed yet.
+   */
+  @Nullable
+  static GlobalSearchScope scopeIfAvailable(BuildFile file) {
+    Project project = file.getProject();
+    VirtualFile vf = file.getViewProvider().getVirtualFile();
+    if (!enabled.getValue()
+        || file.isContentsLoaded()
+        || DumbService.isDumb(project)
+        || !GlobalSearchScope.allScope(project).contains(vf)) {
+      return null;
+    }
+    return GlobalSearchScope.fileScope(project, vf);
+  }
+
+  /**
+   * Returns the top-level rules in the file with the given name, or null if the index can't be
+   * used for this file.
+   */
+  @Nullable
+  public static Collection<FuncallExpression> find(BuildFile file, String name) {
+    GlobalSearchScope scope = scopeIfAvailable(file);
+    if (scope == null) {
+      return null;
+    }
+    return StubIndex.getElements(KEY, name, file.getProject(), scope, FuncallExpression.class);
+  }
+
+  /**
+   * Returns the top-level rules in the file whose names start with the given prefix, or null if
+   * the index can't be used for this file.
+   */
+  @Nullable
+  public static List<FuncallExpression> findWithPrefix(BuildFile file, String prefix) {
+    GlobalSearchScope scope = scopeIfAvailable(file);
+    if (scope == null) {
+      return null;
+    }
+    Project project = file.getProject();
+    List<String> names = new ArrayList<>();
+    StubIndex.getInstance()
+        .processAllKeys(
+            KEY,
+            name -> {
+              if (name.startsWith(prefix)) {
+                names.add(name);
+              }
+              return true;
+            },
+            scope,
+            /* idFilter= */ null);
+    List<FuncallExpression> rules = new ArrayList<>();
+    for (String name : names) {
+      rules.addAll(StubIndex.getElements(KEY, name, project, scope, FuncallExpression.class));
+    }
+    return rules;
+  }
+
+  @Override
+  public StubIndexKey<String, FuncallExpression> getKey() {
+    return KEY;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.stubs.StringStubIndexExtension;
+import com.intellij.psi.stubs.StubIndex;
+import com.intellij.psi.stubs.StubIndexKey;
+import java.util.Collection;
+import javax.annotation.Nullable;
+
+/** Indexes the load statements of BUILD and Skylark files by the symbols they make visible. */
+public class LoadedSymbolIndex extends StringStubIndexExtension<LoadStatement> {
+
+  public static final StubIndexKey<String, LoadStatement> KEY =
+      StubIndexKey.createIndexKey("blaze.LoadedSymbolIndex");
+
+  /**
+   * Returns the load statements in the file making the given symbol visible, or null if the index
+   * can't be used for this file.
+   */
+  @Nullable
+  public static Collection<LoadStatement> find(BuildFile file, String symbol) {
+    GlobalSearchScope scope = BuildRuleNameIndex.scopeIfAvailable(file);
+    if (scope == null) {
+      return null;
+    }
+    return StubIndex.getElements(KEY, symbol, file.getProject(), scope, LoadStatement.class);
+  }
+
+  @Override
+  public StubIndexKey<String, LoadStatement> getKey() {
+    return KEY;
+  }
+}
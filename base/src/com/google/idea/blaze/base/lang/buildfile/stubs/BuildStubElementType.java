@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.language.BuildFileType;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildElementTypes;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.stubs.IStubElementType;
+import com.intellij.psi.stubs.StubElement;
+
+/**
+ * The stub-based counterpart of {@link
+ * com.google.idea.blaze.base.lang.buildfile.psi.BuildElementType}.
+ *
+ * <p>Only top-level elements have stubs: these are all that's needed to find rules, functions and
+ * loaded symbols by name, and keeps the stub tree small. Rules and loaded symbols are also indexed
+ * by name, in {@link com.google.idea.blaze.base.lang.buildfile.search.BuildRuleNameIndex} and
+ * {@link com.google.idea.blaze.base.lang.buildfile.search.LoadedSymbolIndex}.
+ */
+public abstract class BuildStubElementType<S extends StubElement<P>, P extends PsiElement>
+    extends IStubElementType<S, P> {
+
+  BuildStubElementType(String debugName) {
+    super(debugName, BuildFileType.INSTANCE.getLanguage());
+  }
+
+  /** Creates the AST-backed PSI element, for use by the parser definition. */
+  public abstract P createElement(ASTNode node);
+
+  @Override
+  public String getExternalId() {
+    return "build." + this;
+  }
+
+  @Override
+  public boolean shouldCreateStub(ASTNode node) {
+    ASTNode parent = node.getTreeParent();
+    return parent != null && parent.getElementType() == BuildElementTypes.BUILD_FILE;
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.search.BuildRuleNameIndex;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import java.io.IOException;
+
+/** Element type for function calls. */
+public class FuncallElementType extends BuildStubElementType<FuncallStub, FuncallExpression> {
+
+  public FuncallElementType() {
+    super("function_call");
+  }
+
+  @Override
+  public FuncallExpression createElement(ASTNode node) {
+    return new FuncallExpression(node);
+  }
+
+  @Override
+  public FuncallExpression createPsi(FuncallStub stub) {
+    return new FuncallExpression(stub);
+  }
+
+  @Override
+  public FuncallStub createStub(FuncallExpression psi, StubElement<?> parentStub) {
+    return new FuncallStub(parentStub, this, psi.getFunctionName(), psi.getNameArgumentValue());
+  }
+
+  @Override
+  public void serialize(FuncallStub stub, StubOutputStream out) throws IOException {
+    out.writeName(stub.getFunctionName());
+    out.writeName(stub.getNameArgumentValue());
+  }
+
+  @Override
+  public FuncallStub deserialize(StubInputStream in, StubElement<?> parentStub)
+      throws IOException {
+    return new FuncallStub(parentStub, this, in.readNameString(), in.readNameString());
+  }
+
+  @Override
+  public void indexStub(FuncallStub stub, IndexSink sink) {
+    String name = stub.getNameArgumentValue();
+    if (name != null) {
+      sink.occurrence(BuildRuleNameIndex.KEY, name);
+    }
+  }
+}
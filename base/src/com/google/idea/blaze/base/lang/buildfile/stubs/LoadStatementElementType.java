@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.lang.buildfile.search.LoadedSymbolIndex;
+import com.intellij.lang.ASTNode;
+import com.intellij.psi.stubs.IndexSink;
+import com.intellij.psi.stubs.StubElement;
+import com.intellij.psi.stubs.StubInputStream;
+import com.intellij.psi.stubs.StubOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Objects;
+
+/** Element type for load statements. */
+public class LoadStatementElementType
+    extends BuildStubElementType<LoadStatementStub, LoadStatement> {
+
+  public LoadStatementElementType() {
+    super("load");
+  }
+
+  @Override
+  public LoadStatement createElement(ASTNode node) {
+    return new LoadStatement(node);
+  }
+
+  @Override
+  public LoadStatement createPsi(LoadStatementStub stub) {
+    return new LoadStatement(stub);
+  }
+
+  @Override
+  public LoadStatementStub createStub(LoadStatement psi, StubElement<?> parentStub) {
+    ImmutableList<String> symbols =
+        Arrays.stream(psi.getVisibleSymbolNames())
+            .filter(Objects::nonNull)
+            .collect(ImmutableList.toImmutableList());
+    return new LoadStatementStub(parentStub, this, psi.getImportedPath(), symbols);
+  }
+
+  @Override
+  public void serialize(LoadStatementStub stub, StubOutputStream out) throws IOException {
+    out.writeName(stub.getImportedPath());
+    out.writeVarInt(stub.getVisibleSymbolNames().size());
+    for (String symbol : stub.getVisibleSymbolNames()) {
+      out.writeName(symbol);
+    }
+  }
+
+  @Override
+  public LoadStatementStub deserialize(StubInputStream in, StubElement<?> parentStub)
+      throws IOException {
+    String importedPath = in.readNameString();
+    int count = in.readVarInt();
+    ImmutableList.Builder<String> symbols = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      symbols.add(in.readNameString());
+    }
+    return new LoadStatementStub(parentStub, this, importedPath, symbols.build());
+  }
+
+  @Override
+  public void indexStub(LoadStatementStub stub, IndexSink sink) {
+    for (String symbol : stub.getVisibleSymbolNames()) {
+      sink.occurrence(LoadedSymbolIndex.KEY, symbol);
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.google.idea.blaze.base.model;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.devtools.intellij.model.ProjectData;
 import com.google.idea.blaze.base.command.info.BlazeInfo;
 import com.google.idea.blaze.base.ideinfo.ProtoWrapper;
@@ -82,6 +83,26 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
         SyncState.fromProto(proto.getSyncState()));
   }
 
+  /**
+   * Parses project data from a proto whose target map is stored separately, using the given
+   * {@link TargetMap} instead.
+   */
+  static BlazeProjectData fromProto(
+      BuildSystemName buildSystemName, ProjectData.BlazeProjectData proto, TargetMap targetMap) {
+    BlazeProjectData data = fromProto(buildSystemName, proto);
+    ProjectTargetData targetData =
+        new ProjectTargetData(
+            targetMap, data.targetData.ideInterfaceState, data.targetData.remoteOutputs);
+    return new BlazeProjectData(
+        targetData,
+        data.blazeInfo,
+        data.blazeVersionData,
+        data.workspacePathResolver,
+        data.artifactLocationDecoder,
+        data.workspaceLanguageSettings,
+        data.syncState);
+  }
+
   private static ProjectTargetData parseTargetData(ProjectData.BlazeProjectData proto) {
     if (proto.hasTargetData()) {
       return ProjectTargetData.fromProto(proto.getTargetData());
@@ -99,6 +120,19 @@ public final class BlazeProjectData implements ProtoWrapper<ProjectData.BlazePro
 
   @Override
   public ProjectData.BlazeProjectData toProto() {
+    return toProto(targetData);
+  }
+
+  /** Returns a proto of everything except the target map, which is serialized separately. */
+  ProjectData.BlazeProjectData toProtoWithoutTargetMap() {
+    return toProto(
+        new ProjectTargetData(
+            new TargetMap(ImmutableMap.of()),
+            targetData.ideInterfaceState,
+            targetData.remoteOutputs));
+  }
+
+  private ProjectData.BlazeProjectData toProto(ProjectTargetData targetData) {
     return ProjectData.BlazeProjectData.newBuilder()
         .setTargetData(targetData.toProto())
         .setBlazeInfo(blazeInfo.toProto())
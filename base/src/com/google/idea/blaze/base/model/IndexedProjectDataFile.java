@@ -0,0 +1,447 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.devtools.intellij.model.ProjectData;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.settings.BuildSystemName;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * An uncompressed, indexed on-disk format for {@link BlazeProjectData}, in which each target is
+ * stored as a separately addressable segment.
+ *
+ * <p>On load, only the non-target project data and the target index are decoded. The file is
+ * memory-mapped where possible, and individual {@link TargetIdeInfo}s are decoded on first access.
+ * Lookups of individual targets (e.g. from highlighting, or persisted values derived from the
+ * project data) stay lazy. Anything iterating over all targets decodes them all, including the
+ * next sync, which updates the sync time of every target it keeps.
+ *
+ * <p>Sync times are stored in the index rather than in each target's segment, so that a target
+ * whose sync time alone changed can be saved by copying its previously serialized segment.
+ *
+ * <p>File layout (all integers big-endian):
+ *
+ * <pre>
+ *   header:       magic (int), version (int), index offset (long), target count (int),
+ *                 project data offset (long), project data length (int)
+ *   targets:      serialized {@link IntellijIdeInfo.TargetIdeInfo} protos, back to back
+ *   project data: serialized {@link ProjectData.BlazeProjectData}, without the target map
+ *   index:        per target: key length (int), serialized {@link IntellijIdeInfo.TargetKey},
+ *                 target offset (long), target length (int), sync time millis (long, 0 if
+ *                 none, overriding any in the target), CRC32 of the target (int)
+ * </pre>
+ *
+ * <p>Every target's checksum is verified on load, without decoding it, so that a corrupt file fails
+ * to load as a whole rather than silently missing targets once they're decoded.
+ */
+public final class IndexedProjectDataFile implements TargetMap.LazyTargetSource {
+
+  private static final Logger logger = Logger.getInstance(IndexedProjectDataFile.class);
+
+  private static final int MAGIC = 0x424c5a49;
+  private static final int VERSION = 3;
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 + 4;
+
+  /** The location of a single serialized target within the file, its sync time and checksum. */
+  private static final class Segment {
+    final long offset;
+    final int length;
+    final long syncTimeMillis;
+    final int checksum;
+
+    Segment(long offset, int length, long syncTimeMillis, int checksum) {
+      this.offset = offset;
+      this.length = length;
+      this.syncTimeMillis = syncTimeMillis;
+      this.checksum = checksum;
+    }
+  }
+
+  private final File file;
+  @Nullable private final ByteBuffer buffer;
+  private final ImmutableMap<TargetKey, Segment> index;
+  private final Map<TargetKey, Optional<TargetIdeInfo>> decoded = new ConcurrentHashMap<>();
+  private final BlazeProjectData projectData;
+  // the number of targets copied from the previous file when this one was written
+  private final int copiedTargetCount;
+
+  private IndexedProjectDataFile(
+      BuildSystemName buildSystemName,
+      File file,
+      @Nullable ByteBuffer buffer,
+      ImmutableMap<TargetKey, Segment> index,
+      ProjectData.BlazeProjectData projectDataProto) {
+    this.file = file;
+    this.buffer = buffer;
+    this.index = index;
+    this.projectData =
+        BlazeProjectData.fromProto(buildSystemName, projectDataProto, TargetMap.lazy(this));
+    this.copiedTargetCount = 0;
+  }
+
+  /** A file which was just written from the given, already decoded, project data. */
+  private IndexedProjectDataFile(
+      File file,
+      @Nullable ByteBuffer buffer,
+      ImmutableMap<TargetKey, Segment> index,
+      BlazeProjectData projectData,
+      int copiedTargetCount) {
+    this.file = file;
+    this.buffer = buffer;
+    this.index = index;
+    this.projectData = projectData;
+    this.copiedTargetCount = copiedTargetCount;
+    // the written targets are known to match their segments, so can be copied when next saving
+    projectData
+        .getTargetMap()
+        .map()
+        .forEach((key, target) -> decoded.put(key, Optional.of(target)));
+  }
+
+  /**
+   * Returns the project data. For a loaded file, its targets are decoded lazily from the file.
+   */
+  public BlazeProjectData getProjectData() {
+    return projectData;
+  }
+
+  /** Returns the number of targets decoded so far. */
+  @VisibleForTesting
+  int getDecodedTargetCount() {
+    return decoded.size();
+  }
+
+  /** Returns the number of targets copied from the previous file when this one was written. */
+  @VisibleForTesting
+  int getCopiedTargetCount() {
+    return copiedTargetCount;
+  }
+
+  /** Loads project data from the given file, without decoding any targets. */
+  public static IndexedProjectDataFile load(BuildSystemName buildSystemName, File file)
+      throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE) {
+        throw new IOException("Truncated project data file: " + file);
+      }
+      ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IOException("Unrecognized project data format: " + file);
+      }
+      long indexOffset = header.getLong();
+      int targetCount = header.getInt();
+      long projectDataOffset = header.getLong();
+      int projectDataLength = header.getInt();
+      if (targetCount < 0
+          || projectDataOffset < HEADER_SIZE
+          || projectDataLength < 0
+          || projectDataOffset + projectDataLength != indexOffset
+          || indexOffset > size
+          || size - indexOffset > Integer.MAX_VALUE) {
+        throw new IOException("Corrupt project data file header: " + file);
+      }
+
+      ProjectData.BlazeProjectData projectDataProto =
+          ProjectData.BlazeProjectData.parseFrom(
+              readFully(channel, projectDataOffset, projectDataLength));
+
+      ByteBuffer indexBuffer = readFully(channel, indexOffset, (int) (size - indexOffset));
+      ImmutableMap.Builder<TargetKey, Segment> index =
+          ImmutableMap.builderWithExpectedSize(targetCount);
+      try {
+        for (int i = 0; i < targetCount; i++) {
+          int keyLength = indexBuffer.getInt();
+          ByteBuffer keyBytes = indexBuffer.slice();
+          keyBytes.limit(keyLength);
+          indexBuffer.position(indexBuffer.position() + keyLength);
+          TargetKey key = TargetKey.fromProto(IntellijIdeInfo.TargetKey.parseFrom(keyBytes));
+          Segment segment =
+              new Segment(
+                  indexBuffer.getLong(),
+                  indexBuffer.getInt(),
+                  indexBuffer.getLong(),
+                  indexBuffer.getInt());
+          if (segment.offset < HEADER_SIZE
+              || segment.length < 0
+              || segment.offset + segment.length > projectDataOffset) {
+            throw new IOException("Corrupt project data file index: " + file);
+          }
+          index.put(key, segment);
+        }
+      } catch (BufferUnderflowException | IllegalArgumentException e) {
+        throw new IOException("Corrupt project data file index: " + file, e);
+      }
+      ByteBuffer buffer = mapTargets(channel, projectDataOffset);
+      IndexedProjectDataFile loaded =
+          new IndexedProjectDataFile(
+              buildSystemName, file, buffer, index.build(), projectDataProto);
+      loaded.verifySegments(channel);
+      if (buffer == null) {
+        // targets are read from disk on demand, so decode them all before the file can change
+        loaded.projectData.getTargetMap().map();
+      }
+      return loaded;
+    }
+  }
+
+  /** Checks every target segment against its checksum, throwing if any doesn't match. */
+  private void verifySegments(FileChannel channel) throws IOException {
+    CRC32 crc = new CRC32();
+    for (Map.Entry<TargetKey, Segment> entry : index.entrySet()) {
+      Segment segment = entry.getValue();
+      crc.reset();
+      crc.update(readSegment(segment, channel));
+      if ((int) crc.getValue() != segment.checksum) {
+        throw new IOException(
+            "Corrupt target " + entry.getKey() + " in project data file: " + file);
+      }
+    }
+  }
+
+  /**
+   * Returns a buffer containing the start of the file up to the end of the target data, or null if
+   * targets should instead be read from disk on demand.
+   */
+  @Nullable
+  private static ByteBuffer mapTargets(FileChannel channel, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      return null;
+    }
+    if (SystemInfo.isWindows) {
+      // mapped files can't be replaced on Windows, which would prevent saving the next sync
+      return readFully(channel, 0, (int) length);
+    }
+    return channel.map(MapMode.READ_ONLY, 0, length);
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long offset, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of project data file");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Reads a single segment, from the mapped buffer if there is one, otherwise from the given
+   * channel, or else from a newly opened channel.
+   */
+  private ByteBuffer readSegment(Segment segment, @Nullable FileChannel channel)
+      throws IOException {
+    if (buffer == null) {
+      if (channel != null) {
+        return readFully(channel, segment.offset, segment.length);
+      }
+      try (FileChannel newChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        return readFully(newChannel, segment.offset, segment.length);
+      }
+    }
+    ByteBuffer slice = buffer.duplicate();
+    slice.position((int) segment.offset);
+    slice.limit((int) segment.offset + segment.length);
+    return slice.slice();
+  }
+
+  @Override
+  public ImmutableSet<TargetKey> keys() {
+    return index.keySet();
+  }
+
+  @Nullable
+  @Override
+  public TargetIdeInfo get(TargetKey key) {
+    Segment segment = index.get(key);
+    if (segment == null) {
+      return null;
+    }
+    return decoded.computeIfAbsent(key, k -> decode(segment)).orElse(null);
+  }
+
+  private Optional<TargetIdeInfo> decode(Segment segment) {
+    try {
+      return Optional.ofNullable(
+          TargetIdeInfo.fromProto(
+              IntellijIdeInfo.TargetIdeInfo.parseFrom(readSegment(segment, null)),
+              segment.syncTimeMillis != 0 ? Instant.ofEpochMilli(segment.syncTimeMillis) : null));
+    } catch (IOException e) {
+      // segments are verified on load, so this isn't just a corrupt file
+      logger.error("Failed to decode target from " + file, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Returns the serialized form of the given target if it was decoded from (or written to) this
+   * file, and is therefore known to be unchanged other than its sync time. Otherwise returns null.
+   */
+  @Nullable
+  private ByteBuffer getSerializedIfUnchanged(
+      TargetKey key, TargetIdeInfo target, @Nullable FileChannel channel) {
+    Optional<TargetIdeInfo> decodedTarget = decoded.get(key);
+    TargetIdeInfo previous = decodedTarget != null ? decodedTarget.orElse(null) : null;
+    if (previous == null
+        || (previous != target
+            // a segment's own sync time is only overridden if the target has one
+            && (target.getSyncTime() == null || !target.sharesInfoWith(previous)))) {
+      return null;
+    }
+    try {
+      return readSegment(index.get(key), channel);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes the given project data to disk, returning the written file. Pass it as {@code previous}
+   * when next writing project data, so that unchanged targets can be copied from it.
+   *
+   * <p>Targets which were loaded from or written to {@code previous} and haven't changed since,
+   * other than their sync time, are copied over as-is rather than being re-serialized. The file is
+   * written to a temporary location then moved into place, so a previously loaded (and possibly
+   * memory-mapped) version stays readable.
+   */
+  public static IndexedProjectDataFile write(
+      BlazeProjectData projectData, File file, @Nullable IndexedProjectDataFile previous)
+      throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    ImmutableMap<TargetKey, TargetIdeInfo> targets = projectData.getTargetMap().map();
+    Map<TargetKey, Segment> segments = new LinkedHashMap<>();
+    int copiedTargetCount = 0;
+    CRC32 crc = new CRC32();
+    long indexOffset;
+    long projectDataOffset;
+    int projectDataLength;
+    try (FileChannel previousChannel =
+            previous != null && previous.buffer == null
+                ? FileChannel.open(previous.file.toPath(), StandardOpenOption.READ)
+                : null;
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.write(new byte[HEADER_SIZE]);
+      long position = HEADER_SIZE;
+      for (Map.Entry<TargetKey, TargetIdeInfo> entry : targets.entrySet()) {
+        ByteBuffer serialized =
+            previous != null
+                ? previous.getSerializedIfUnchanged(
+                    entry.getKey(), entry.getValue(), previousChannel)
+                : null;
+        byte[] bytes;
+        if (serialized != null) {
+          bytes = toByteArray(serialized);
+          copiedTargetCount++;
+        } else {
+          bytes = entry.getValue().toProto().toByteArray();
+        }
+        out.write(bytes);
+        Instant syncTime = entry.getValue().getSyncTime();
+        crc.reset();
+        crc.update(bytes);
+        segments.put(
+            entry.getKey(),
+            new Segment(
+                position,
+                bytes.length,
+                syncTime != null ? syncTime.toEpochMilli() : 0,
+                (int) crc.getValue()));
+        position += bytes.length;
+      }
+
+      byte[] projectDataBytes = projectData.toProtoWithoutTargetMap().toByteArray();
+      out.write(projectDataBytes);
+      projectDataOffset = position;
+      projectDataLength = projectDataBytes.length;
+      indexOffset = position + projectDataLength;
+
+      for (Map.Entry<TargetKey, Segment> entry : segments.entrySet()) {
+        byte[] key = entry.getKey().toProto().toByteArray();
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeLong(entry.getValue().offset);
+        out.writeInt(entry.getValue().length);
+        out.writeLong(entry.getValue().syncTimeMillis);
+        out.writeInt(entry.getValue().checksum);
+      }
+    }
+    try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putLong(indexOffset)
+          .putInt(segments.size())
+          .putLong(projectDataOffset)
+          .putInt(projectDataLength)
+          .flip();
+      while (header.hasRemaining()) {
+        channel.write(header, header.position());
+      }
+    }
+    Files.move(
+        tempFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    ByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      // only mapped, rather than read into memory, as segments are just read when next saving
+      buffer =
+          projectDataOffset <= Integer.MAX_VALUE && !SystemInfo.isWindows
+              ? channel.map(MapMode.READ_ONLY, 0, projectDataOffset)
+              : null;
+    }
+    return new IndexedProjectDataFile(
+        file, buffer, ImmutableMap.copyOf(segments), projectData, copiedTargetCount);
+  }
+
+  private static byte[] toByteArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.LaneMetrics;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.Priority;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Schedules I/O tasks onto a thread pool, limiting how many run at once.
+ *
+ * <p>Queued {@link Priority#SYNC_BLOCKING} tasks always start before queued {@link
+ * Priority#BACKGROUND} tasks.
+ *
+ * <p>The concurrency limit adapts to the observed task latency (AIMD). While the recent average
+ * latency stays close to the long-term average, the limit grows by one for every 'limit' tasks
+ * completed while the scheduler was at least half busy. When the recent average latency rises well
+ * above the long-term average, the storage is assumed to be saturated and the limit is cut by 10%,
+ * at most once per recent-latency interval.
+ *
+ * <p>Only leaf tasks are timed. A task which submits further fetch tasks usually waits for them, so
+ * its latency includes their queueing time, and would make the scheduler back off in response to
+ * its own queue.
+ */
+final class AdaptiveIoScheduler {
+
+  /** Weight of each sample in the recent (short-term) latency average. */
+  private static final double SHORT_TERM_WEIGHT = 0.2;
+  /** Weight of each sample in the long-term latency average. */
+  private static final double LONG_TERM_WEIGHT = 0.01;
+  /** How much the recent latency may exceed the long-term latency before backing off. */
+  private static final double LATENCY_TOLERANCE = 2.0;
+  private static final double BACKOFF_RATIO = 0.9;
+  /** The number of tasks to observe before adjusting the limit for the first time. */
+  private static final int WARMUP_TASKS = 32;
+
+  /** The task running on the current thread, if any, across all schedulers. */
+  private static final ThreadLocal<QueuedTask> runningTask = new ThreadLocal<>();
+
+  private final FetchExecutor.Lane lane;
+  private final Executor threadPool;
+  private final LongSupplier nanoClock;
+  private final int minLimit;
+  private final int maxLimit;
+
+  private final Object lock = new Object();
+  private final ArrayDeque<QueuedTask> syncBlockingQueue = new ArrayDeque<>();
+  private final ArrayDeque<QueuedTask> backgroundQueue = new ArrayDeque<>();
+  private int inFlight = 0;
+  private double limit;
+  private long completedTasks = 0;
+  private long timedTasks = 0;
+  private double shortTermLatencyNanos = 0;
+  private double longTermLatencyNanos = 0;
+  private double queueWaitNanos = 0;
+  private long lastBackoffNanos = Long.MIN_VALUE;
+
+  AdaptiveIoScheduler(
+      FetchExecutor.Lane lane,
+      Executor threadPool,
+      int minLimit,
+      int initialLimit,
+      int maxLimit) {
+    this(lane, threadPool, System::nanoTime, minLimit, initialLimit, maxLimit);
+  }
+
+  @VisibleForTesting
+  AdaptiveIoScheduler(
+      FetchExecutor.Lane lane,
+      Executor threadPool,
+      LongSupplier nanoClock,
+      int minLimit,
+      int initialLimit,
+      int maxLimit) {
+    this.lane = lane;
+    this.threadPool = threadPool;
+    this.nanoClock = nanoClock;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = initialLimit;
+  }
+
+  /** Returns an executor service which submits tasks to this scheduler with the given priority. */
+  ListeningExecutorService executorService(Priority priority) {
+    return new PriorityExecutorService(priority);
+  }
+
+  void execute(Priority priority, Runnable task) {
+    QueuedTask parent = runningTask.get();
+    if (parent != null) {
+      parent.submittedChildren = true;
+    }
+    QueuedTask queued = new QueuedTask(task, nanoClock.getAsLong());
+    synchronized (lock) {
+      (priority == Priority.SYNC_BLOCKING ? syncBlockingQueue : backgroundQueue).add(queued);
+    }
+    startQueuedTasks();
+  }
+
+  /** Starts as many queued tasks as the current concurrency limit allows. */
+  private void startQueuedTasks() {
+    while (true) {
+      QueuedTask next;
+      synchronized (lock) {
+        if (inFlight >= getLimit()) {
+          return;
+        }
+        next = syncBlockingQueue.poll();
+        if (next == null) {
+          next = backgroundQueue.poll();
+        }
+        if (next == null) {
+          return;
+        }
+        inFlight++;
+      }
+      QueuedTask task = next;
+      try {
+        threadPool.execute(() -> run(task));
+      } catch (RejectedExecutionException e) {
+        synchronized (lock) {
+          inFlight--;
+        }
+        throw e;
+      }
+    }
+  }
+
+  private void run(QueuedTask task) {
+    long startNanos = nanoClock.getAsLong();
+    QueuedTask outer = runningTask.get();
+    runningTask.set(task);
+    try {
+      task.runnable.run();
+    } finally {
+      runningTask.set(outer);
+      long endNanos = nanoClock.getAsLong();
+      if (task.submittedChildren) {
+        onUntimedTaskCompleted();
+      } else {
+        onTaskCompleted(startNanos - task.queuedNanos, endNanos - startNanos, endNanos);
+      }
+      startQueuedTasks();
+    }
+  }
+
+  private void onUntimedTaskCompleted() {
+    synchronized (lock) {
+      inFlight--;
+      completedTasks++;
+    }
+  }
+
+  @VisibleForTesting
+  void onTaskCompleted(long waitNanos, long latencyNanos, long nowNanos) {
+    synchronized (lock) {
+      boolean wasBusy = inFlight * 2 >= getLimit();
+      inFlight--;
+      completedTasks++;
+      timedTasks++;
+      if (timedTasks == 1) {
+        shortTermLatencyNanos = latencyNanos;
+        longTermLatencyNanos = latencyNanos;
+        queueWaitNanos = waitNanos;
+        return;
+      }
+      shortTermLatencyNanos += SHORT_TERM_WEIGHT * (latencyNanos - shortTermLatencyNanos);
+      longTermLatencyNanos += LONG_TERM_WEIGHT * (latencyNanos - longTermLatencyNanos);
+      queueWaitNanos += SHORT_TERM_WEIGHT * (waitNanos - queueWaitNanos);
+      if (timedTasks < WARMUP_TASKS) {
+        return;
+      }
+      if (shortTermLatencyNanos > LATENCY_TOLERANCE * longTermLatencyNanos) {
+        if (lastBackoffNanos == Long.MIN_VALUE
+            || nowNanos - lastBackoffNanos > shortTermLatencyNanos) {
+          limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+          lastBackoffNanos = nowNanos;
+        }
+      } else if (wasBusy) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+    }
+  }
+
+  @VisibleForTesting
+  int getLimit() {
+    synchronized (lock) {
+      return (int) limit;
+    }
+  }
+
+  LaneMetrics getMetrics() {
+    synchronized (lock) {
+      return new LaneMetrics(
+          lane,
+          syncBlockingQueue.size(),
+          backgroundQueue.size(),
+          inFlight,
+          (int) limit,
+          completedTasks,
+          TimeUnit.NANOSECONDS.toMillis((long) queueWaitNanos),
+          TimeUnit.NANOSECONDS.toMillis((long) shortTermLatencyNanos));
+    }
+  }
+
+  private static final class QueuedTask {
+    final Runnable runnable;
+    final long queuedNanos;
+    /** Only accessed from the thread running this task. */
+    boolean submittedChildren = false;
+
+    QueuedTask(Runnable runnable, long queuedNanos) {
+      this.runnable = runnable;
+      this.queuedNanos = queuedNanos;
+    }
+  }
+
+  /**
+   * Adapts the scheduler to a {@link ListeningExecutorService}. Shared, so it can't be shut down.
+   */
+  private final class PriorityExecutorService extends AbstractListeningExecutorService {
+    private final Priority priority;
+
+    PriorityExecutorService(Priority priority) {
+      this.priority = priority;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      AdaptiveIoScheduler.this.execute(priority, command);
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+}
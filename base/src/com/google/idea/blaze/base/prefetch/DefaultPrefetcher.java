@@ -17,6 +17,7 @@ package com.google.idea.blaze.base.prefetch;
 
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.idea.blaze.base.command.buildresult.CasOutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
 import com.intellij.openapi.components.ServiceManager;
 import java.util.ArrayList;
@@ -24,8 +25,8 @@ import java.util.Collection;
 import java.util.List;
 
 /**
- * Implementation of {@link RemoteArtifactPrefetcher}. By default, IDE does not download any
- * artifacts to local directory.
+ * Implementation of {@link RemoteArtifactPrefetcher}. By default, IDE only downloads {@link
+ * CasOutputArtifact}s, into the shared local digest cache.
  */
 public class DefaultPrefetcher implements RemoteArtifactPrefetcher {
   @Override
@@ -53,14 +54,18 @@ public class DefaultPrefetcher implements RemoteArtifactPrefetcher {
         Collection<RemoteOutputArtifact> outputArtifacts) {
       List<ListenableFuture<?>> futures = new ArrayList<>();
       for (RemoteOutputArtifact remoteOutputArtifact : outputArtifacts) {
-        futures.add(FetchExecutor.EXECUTOR.submit(remoteOutputArtifact::prefetch));
+        futures.add(
+            FetchExecutor.executor(FetchExecutor.Lane.REMOTE, FetchExecutor.Priority.SYNC_BLOCKING)
+                .submit(remoteOutputArtifact::prefetch));
       }
       return Futures.allAsList(futures);
     }
 
     public static ListenableFuture<?> downloadArtifacts(
         String projectName, Collection<RemoteOutputArtifact> outputArtifacts) {
-      return Futures.immediateFuture(null);
+      return CasOutputArtifact.fetchAll(
+          outputArtifacts,
+          FetchExecutor.executor(FetchExecutor.Lane.REMOTE, FetchExecutor.Priority.SYNC_BLOCKING));
     }
 
     public static ListenableFuture<?> cleanupLocalCacheDir(String projectName) {
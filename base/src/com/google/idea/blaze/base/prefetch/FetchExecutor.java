@@ -15,14 +15,194 @@
  */
 package com.google.idea.blaze.base.prefetch;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.google.idea.common.experiments.ExperimentService;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.util.concurrency.AppExecutorUtil;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
-/** Shared executors for any prefetch/copy operations. */
+/**
+ * Shared executors for any prefetch/copy operations.
+ *
+ * <p>Local files and remote artifacts are scheduled in separate lanes, so slow remote reads don't
+ * hold up local ones. Each lane adapts how many tasks it runs at once to the latency it observes,
+ * and runs queued {@link Priority#SYNC_BLOCKING} work before queued {@link Priority#BACKGROUND}
+ * work.
+ *
+ * <p>If the adaptive scheduling experiment is turned off, all tasks go to a single bounded pool, as
+ * they did before the lanes were introduced.
+ */
 public class FetchExecutor {
-  private static final int MAX_THREADS = 128;
-  public static final ListeningExecutorService EXECUTOR =
+  private static final BoolExperiment adaptiveScheduling =
+      new BoolExperiment("blaze.fetch.executor.adaptive.scheduling", true);
+
+  private static final int LEGACY_THREADS = 128;
+
+  private static final ListeningExecutorService legacyExecutor =
       MoreExecutors.listeningDecorator(
-          AppExecutorUtil.createBoundedApplicationPoolExecutor("FetchExecutor", MAX_THREADS));
+          AppExecutorUtil.createBoundedApplicationPoolExecutor("FetchExecutor", LEGACY_THREADS));
+
+  /** The kind of storage a task reads from. */
+  public enum Lane {
+    LOCAL(/* minLimit= */ 8, /* initialLimit= */ 32, /* maxLimit= */ 64),
+    REMOTE(/* minLimit= */ 4, /* initialLimit= */ 16, /* maxLimit= */ 32);
+
+    private final AdaptiveIoScheduler scheduler;
+    private final ImmutableMap<Priority, ListeningExecutorService> executors;
+
+    Lane(int minLimit, int initialLimit, int maxLimit) {
+      // the scheduler never runs more than maxLimit tasks at once, so needs no more threads
+      this.scheduler =
+          new AdaptiveIoScheduler(
+              this,
+              AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                  "FetchExecutor-" + name().toLowerCase(Locale.ROOT), maxLimit),
+              minLimit,
+              initialLimit,
+              maxLimit);
+      this.executors =
+          Arrays.stream(Priority.values())
+              .collect(
+                  toImmutableMap(
+                      p -> p, p -> new SwitchingExecutorService(scheduler.executorService(p))));
+    }
+  }
+
+  /** Whether a sync (or another operation the user is waiting for) is blocked on a task. */
+  public enum Priority {
+    SYNC_BLOCKING,
+    BACKGROUND
+  }
+
+  /** Runs sync-blocking work on local files. */
+  public static final ListeningExecutorService EXECUTOR =
+      executor(Lane.LOCAL, Priority.SYNC_BLOCKING);
+
+  public static ListeningExecutorService executor(Lane lane, Priority priority) {
+    return lane.executors.get(priority);
+  }
+
+  /** Returns the executor for sync-blocking work reading the given artifact. */
+  public static ListeningExecutorService forArtifact(BlazeArtifact artifact) {
+    Lane lane = artifact instanceof RemoteOutputArtifact ? Lane.REMOTE : Lane.LOCAL;
+    return executor(lane, Priority.SYNC_BLOCKING);
+  }
+
+  private static boolean useAdaptiveScheduling() {
+    Application application = ApplicationManager.getApplication();
+    // experiments aren't available in some tests, or very early during startup
+    if (application == null || application.getComponent(ExperimentService.class) == null) {
+      return true;
+    }
+    return adaptiveScheduling.getValue();
+  }
+
+  /**
+   * Submits tasks to a lane's scheduler, or to the legacy executor if adaptive scheduling is turned
+   * off. The experiment is checked for each task, so it can be turned off without a restart.
+   */
+  private static final class SwitchingExecutorService extends AbstractListeningExecutorService {
+    private final ListeningExecutorService scheduled;
+
+    SwitchingExecutorService(ListeningExecutorService scheduled) {
+      this.scheduled = scheduled;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      (useAdaptiveScheduling() ? scheduled : legacyExecutor).execute(command);
+    }
+
+    @Override
+    public void shutdown() {}
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+      return false;
+    }
+  }
+
+  /** Returns a snapshot of the queue depths and latencies of each lane. */
+  public static ImmutableList<LaneMetrics> getMetrics() {
+    return Arrays.stream(Lane.values())
+        .map(lane -> lane.scheduler.getMetrics())
+        .collect(toImmutableList());
+  }
+
+  /** A snapshot of the state of a single lane. */
+  public static final class LaneMetrics {
+    public final Lane lane;
+    public final int queuedSyncBlockingTasks;
+    public final int queuedBackgroundTasks;
+    public final int runningTasks;
+    public final int concurrencyLimit;
+    public final long completedTasks;
+    /** Recent average time tasks spent queued. */
+    public final long queueWaitMillis;
+    /** Recent average time tasks spent running. */
+    public final long latencyMillis;
+
+    LaneMetrics(
+        Lane lane,
+        int queuedSyncBlockingTasks,
+        int queuedBackgroundTasks,
+        int runningTasks,
+        int concurrencyLimit,
+        long completedTasks,
+        long queueWaitMillis,
+        long latencyMillis) {
+      this.lane = lane;
+      this.queuedSyncBlockingTasks = queuedSyncBlockingTasks;
+      this.queuedBackgroundTasks = queuedBackgroundTasks;
+      this.runningTasks = runningTasks;
+      this.concurrencyLimit = concurrencyLimit;
+      this.completedTasks = completedTasks;
+      this.queueWaitMillis = queueWaitMillis;
+      this.latencyMillis = latencyMillis;
+    }
+
+    /** Returns the metrics in the key-value format used for event logging. */
+    public ImmutableMap<String, String> toLogValues() {
+      String prefix = lane.name().toLowerCase(Locale.ROOT) + "_";
+      return ImmutableMap.<String, String>builder()
+          .put(prefix + "queued_sync_blocking", Integer.toString(queuedSyncBlockingTasks))
+          .put(prefix + "queued_background", Integer.toString(queuedBackgroundTasks))
+          .put(prefix + "running", Integer.toString(runningTasks))
+          .put(prefix + "concurrency_limit", Integer.toString(concurrencyLimit))
+          .put(prefix + "completed", Long.toString(completedTasks))
+          .put(prefix + "queue_wait_ms", Long.toString(queueWaitMillis))
+          .put(prefix + "latency_ms", Long.toString(latencyMillis))
+          .build();
+    }
+  }
 }
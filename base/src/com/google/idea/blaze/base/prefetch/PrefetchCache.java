@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Remembers which files were recently prefetched, keyed by canonical path. A file only counts as
+ * recently prefetched while its modification time is unchanged.
+ *
+ * <p>The number of entries is bounded, evicting the least recently used files first.
+ */
+final class PrefetchCache {
+
+  private final long refetchPeriodMillis;
+  private final Cache<String, Entry> entries;
+
+  PrefetchCache(long refetchPeriodMillis, long maxEntries) {
+    this.refetchPeriodMillis = refetchPeriodMillis;
+    this.entries = CacheBuilder.newBuilder().maximumSize(maxEntries).build();
+  }
+
+  /**
+   * Records that the file is being prefetched at {@code nowMillis}. Returns false without updating
+   * anything if it was already prefetched within the refetch period, and hasn't changed since.
+   */
+  boolean markPrefetched(String canonicalPath, long modifiedTime, long nowMillis) {
+    boolean[] prefetch = {false};
+    entries
+        .asMap()
+        .compute(
+            canonicalPath,
+            (path, old) -> {
+              if (old != null
+                  && old.modifiedTime == modifiedTime
+                  && nowMillis - old.prefetchTimeMillis < refetchPeriodMillis) {
+                return old;
+              }
+              prefetch[0] = true;
+              return new Entry(modifiedTime, nowMillis);
+            });
+    return prefetch[0];
+  }
+
+  void clear() {
+    entries.invalidateAll();
+  }
+
+  private static final class Entry {
+    final long modifiedTime;
+    final long prefetchTimeMillis;
+
+    Entry(long modifiedTime, long prefetchTimeMillis) {
+      this.modifiedTime = modifiedTime;
+      this.prefetchTimeMillis = prefetchTimeMillis;
+    }
+  }
+}
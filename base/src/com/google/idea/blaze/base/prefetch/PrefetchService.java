@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.prefetch;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.Priority;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
@@ -32,7 +33,7 @@ public interface PrefetchService {
   }
 
   /**
-   * Instructs all prefetchers to prefetch these files.
+   * Instructs all prefetchers to prefetch these files, as {@link Priority#BACKGROUND} work.
    *
    * <p>It is the responsibility of the caller to filter out any files it isn't interested in.
    *
@@ -43,9 +44,44 @@ public interface PrefetchService {
   ListenableFuture<PrefetchStats> prefetchFiles(
       Collection<File> files, boolean refetchCachedFiles, boolean fetchFileTypes);
 
+  /**
+   * Instructs all prefetchers to prefetch these files, attributing the resulting {@link
+   * PrefetchStats#sourceStats()} to the given source.
+   */
+  @CanIgnoreReturnValue
+  default ListenableFuture<PrefetchStats> prefetchFiles(
+      String source, Collection<File> files, boolean refetchCachedFiles, boolean fetchFileTypes) {
+    return prefetchFiles(files, refetchCachedFiles, fetchFileTypes);
+  }
+
+  /**
+   * Instructs all prefetchers to prefetch these files with the given priority. Callers which block
+   * sync on the result should use {@link Priority#SYNC_BLOCKING}, so the work isn't queued behind
+   * background prefetching.
+   */
+  @CanIgnoreReturnValue
+  default ListenableFuture<PrefetchStats> prefetchFiles(
+      String source,
+      Collection<File> files,
+      boolean refetchCachedFiles,
+      boolean fetchFileTypes,
+      Priority priority) {
+    return prefetchFiles(source, files, refetchCachedFiles, fetchFileTypes);
+  }
+
+  /** Prefetches the project's sources and other files, as {@link Priority#BACKGROUND} work. */
   ListenableFuture<PrefetchStats> prefetchProjectFiles(
       Project project, ProjectViewSet projectViewSet, @Nullable BlazeProjectData blazeProjectData);
 
+  /** Prefetches the project's sources and other files with the given priority. */
+  default ListenableFuture<PrefetchStats> prefetchProjectFiles(
+      Project project,
+      ProjectViewSet projectViewSet,
+      @Nullable BlazeProjectData blazeProjectData,
+      Priority priority) {
+    return prefetchProjectFiles(project, projectViewSet, blazeProjectData);
+  }
+
   /**
    * If this prefetch service ignores recently-prefetched files, this instructs it to clear that
    * 'time since last prefetch' cache.
@@ -15,35 +15,39 @@
  */
 package com.google.idea.blaze.base.prefetch;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.io.AbsolutePathPatcher.AbsolutePathPatcherUtil;
 import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.Priority;
+import com.google.idea.blaze.base.prefetch.PrefetchStats.SourceStats;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.LowMemoryWatcher;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
 /** Implementation for prefetcher. */
@@ -52,90 +56,214 @@ public class PrefetchServiceImpl implements PrefetchService {
   private static final Logger logger = Logger.getInstance(PrefetchServiceImpl.class);
 
   private static final long REFETCH_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(6);
-  private final Map<Integer, Long> fileToLastFetchTimeMillis = Maps.newConcurrentMap();
+  /** Bounds the memory used to remember recently prefetched files. */
+  private static final long MAX_CACHED_FILES = 200_000;
+  /** The maximum number of files from the same directory canonicalized by a single task. */
+  private static final int MAX_BATCH_SIZE = 256;
 
-  private PrefetchServiceImpl() {
-    LowMemoryWatcher.register(
-        fileToLastFetchTimeMillis::clear, ApplicationManager.getApplication());
-  }
+  private static final String DEFAULT_SOURCE = "other";
+  private static final String PROJECT_SOURCES = "project sources";
+
+  private final PrefetchCache cache = new PrefetchCache(REFETCH_PERIOD_MILLIS, MAX_CACHED_FILES);
+
+  private PrefetchServiceImpl() {}
 
   @Override
   public void clearPrefetchCache() {
-    fileToLastFetchTimeMillis.clear();
+    cache.clear();
   }
 
   @Override
   public ListenableFuture<PrefetchStats> prefetchFiles(
       Collection<File> files, boolean refetchCachedFiles, boolean fetchFileTypes) {
-    return prefetchFiles(ImmutableSet.of(), files, refetchCachedFiles, fetchFileTypes);
+    return prefetchFiles(DEFAULT_SOURCE, files, refetchCachedFiles, fetchFileTypes);
+  }
+
+  @Override
+  public ListenableFuture<PrefetchStats> prefetchFiles(
+      String source, Collection<File> files, boolean refetchCachedFiles, boolean fetchFileTypes) {
+    return prefetchFiles(source, files, refetchCachedFiles, fetchFileTypes, Priority.BACKGROUND);
+  }
+
+  @Override
+  public ListenableFuture<PrefetchStats> prefetchFiles(
+      String source,
+      Collection<File> files,
+      boolean refetchCachedFiles,
+      boolean fetchFileTypes,
+      Priority priority) {
+    return prefetchFiles(
+        source, ImmutableSet.of(), files, refetchCachedFiles, fetchFileTypes, priority);
   }
 
   private ListenableFuture<PrefetchStats> prefetchFiles(
+      String source,
       Set<File> excludeDirectories,
       Collection<File> files,
       boolean refetchCachedFiles,
-      boolean fetchFileTypes) {
+      boolean fetchFileTypes,
+      Priority priority) {
     if (files.isEmpty()) {
       return Futures.immediateFuture(PrefetchStats.NONE);
     }
-    if (!refetchCachedFiles) {
-      long startTime = System.currentTimeMillis();
-      // ignore recently fetched files
-      files =
-          files
-              .stream()
-              .filter(file -> shouldPrefetch(file, startTime))
-              .collect(Collectors.toList());
-    }
+    long startTime = System.currentTimeMillis();
     FileOperationProvider provider = FileOperationProvider.getInstance();
-    List<ListenableFuture<File>> canonicalFiles =
-        files
-            .stream()
-            .map(file -> FetchExecutor.EXECUTOR.submit(() -> toCanonicalFile(provider, file)))
-            .collect(Collectors.toList());
+    ListeningExecutorService executor = FetchExecutor.executor(FetchExecutor.Lane.LOCAL, priority);
+    AtomicInteger cacheHits = new AtomicInteger();
+    AtomicInteger cacheMisses = new AtomicInteger();
+    List<ListenableFuture<List<File>>> batchFutures = new ArrayList<>();
+    List<ListenableFuture<File>> canonicalFiles = new ArrayList<>(files.size());
+    for (List<File> batch : batchByDirectory(files)) {
+      ListenableFuture<List<File>> batchFuture =
+          executor.submit(
+              () -> {
+                List<File> toPrefetch = new ArrayList<>(batch.size());
+                for (File file : toCanonicalFiles(provider, batch)) {
+                  if (file == null) {
+                    toPrefetch.add(null);
+                  } else if (refetchCachedFiles
+                      || cache.markPrefetched(file.getPath(), file.lastModified, startTime)) {
+                    cacheMisses.incrementAndGet();
+                    toPrefetch.add(file.file);
+                  } else {
+                    // ignore recently fetched files
+                    cacheHits.incrementAndGet();
+                    toPrefetch.add(null);
+                  }
+                }
+                return toPrefetch;
+              });
+      batchFutures.add(batchFuture);
+      for (int i = 0; i < batch.size(); i++) {
+        int index = i;
+        canonicalFiles.add(
+            Futures.transform(
+                batchFuture, list -> list.get(index), MoreExecutors.directExecutor()));
+      }
+    }
     List<ListenableFuture<PrefetchStats>> futures = Lists.newArrayList();
     for (Prefetcher prefetcher : Prefetcher.EP_NAME.getExtensions()) {
       futures.add(
           prefetcher.prefetchFiles(
-              excludeDirectories, canonicalFiles, FetchExecutor.EXECUTOR, fetchFileTypes));
+              excludeDirectories, canonicalFiles, executor, fetchFileTypes));
     }
-    return Futures.transform(
-        Futures.allAsList(futures),
-        stats ->
-            stats.stream()
-                .filter(Objects::nonNull)
-                .reduce(PrefetchStats::combine)
-                .orElse(PrefetchStats.NONE),
-        FetchExecutor.EXECUTOR);
+    ListenableFuture<PrefetchStats> prefetchStats =
+        Futures.transform(
+            Futures.allAsList(futures),
+            stats ->
+                stats.stream()
+                    .filter(Objects::nonNull)
+                    .reduce(PrefetchStats::combine)
+                    .orElse(PrefetchStats.NONE),
+            executor);
+    // the cache stats are only complete once every batch has been canonicalized
+    return Futures.whenAllSucceed(prefetchStats, Futures.allAsList(batchFutures))
+        .call(
+            () ->
+                Futures.getDone(prefetchStats)
+                    .combine(
+                        PrefetchStats.create(
+                            0L,
+                            ImmutableMap.of(
+                                source,
+                                SourceStats.create(cacheHits.get(), cacheMisses.get())))),
+            MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Groups files by parent directory, so each directory only needs to be canonicalized once. Large
+   * directories are split into several batches, to be canonicalized in parallel.
+   */
+  private static List<List<File>> batchByDirectory(Collection<File> files) {
+    List<List<File>> batches = new ArrayList<>();
+    Map<File, List<File>> byDirectory = new LinkedHashMap<>();
+    for (File file : files) {
+      File directory = file.getParentFile();
+      List<File> batch = byDirectory.computeIfAbsent(directory, d -> new ArrayList<>());
+      batch.add(file);
+      if (batch.size() == MAX_BATCH_SIZE) {
+        batches.add(batch);
+        byDirectory.remove(directory);
+      }
+    }
+    batches.addAll(byDirectory.values());
+    return batches;
+  }
+
+  /**
+   * Canonicalizes a batch of files from the same directory, in the same order. Files which don't
+   * exist are returned as null.
+   *
+   * <p>The shared parent directory is only resolved once. After that, each file costs a single
+   * system call, unless it's a symlink itself.
+   */
+  private static List<CanonicalFile> toCanonicalFiles(
+      FileOperationProvider provider, List<File> batch) {
+    File directory = batch.get(0).getParentFile();
+    File canonicalDirectory = null;
+    if (directory != null) {
+      try {
+        canonicalDirectory =
+            AbsolutePathPatcherUtil.fixPath(provider.getCanonicalFile(directory));
+      } catch (IOException e) {
+        logger.warn(e);
+      }
+    }
+    List<CanonicalFile> canonicalFiles = new ArrayList<>(batch.size());
+    for (File file : batch) {
+      canonicalFiles.add(toCanonicalFile(provider, file, canonicalDirectory));
+    }
+    return canonicalFiles;
   }
 
   @Nullable
-  private static File toCanonicalFile(FileOperationProvider provider, File file) {
+  private static CanonicalFile toCanonicalFile(
+      FileOperationProvider provider, File file, @Nullable File canonicalDirectory) {
     try {
-      File canonicalFile = AbsolutePathPatcherUtil.fixPath(file.getCanonicalFile());
-      if (provider.exists(canonicalFile)) {
-        return canonicalFile;
+      File canonicalFile =
+          canonicalDirectory != null
+              ? new File(canonicalDirectory, file.getName())
+              : AbsolutePathPatcherUtil.fixPath(provider.getCanonicalFile(file));
+      BasicFileAttributes attributes = provider.readAttributesNoFollowLinks(canonicalFile);
+      if (attributes != null && attributes.isSymbolicLink()) {
+        canonicalFile = AbsolutePathPatcherUtil.fixPath(provider.getCanonicalFile(canonicalFile));
+        attributes = provider.readAttributesNoFollowLinks(canonicalFile);
       }
+      return attributes != null
+          ? new CanonicalFile(canonicalFile, attributes.lastModifiedTime().toMillis())
+          : null;
     } catch (IOException e) {
       logger.warn(e);
+      return null;
     }
-    return null;
   }
 
-  /** Returns false if this file has been recently prefetched. */
-  private boolean shouldPrefetch(File file, long startTime) {
-    // Filter files that have been recently fetched
-    Long lastFetchTime = fileToLastFetchTimeMillis.get(file.hashCode());
-    if (lastFetchTime != null && (startTime - lastFetchTime < REFETCH_PERIOD_MILLIS)) {
-      return false;
+  private static final class CanonicalFile {
+    final File file;
+    final long lastModified;
+
+    CanonicalFile(File file, long lastModified) {
+      this.file = file;
+      this.lastModified = lastModified;
+    }
+
+    String getPath() {
+      return file.getPath();
     }
-    fileToLastFetchTimeMillis.put(file.hashCode(), startTime);
-    return true;
   }
 
   @Override
   public ListenableFuture<PrefetchStats> prefetchProjectFiles(
       Project project, ProjectViewSet projectViewSet, @Nullable BlazeProjectData blazeProjectData) {
+    return prefetchProjectFiles(project, projectViewSet, blazeProjectData, Priority.BACKGROUND);
+  }
+
+  @Override
+  public ListenableFuture<PrefetchStats> prefetchProjectFiles(
+      Project project,
+      ProjectViewSet projectViewSet,
+      @Nullable BlazeProjectData blazeProjectData,
+      Priority priority) {
     BlazeImportSettings importSettings =
         BlazeImportSettingsManager.getInstance(project).getImportSettings();
     if (importSettings == null) {
@@ -160,22 +288,33 @@ public class PrefetchServiceImpl implements PrefetchService {
     }
     ListenableFuture<PrefetchStats> sourceFilesFuture =
         prefetchFiles(
+            PROJECT_SOURCES,
             excludeDirectories,
             sourceDirectories,
             /* refetchCachedFiles= */ false,
             // PushedFilePropertiesUpdaterImpl will eventually want the file types of module roots.
-            /* fetchFileTypes= */ true);
-    Set<File> externalFiles = new HashSet<>();
+            /* fetchFileTypes= */ true,
+            priority);
+    List<ListenableFuture<PrefetchStats>> futures = new ArrayList<>();
+    futures.add(sourceFilesFuture);
     if (blazeProjectData != null) {
       for (PrefetchFileSource fileSource : PrefetchFileSource.EP_NAME.getExtensions()) {
+        // prefetched separately, so the cache stats can be attributed to each file source
+        Set<File> externalFiles = new HashSet<>();
         fileSource.addFilesToPrefetch(
             project, projectViewSet, importRoots, blazeProjectData, externalFiles);
+        futures.add(
+            prefetchFiles(
+                fileSource.getClass().getSimpleName(),
+                ImmutableSet.of(),
+                externalFiles,
+                /* refetchCachedFiles= */ false,
+                /* fetchFileTypes= */ false,
+                priority));
       }
     }
-    ListenableFuture<PrefetchStats> externalFilesFuture =
-        prefetchFiles(externalFiles, false, false);
     return Futures.transform(
-        Futures.allAsList(sourceFilesFuture, externalFilesFuture),
+        Futures.allAsList(futures),
         list ->
             list.stream()
                 .filter(Objects::nonNull)
@@ -16,6 +16,9 @@
 package com.google.idea.blaze.base.prefetch;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /** Class encapsulating stats about a prefetch operation. */
 @AutoValue
@@ -24,13 +27,49 @@ public abstract class PrefetchStats {
   public static final PrefetchStats NONE = create(0L);
 
   public static PrefetchStats create(long bytesPrefetched) {
-    return new AutoValue_PrefetchStats(bytesPrefetched);
+    return create(bytesPrefetched, ImmutableMap.of());
+  }
+
+  public static PrefetchStats create(
+      long bytesPrefetched, ImmutableMap<String, SourceStats> sourceStats) {
+    return new AutoValue_PrefetchStats(bytesPrefetched, sourceStats);
   }
 
   public PrefetchStats combine(PrefetchStats that) {
-    return create(this.bytesPrefetched() + that.bytesPrefetched());
+    if (that.sourceStats().isEmpty()) {
+      return create(this.bytesPrefetched() + that.bytesPrefetched(), this.sourceStats());
+    }
+    Map<String, SourceStats> sourceStats = new LinkedHashMap<>(this.sourceStats());
+    that.sourceStats()
+        .forEach((source, stats) -> sourceStats.merge(source, stats, SourceStats::combine));
+    return create(
+        this.bytesPrefetched() + that.bytesPrefetched(), ImmutableMap.copyOf(sourceStats));
   }
 
   /** Returns the number of bytes downloaded over the network. */
   public abstract long bytesPrefetched();
+
+  /**
+   * Returns how many files were or weren't skipped for having been recently prefetched, keyed by a
+   * description of where the files came from.
+   */
+  public abstract ImmutableMap<String, SourceStats> sourceStats();
+
+  /** Hit and miss counts of the recently-prefetched files cache for a single source of files. */
+  @AutoValue
+  public abstract static class SourceStats {
+    public static SourceStats create(int cacheHits, int cacheMisses) {
+      return new AutoValue_PrefetchStats_SourceStats(cacheHits, cacheMisses);
+    }
+
+    /** The number of files which weren't prefetched, because they were prefetched recently. */
+    public abstract int cacheHits();
+
+    /** The number of existing files which were prefetched. */
+    public abstract int cacheMisses();
+
+    SourceStats combine(SourceStats that) {
+      return create(cacheHits() + that.cacheHits(), cacheMisses() + that.cacheMisses());
+    }
+  }
 }
@@ -21,7 +21,9 @@ import com.google.idea.blaze.base.async.process.LineProcessingOutputStream;
 import com.google.idea.blaze.base.bazel.BuildSystemProvider;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.query.BlazeQueryProtoParser.StreamedProtoOutputStream;
 import com.google.idea.blaze.base.settings.Blaze;
 import com.google.idea.common.experiments.BoolExperiment;
 import com.intellij.openapi.diagnostic.Logger;
@@ -29,6 +31,7 @@ import com.intellij.openapi.project.Project;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import javax.annotation.Nullable;
 
 /** Uses 'blaze query' to find all targets in a single package generated by macros. */
@@ -37,6 +40,13 @@ public class BlazeQueryMacroTargetProvider implements MacroTargetProvider {
   private final BoolExperiment enabled =
       new BoolExperiment("blaze.query.macro.target.provider.enabled", true);
 
+  /**
+   * Whether to parse '--output=streamed_proto' as it's written, rather than buffering the entire
+   * '--output=proto' result.
+   */
+  private static final BoolExperiment streamedProto =
+      new BoolExperiment("blaze.query.macro.target.provider.streamed.proto", true);
+
   private static final Logger logger = Logger.getInstance(BlazeQueryMacroTargetProvider.class);
 
   @Nullable
@@ -45,39 +55,44 @@ public class BlazeQueryMacroTargetProvider implements MacroTargetProvider {
     if (!enabled.getValue()) {
       return null;
     }
-    return runQuery(project, buildPackage);
+    return runQuery(
+        project, TargetExpression.allFromPackageNonRecursive(buildPackage.blazePackage()));
   }
 
   @Nullable
-  private static ImmutableList<GeneratedTarget> runQuery(Project project, Label label) {
+  @Override
+  public ImmutableList<GeneratedTarget> doFindTargetsRecursively(
+      Project project, WorkspacePath directory) {
+    if (!enabled.getValue() || directory.isWorkspaceRoot()) {
+      // don't query the entire workspace in the background
+      return null;
+    }
+    return runQuery(project, TargetExpression.allFromPackageRecursive(directory));
+  }
+
+  @Nullable
+  private static ImmutableList<GeneratedTarget> runQuery(
+      Project project, TargetExpression targets) {
     String outputBase = BlazeQueryOutputBaseProvider.getInstance(project).getOutputBaseFlag();
     if (outputBase == null) {
       // since this is run automatically in the background, don't run without a custom output base,
       // otherwise we'll be monopolizing the primary blaze server
       return null;
     }
-    String query =
-        String.format(
-            "attr('generator_function', '^.+$', %s)",
-            TargetExpression.allFromPackageNonRecursive(label.blazePackage()));
+    String query = String.format("attr('generator_function', '^.+$', %s)", targets);
+    if (streamedProto.getValue()) {
+      ImmutableList<GeneratedTarget> targets = runStreamedQuery(project, outputBase, query);
+      if (targets != null) {
+        return targets;
+      }
+      // older versions of blaze don't support streamed_proto, so retry with the buffered output
+      logger.info("Retrying macro target query with '--output=proto'");
+    }
 
     // would be nicer to use the Process inputStream directly, rather having two round trips...
     ByteArrayOutputStream out = new ByteArrayOutputStream(/* size= */ 4096);
-    int retVal =
-        ExternalTask.builder(WorkspaceRoot.fromProject(project))
-            .args(getBinaryPath(project), outputBase, "query", "--output=proto", query)
-            .stdout(out)
-            .stderr(
-                LineProcessingOutputStream.of(
-                    line -> {
-                      // errors are expected, so limit logging to info level
-                      logger.info(line);
-                      return true;
-                    }))
-            .build()
-            .run();
-    if (retVal != 0 && retVal != 3) {
-      // exit code of 3 indicates non-fatal error (for example, a non-existent directory)
+    int retVal = runQueryProcess(project, outputBase, "--output=proto", query, out);
+    if (!isSuccess(retVal)) {
       return null;
     }
     try {
@@ -88,6 +103,45 @@ public class BlazeQueryMacroTargetProvider implements MacroTargetProvider {
     }
   }
 
+  @Nullable
+  private static ImmutableList<GeneratedTarget> runStreamedQuery(
+      Project project, String outputBase, String query) {
+    StreamedProtoOutputStream out = new StreamedProtoOutputStream();
+    int retVal = runQueryProcess(project, outputBase, "--output=streamed_proto", query, out);
+    if (!isSuccess(retVal)) {
+      logger.info("Blaze query with '--output=streamed_proto' failed with exit code " + retVal);
+      return null;
+    }
+    try {
+      return out.getGeneratedTargets();
+    } catch (IOException e) {
+      logger.warn("Couldn't parse blaze query streamed_proto output", e);
+      return null;
+    }
+  }
+
+  private static int runQueryProcess(
+      Project project, String outputBase, String outputFlag, String query, OutputStream out) {
+    return ExternalTask.builder(WorkspaceRoot.fromProject(project))
+        // with --keep_going, a broken package doesn't fail a recursive query (exit code 3)
+        .args(getBinaryPath(project), outputBase, "query", "--keep_going", outputFlag, query)
+        .stdout(out)
+        .stderr(
+            LineProcessingOutputStream.of(
+                line -> {
+                  // errors are expected, so limit logging to info level
+                  logger.info(line);
+                  return true;
+                }))
+        .build()
+        .run();
+  }
+
+  private static boolean isSuccess(int retVal) {
+    // exit code of 3 indicates non-fatal error (for example, a non-existent directory)
+    return retVal == 0 || retVal == 3;
+  }
+
   private static String getBinaryPath(Project project) {
     BuildSystemProvider buildSystemProvider = Blaze.getBuildSystemProvider(project);
     return buildSystemProvider.getBinaryPath(project);
@@ -18,26 +18,34 @@ package com.google.idea.blaze.base.query;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build.Attribute;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build.QueryResult;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build.Rule;
 import com.google.devtools.build.lib.query2.proto.proto2api.Build.Target;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.query.GeneratedTarget.MacroData;
+import com.google.protobuf.CodedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
 import javax.annotation.Nullable;
 
 /**
  * A helper class which parses {@link GeneratedTarget} from targets output by a 'blaze query
- * --output=proto' command.
+ * --output=proto' or 'blaze query --output=streamed_proto' command.
  *
  * <p>Only handles rule query results containing the 'generator_location' and 'generator_function'
  * attributes.
  */
 public final class BlazeQueryProtoParser {
 
+  private static final byte[] GENERATOR_LOCATION =
+      "generator_location".getBytes(StandardCharsets.UTF_8);
+
   private BlazeQueryProtoParser() {}
 
   public static ImmutableList<GeneratedTarget> parseProtoOutput(InputStream stream)
@@ -49,6 +57,121 @@ public final class BlazeQueryProtoParser {
         .collect(toImmutableList());
   }
 
+  /** Parses the length-delimited targets output by 'blaze query --output=streamed_proto'. */
+  public static ImmutableList<GeneratedTarget> parseStreamedProtoOutput(InputStream stream)
+      throws IOException {
+    StreamedProtoOutputStream out = new StreamedProtoOutputStream();
+    ByteStreams.copy(stream, out);
+    return out.getGeneratedTargets();
+  }
+
+  /**
+   * Parses 'blaze query --output=streamed_proto' output as it is written, so it can be used as the
+   * stdout of the query process directly.
+   *
+   * <p>Each target is decoded as soon as all of its bytes have arrived, and discarded unless it's a
+   * macro-generated rule. Targets which don't mention the 'generator_location' attribute at all are
+   * skipped without being decoded. Only the bytes of a single partially-received target are
+   * buffered, so memory use scales with the number of generated targets rather than with the size
+   * of the query output.
+   */
+  public static final class StreamedProtoOutputStream extends OutputStream {
+    private final ImmutableList.Builder<GeneratedTarget> targets = ImmutableList.builder();
+    private byte[] buffer = new byte[8192];
+    private int length = 0;
+    @Nullable private IOException error;
+
+    @Override
+    public void write(int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      if (error != null) {
+        // keep draining the process output, but don't bother parsing it
+        return;
+      }
+      if (length + len > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + len));
+      }
+      System.arraycopy(b, off, buffer, length, len);
+      length += len;
+      try {
+        int consumed = parseCompleteTargets();
+        // while a large target is arriving nothing is consumed, so there's nothing to move
+        if (consumed > 0) {
+          System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+          length -= consumed;
+        }
+      } catch (IOException e) {
+        error = e;
+        length = 0;
+      }
+    }
+
+    /**
+     * Returns the generated targets parsed so far. Throws an {@link IOException} if the output
+     * couldn't be parsed, or ended part-way through a target.
+     */
+    public ImmutableList<GeneratedTarget> getGeneratedTargets() throws IOException {
+      if (error != null) {
+        throw error;
+      }
+      if (length != 0) {
+        throw new IOException("Query output ended part-way through a target");
+      }
+      return targets.build();
+    }
+
+    /** Parses all complete targets in the buffer, returning the number of bytes consumed. */
+    private int parseCompleteTargets() throws IOException {
+      int pos = 0;
+      while (pos < length) {
+        // the varint length prefix is at most 5 bytes
+        int prefixEnd = pos;
+        while (prefixEnd < length && prefixEnd - pos < 5 && (buffer[prefixEnd] & 0x80) != 0) {
+          prefixEnd++;
+        }
+        if (prefixEnd == length) {
+          return pos;
+        }
+        CodedInputStream prefix = CodedInputStream.newInstance(buffer, pos, prefixEnd + 1 - pos);
+        int size = prefix.readRawVarint32();
+        if (size < 0) {
+          throw new IOException("Invalid target size in query output: " + size);
+        }
+        int start = prefixEnd + 1;
+        if (length - start < size) {
+          return pos;
+        }
+        if (contains(buffer, start, size, GENERATOR_LOCATION)) {
+          GeneratedTarget target =
+              parseTarget(Target.parseFrom(CodedInputStream.newInstance(buffer, start, size)));
+          if (target != null) {
+            targets.add(target);
+          }
+        }
+        pos = start + size;
+      }
+      return pos;
+    }
+  }
+
+  private static boolean contains(byte[] bytes, int off, int len, byte[] target) {
+    int last = off + len - target.length;
+    outer:
+    for (int i = off; i <= last; i++) {
+      for (int j = 0; j < target.length; j++) {
+        if (bytes[i + j] != target[j]) {
+          continue outer;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
   @Nullable
   private static GeneratedTarget parseTarget(Target message) {
     return message.hasRule() ? parseRule(message.getRule()) : null;
@@ -67,31 +190,37 @@ public final class BlazeQueryProtoParser {
 
   @Nullable
   private static MacroData parseMacroData(Rule message) {
-    Attribute location = findAttribute(message, "generator_location");
-    Integer lineNumber = location != null ? parseLineNumber(location.getStringValue()) : null;
-    if (lineNumber == null) {
-      return null;
+    // rules have many attributes, so find the ones we need in a single pass
+    Attribute location = null;
+    Attribute fn = null;
+    Attribute generatorName = null;
+    for (Attribute attribute : message.getAttributeList()) {
+      String name = attribute.getName();
+      if (!name.startsWith("generator_")) {
+        continue;
+      }
+      switch (name) {
+        case "generator_location":
+          location = location == null ? attribute : location;
+          break;
+        case "generator_function":
+          fn = fn == null ? attribute : fn;
+          break;
+        case "generator_name":
+          generatorName = generatorName == null ? attribute : generatorName;
+          break;
+        default: // continue
+      }
     }
-
-    Attribute fn = findAttribute(message, "generator_function");
-    if (fn == null) {
+    Integer lineNumber = location != null ? parseLineNumber(location.getStringValue()) : null;
+    if (lineNumber == null || fn == null) {
       return null;
     }
     String macroFunction = fn.getStringValue();
-
-    Attribute generatorName = findAttribute(message, "generator_name");
     String name = generatorName == null ? null : generatorName.getStringValue();
     return new MacroData(lineNumber, macroFunction, name);
   }
 
-  @Nullable
-  private static Attribute findAttribute(Rule message, String name) {
-    return message.getAttributeList().stream()
-        .filter(a -> a.getName().equals(name))
-        .findFirst()
-        .orElse(null);
-  }
-
   /** Location string format: absolute_path:line_number[:column_number] */
   @Nullable
   private static Integer parseLineNumber(String location) {
@@ -37,6 +37,7 @@ import com.intellij.openapi.editor.markup.GutterIconRenderer;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiErrorElement;
 import com.intellij.psi.PsiFile;
@@ -239,6 +240,10 @@ public class MacroLineMarkerProvider implements LineMarkerProvider {
       if (label == null) {
         return null;
       }
+      if (MacroTargetIndex.enabled.getValue()) {
+        VirtualFile file = buildFile.getOriginalFile().getVirtualFile();
+        return file != null ? getIndexedData(file, label) : null;
+      }
       return cache.compute(
           label,
           (f, oldData) -> {
@@ -250,17 +255,44 @@ public class MacroLineMarkerProvider implements LineMarkerProvider {
           });
     }
 
+    /**
+     * Returns data from the persistent {@link MacroTargetIndex}, waiting for the BUILD file to be
+     * indexed if necessary. If indexing times out, the line markers are recalculated once it
+     * finishes.
+     */
+    @Nullable
+    private FileData getIndexedData(VirtualFile file, Label buildLabel) {
+      MacroTargetIndex index = MacroTargetIndex.getInstance(project);
+      ImmutableList<GeneratedTarget> targets = index.getTargets(file);
+      long startTimeMillis = System.currentTimeMillis();
+      if (targets == null) {
+        waitWithTimeout(index.index(file, buildLabel));
+        targets = index.getTargets(file);
+      }
+      return targets == null || targets.isEmpty() ? null : new FileData(targets, startTimeMillis);
+    }
+
     @Nullable
     private FileData getDataWithTimeout(Label buildLabel) {
       Future<ImmutableList<GeneratedTarget>> future =
           PooledThreadExecutor.INSTANCE.submit(
               () -> MacroTargetProvider.findTargetsGeneratedByMacros(project, buildLabel));
       long startTimeMillis = System.currentTimeMillis();
+      ImmutableList<GeneratedTarget> targets = waitWithTimeout(future);
+      return targets == null || targets.isEmpty() ? null : new FileData(targets, startTimeMillis);
+    }
+
+    /**
+     * Waits for the future to complete, returning its result, or null if it failed or didn't
+     * complete within {@link #TIMEOUT}.
+     */
+    @Nullable
+    private static <T> T waitWithTimeout(Future<T> future) {
+      long startTimeMillis = System.currentTimeMillis();
       while (true) {
         ProgressManager.checkCanceled();
         try {
-          ImmutableList<GeneratedTarget> targets = future.get(50, TimeUnit.MILLISECONDS);
-          return targets.isEmpty() ? null : new FileData(targets, startTimeMillis);
+          return future.get(50, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
           Thread.currentThread().interrupt();
           return null;
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.query;
+
+import static com.google.common.collect.ImmutableListMultimap.toImmutableListMultimap;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.idea.blaze.base.bazel.BuildSystemProvider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.query.GeneratedTarget.MacroData;
+import com.google.idea.blaze.base.settings.Blaze;
+import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.codeInsight.daemon.DaemonCodeAnalyzer;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileVisitor;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.vfs.AsyncVfsEventsPostProcessor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+/**
+ * A persistent index of the targets generated by macros in each BUILD file, keyed by the BUILD
+ * file's VFS path and a hash of its contents.
+ *
+ * <p>The index is populated in the background, with a single query covering the directory subtree
+ * of the BUILD file which was requested. Every BUILD file in that subtree gets an entry, even if it
+ * generates no targets, so opening any of them doesn't query again. Entries are dropped when VFS
+ * events report a change to their BUILD file, and otherwise remain valid across IDE restarts for as
+ * long as the BUILD file's contents are unchanged.
+ *
+ * <p>Lookups compare the BUILD file's VFS modification stamp with the one it had when indexed, so
+ * the contents are only re-hashed the first time an entry is used after a restart.
+ */
+public class MacroTargetIndex implements Disposable {
+
+  static MacroTargetIndex getInstance(Project project) {
+    return project.getService(MacroTargetIndex.class);
+  }
+
+  private static final Logger logger = Logger.getInstance(MacroTargetIndex.class);
+
+  static final BoolExperiment enabled = new BoolExperiment("macro.target.index.enabled", true);
+
+  private static final String INDEX_FILE_NAME = "macroTargets.dat";
+  private static final int FORMAT_VERSION = 2;
+  /** How long to wait before retrying a directory whose query failed. */
+  private static final long RETRY_DELAY_MILLIS = 15_000;
+  private static final long UNKNOWN_STAMP = -1;
+
+  private final Project project;
+  /** Keyed by the VFS path of the BUILD file, sorted so a directory's entries are adjacent. */
+  private final ConcurrentSkipListMap<String, Entry> entries = new ConcurrentSkipListMap<>();
+  /** Queries currently running, keyed by the directory subtree they cover. */
+  private final ConcurrentMap<WorkspacePath, Future<?>> pendingQueries = new ConcurrentHashMap<>();
+  /** The time of the most recent failed query, keyed by the directory subtree it covered. */
+  private final ConcurrentMap<WorkspacePath, Long> failedQueries = new ConcurrentHashMap<>();
+  /** Incremented whenever a VFS event may have touched a BUILD file. */
+  private final AtomicLong buildFileChanges = new AtomicLong();
+  private final Object fileLock = new Object();
+  private volatile boolean loaded = false;
+
+  MacroTargetIndex(Project project) {
+    this.project = project;
+    AsyncVfsEventsPostProcessor.getInstance().addListener(this::onVfsEvents, this);
+  }
+
+  /**
+   * Returns the indexed targets generated by macros in the given BUILD file, or null if the BUILD
+   * file hasn't been indexed since its contents last changed.
+   */
+  @Nullable
+  ImmutableList<GeneratedTarget> getTargets(VirtualFile buildFile) {
+    ensureLoaded();
+    Entry entry = entries.get(buildFile.getPath());
+    if (entry == null) {
+      return null;
+    }
+    long stamp = buildFile.getModificationStamp();
+    if (entry.modificationStamp == stamp) {
+      return entry.targets;
+    }
+    // loaded from disk, or modified since it was indexed
+    if (!entry.contentHash.equals(hashContents(buildFile))) {
+      return null;
+    }
+    entry.modificationStamp = stamp;
+    return entry.targets;
+  }
+
+  /**
+   * Starts indexing the directory subtree containing the given BUILD file in the background,
+   * unless there's already a query running which covers it. Returns the future for that query.
+   */
+  Future<?> index(VirtualFile buildFile, Label buildLabel) {
+    WorkspacePath directory = buildLabel.blazePackage();
+    Future<?> pending = findPendingQuery(directory);
+    if (pending != null) {
+      return pending;
+    }
+    Long lastFailure = failedQueries.get(directory);
+    if (lastFailure != null && System.currentTimeMillis() - lastFailure < RETRY_DELAY_MILLIS) {
+      return Futures.immediateFuture(null);
+    }
+    return pendingQueries.computeIfAbsent(
+        directory,
+        dir ->
+            PooledThreadExecutor.INSTANCE.submit(
+                () -> {
+                  try {
+                    runQuery(buildFile, buildLabel);
+                  } finally {
+                    pendingQueries.remove(dir);
+                  }
+                }));
+  }
+
+  @Nullable
+  private Future<?> findPendingQuery(WorkspacePath directory) {
+    for (WorkspacePath path = directory; path != null; path = path.getParent()) {
+      Future<?> future = pendingQueries.get(path);
+      if (future != null) {
+        return future;
+      }
+    }
+    return null;
+  }
+
+  private void runQuery(VirtualFile buildFile, Label buildLabel) {
+    ensureLoaded();
+    WorkspacePath directory = buildLabel.blazePackage();
+    long requestedStamp = buildFile.getModificationStamp();
+    HashCode requestedHash = hashContents(buildFile);
+    long changes = buildFileChanges.get();
+
+    ImmutableList<GeneratedTarget> targets =
+        MacroTargetProvider.findTargetsGeneratedByMacrosRecursively(project, directory);
+    if (targets == null) {
+      targets = queryPackage(buildLabel);
+    }
+    if (requestedHash == null || project.isDisposed()) {
+      return;
+    }
+    if (targets == null) {
+      failedQueries.put(directory, System.currentTimeMillis());
+      return;
+    }
+    failedQueries.remove(directory);
+
+    ImmutableListMultimap<WorkspacePath, GeneratedTarget> byPackage =
+        targets.stream().collect(toImmutableListMultimap(t -> t.label.blazePackage(), t -> t));
+    if (buildFileChanges.get() == changes) {
+      // we only know the contents of the requested BUILD file from before the query, so only index
+      // the rest of the subtree if no BUILD files changed in the meantime
+      indexSubtree(buildFile, byPackage);
+    } else if (!requestedHash.equals(hashContents(buildFile))) {
+      return;
+    }
+    entries.put(
+        buildFile.getPath(), new Entry(requestedHash, requestedStamp, byPackage.get(directory)));
+    save();
+    DaemonCodeAnalyzer.getInstance(project).restart();
+  }
+
+  /** Queries a single package, returning null if no provider could run the query. */
+  @Nullable
+  private ImmutableList<GeneratedTarget> queryPackage(Label buildLabel) {
+    return Arrays.stream(MacroTargetProvider.EP_NAME.getExtensions())
+        .map(p -> p.doFindTargets(project, buildLabel))
+        .filter(Objects::nonNull)
+        .findFirst()
+        .orElse(null);
+  }
+
+  /**
+   * Adds an entry for every other BUILD file beneath the requested one, including those which
+   * generate no targets.
+   */
+  private void indexSubtree(
+      VirtualFile requested, ImmutableListMultimap<WorkspacePath, GeneratedTarget> byPackage) {
+    VirtualFile root = requested.getParent();
+    if (root == null) {
+      return;
+    }
+    WorkspaceRoot workspaceRoot = WorkspaceRoot.fromProject(project);
+    BuildSystemProvider buildSystem = Blaze.getBuildSystemProvider(project);
+    VfsUtilCore.visitChildrenRecursively(
+        root,
+        new VirtualFileVisitor<Void>(VirtualFileVisitor.NO_FOLLOW_SYMLINKS) {
+          @Override
+          public boolean visitFile(VirtualFile file) {
+            if (file.isDirectory()
+                || file.equals(requested)
+                || !buildSystem.isBuildFile(file.getName())) {
+              return true;
+            }
+            WorkspacePath pkg = workspaceRoot.workspacePathForSafe(file.getParent());
+            long stamp = file.getModificationStamp();
+            HashCode hash = hashContents(file);
+            if (pkg != null && hash != null) {
+              entries.put(file.getPath(), new Entry(hash, stamp, byPackage.get(pkg)));
+            }
+            return true;
+          }
+        });
+  }
+
+  private void onVfsEvents(List<? extends VFileEvent> events) {
+    for (VFileEvent event : events) {
+      invalidate(event.getPath());
+      if (event instanceof VFileMoveEvent) {
+        invalidate(((VFileMoveEvent) event).getOldPath());
+      } else if (event instanceof VFilePropertyChangeEvent) {
+        invalidate(((VFilePropertyChangeEvent) event).getOldPath());
+      }
+    }
+  }
+
+  /** Drops the entry for the given BUILD file, or for all BUILD files beneath a directory. */
+  private void invalidate(String path) {
+    // entries are validated by content hash on load, so there's no need to persist removals
+    boolean removed = entries.remove(path) != null;
+    Map<String, Entry> children = entries.subMap(path + "/", path + "/" + Character.MAX_VALUE);
+    if (!children.isEmpty()) {
+      children.clear();
+      removed = true;
+    }
+    if (removed || isBuildFile(path)) {
+      buildFileChanges.incrementAndGet();
+    }
+  }
+
+  private boolean isBuildFile(String path) {
+    String name = path.substring(path.lastIndexOf('/') + 1);
+    return Blaze.getBuildSystemProvider(project).isBuildFile(name);
+  }
+
+  @Nullable
+  private static HashCode hashContents(VirtualFile file) {
+    try {
+      return Hashing.murmur3_128().hashBytes(file.contentsToByteArray());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private void ensureLoaded() {
+    if (loaded) {
+      return;
+    }
+    synchronized (fileLock) {
+      if (loaded) {
+        return;
+      }
+      File file = getIndexFile();
+      if (file != null && file.exists()) {
+        try (DataInputStream in =
+            new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+          readEntries(in).forEach(entries::putIfAbsent);
+        } catch (IOException e) {
+          logger.warn("Couldn't read macro target index, discarding it", e);
+        }
+      }
+      loaded = true;
+    }
+  }
+
+  private void save() {
+    File file = getIndexFile();
+    if (file == null) {
+      return;
+    }
+    synchronized (fileLock) {
+      File temp = new File(file.getPath() + ".tmp");
+      try {
+        Files.createDirectories(file.getParentFile().toPath());
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+          writeEntries(entries, out);
+        }
+        Files.move(
+            temp.toPath(),
+            file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        logger.warn("Couldn't write macro target index", e);
+      }
+    }
+  }
+
+  @Nullable
+  private File getIndexFile() {
+    BlazeImportSettings importSettings =
+        BlazeImportSettingsManager.getInstance(project).getImportSettings();
+    return importSettings != null
+        ? new File(BlazeDataStorage.getProjectDataDir(importSettings), INDEX_FILE_NAME)
+        : null;
+  }
+
+  @Override
+  public void dispose() {
+    pendingQueries.values().forEach(f -> f.cancel(true));
+  }
+
+  @VisibleForTesting
+  static void writeEntries(Map<String, Entry> entries, DataOutputStream out) throws IOException {
+    out.writeInt(FORMAT_VERSION);
+    out.writeInt(entries.size());
+    for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+      out.writeUTF(entry.getKey());
+      byte[] hash = entry.getValue().contentHash.asBytes();
+      out.writeInt(hash.length);
+      out.write(hash);
+      ImmutableList<GeneratedTarget> targets = entry.getValue().targets;
+      out.writeInt(targets.size());
+      for (GeneratedTarget target : targets) {
+        out.writeUTF(target.ruleType);
+        out.writeUTF(target.label.toString());
+        out.writeInt(target.macro.lineNumber);
+        out.writeUTF(target.macro.macroFunction);
+        out.writeBoolean(target.macro.name != null);
+        if (target.macro.name != null) {
+          out.writeUTF(target.macro.name);
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static Map<String, Entry> readEntries(DataInputStream in) throws IOException {
+    int version = in.readInt();
+    if (version != FORMAT_VERSION) {
+      return ImmutableMap.of();
+    }
+    int size = in.readInt();
+    Map<String, Entry> entries = new HashMap<>(size);
+    for (int i = 0; i < size; i++) {
+      String path = in.readUTF();
+      byte[] hash = new byte[in.readInt()];
+      in.readFully(hash);
+      int targetCount = in.readInt();
+      ImmutableList.Builder<GeneratedTarget> targets = ImmutableList.builder();
+      for (int j = 0; j < targetCount; j++) {
+        String ruleType = in.readUTF();
+        Label label = Label.createIfValid(in.readUTF());
+        int lineNumber = in.readInt();
+        String macroFunction = in.readUTF();
+        String name = in.readBoolean() ? in.readUTF() : null;
+        if (label != null) {
+          targets.add(
+              new GeneratedTarget(ruleType, label, new MacroData(lineNumber, macroFunction, name)));
+        }
+      }
+      entries.put(path, new Entry(HashCode.fromBytes(hash), UNKNOWN_STAMP, targets.build()));
+    }
+    return entries;
+  }
+
+  @VisibleForTesting
+  static final class Entry {
+    final HashCode contentHash;
+    final ImmutableList<GeneratedTarget> targets;
+    /**
+     * The VFS modification stamp of the BUILD file when its contents last matched the hash. Stamps
+     * don't survive restarts, so this isn't persisted.
+     */
+    volatile long modificationStamp;
+
+    Entry(HashCode contentHash, long modificationStamp, ImmutableList<GeneratedTarget> targets) {
+      this.contentHash = contentHash;
+      this.modificationStamp = modificationStamp;
+      this.targets = targets;
+    }
+  }
+}
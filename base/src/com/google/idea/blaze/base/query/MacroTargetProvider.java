@@ -17,6 +17,7 @@ package com.google.idea.blaze.base.query;
 
 import com.google.common.collect.ImmutableList;
 import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
 import com.intellij.openapi.extensions.ExtensionPointName;
 import com.intellij.openapi.project.Project;
 import java.util.Arrays;
@@ -44,7 +45,31 @@ public interface MacroTargetProvider {
         .orElse(ImmutableList.of());
   }
 
+  /**
+   * Synchronously queries the list of all targets generated by macros in all packages beneath the
+   * given directory, in a single batch.
+   *
+   * <p>Returns null if no providers were able to handle this directory. Otherwise returns the first
+   * non-null result from the list of providers.
+   */
+  @Nullable
+  static ImmutableList<GeneratedTarget> findTargetsGeneratedByMacrosRecursively(
+      Project project, WorkspacePath directory) {
+    return Arrays.stream(EP_NAME.getExtensions())
+        .map(p -> p.doFindTargetsRecursively(project, directory))
+        .filter(Objects::nonNull)
+        .findFirst()
+        .orElse(null);
+  }
+
   /** Returns null if this provider isn't able to handle the given package. */
   @Nullable
   ImmutableList<GeneratedTarget> doFindTargets(Project project, Label buildPackage);
+
+  /** Returns null if this provider isn't able to handle queries of the given directory subtree. */
+  @Nullable
+  default ImmutableList<GeneratedTarget> doFindTargetsRecursively(
+      Project project, WorkspacePath directory) {
+    return null;
+  }
 }
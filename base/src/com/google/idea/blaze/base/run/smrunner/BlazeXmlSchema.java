@@ -22,84 +22,106 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Consumer;
 import javax.annotation.Nullable;
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.annotation.XmlAnyElement;
-import javax.xml.bind.annotation.XmlAttribute;
-import javax.xml.bind.annotation.XmlElement;
-import javax.xml.bind.annotation.XmlMixed;
-import javax.xml.bind.annotation.XmlRootElement;
-
-/** Used to parse the test.xml generated by the blaze/bazel testing framework. */
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Used to parse the test.xml generated by the blaze/bazel testing framework.
+ *
+ * <p>Files are read with a streaming parser, so only the suites and test cases themselves are held
+ * in memory. Output and failure text longer than {@link #MAX_TEXT_LENGTH} characters is truncated
+ * as it's read.
+ */
 public class BlazeXmlSchema {
 
-  private static final JAXBContext CONTEXT;
+  /** The maximum length of any single run of text kept, e.g. a test case's system-out. */
+  static final int MAX_TEXT_LENGTH = 1 << 20;
 
-  static {
-    try {
-      CONTEXT = JAXBContext.newInstance(TestSuite.class, TestSuites.class);
-    } catch (JAXBException e) {
-      throw new RuntimeException(e);
-    }
+  private static final String TRUNCATION_NOTICE =
+      "\n... (%d more characters not shown, see the test log for the full output)";
+
+  private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+  private static XMLInputFactory createInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newFactory();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
   }
 
   public static TestSuite parse(InputStream input) {
+    List<TestSuite> suites = new ArrayList<>();
+    boolean wrapped;
     try {
-      Object parsed = CONTEXT.createUnmarshaller().unmarshal(input);
-      return parsed instanceof TestSuites
-          ? ((TestSuites) parsed).convertToTestSuite()
-          : (TestSuite) parsed;
-
-    } catch (JAXBException e) {
+      wrapped = parse(input, suites::add);
+    } catch (XMLStreamException e) {
       throw new RuntimeException("Failed to parse test XML", e);
     }
+    if (!wrapped) {
+      return suites.get(0);
+    }
+    TestSuite suite = new TestSuite();
+    suite.testSuites.addAll(suites);
+    return suite;
   }
 
-  // optional wrapping XML element. Some test runners don't include it.
-  @XmlRootElement(name = "testsuites")
-  static class TestSuites {
-    @XmlElement(name = "testsuite")
-    List<TestSuite> testSuites = Lists.newArrayList();
-
-    TestSuite convertToTestSuite() {
-      TestSuite suite = new TestSuite();
-      suite.testSuites.addAll(testSuites);
-      return suite;
+  /**
+   * Parses a test XML file, passing each top-level test suite to {@code consumer} as soon as it has
+   * been read, without retaining it.
+   *
+   * <p>The top-level suites are either the children of the optional wrapping 'testsuites' element,
+   * or the root 'testsuite' element if there's no wrapping element.
+   *
+   * @return whether the top-level suites were wrapped in a 'testsuites' element
+   */
+  static boolean parse(InputStream input, Consumer<TestSuite> consumer)
+      throws XMLStreamException {
+    XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(input);
+    try {
+      reader.nextTag();
+      switch (reader.getLocalName()) {
+        case "testsuites":
+          // optional wrapping XML element. Some test runners don't include it.
+          while (nextChildElement(reader)) {
+            if (reader.getLocalName().equals("testsuite")) {
+              consumer.accept(readSuite(reader));
+            } else {
+              skipElement(reader);
+            }
+          }
+          return true;
+        case "testsuite":
+          consumer.accept(readSuite(reader));
+          return false;
+        default:
+          throw new XMLStreamException(
+              "Unexpected root element: " + reader.getLocalName(), reader.getLocation());
+      }
+    } finally {
+      reader.close();
     }
   }
 
   /** XML output by blaze test runners. */
-  @XmlRootElement(name = "testsuite")
   public static class TestSuite {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public int tests;
-    @XmlAttribute public int failures;
-    @XmlAttribute public int errors;
-    @XmlAttribute public int skipped;
-    @XmlAttribute public int disabled;
-    @XmlAttribute public double time;
-
-    @XmlElement(name = "system-out")
+    public String name;
+    public String classname;
+    public int tests;
+    public int failures;
+    public int errors;
+    public int skipped;
+    public int disabled;
+    public double time;
     public String sysOut;
-
-    @XmlElement(name = "system-err")
     public String sysErr;
-
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped error;
-
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     ErrorOrFailureOrSkipped failure;
-
-    @XmlElement(name = "testsuite")
     public List<TestSuite> testSuites = Lists.newArrayList();
-
-    @XmlElement(name = "testdecorator")
     List<TestSuite> testDecorators = Lists.newArrayList();
-
-    @XmlElement(name = "testcase")
     public List<TestCase> testCases = Lists.newArrayList();
 
     /** Used to merge test suites from a single target, split across multiple shards */
@@ -139,25 +161,15 @@ public class BlazeXmlSchema {
 
   /** Individual test case XML output by blaze test runners. */
   public static class TestCase {
-    @XmlAttribute public String name;
-    @XmlAttribute public String classname;
-    @XmlAttribute public String status;
-    @XmlAttribute public String result;
-    @XmlAttribute public String time;
-
-    @XmlElement(name = "system-out")
+    public String name;
+    public String classname;
+    public String status;
+    public String result;
+    public String time;
     String sysOut;
-
-    @XmlElement(name = "system-err")
     String sysErr;
-
-    @XmlElement(name = "error", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> errors = Lists.newArrayList();
-
-    @XmlElement(name = "failure", type = ErrorOrFailureOrSkipped.class)
     public List<ErrorOrFailureOrSkipped> failures = Lists.newArrayList();
-
-    @XmlElement(name = "skipped", type = ErrorOrFailureOrSkipped.class)
     public ErrorOrFailureOrSkipped skipped;
   }
 
@@ -168,30 +180,259 @@ public class BlazeXmlSchema {
     }
     return err.content.stream()
         .filter(Objects::nonNull)
-        .map(Object::toString)
         .map(String::trim)
         .filter(s -> !s.isEmpty())
         .collect(joining("\n"));
   }
 
   static class ErrorOrFailureOrSkipped {
-    // Can't use @XmlValue with @XmlElement
-    @XmlMixed
-    @XmlAnyElement(lax = true)
-    private List<Object> content;
+    // the text content, split at any child elements
+    @Nullable private List<String> content;
 
-    @XmlAttribute String message;
-    @XmlAttribute String type;
-
-    @XmlElement(name = "expected", type = Values.class)
+    String message;
+    String type;
     Values expected;
-
-    @XmlElement(name = "actual", type = Values.class)
     Values actual;
+
+    private void addContent(@Nullable BoundedText text) {
+      if (text == null) {
+        return;
+      }
+      if (content == null) {
+        content = new ArrayList<>();
+      }
+      content.add(text.toString());
+    }
   }
 
   static class Values {
-    @XmlElement(name = "value", type = String.class)
     List<String> values = new ArrayList<>();
   }
+
+  private static TestSuite readSuite(XMLStreamReader reader) throws XMLStreamException {
+    TestSuite suite = new TestSuite();
+    suite.name = reader.getAttributeValue(null, "name");
+    suite.classname = reader.getAttributeValue(null, "classname");
+    suite.tests = intAttribute(reader, "tests");
+    suite.failures = intAttribute(reader, "failures");
+    suite.errors = intAttribute(reader, "errors");
+    suite.skipped = intAttribute(reader, "skipped");
+    suite.disabled = intAttribute(reader, "disabled");
+    suite.time = doubleAttribute(reader, "time");
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
+        case "testsuite":
+          suite.testSuites.add(readSuite(reader));
+          break;
+        case "testdecorator":
+          suite.testDecorators.add(readSuite(reader));
+          break;
+        case "testcase":
+          suite.testCases.add(readTestCase(reader));
+          break;
+        case "system-out":
+          suite.sysOut = readText(reader);
+          break;
+        case "system-err":
+          suite.sysErr = readText(reader);
+          break;
+        case "error":
+          suite.error = readError(reader);
+          break;
+        case "failure":
+          suite.failure = readError(reader);
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+    return suite;
+  }
+
+  private static TestCase readTestCase(XMLStreamReader reader) throws XMLStreamException {
+    TestCase test = new TestCase();
+    test.name = reader.getAttributeValue(null, "name");
+    test.classname = reader.getAttributeValue(null, "classname");
+    test.status = reader.getAttributeValue(null, "status");
+    test.result = reader.getAttributeValue(null, "result");
+    test.time = reader.getAttributeValue(null, "time");
+    while (nextChildElement(reader)) {
+      switch (reader.getLocalName()) {
+        case "system-out":
+          test.sysOut = readText(reader);
+          break;
+        case "system-err":
+          test.sysErr = readText(reader);
+          break;
+        case "error":
+          test.errors.add(readError(reader));
+          break;
+        case "failure":
+          test.failures.add(readError(reader));
+          break;
+        case "skipped":
+          test.skipped = readError(reader);
+          break;
+        default:
+          skipElement(reader);
+      }
+    }
+    return test;
+  }
+
+  private static ErrorOrFailureOrSkipped readError(XMLStreamReader reader)
+      throws XMLStreamException {
+    ErrorOrFailureOrSkipped error = new ErrorOrFailureOrSkipped();
+    error.message = reader.getAttributeValue(null, "message");
+    error.type = reader.getAttributeValue(null, "type");
+    BoundedText text = null;
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          if (text == null) {
+            text = new BoundedText();
+          }
+          text.append(reader);
+          break;
+        case XMLStreamConstants.START_ELEMENT:
+          error.addContent(text);
+          text = null;
+          if (reader.getLocalName().equals("expected")) {
+            error.expected = readValues(reader);
+          } else if (reader.getLocalName().equals("actual")) {
+            error.actual = readValues(reader);
+          } else {
+            skipElement(reader);
+          }
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          error.addContent(text);
+          return error;
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+        default: // ignore comments and processing instructions
+      }
+    }
+  }
+
+  private static Values readValues(XMLStreamReader reader) throws XMLStreamException {
+    Values values = new Values();
+    while (nextChildElement(reader)) {
+      if (reader.getLocalName().equals("value")) {
+        values.values.add(readText(reader));
+      } else {
+        skipElement(reader);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Reads the text content of the current element, ignoring any child elements, and leaves the
+   * reader at its end element.
+   */
+  private static String readText(XMLStreamReader reader) throws XMLStreamException {
+    BoundedText text = new BoundedText();
+    while (true) {
+      switch (reader.next()) {
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append(reader);
+          break;
+        case XMLStreamConstants.START_ELEMENT:
+          skipElement(reader);
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          return text.toString();
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+        default: // ignore comments and processing instructions
+      }
+    }
+  }
+
+  /**
+   * Advances to the next child element of the current element, returning false if the current
+   * element's end element is reached first. Child elements must be fully consumed between calls.
+   */
+  private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          return true;
+        case XMLStreamConstants.END_ELEMENT:
+          return false;
+        default: // skip text, comments and processing instructions
+      }
+    }
+    throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+  }
+
+  /** Skips the current element and all its children, leaving the reader at its end element. */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.END_DOCUMENT:
+          throw new XMLStreamException("Unexpected end of document", reader.getLocation());
+        default: // skip everything else
+      }
+    }
+  }
+
+  private static int intAttribute(XMLStreamReader reader, String name) {
+    String value = reader.getAttributeValue(null, name);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static double doubleAttribute(XMLStreamReader reader, String name) {
+    String value = reader.getAttributeValue(null, name);
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Accumulates text up to {@link #MAX_TEXT_LENGTH} characters, counting but otherwise discarding
+   * anything beyond that.
+   */
+  private static final class BoundedText {
+    private final StringBuilder text = new StringBuilder();
+    private long truncatedLength = 0;
+
+    void append(XMLStreamReader reader) {
+      int length = reader.getTextLength();
+      int kept = Math.min(length, MAX_TEXT_LENGTH - text.length());
+      text.append(reader.getTextCharacters(), reader.getTextStart(), kept);
+      truncatedLength += length - kept;
+    }
+
+    @Override
+    public String toString() {
+      return truncatedLength == 0
+          ? text.toString()
+          : text + String.format(TRUNCATION_NOTICE, truncatedLength);
+    }
+  }
 }
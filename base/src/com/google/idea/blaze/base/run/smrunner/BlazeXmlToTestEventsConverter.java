@@ -15,9 +15,12 @@
  */
 package com.google.idea.blaze.base.run.smrunner;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
@@ -51,13 +54,17 @@ import com.intellij.execution.testframework.sm.runner.events.TestSuiteFinishedEv
 import com.intellij.execution.testframework.sm.runner.events.TestSuiteStartedEvent;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.project.ProjectManager;
+import com.intellij.openapi.util.Key;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import javax.annotation.Nullable;
+import javax.xml.stream.XMLStreamException;
 import jetbrains.buildServer.messages.serviceMessages.TestSuiteStarted;
 
 /** Converts blaze test runner xml logs to smRunner events. */
@@ -65,12 +72,19 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
   private static final ErrorOrFailureOrSkipped NO_ERROR = new ErrorOrFailureOrSkipped();
   private static final BoolExperiment removeZeroRunTimeCheck =
       new BoolExperiment("remove.zero.run.time.check", true);
+  private static final BoolExperiment streamTestResults =
+      new BoolExperiment("blaze.test.results.streaming", true);
 
   {
     NO_ERROR.message = "No message"; // cannot be null
   }
 
   private final BlazeTestResultFinderStrategy testResultFinderStrategy;
+  private final Set<Label> reportedTargets = Sets.newConcurrentHashSet();
+
+  private boolean streamingStarted = false;
+  @Nullable private StreamingTestResultReader streamingReader;
+  private boolean testingStarted = false;
 
   public BlazeXmlToTestEventsConverter(
       String testFrameworkName,
@@ -80,27 +94,121 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
     this.testResultFinderStrategy = testResultFinderStrategy;
   }
 
+  @Override
+  public void process(String text, Key outputType) {
+    super.process(text, outputType);
+    // blaze writes to the console as soon as it starts, so this is the earliest point we know the
+    // test invocation is running
+    maybeStartStreaming();
+  }
+
   @Override
   public void flushBufferOnProcessTermination(int exitCode) {
     super.flushBufferOnProcessTermination(exitCode);
 
     try {
-      BlazeTestResults testResults = testResultFinderStrategy.findTestResults();
-      if (testResults == BlazeTestResults.NO_RESULTS) {
-        reportError(exitCode);
-      } else {
-        processAllTestResults(testResults);
+      StreamingTestResultReader reader = stopStreaming();
+      if (reader == null || !reader.finish()) {
+        BlazeTestResults testResults = testResultFinderStrategy.findTestResults();
+        if (testResults != BlazeTestResults.NO_RESULTS) {
+          processAllTestResults(testResults);
+        } else if (reportedTargets.isEmpty()) {
+          // no results were found at all, rather than there being no test targets
+          reportError(exitCode);
+        }
       }
     } finally {
       testResultFinderStrategy.deleteTemporaryOutputFiles();
     }
   }
 
-  private void processAllTestResults(BlazeTestResults testResults) {
+  @Override
+  public void dispose() {
+    StreamingTestResultReader reader = stopStreaming();
+    if (reader != null) {
+      reader.cancel();
+    }
+    super.dispose();
+  }
+
+  /**
+   * Starts reporting the results of each test target as soon as BEP reports it has finished, rather
+   * than waiting for the whole invocation to complete.
+   */
+  private synchronized void maybeStartStreaming() {
+    if (streamingStarted) {
+      return;
+    }
+    streamingStarted = true;
+    if (streamTestResults.getValue()) {
+      testResultFinderStrategy
+          .getBepOutputFile()
+          .ifPresent(
+              file ->
+                  streamingReader =
+                      StreamingTestResultReader.start(file, this::processTargetResults));
+    }
+  }
+
+  @Nullable
+  private synchronized StreamingTestResultReader stopStreaming() {
+    streamingStarted = true;
+    StreamingTestResultReader reader = streamingReader;
+    streamingReader = null;
+    return reader;
+  }
+
+  private synchronized void startTesting() {
+    if (testingStarted) {
+      return;
+    }
+    testingStarted = true;
     onStartTesting();
     getProcessor().onTestsReporterAttached();
+  }
+
+  /** Reports the results of a single test target, while the test invocation is still running. */
+  private void processTargetResults(Label label, ImmutableList<BlazeTestResult> results) {
+    if (!reportedTargets.add(label)) {
+      return;
+    }
+    startTesting();
+    List<BlazeArtifact> outputFiles = getOutputFiles(results);
+    if (outputFiles.size() == 1 && !noUsefulOutput(results, outputFiles)) {
+      streamTestXml(label, results, outputFiles.get(0));
+    } else {
+      processParsedTestResults(parseTestXml(label, results));
+    }
+  }
+
+  /** Reports each top-level suite in a target's only test XML file as soon as it's been read. */
+  private void streamTestXml(
+      Label label, Collection<BlazeTestResult> results, BlazeArtifact outputFile) {
+    Kind kind = getTargetKind(results);
+    BlazeTestEventsHandler eventsHandler =
+        BlazeTestEventsHandler.getHandlerForTargetKindOrFallback(kind);
+    try (InputStream input = outputFile.getInputStream()) {
+      BlazeXmlSchema.parse(
+          input, suite -> processTestSuite(getProcessor(), eventsHandler, label, kind, suite));
+    } catch (IOException | XMLStreamException e) {
+      // ignore parsing errors -- most common cause is user cancellation, which we can't easily
+      // recognize.
+    }
+  }
+
+  /** Reports the results of all test targets which haven't already been reported. */
+  private void processAllTestResults(BlazeTestResults testResults) {
+    ImmutableList<Label> labels =
+        testResults.perTargetResults.keySet().stream()
+            .filter(label -> !reportedTargets.contains(label))
+            .collect(toImmutableList());
+    if (labels.isEmpty()) {
+      return;
+    }
+    reportedTargets.addAll(labels);
+    startTesting();
     List<ListenableFuture<ParsedTargetResults>> futures = new ArrayList<>();
-    for (Label label : testResults.perTargetResults.keySet()) {
+    for (Label label : labels) {
       futures.add(
           FetchExecutor.EXECUTOR.submit(
               () -> parseTestXml(label, testResults.perTargetResults.get(label))));
@@ -144,8 +252,7 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
   /** Parse all test XML files from a single test target. */
   private static ParsedTargetResults parseTestXml(
       Label label, Collection<BlazeTestResult> results) {
-    List<BlazeArtifact> outputFiles = new ArrayList<>();
-    results.forEach(result -> outputFiles.addAll(result.getOutputXmlFiles()));
+    List<BlazeArtifact> outputFiles = getOutputFiles(results);
     List<TestSuite> targetSuites = new ArrayList<>();
     for (BlazeArtifact file : outputFiles) {
       try (InputStream input = file.getInputStream()) {
@@ -158,6 +265,21 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
     return new ParsedTargetResults(label, results, outputFiles, targetSuites);
   }
 
+  private static List<BlazeArtifact> getOutputFiles(Collection<BlazeTestResult> results) {
+    List<BlazeArtifact> outputFiles = new ArrayList<>();
+    results.forEach(result -> outputFiles.addAll(result.getOutputXmlFiles()));
+    return outputFiles;
+  }
+
+  @Nullable
+  private static Kind getTargetKind(Collection<BlazeTestResult> results) {
+    return results.stream()
+        .map(BlazeTestResult::getTargetKind)
+        .filter(Objects::nonNull)
+        .findFirst()
+        .orElse(null);
+  }
+
   /** Process all parsed test XML files from a single test target. */
   private void processParsedTestResults(ParsedTargetResults parsedResults) {
     if (noUsefulOutput(parsedResults.results, parsedResults.outputFiles)) {
@@ -168,12 +290,7 @@ public class BlazeXmlToTestEventsConverter extends OutputToGeneralTestEventsConv
       return;
     }
 
-    Kind kind =
-        parsedResults.results.stream()
-            .map(BlazeTestResult::getTargetKind)
-            .filter(Objects::nonNull)
-            .findFirst()
-            .orElse(null);
+    Kind kind = getTargetKind(parsedResults.results);
     BlazeTestEventsHandler eventsHandler =
         BlazeTestEventsHandler.getHandlerForTargetKindOrFallback(kind);
     TestSuite suite =
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.run.smrunner;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.command.buildresult.BuildEventProtocolOutputReader;
+import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
+import com.google.idea.blaze.base.command.buildresult.TailingBuildEventStreamProvider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.run.testlogs.BlazeTestResult;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+/**
+ * Tails the BEP output of a running 'blaze test' invocation, passing on the results of each test
+ * target as soon as BEP reports that it has finished.
+ */
+final class StreamingTestResultReader {
+
+  private static final Logger logger = Logger.getInstance(StreamingTestResultReader.class);
+
+  private final TailingBuildEventStreamProvider stream;
+  private final BiConsumer<Label, ImmutableList<BlazeTestResult>> consumer;
+  private final Future<Boolean> tailFuture;
+
+  private StreamingTestResultReader(
+      File bepOutputFile, BiConsumer<Label, ImmutableList<BlazeTestResult>> consumer) {
+    this.stream = new TailingBuildEventStreamProvider(bepOutputFile);
+    this.consumer = consumer;
+    this.tailFuture = PooledThreadExecutor.INSTANCE.submit(this::readEvents);
+  }
+
+  /**
+   * Starts tailing the given BEP output file. {@code consumer} is called sequentially on a
+   * background thread.
+   */
+  static StreamingTestResultReader start(
+      File bepOutputFile, BiConsumer<Label, ImmutableList<BlazeTestResult>> consumer) {
+    return new StreamingTestResultReader(bepOutputFile, consumer);
+  }
+
+  /**
+   * Called once the 'blaze test' invocation has finished. Waits for the remaining results to be
+   * passed on, then returns whether all results were read successfully.
+   */
+  boolean finish() {
+    stream.buildFinished();
+    try {
+      return tailFuture.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      tailFuture.cancel(true);
+      return false;
+    } catch (ExecutionException e) {
+      logger.warn("Failed to report test results while the tests were running", e);
+      return false;
+    } finally {
+      stream.close();
+    }
+  }
+
+  /** Stops reading, without passing on any remaining results. */
+  void cancel() {
+    tailFuture.cancel(true);
+    stream.close();
+  }
+
+  private boolean readEvents() {
+    try {
+      BuildEventProtocolOutputReader.streamTestResults(stream, consumer);
+      return true;
+    } catch (BuildEventStreamException e) {
+      // anything not reported yet will be handled once the invocation completes
+      logger.warn("Stopped streaming test results: " + e.getMessage());
+      return false;
+    }
+  }
+}
@@ -15,6 +15,8 @@
  */
 package com.google.idea.blaze.base.run.testlogs;
 
+import java.io.File;
+import java.util.Optional;
 
 /** A strategy for locating results from 'blaze test' invocation (e.g. output XML files). */
 public interface BlazeTestResultFinderStrategy {
@@ -26,6 +28,14 @@ public interface BlazeTestResultFinderStrategy {
    */
   BlazeTestResults findTestResults();
 
+  /**
+   * Returns the local BEP output file written by the 'blaze test' invocation, if there is one. It
+   * may be read while the invocation is still running, to report results before it completes.
+   */
+  default Optional<File> getBepOutputFile() {
+    return Optional.empty();
+  }
+
   /** Remove any temporary files used by this result finder. */
   void deleteTemporaryOutputFiles();
 }
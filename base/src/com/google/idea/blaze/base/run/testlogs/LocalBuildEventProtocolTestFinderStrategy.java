@@ -23,6 +23,7 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Optional;
 
 /**
  * A strategy for locating results from a single 'blaze test' invocation (e.g. output XML files).
@@ -50,6 +51,11 @@ public final class LocalBuildEventProtocolTestFinderStrategy
     }
   }
 
+  @Override
+  public Optional<File> getBepOutputFile() {
+    return Optional.of(outputFile);
+  }
+
   @Override
   public void deleteTemporaryOutputFiles() {
     if (!outputFile.delete()) {
@@ -16,6 +16,7 @@
 package com.google.idea.blaze.base.sync;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.idea.blaze.base.async.FutureUtil;
 import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
@@ -24,6 +25,7 @@ import com.google.idea.blaze.base.filecache.FileCaches;
 import com.google.idea.blaze.base.filecache.RemoteOutputsCache;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.io.VirtualFileSystemProvider;
+import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.model.BlazeLibrary;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.BlazeVersionData;
@@ -31,12 +33,14 @@ import com.google.idea.blaze.base.model.ProjectTargetData;
 import com.google.idea.blaze.base.model.RemoteOutputArtifacts;
 import com.google.idea.blaze.base.model.SyncState;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.prefetch.PrefetchStats;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.scope.Scope;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
+import com.google.idea.blaze.base.scope.output.PrintOutput;
 import com.google.idea.blaze.base.scope.output.StatusOutput;
 import com.google.idea.blaze.base.scope.scopes.NetworkTrafficTrackingScope.NetworkTrafficUsedOutput;
 import com.google.idea.blaze.base.scope.scopes.TimingScope;
@@ -134,6 +138,13 @@ final class ProjectUpdateSyncTask {
   private final BlazeInfo blazeInfo;
   @Nullable private final BlazeProjectData oldProjectData;
 
+  private static void logFetchExecutorMetrics() {
+    ImmutableMap.Builder<String, String> metrics = ImmutableMap.builder();
+    FetchExecutor.getMetrics().forEach(lane -> metrics.putAll(lane.toLogValues()));
+    EventLoggingService.getInstance()
+        .logEvent(FetchExecutor.class, "fetch_executor_metrics", metrics.build());
+  }
+
   private ProjectUpdateSyncTask(
       Project project,
       SyncMode syncMode,
@@ -227,7 +238,11 @@ final class ProjectUpdateSyncTask {
         syncMode);
     ListenableFuture<PrefetchStats> prefetch =
         PrefetchService.getInstance()
-            .prefetchProjectFiles(project, projectState.getProjectViewSet(), newProjectData);
+            .prefetchProjectFiles(
+                project,
+                projectState.getProjectViewSet(),
+                newProjectData,
+                FetchExecutor.Priority.SYNC_BLOCKING);
     FutureResult<PrefetchStats> result =
         FutureUtil.waitForFuture(context, prefetch)
             .withProgressMessage("Prefetching files...")
@@ -239,7 +254,18 @@ final class ProjectUpdateSyncTask {
       if (prefetched > 0) {
         context.output(new NetworkTrafficUsedOutput(prefetched, "prefetch"));
       }
+      result
+          .result()
+          .sourceStats()
+          .forEach(
+              (source, stats) ->
+                  context.output(
+                      PrintOutput.log(
+                          String.format(
+                              "Prefetched %d files from %s (%d skipped as recently prefetched)",
+                              stats.cacheMisses(), source, stats.cacheHits()))));
     }
+    logFetchExecutorMetrics();
 
     ListenableFuture<DirectoryStructure> directoryStructureFuture =
         DirectoryStructure.getRootDirectoryStructure(
@@ -15,32 +15,230 @@
  */
 package com.google.idea.blaze.base.sync;
 
+import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.scope.BlazeContext;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.data.BlazeDataStorage;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.extensions.ExtensionPointName;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.SystemInfo;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.annotation.Nullable;
 
-/** Computes a cache on the project data. */
+/**
+ * Computes a cache on the project data.
+ *
+ * <p>Each key is computed at most once per sync. Lookups of a key which is being computed wait for
+ * that computation, but don't block lookups or computations of other keys.
+ */
 public class SyncCache {
+  private static final Logger logger = Logger.getInstance(SyncCache.class);
+
   /** Computes a value based on the sync project data. */
   public interface SyncCacheComputable<T> {
     @Nullable
     T compute(Project project, BlazeProjectData projectData);
   }
 
+  /**
+   * Computes a value based on the sync project data, optionally reusing the value computed for the
+   * previous sync.
+   */
+  public interface IncrementalSyncCacheComputable<T> {
+    /**
+     * @param previousValue the value computed for a previous version of the project data, or null
+     *     if there is none. Implementations may modify any state it holds.
+     * @param delta the changes to the target map since {@code previousValue} was computed, or null
+     *     if they aren't known
+     */
+    @Nullable
+    T compute(
+        Project project,
+        BlazeProjectData projectData,
+        @Nullable T previousValue,
+        @Nullable TargetMap.Delta delta);
+  }
+
+  /**
+   * Precomputes a cached value in the background as soon as sync completes, rather than leaving it
+   * to whichever thread first needs it (often a highlighting pass).
+   */
+  public interface Warmer {
+    ExtensionPointName<Warmer> EP_NAME =
+        ExtensionPointName.create("com.google.idea.blaze.SyncCacheWarmer");
+
+    /**
+     * Computes the value via {@link SyncCache#get} or {@link SyncCache#getIncrementally}, if it's
+     * relevant to this project. Called on a pooled thread, without a read lock.
+     */
+    void warm(Project project, BlazeProjectData projectData);
+  }
+
+  /**
+   * Serializes a cached value, so that after an IDE restart it can be loaded rather than recomputed
+   * from the project data.
+   *
+   * <p>Values are stored next to the project data, and only loaded for the same version of the
+   * project data they were computed from. They're written in the background, so serializing them
+   * doesn't hold up the thread which needed the value. An incremental value isn't passed to the
+   * next sync's computation (which may modify it) until it has been written.
+   */
+  public interface Persister<T> {
+    /** Identifies the serialized format. Values stored in any other format are ignored. */
+    int getFormatVersion();
+
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(Project project, BlazeProjectData projectData, DataInput in) throws IOException;
+
+    /** Writes a length-prefixed proto message. */
+    static void writeMessage(DataOutput out, Message message) throws IOException {
+      byte[] bytes = message.toByteArray();
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    /** Reads a proto message written by {@link #writeMessage}. */
+    static <M extends Message> M readMessage(DataInput in, Parser<M> parser) throws IOException {
+      byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return parser.parseFrom(bytes);
+    }
+  }
+
+  /**
+   * How long a cached value took to compute, and how much memory computing it allocated. This isn't
+   * the retained size of the value, as it includes any garbage the computation produced.
+   */
+  @AutoValue
+  public abstract static class ComputationStats {
+    public abstract long computeTimeMillis();
+
+    /** The bytes allocated by the computing thread, or -1 if the JVM doesn't track them. */
+    public abstract long computeAllocatedBytes();
+
+    static ComputationStats create(long computeTimeMillis, long computeAllocatedBytes) {
+      return new AutoValue_SyncCache_ComputationStats(computeTimeMillis, computeAllocatedBytes);
+    }
+  }
+
+  /**
+   * A value computed during a previous sync, and the target map it was computed from. The target
+   * map is strongly held until the value has been updated for the next sync, as the changes since
+   * are only known while it's still around.
+   */
+  private static class PreviousValue {
+    final Object value;
+    final TargetMap targetMap;
+
+    PreviousValue(Object value, TargetMap targetMap) {
+      this.value = value;
+      this.targetMap = targetMap;
+    }
+  }
+
+  /** The computation of a single value, run by the first thread to ask for it. */
+  private static class Entry extends FutureTask<Object> {
+    @Nullable private volatile Thread owner;
+
+    Entry(Callable<Object> computation) {
+      super(computation);
+    }
+
+    @Override
+    public void run() {
+      owner = Thread.currentThread();
+      try {
+        super.run();
+      } finally {
+        owner = null;
+      }
+    }
+  }
+
+  /** The values cached for a single version of the project data. */
+  private static class Generation {
+    final ConcurrentMap<Object, Entry> entries = new ConcurrentHashMap<>();
+  }
+
+  private static final int PERSISTED_MAGIC = 0x53594e43;
+  // how often a thread waiting for another's computation checks whether it has been canceled
+  private static final long WAIT_MILLIS = 50;
+
+  // a single thread, as writes are disk bound and must not overtake each other
+  private static final Executor persistExecutor =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor("SyncCachePersister", 1);
+
   private final Project project;
-  private final Map<Object, Object> cache = Maps.newHashMap();
+  // where persisted values are stored, or null to store them next to the project data
+  @Nullable private final File persistenceDir;
+  private final Executor writeExecutor;
+  // writes not yet completed, by key
+  private final ConcurrentMap<Object, FutureTask<?>> pendingWrites = new ConcurrentHashMap<>();
+  private volatile Generation generation = new Generation();
+  // retained across syncs, for incrementally computed values
+  private final ConcurrentMap<Object, PreviousValue> previousValues = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Object, ComputationStats> stats = new ConcurrentHashMap<>();
 
   public SyncCache(Project project) {
+    this(project, /* persistenceDir= */ null, persistExecutor);
+  }
+
+  @VisibleForTesting
+  SyncCache(Project project, @Nullable File persistenceDir, Executor writeExecutor) {
     this.project = project;
+    this.persistenceDir = persistenceDir;
+    this.writeExecutor = writeExecutor;
   }
 
   public static SyncCache getInstance(Project project) {
@@ -49,27 +247,464 @@ public class SyncCache {
 
   /** Computes a value derived from the sync project data and caches it until the next sync. */
   @Nullable
-  @SuppressWarnings("unchecked")
-  public synchronized <T> T get(Object key, SyncCacheComputable<T> computable) {
-    if (cache.containsKey(key)) {
-      return (T) cache.get(key);
+  public <T> T get(Object key, SyncCacheComputable<T> computable) {
+    return get(key, computable, /* persister= */ null);
+  }
+
+  /**
+   * Computes a value derived from the sync project data and caches it until the next sync. If a
+   * {@link Persister} is given, the value is also stored on disk, and after an IDE restart is
+   * loaded on first use rather than recomputed.
+   */
+  @Nullable
+  public <T> T get(
+      Object key, SyncCacheComputable<T> computable, @Nullable Persister<T> persister) {
+    Generation generation = this.generation;
+    Entry existing = generation.entries.get(key);
+    if (existing != null) {
+      try {
+        return await(generation, key, existing);
+      } catch (OwnerCanceledException e) {
+        // computed below instead
+      }
+    }
+    BlazeProjectData blazeProjectData =
+        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
+    if (blazeProjectData == null) {
+      return null;
+    }
+    return memoize(
+        generation,
+        key,
+        () ->
+            loadOrCompute(
+                key,
+                persister,
+                blazeProjectData,
+                () -> computable.compute(project, blazeProjectData)));
+  }
+
+  /**
+   * Computes a value derived from the sync project data and caches it until the next sync. The
+   * value computed during the previous sync is passed to {@code computable}, along with the target
+   * map changes since, so it can be updated rather than recomputed.
+   */
+  @Nullable
+  public <T> T getIncrementally(Object key, IncrementalSyncCacheComputable<T> computable) {
+    return getIncrementally(key, computable, /* persister= */ null);
+  }
+
+  /**
+   * As {@link #getIncrementally(Object, IncrementalSyncCacheComputable)}, but also storing the
+   * value on disk if a {@link Persister} is given. After an IDE restart, the stored value is loaded
+   * on first use rather than recomputed, then updated incrementally by later syncs.
+   */
+  @Nullable
+  public <T> T getIncrementally(
+      Object key,
+      IncrementalSyncCacheComputable<T> computable,
+      @Nullable Persister<T> persister) {
+    Generation generation = this.generation;
+    Entry existing = generation.entries.get(key);
+    if (existing != null) {
+      try {
+        return await(generation, key, existing);
+      } catch (OwnerCanceledException e) {
+        // computed below instead
+      }
     }
     BlazeProjectData blazeProjectData =
         BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
     if (blazeProjectData == null) {
       return null;
     }
-    T value = computable.compute(project, blazeProjectData);
-    cache.put(key, value);
+    return memoize(
+        generation,
+        key,
+        () -> computeIncrementally(generation, key, computable, persister, blazeProjectData));
+  }
+
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private <T> T computeIncrementally(
+      Generation generation,
+      Object key,
+      IncrementalSyncCacheComputable<T> computable,
+      @Nullable Persister<T> persister,
+      BlazeProjectData blazeProjectData) throws Exception {
+    TargetMap targetMap = blazeProjectData.getTargetMap();
+    // removed up front, so a failed computation doesn't leave behind partially updated state, and
+    // no other computation can modify it concurrently
+    PreviousValue previous = previousValues.remove(key);
+    TargetMap previousTargetMap = previous != null ? previous.targetMap : null;
+    T value;
+    if (previousTargetMap == targetMap) {
+      value = (T) previous.value;
+    } else if (previous == null) {
+      // typically the first use after an IDE restart, so try the persisted value
+      value =
+          loadOrCompute(
+              key,
+              persister,
+              blazeProjectData,
+              () -> computable.compute(project, blazeProjectData, null, null));
+    } else {
+      awaitPendingWrite(key);
+      value =
+          computable.compute(
+              project,
+              blazeProjectData,
+              (T) previous.value,
+              targetMap.getDeltaFrom(previousTargetMap));
+      persist(key, persister, blazeProjectData, value);
+    }
+    // a computation overtaken by a newer sync mustn't replace the newer sync's value
+    if (value != null && generation == this.generation) {
+      previousValues.put(key, new PreviousValue(value, targetMap));
+    }
     return value;
   }
 
+  /**
+   * Loads the persisted value of {@code key} if there is one for this version of the project data,
+   * otherwise computes and persists it.
+   */
+  @Nullable
+  private <T> T loadOrCompute(
+      Object key,
+      @Nullable Persister<T> persister,
+      BlazeProjectData blazeProjectData,
+      Callable<T> computation)
+      throws Exception {
+    File file = persister != null ? getPersistedFile(key) : null;
+    String fingerprint =
+        file != null
+            ? BlazeProjectDataManager.getInstance(project).getFingerprint(blazeProjectData)
+            : null;
+    if (fingerprint != null && file.exists()) {
+      T loaded = readPersisted(file, fingerprint, persister, blazeProjectData);
+      if (loaded != null) {
+        return loaded;
+      }
+    }
+    T value = computation.call();
+    if (fingerprint != null && value != null) {
+      scheduleWrite(key, file, fingerprint, persister, value);
+    }
+    return value;
+  }
+
+  private <T> void persist(
+      Object key,
+      @Nullable Persister<T> persister,
+      BlazeProjectData blazeProjectData,
+      @Nullable T value) {
+    File file = persister != null && value != null ? getPersistedFile(key) : null;
+    if (file == null) {
+      return;
+    }
+    String fingerprint =
+        BlazeProjectDataManager.getInstance(project).getFingerprint(blazeProjectData);
+    if (fingerprint != null) {
+      scheduleWrite(key, file, fingerprint, persister, value);
+    }
+  }
+
+  /** Writes a persisted value on the write executor. */
+  private <T> void scheduleWrite(
+      Object key, File file, String fingerprint, Persister<T> persister, T value) {
+    FutureTask<?> write =
+        new FutureTask<>(() -> writePersisted(file, fingerprint, persister, value), null);
+    pendingWrites.put(key, write);
+    writeExecutor.execute(
+        () -> {
+          write.run();
+          pendingWrites.remove(key, write);
+        });
+  }
+
+  /**
+   * Waits for any pending write of the value of {@code key}, so it can safely be modified. If the
+   * write hasn't started yet, it's run on the calling thread rather than waiting for its turn.
+   */
+  private void awaitPendingWrite(Object key) {
+    FutureTask<?> write = pendingWrites.get(key);
+    if (write == null) {
+      return;
+    }
+    write.run();
+    try {
+      Uninterruptibles.getUninterruptibly(write);
+    } catch (ExecutionException e) {
+      // already logged by the write itself
+    }
+    pendingWrites.remove(key, write);
+  }
+
+  @Nullable
+  private File getPersistedFile(Object key) {
+    File dir = persistenceDir;
+    if (dir == null) {
+      BlazeImportSettings importSettings =
+          BlazeImportSettingsManager.getInstance(project).getImportSettings();
+      if (importSettings == null) {
+        return null;
+      }
+      dir = new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), "sync_cache");
+    }
+    return new File(dir, describe(key).replaceAll("[^A-Za-z0-9._-]", "_") + ".dat");
+  }
+
+  /**
+   * Reads a persisted value, memory-mapping the file where possible. Returns null if it was written
+   * for other project data or in another format, or can't be read.
+   */
+  @Nullable
+  private <T> T readPersisted(
+      File file, String fingerprint, Persister<T> persister, BlazeProjectData blazeProjectData) {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer buffer;
+      if (SystemInfo.isWindows) {
+        // mapped files can't be replaced on Windows, which would prevent persisting the next value
+        buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+      } else {
+        buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+      }
+      DataInputStream in = new DataInputStream(new ByteBufferInputStream(buffer));
+      if (in.readInt() != PERSISTED_MAGIC
+          || in.readInt() != persister.getFormatVersion()
+          || !in.readUTF().equals(fingerprint)) {
+        return null;
+      }
+      return persister.read(project, blazeProjectData, in);
+    } catch (IOException | RuntimeException e) {
+      if (e instanceof ProcessCanceledException) {
+        throw (ProcessCanceledException) e;
+      }
+      logger.warn("Failed to load persisted " + file.getName() + ", recomputing", e);
+      return null;
+    }
+  }
+
+  private static <T> void writePersisted(
+      File file, String fingerprint, Persister<T> persister, T value) {
+    File tempFile = null;
+    try {
+      Files.createDirectories(file.getParentFile().toPath());
+      tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+        out.writeInt(PERSISTED_MAGIC);
+        out.writeInt(persister.getFormatVersion());
+        out.writeUTF(fingerprint);
+        persister.write(value, out);
+      }
+      Files.move(
+          tempFile.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Failed to persist " + file.getName(), e);
+      if (tempFile != null) {
+        tempFile.delete();
+      }
+    }
+  }
+
+  /** Reads from a (possibly memory-mapped) buffer. */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+  }
+
+  /** Runs the computation for {@code key}, unless another thread got there first. */
+  @Nullable
+  private <T> T memoize(Generation generation, Object key, Callable<T> computation) {
+    while (true) {
+      Entry entry = new Entry(() -> timed(key, computation));
+      Entry existing = generation.entries.putIfAbsent(key, entry);
+      if (existing == null) {
+        entry.run();
+        return getResult(generation, key, entry, /* ownedByCaller= */ true);
+      }
+      try {
+        return await(generation, key, existing);
+      } catch (OwnerCanceledException e) {
+        // try again, either computing the value or waiting for another thread which got there first
+      }
+    }
+  }
+
+  /**
+   * Waits for another thread's computation, checking for cancellation of the calling thread while
+   * waiting, so that a read action waiting here doesn't hold up write actions.
+   *
+   * @throws OwnerCanceledException if the computation was canceled
+   */
+  @Nullable
+  private static <T> T await(Generation generation, Object key, Entry entry) {
+    if (entry.owner == Thread.currentThread()) {
+      throw new IllegalStateException("Recursive SyncCache computation of " + key);
+    }
+    while (!entry.isDone()) {
+      ProgressManager.checkCanceled();
+      try {
+        Uninterruptibles.getUninterruptibly(entry, WAIT_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (ExecutionException | TimeoutException e) {
+        // checked by getResult once done, or checked again
+      }
+    }
+    return getResult(generation, key, entry, /* ownedByCaller= */ false);
+  }
+
+  /** Returns the result of a completed computation, rethrowing its failure. */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  private static <T> T getResult(
+      Generation generation, Object key, Entry entry, boolean ownedByCaller) {
+    try {
+      return (T) Uninterruptibles.getUninterruptibly(entry);
+    } catch (ExecutionException e) {
+      // failures aren't cached, so the next lookup tries again
+      generation.entries.remove(key, entry);
+      Throwable cause = e.getCause();
+      if (cause instanceof ProcessCanceledException && !ownedByCaller) {
+        // the computing thread was canceled, which says nothing about the threads waiting for it
+        throw new OwnerCanceledException();
+      }
+      Throwables.throwIfUnchecked(cause);
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /** Thrown to a thread waiting for a computation which was canceled by its own thread. */
+  private static class OwnerCanceledException extends RuntimeException {
+    OwnerCanceledException() {
+      super(null, null, /* enableSuppression= */ false, /* writableStackTrace= */ false);
+    }
+  }
+
+  private Object timed(Object key, Callable<?> computation) throws Exception {
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    Object value = computation.call();
+    long millis = (System.nanoTime() - start) / 1_000_000;
+    long allocatedAfter = allocatedBytes();
+    stats.put(
+        key,
+        ComputationStats.create(
+            millis, allocatedBefore < 0 ? -1 : allocatedAfter - allocatedBefore));
+    return value;
+  }
+
+  /** Returns the bytes allocated by the current thread so far, or -1 if unknown. */
+  private static long allocatedBytes() {
+    ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+    return threadBean.isThreadAllocatedMemoryEnabled()
+        ? threadBean.getThreadAllocatedBytes(Thread.currentThread().getId())
+        : -1;
+  }
+
+  /** Returns the stats of the most recent computation of each key, for diagnostics. */
+  public ImmutableMap<String, ComputationStats> getComputationStats() {
+    ImmutableMap.Builder<String, ComputationStats> builder = ImmutableMap.builder();
+    for (Map.Entry<Object, ComputationStats> entry : stats.entrySet()) {
+      builder.put(describe(entry.getKey()), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  private static String describe(Object key) {
+    return key instanceof Class ? ((Class<?>) key).getName() : key.toString();
+  }
+
   @VisibleForTesting
-  public synchronized void clear() {
-    cache.clear();
+  public void clear() {
+    generation = new Generation();
+  }
+
+  /** Runs all {@link Warmer}s on the given executor. */
+  @VisibleForTesting
+  ListenableFuture<?> warm(BlazeProjectData projectData, ListeningExecutorService executor) {
+    List<ListenableFuture<?>> futures = new ArrayList<>();
+    for (Warmer warmer : Warmer.EP_NAME.getExtensions()) {
+      futures.add(executor.submit(() -> runWarmer(warmer, projectData)));
+    }
+    return Futures.whenAllComplete(futures)
+        .call(
+            () -> {
+              logStats();
+              return null;
+            },
+            MoreExecutors.directExecutor());
+  }
+
+  private void runWarmer(Warmer warmer, BlazeProjectData projectData) {
+    if (project.isDisposed()) {
+      return;
+    }
+    try {
+      warmer.warm(project, projectData);
+    } catch (ProcessCanceledException e) {
+      // the value will be computed on demand instead
+    } catch (RuntimeException e) {
+      logger.warn("Failed to precompute " + warmer.getClass().getName(), e);
+    }
+  }
+
+  private void logStats() {
+    ImmutableMap<String, ComputationStats> computationStats = getComputationStats();
+    if (computationStats.isEmpty()) {
+      return;
+    }
+    ImmutableMap.Builder<String, String> values = ImmutableMap.builder();
+    computationStats.forEach(
+        (key, value) -> {
+          values.put(key + ".millis", String.valueOf(value.computeTimeMillis()));
+          values.put(
+              key + ".computeAllocatedBytes", String.valueOf(value.computeAllocatedBytes()));
+        });
+    EventLoggingService.getInstance()
+        .logEvent(SyncCache.class, "sync_cache_warmed", values.build());
   }
 
   static class ClearSyncCache implements SyncListener {
+    private static final BoolExperiment warmAfterSync =
+        new BoolExperiment("blaze.sync.cache.warm.after.sync", true);
+
+    private static final int MAX_WARMING_THREADS = 4;
+
+    private static final ListeningExecutorService warmingExecutor =
+        MoreExecutors.listeningDecorator(
+            AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                "SyncCacheWarmer", MAX_WARMING_THREADS));
+
     @Override
     public void onSyncComplete(
         Project project,
@@ -82,6 +717,9 @@ public class SyncCache {
         SyncResult syncResult) {
       SyncCache syncCache = getInstance(project);
       syncCache.clear();
+      if (warmAfterSync.getValue()) {
+        syncCache.warm(blazeProjectData, warmingExecutor);
+      }
     }
   }
 }
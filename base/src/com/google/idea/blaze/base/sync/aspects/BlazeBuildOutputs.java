@@ -26,6 +26,7 @@ import com.google.idea.blaze.base.command.buildresult.BepArtifactData;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
 import com.google.idea.blaze.base.command.buildresult.ParsedBepOutput;
 import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
+import com.google.idea.blaze.base.sync.aspects.StreamingAspectOutputReader.ParsedAspectFile;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -36,7 +37,8 @@ import java.util.stream.Stream;
 public class BlazeBuildOutputs {
 
   public static BlazeBuildOutputs noOutputs(BuildResult buildResult) {
-    return new BlazeBuildOutputs(buildResult, ImmutableMap.of(), ImmutableMap.of(), 0L);
+    return new BlazeBuildOutputs(
+        buildResult, ImmutableMap.of(), ImmutableMap.of(), 0L, ImmutableMap.of());
   }
 
   public static BlazeBuildOutputs fromParsedBepOutput(
@@ -51,7 +53,8 @@ public class BlazeBuildOutputs {
             ? ImmutableMap.of()
             : parsedOutput.getFullArtifactData(),
         buildIdWithResult,
-        parsedOutput.getBepBytesConsumed());
+        parsedOutput.getBepBytesConsumed(),
+        ImmutableMap.of());
   }
 
   public final BuildResult buildResult;
@@ -65,15 +68,20 @@ public class BlazeBuildOutputs {
   /** The artifacts transitively associated with each top-level target. */
   private final ImmutableSetMultimap<String, OutputArtifact> perTargetArtifacts;
 
+  /** Aspect output files parsed while the build was running, keyed by absolute file path. */
+  private final ImmutableMap<String, ParsedAspectFile> streamedAspectFiles;
+
   private BlazeBuildOutputs(
       BuildResult buildResult,
       Map<String, BepArtifactData> artifacts,
       ImmutableMap<String, BuildResult> buildShardResults,
-      long bepBytesConsumed) {
+      long bepBytesConsumed,
+      ImmutableMap<String, ParsedAspectFile> streamedAspectFiles) {
     this.buildResult = buildResult;
     this.artifacts = ImmutableMap.copyOf(artifacts);
     this.buildShardResults = buildShardResults;
     this.bepBytesConsumed = bepBytesConsumed;
+    this.streamedAspectFiles = streamedAspectFiles;
 
     ImmutableSetMultimap.Builder<String, OutputArtifact> perTarget = ImmutableSetMultimap.builder();
     artifacts.values().forEach(a -> a.topLevelTargets.forEach(t -> perTarget.put(t, a.artifact)));
@@ -89,6 +97,18 @@ public class BlazeBuildOutputs {
         .collect(toImmutableList());
   }
 
+  /** Returns a copy of these outputs with the given aspect files parsed during the build. */
+  BlazeBuildOutputs withStreamedAspectFiles(
+      ImmutableMap<String, ParsedAspectFile> streamedAspectFiles) {
+    return new BlazeBuildOutputs(
+        buildResult, artifacts, buildShardResults, bepBytesConsumed, streamedAspectFiles);
+  }
+
+  /** Returns the aspect output files parsed while the build was running. */
+  ImmutableMap<String, ParsedAspectFile> getStreamedAspectFiles() {
+    return streamedAspectFiles;
+  }
+
   /** Merges this {@link BlazeBuildOutputs} with a newer set of outputs. */
   public BlazeBuildOutputs updateOutputs(BlazeBuildOutputs nextOutputs) {
 
@@ -125,6 +145,9 @@ public class BlazeBuildOutputs {
         }
       }
     }
+    Map<String, ParsedAspectFile> streamed = new LinkedHashMap<>(streamedAspectFiles);
+    streamed.putAll(nextOutputs.streamedAspectFiles);
+
     return new BlazeBuildOutputs(
         BuildResult.combine(buildResult, nextOutputs.buildResult),
         combined,
@@ -134,7 +157,8 @@ public class BlazeBuildOutputs {
             .collect(
                 // On duplicate buildIds, preserve most recent result
                 toImmutableMap(Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1)),
-        bepBytesConsumed + nextOutputs.bepBytesConsumed);
+        bepBytesConsumed + nextOutputs.bepBytesConsumed,
+        ImmutableMap.copyOf(streamed));
   }
 
   public ImmutableList<String> getBuildIds() {
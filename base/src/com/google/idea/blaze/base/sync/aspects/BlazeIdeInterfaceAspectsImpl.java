@@ -23,15 +23,13 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
 import com.google.idea.blaze.base.async.FutureUtil;
+import com.google.idea.blaze.base.async.FutureUtil.FutureResult;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.bazel.BuildSystem.BuildInvoker;
 import com.google.idea.blaze.base.command.BlazeCommand;
@@ -39,7 +37,6 @@ import com.google.idea.blaze.base.command.BlazeCommandName;
 import com.google.idea.blaze.base.command.BlazeFlags;
 import com.google.idea.blaze.base.command.BlazeInvocationContext;
 import com.google.idea.blaze.base.command.BlazeInvocationContext.ContextType;
-import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
 import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
 import com.google.idea.blaze.base.command.buildresult.BuildResultHelper;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
@@ -60,8 +57,8 @@ import com.google.idea.blaze.base.model.primitives.LanguageClass;
 import com.google.idea.blaze.base.model.primitives.TargetExpression;
 import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
 import com.google.idea.blaze.base.prefetch.PrefetchFileSource;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
-import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
 import com.google.idea.blaze.base.projectview.ProjectViewSet;
 import com.google.idea.blaze.base.projectview.section.sections.AutomaticallyDeriveTargetsSection;
 import com.google.idea.blaze.base.projectview.section.sections.SyncFlagsSection;
@@ -83,6 +80,7 @@ import com.google.idea.blaze.base.sync.BlazeSyncBuildResult;
 import com.google.idea.blaze.base.sync.BuildPhaseSyncTask;
 import com.google.idea.blaze.base.sync.SyncProjectState;
 import com.google.idea.blaze.base.sync.aspects.BuildResult.Status;
+import com.google.idea.blaze.base.sync.aspects.StreamingAspectOutputReader.ParsedAspectFile;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
 import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy.OutputGroup;
 import com.google.idea.blaze.base.sync.projectview.ImportRoots;
@@ -100,6 +98,7 @@ import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.pom.NavigatableAdapter;
 import java.io.File;
+import java.io.IOException;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -111,6 +110,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
@@ -126,6 +126,10 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
   private static final BoolExperiment noFakeStampExperiment =
       new BoolExperiment("blaze.sync.nofake.stamp.data", true);
 
+  /** Whether to parse aspect outputs as they're reported in BEP, while the build is running. */
+  private static final BoolExperiment streamAspectOutputsExperiment =
+      new BoolExperiment("blaze.sync.stream.aspect.outputs", false);
+
   @Override
   @Nullable
   public ProjectTargetData updateTargetData(
@@ -221,39 +225,6 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                 "Total rules: %d, new/changed: %d, removed: %d",
                 targetCount, diff.getUpdatedOutputs().size(), removedCount)));
 
-    ListenableFuture<?> downloadArtifactsFuture =
-        RemoteArtifactPrefetcher.getInstance()
-            .downloadArtifacts(
-                /* projectName= */ project.getName(),
-                /* outputArtifacts= */ BlazeArtifact.getRemoteArtifacts(diff.getUpdatedOutputs()));
-    ListenableFuture<?> loadFilesInJvmFuture =
-        RemoteArtifactPrefetcher.getInstance()
-            .loadFilesInJvm(
-                /* outputArtifacts= */ BlazeArtifact.getRemoteArtifacts(diff.getUpdatedOutputs()));
-
-    if (!FutureUtil.waitForFuture(
-            context, Futures.allAsList(downloadArtifactsFuture, loadFilesInJvmFuture))
-        .timed("PrefetchRemoteAspectOutput", EventType.Prefetching)
-        .withProgressMessage("Reading IDE info result...")
-        .run()
-        .success()) {
-      return null;
-    }
-
-    ListenableFuture<?> fetchLocalFilesFuture =
-        PrefetchService.getInstance()
-            .prefetchFiles(
-                /* files= */ BlazeArtifact.getLocalFiles(diff.getUpdatedOutputs()),
-                /* refetchCachedFiles= */ true,
-                /* fetchFileTypes= */ false);
-    if (!FutureUtil.waitForFuture(context, fetchLocalFilesFuture)
-        .timed("FetchAspectOutput", EventType.Prefetching)
-        .withProgressMessage("Reading IDE info result...")
-        .run()
-        .success()) {
-      return null;
-    }
-
     ImportRoots importRoots =
         ImportRoots.builder(workspaceRoot, Blaze.getBuildSystemName(project))
             .add(projectState.getProjectViewSet())
@@ -272,7 +243,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
             projectState.getLanguageSettings(),
             importRoots,
             mergeWithOldState,
-            oldTargetMap);
+            oldTargetMap,
+            buildResult.getBuildResult().getStreamedAspectFiles());
     if (state == null) {
       return null;
     }
@@ -301,7 +273,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       WorkspaceLanguageSettings languageSettings,
       ImportRoots importRoots,
       boolean mergeWithOldState,
-      @Nullable TargetMap oldTargetMap) {
+      @Nullable TargetMap oldTargetMap,
+      ImmutableMap<String, ParsedAspectFile> streamedAspectFiles) {
     AspectStrategy aspectStrategy = AspectStrategy.getInstance(versionData);
     Result<TargetMapAndInterfaceState> result =
         Scope.push(
@@ -325,6 +298,8 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
               state.ideInfoFileState = ImmutableMap.copyOf(nextFileState);
 
               Map<TargetKey, TargetIdeInfo> targetMap = Maps.newHashMap();
+              // targets added, removed or updated relative to the old target map
+              Set<TargetKey> changedKeys = new HashSet<>();
               if (prevState != null && oldTargetMap != null) {
                 targetMap.putAll(oldTargetMap.map());
                 state.ideInfoToTargetKey.putAll(prevState.ideInfoFileToTargetKey);
@@ -336,24 +311,48 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                   TargetKey key = state.ideInfoToTargetKey.remove(removed.getKey());
                   if (key != null) {
                     targetMap.remove(key);
+                    changedKeys.add(key);
                   }
                 }
               }
 
+              // Aspect files parsed while the build was running are reused where still valid
+              if (!streamedAspectFiles.isEmpty()) {
+                try {
+                  StreamingAspectOutputReader.allParsed(streamedAspectFiles).get();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  return Result.error(null);
+                } catch (ExecutionException e) {
+                  return Result.error(e);
+                }
+                context.output(
+                    PrintOutput.log(
+                        String.format(
+                            "Parsed %d aspect files while the build was running",
+                            streamedAspectFiles.size())));
+              }
+
               AtomicLong totalSizeLoaded = new AtomicLong(0);
               Set<LanguageClass> ignoredLanguages = Sets.newConcurrentHashSet();
 
-              ListeningExecutorService executor = BlazeExecutor.getInstance().getExecutor();
-
-              // Read protos from any new files
-              List<ListenableFuture<TargetFilePair>> futures = Lists.newArrayList();
-              for (OutputArtifact file : fileState.getUpdatedOutputs()) {
-                futures.add(
-                    executor.submit(
-                        () -> {
+              // Fetch and parse new files in batches, merging parsed targets as each batch
+              // completes. Conflicting targets are resolved once all files have been parsed.
+              ImmutableList<OutputArtifact> updatedOutputs = fileState.getUpdatedOutputs();
+              Map<TargetKey, TargetCandidates> candidates = new ConcurrentHashMap<>();
+              Map<String, Integer> configurationIndices = new ConcurrentHashMap<>();
+              PipelinedAspectOutputReader reader =
+                  new PipelinedAspectOutputReader(
+                      project.getName(), BlazeExecutor.getInstance().getExecutor());
+              PipelinedAspectOutputReader.Pipeline pipeline =
+                  reader.start(
+                      updatedOutputs,
+                      (firstIndex, batch) -> {
+                        for (int i = 0; i < batch.size(); i++) {
+                          OutputArtifact file = batch.get(i);
                           totalSizeLoaded.addAndGet(file.getLength());
                           IntellijIdeInfo.TargetIdeInfo message =
-                              aspectStrategy.readAspectFile(file);
+                              readAspectFile(aspectStrategy, file, streamedAspectFiles);
                           TargetIdeInfo target =
                               protoToTarget(
                                   languageSettings,
@@ -361,49 +360,78 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                                   message,
                                   ignoredLanguages,
                                   syncTime);
-                          return new TargetFilePair(file, target);
-                        }));
+                          if (target == null) {
+                            continue;
+                          }
+                          String config = file.getConfigurationMnemonic();
+                          configurationIndices.merge(config, firstIndex + i, Math::min);
+                          candidates
+                              .computeIfAbsent(target.getKey(), k -> new TargetCandidates())
+                              .add(
+                                  firstIndex + i,
+                                  file,
+                                  target,
+                                  Objects.equals(
+                                      config, configHandler.defaultConfigurationPathComponent));
+                        }
+                      });
+              // batches are parsed while later ones are still being fetched, so these phases
+              // overlap: each wait only measures the time the sync spends blocked on it
+              FutureResult<Void> result =
+                  FutureUtil.waitForFuture(context, pipeline.remoteFetched())
+                      .timed("PrefetchRemoteAspectOutput", EventType.Prefetching)
+                      .withProgressMessage("Reading IDE info result...")
+                      .run();
+              if (result.success()) {
+                result =
+                    FutureUtil.waitForFuture(context, pipeline.localFetched())
+                        .timed("FetchAspectOutput", EventType.Prefetching)
+                        .withProgressMessage("Reading IDE info result...")
+                        .run();
+              }
+              if (result.success()) {
+                result =
+                    FutureUtil.waitForFuture(context, pipeline.parsed())
+                        .withProgressMessage("Reading IDE info result...")
+                        .onError("Failed to read aspect output files")
+                        .run();
+              }
+              if (!result.success()) {
+                pipeline.cancel();
+                return Result.error(result.exception());
               }
 
-              Set<TargetKey> newTargets = new HashSet<>();
               Set<String> configurations = new LinkedHashSet<>();
               configurations.add(configHandler.defaultConfigurationPathComponent);
+              configurationIndices.entrySet().stream()
+                  .sorted(Map.Entry.comparingByValue())
+                  .forEach(entry -> configurations.add(entry.getKey()));
 
-              // Update state with result from proto files
+              // Update state with result from proto files. This matches merging the files one at a
+              // time in order: a target built in the default configuration takes priority,
+              // otherwise the first one built wins, but doesn't replace a previously synced target.
               int duplicateTargetLabels = 0;
-              try {
-                for (TargetFilePair targetFilePair : Futures.allAsList(futures).get()) {
-                  if (targetFilePair.target != null) {
-                    OutputArtifact file = targetFilePair.file;
-                    String config = file.getConfigurationMnemonic();
-                    configurations.add(config);
-                    TargetKey key = targetFilePair.target.getKey();
-                    if (targetMap.putIfAbsent(key, targetFilePair.target) == null) {
-                      state.ideInfoToTargetKey.forcePut(file.getKey(), key);
-                    } else {
-                      if (!newTargets.add(key)) {
-                        duplicateTargetLabels++;
-                      }
-                      // prioritize the default configuration over build order
-                      if (Objects.equals(config, configHandler.defaultConfigurationPathComponent)) {
-                        targetMap.put(key, targetFilePair.target);
-                        state.ideInfoToTargetKey.forcePut(file.getKey(), key);
-                      }
-                    }
-                  }
+              for (Map.Entry<TargetKey, TargetCandidates> entry : candidates.entrySet()) {
+                TargetKey key = entry.getKey();
+                TargetCandidates candidate = entry.getValue();
+                boolean previouslySynced = targetMap.containsKey(key);
+                if (candidate.defaultConfigTarget != null) {
+                  targetMap.put(key, candidate.defaultConfigTarget);
+                  state.ideInfoToTargetKey.forcePut(candidate.defaultConfigFile.getKey(), key);
+                  changedKeys.add(key);
+                } else if (!previouslySynced) {
+                  targetMap.put(key, candidate.firstTarget);
+                  state.ideInfoToTargetKey.forcePut(candidate.firstFile.getKey(), key);
+                  changedKeys.add(key);
                 }
-              } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                return Result.error(null);
-              } catch (ExecutionException e) {
-                return Result.error(e);
+                duplicateTargetLabels += Math.max(0, candidate.count - (previouslySynced ? 1 : 2));
               }
 
               context.output(
                   PrintOutput.log(
                       String.format(
                           "Loaded %d aspect files, total size %dkB",
-                          fileState.getUpdatedOutputs().size(), totalSizeLoaded.get() / 1024)));
+                          updatedOutputs.size(), totalSizeLoaded.get() / 1024)));
               if (duplicateTargetLabels > 0) {
                 context.output(
                     new PerformanceWarning(
@@ -423,6 +451,7 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                         languageSettings, importRoots, target, ignoredLanguages)) {
                   state.ideInfoToTargetKey.inverse().remove(key);
                   targetMap.remove(key);
+                  changedKeys.add(key);
                 }
               }
 
@@ -440,9 +469,14 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
                       languageSettings.getWorkspaceType()));
               warnIgnoredLanguages(project, context, ignoredLanguages);
 
-              return Result.of(
-                  new TargetMapAndInterfaceState(
-                      new TargetMap(ImmutableMap.copyOf(targetMap)), state.build()));
+              TargetMap newTargetMap =
+                  prevState != null && oldTargetMap != null
+                      ? TargetMap.derivedFrom(
+                          oldTargetMap,
+                          ImmutableMap.copyOf(targetMap),
+                          ImmutableSet.copyOf(changedKeys))
+                      : new TargetMap(ImmutableMap.copyOf(targetMap));
+              return Result.of(new TargetMapAndInterfaceState(newTargetMap, state.build()));
             });
 
     if (result.error != null) {
@@ -452,6 +486,23 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     return result.result;
   }
 
+  private static IntellijIdeInfo.TargetIdeInfo readAspectFile(
+      AspectStrategy aspectStrategy,
+      OutputArtifact file,
+      ImmutableMap<String, ParsedAspectFile> streamedAspectFiles)
+      throws IOException {
+    if (file instanceof LocalFileArtifact) {
+      LocalFileArtifact localFile = (LocalFileArtifact) file;
+      ParsedAspectFile streamed = streamedAspectFiles.get(localFile.getFile().getPath());
+      IntellijIdeInfo.TargetIdeInfo message =
+          streamed != null ? streamed.getIfValid(localFile) : null;
+      if (message != null) {
+        return message;
+      }
+    }
+    return aspectStrategy.readAspectFile(file);
+  }
+
   private static boolean shouldIgnoreTarget(
       WorkspaceLanguageSettings languageSettings,
       ImportRoots importRoots,
@@ -532,7 +583,13 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       return;
     }
     ListenableFuture<?> prefetchFuture =
-        PrefetchService.getInstance().prefetchFiles(files, false, false);
+        PrefetchService.getInstance()
+            .prefetchFiles(
+                "genfiles",
+                files,
+                /* refetchCachedFiles= */ false,
+                /* fetchFileTypes= */ false,
+                FetchExecutor.Priority.SYNC_BLOCKING);
     FutureUtil.waitForFuture(context, prefetchFuture)
         .timed("PrefetchGenfiles", EventType.Prefetching)
         .withProgressMessage("Prefetching genfiles...")
@@ -550,13 +607,35 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
     }
   }
 
-  private static class TargetFilePair {
-    private final OutputArtifact file;
-    private final TargetIdeInfo target;
-
-    TargetFilePair(OutputArtifact file, TargetIdeInfo target) {
-      this.file = file;
-      this.target = target;
+  /**
+   * The targets parsed from aspect output files which share a target key, accumulated concurrently.
+   * Only the candidates which can win are retained.
+   */
+  private static class TargetCandidates {
+    private int count;
+
+    private int firstIndex = Integer.MAX_VALUE;
+    @Nullable private OutputArtifact firstFile;
+    @Nullable private TargetIdeInfo firstTarget;
+
+    private int defaultConfigIndex = -1;
+    @Nullable private OutputArtifact defaultConfigFile;
+    @Nullable private TargetIdeInfo defaultConfigTarget;
+
+    synchronized void add(
+        int index, OutputArtifact file, TargetIdeInfo target, boolean isDefaultConfig) {
+      count++;
+      if (index < firstIndex) {
+        firstIndex = index;
+        firstFile = file;
+        firstTarget = target;
+      }
+      // the last target built in the default configuration wins
+      if (isDefaultConfig && index > defaultConfigIndex) {
+        defaultConfigIndex = index;
+        defaultConfigFile = file;
+        defaultConfigTarget = target;
+      }
     }
   }
 
@@ -721,6 +800,13 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
         viewSet.getScalarValue(AutomaticallyDeriveTargetsSection.KEY).orElse(false);
 
     try (BuildResultHelper buildResultHelper = invoker.createBuildResultHelper()) {
+      StreamingAspectOutputReader streamingReader =
+          streamAspectOutputsExperiment.getValue() && outputGroups.contains(OutputGroup.INFO)
+              ? buildResultHelper
+                  .getBepOutputFile()
+                  .map(f -> StreamingAspectOutputReader.start(f, aspectStrategy))
+                  .orElse(null)
+              : null;
 
       BlazeCommand.Builder builder = BlazeCommand.builder(invoker, BlazeCommandName.BUILD);
       builder
@@ -741,9 +827,22 @@ public class BlazeIdeInterfaceAspectsImpl implements BlazeIdeInterface {
       aspectStrategy.addAspectAndOutputGroups(
           builder, outputGroups, activeLanguages, onlyDirectDeps);
 
-      return invoker
-          .getCommandRunner()
-          .run(project, builder, buildResultHelper, workspaceRoot, context);
+      if (streamingReader == null) {
+        return invoker
+            .getCommandRunner()
+            .run(project, builder, buildResultHelper, workspaceRoot, context);
+      }
+      BlazeBuildOutputs outputs;
+      try {
+        outputs =
+            invoker
+                .getCommandRunner()
+                .run(project, builder, buildResultHelper, workspaceRoot, context);
+      } catch (RuntimeException e) {
+        streamingReader.finish();
+        throw e;
+      }
+      return outputs.withStreamedAspectFiles(streamingReader.finish());
     }
   }
 }
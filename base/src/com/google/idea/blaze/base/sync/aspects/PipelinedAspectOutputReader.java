@@ -0,0 +1,245 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
+import com.google.idea.blaze.base.prefetch.PrefetchService;
+import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches and parses aspect output files in fixed-size batches, parsing each batch as soon as its
+ * files have been fetched rather than waiting for every file to be fetched first.
+ *
+ * <p>The number of batches being fetched or parsed at any one time is bounded, so that memory use
+ * doesn't grow with the number of aspect output files.
+ */
+final class PipelinedAspectOutputReader {
+
+  /** Parses a batch of fetched aspect output files. Called concurrently for different batches. */
+  interface BatchParser {
+    /**
+     * @param firstIndex the index of the first file of the batch, in the list of all files
+     */
+    void parse(int firstIndex, List<OutputArtifact> batch) throws Exception;
+  }
+
+  private static final int BATCH_SIZE = 256;
+  private static final int MAX_BATCHES_IN_FLIGHT = 32;
+
+  private final String projectName;
+  private final ListeningExecutorService executor;
+  private final int batchSize;
+  private final int maxBatchesInFlight;
+
+  PipelinedAspectOutputReader(String projectName, ListeningExecutorService executor) {
+    this(projectName, executor, BATCH_SIZE, MAX_BATCHES_IN_FLIGHT);
+  }
+
+  PipelinedAspectOutputReader(
+      String projectName,
+      ListeningExecutorService executor,
+      int batchSize,
+      int maxBatchesInFlight) {
+    this.projectName = projectName;
+    this.executor = executor;
+    this.batchSize = batchSize;
+    this.maxBatchesInFlight = maxBatchesInFlight;
+  }
+
+  /**
+   * Starts fetching and parsing the given files, without blocking. Each batch is started once an
+   * earlier one has been parsed. No new batches are started after the first failure.
+   */
+  Pipeline start(ImmutableList<OutputArtifact> files, BatchParser parser) {
+    Pipeline pipeline = new Pipeline(files, parser);
+    for (int i = 0; i < maxBatchesInFlight; i++) {
+      pipeline.startNextBatch();
+    }
+    return pipeline;
+  }
+
+  /**
+   * A running read of a list of files. Callers wait for each phase in turn, so they can time it
+   * separately and honor cancellation.
+   */
+  final class Pipeline {
+    private final ImmutableList<OutputArtifact> files;
+    private final BatchParser parser;
+    private final AtomicInteger nextBatch = new AtomicInteger();
+    private final Set<Future<?>> inFlight = ConcurrentHashMap.newKeySet();
+    private final Countdown remoteFetched;
+    private final Countdown localFetched;
+    private final Countdown parsed;
+
+    private Pipeline(ImmutableList<OutputArtifact> files, BatchParser parser) {
+      this.files = files;
+      this.parser = parser;
+      int batchCount = (files.size() + batchSize - 1) / batchSize;
+      this.remoteFetched = new Countdown(batchCount);
+      this.localFetched = new Countdown(batchCount);
+      this.parsed = new Countdown(batchCount);
+      parsed.future.addListener(this::onParsedDone, MoreExecutors.directExecutor());
+    }
+
+    /** Completes once all remote output artifacts have been fetched. */
+    ListenableFuture<Void> remoteFetched() {
+      return remoteFetched.future;
+    }
+
+    /** Completes once all local output files have been fetched. */
+    ListenableFuture<Void> localFetched() {
+      return localFetched.future;
+    }
+
+    /** Completes once every file has been parsed, or fails with the first failure. */
+    ListenableFuture<Void> parsed() {
+      return parsed.future;
+    }
+
+    /** Stops starting new batches, and cancels any in flight. */
+    void cancel() {
+      parsed.future.cancel(true);
+    }
+
+    private void startNextBatch() {
+      if (parsed.future.isDone()) {
+        return;
+      }
+      int start = nextBatch.getAndIncrement() * batchSize;
+      if (start >= files.size()) {
+        return;
+      }
+      ImmutableList<OutputArtifact> batch =
+          files.subList(start, Math.min(start + batchSize, files.size()));
+      ListenableFuture<?> remote = fetchRemote(batch);
+      ListenableFuture<?> local = fetchLocal(batch);
+      ListenableFuture<?> parsedBatch =
+          Futures.transformAsync(
+              Futures.allAsList(remote, local),
+              fetched ->
+                  executor.submit(
+                      () -> {
+                        parser.parse(start, batch);
+                        return null;
+                      }),
+              MoreExecutors.directExecutor());
+      inFlight.add(parsedBatch);
+      remoteFetched.track(remote);
+      localFetched.track(local);
+      parsed.track(parsedBatch);
+      parsedBatch.addListener(
+          () -> {
+            inFlight.remove(parsedBatch);
+            startNextBatch();
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    private void onParsedDone() {
+      if (!parsed.future.isCancelled() && parsed.failure == null) {
+        return;
+      }
+      // batches which were never started won't complete the fetch phases, so fail them too
+      Throwable failure = parsed.failure != null ? parsed.failure : new CancellationException();
+      remoteFetched.fail(failure);
+      localFetched.fail(failure);
+      inFlight.forEach(f -> f.cancel(true));
+    }
+  }
+
+  /** Makes the contents of the given remote files available locally. */
+  private ListenableFuture<?> fetchRemote(ImmutableList<OutputArtifact> batch) {
+    ImmutableList<RemoteOutputArtifact> remoteArtifacts = BlazeArtifact.getRemoteArtifacts(batch);
+    if (remoteArtifacts.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+    return Futures.allAsList(
+        RemoteArtifactPrefetcher.getInstance().downloadArtifacts(projectName, remoteArtifacts),
+        RemoteArtifactPrefetcher.getInstance().loadFilesInJvm(remoteArtifacts));
+  }
+
+  /** Prefetches the given local files. */
+  private static ListenableFuture<?> fetchLocal(ImmutableList<OutputArtifact> batch) {
+    ImmutableList<File> localFiles = BlazeArtifact.getLocalFiles(batch);
+    if (localFiles.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+    return PrefetchService.getInstance()
+        .prefetchFiles(
+            "aspect outputs",
+            localFiles,
+            /* refetchCachedFiles= */ true,
+            /* fetchFileTypes= */ false,
+            FetchExecutor.Priority.SYNC_BLOCKING);
+  }
+
+  /** Completes once a fixed number of tracked futures have succeeded, or as soon as one fails. */
+  private static final class Countdown {
+    final SettableFuture<Void> future = SettableFuture.create();
+    private final AtomicInteger remaining;
+    volatile Throwable failure;
+
+    Countdown(int count) {
+      remaining = new AtomicInteger(count);
+      if (count == 0) {
+        future.set(null);
+      }
+    }
+
+    void track(ListenableFuture<?> part) {
+      Futures.addCallback(
+          part,
+          new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+              if (remaining.decrementAndGet() == 0) {
+                future.set(null);
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              fail(t);
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    void fail(Throwable t) {
+      if (failure == null) {
+        failure = t;
+      }
+      future.setException(t);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
+import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
+import com.google.idea.blaze.base.command.buildresult.TailingBuildEventStreamProvider;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.sync.aspects.strategy.AspectStrategy;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.io.URLUtil;
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import javax.annotation.Nullable;
+import org.jetbrains.ide.PooledThreadExecutor;
+
+/**
+ * Tails the BEP output of a running sync build, parsing aspect output files as soon as BEP reports
+ * them, so that proto parsing overlaps with the remainder of the build.
+ *
+ * <p>Only local aspect outputs written during this build are parsed. Anything else is left to the
+ * regular post-build parsing in {@link BlazeIdeInterfaceAspectsImpl}.
+ */
+final class StreamingAspectOutputReader {
+
+  private static final Logger logger = Logger.getInstance(StreamingAspectOutputReader.class);
+
+  /** An aspect output file parsed while the build was running. */
+  static final class ParsedAspectFile {
+    private final long lastModifiedTime;
+    private final ListenableFuture<IntellijIdeInfo.TargetIdeInfo> message;
+
+    private ParsedAspectFile(
+        long lastModifiedTime, ListenableFuture<IntellijIdeInfo.TargetIdeInfo> message) {
+      this.lastModifiedTime = lastModifiedTime;
+      this.message = message;
+    }
+
+    /**
+     * Returns the parsed message, or null if parsing hasn't completed successfully, or the file has
+     * since changed on disk. Never blocks.
+     */
+    @Nullable
+    IntellijIdeInfo.TargetIdeInfo getIfValid(LocalFileArtifact file) {
+      if (!message.isDone()
+          || message.isCancelled()
+          || FileOperationProvider.getInstance().getFileModifiedTime(file.getFile())
+              != lastModifiedTime) {
+        return null;
+      }
+      try {
+        return Futures.getDone(message);
+      } catch (ExecutionException e) {
+        return null;
+      }
+    }
+  }
+
+  /** Returns a future which completes once all the given files have finished parsing. */
+  static ListenableFuture<?> allParsed(ImmutableMap<String, ParsedAspectFile> parsedFiles) {
+    return Futures.successfulAsList(
+        parsedFiles.values().stream().map(f -> f.message).collect(toImmutableList()));
+  }
+
+  private final TailingBuildEventStreamProvider stream;
+  private final AspectStrategy aspectStrategy;
+  private final ListeningExecutorService parseExecutor;
+  private final long buildStartTimeMillis;
+  private final Map<String, ParsedAspectFile> parsedFiles = new ConcurrentHashMap<>();
+  private final Future<?> tailFuture;
+
+  private StreamingAspectOutputReader(File bepOutputFile, AspectStrategy aspectStrategy) {
+    this.stream = new TailingBuildEventStreamProvider(bepOutputFile);
+    this.aspectStrategy = aspectStrategy;
+    this.parseExecutor = BlazeExecutor.getInstance().getExecutor();
+    this.buildStartTimeMillis = System.currentTimeMillis();
+    this.tailFuture = PooledThreadExecutor.INSTANCE.submit(this::readEvents);
+  }
+
+  /** Starts tailing the given BEP output file. Must be called before the build is started. */
+  static StreamingAspectOutputReader start(File bepOutputFile, AspectStrategy aspectStrategy) {
+    return new StreamingAspectOutputReader(bepOutputFile, aspectStrategy);
+  }
+
+  /**
+   * Called once the build has finished. Drains any remaining events, then returns the aspect files
+   * parsed so far, keyed by absolute file path. Parsing may still be in progress.
+   */
+  ImmutableMap<String, ParsedAspectFile> finish() {
+    stream.buildFinished();
+    try {
+      tailFuture.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      tailFuture.cancel(true);
+    } catch (ExecutionException e) {
+      logger.warn("Failed to read BEP output while the build was running", e);
+    } finally {
+      stream.close();
+    }
+    return ImmutableMap.copyOf(parsedFiles);
+  }
+
+  private void readEvents() {
+    try {
+      BuildEvent event;
+      while ((event = stream.getNext()) != null) {
+        if (event.getId().getIdCase() != BuildEventStreamProtos.BuildEventId.IdCase.NAMED_SET) {
+          continue;
+        }
+        for (BuildEventStreamProtos.File file : event.getNamedSetOfFiles().getFilesList()) {
+          if (AspectStrategy.ASPECT_OUTPUT_FILE_PREDICATE.test(file.getName())) {
+            maybeParse(file);
+          }
+        }
+      }
+    } catch (BuildEventStreamException e) {
+      // everything not parsed yet will be handled after the build completes
+      logger.warn("Stopped streaming aspect outputs: " + e.getMessage());
+    }
+  }
+
+  private void maybeParse(BuildEventStreamProtos.File bepFile) {
+    File file = toLocalFile(bepFile.getUri());
+    if (file == null) {
+      return;
+    }
+    long lastModifiedTime = FileOperationProvider.getInstance().getFileModifiedTime(file);
+    if (lastModifiedTime < buildStartTimeMillis) {
+      // not rebuilt, so likely unchanged since the last sync and not worth parsing eagerly
+      return;
+    }
+    parsedFiles.computeIfAbsent(
+        file.getPath(),
+        path ->
+            new ParsedAspectFile(
+                lastModifiedTime,
+                parseExecutor.submit(
+                    () -> aspectStrategy.readAspectFile(new SourceArtifact(file)))));
+  }
+
+  @Nullable
+  private static File toLocalFile(String uri) {
+    if (!uri.startsWith(URLUtil.FILE_PROTOCOL)) {
+      return null;
+    }
+    try {
+      return new File(new URI(uri));
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+}
@@ -28,4 +28,13 @@ public interface BlazeProjectDataManager {
 
   @Nullable
   BlazeProjectData getBlazeProjectData();
+
+  /**
+   * Returns an identifier for {@code projectData} which is stable across IDE restarts, or null if
+   * it isn't the current project data or isn't persisted.
+   */
+  @Nullable
+  default String getFingerprint(BlazeProjectData projectData) {
+    return null;
+  }
 }
@@ -15,6 +15,8 @@
  */
 package com.google.idea.blaze.base.sync.data;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -22,7 +24,9 @@ import com.google.idea.blaze.base.async.executor.ProgressiveTaskWithProgressIndi
 import com.google.idea.blaze.base.io.FileOperationProvider;
 import com.google.idea.blaze.base.logging.EventLoggingService;
 import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.IndexedProjectDataFile;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
+import com.google.idea.common.experiments.BoolExperiment;
 import com.google.idea.common.util.ConcurrencyUtil;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
@@ -32,6 +36,8 @@ import com.intellij.openapi.util.Disposer;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.UUID;
 import java.util.concurrent.Executors;
 import javax.annotation.Nullable;
 
@@ -41,12 +47,42 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static final Logger logger =
       Logger.getInstance(BlazeProjectDataManagerImpl.class.getName());
 
+  /**
+   * Whether to store project data in the indexed, lazily-decoded format, rather than as a single
+   * gzipped proto.
+   */
+  private static final BoolExperiment useIndexedCacheFile =
+      new BoolExperiment("blaze.project.data.indexed.cache", false);
+
+  /**
+   * Whether to fingerprint persisted project data, so values derived from it can be persisted too.
+   */
+  private static final BoolExperiment persistDerivedData =
+      new BoolExperiment("blaze.project.data.persist.derived", true);
+
   private final Project project;
   // a per-project single-threaded executor to write project data to disk
   private final ListeningExecutorService writeDataExecutor;
 
   @Nullable private volatile BlazeProjectData projectData;
 
+  // the indexed cache file the current project data was last loaded from or saved to, if any.
+  // Unchanged targets are copied from it when next saving project data.
+  @Nullable private volatile IndexedProjectDataFile indexedFile;
+
+  // identifies the persisted version of the current project data
+  @Nullable private volatile Fingerprint fingerprint;
+
+  private static class Fingerprint {
+    final BlazeProjectData projectData;
+    final String id;
+
+    Fingerprint(BlazeProjectData projectData, String id) {
+      this.projectData = projectData;
+      this.id = id;
+    }
+  }
+
   public static BlazeProjectDataManagerImpl getImpl(Project project) {
     return (BlazeProjectDataManagerImpl) BlazeProjectDataManager.getInstance(project);
   }
@@ -78,11 +114,33 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
     return projectData;
   }
 
+  @Override
+  @Nullable
+  public String getFingerprint(BlazeProjectData projectData) {
+    Fingerprint fingerprint = this.fingerprint;
+    return fingerprint != null && fingerprint.projectData == projectData ? fingerprint.id : null;
+  }
+
   @Nullable
   private synchronized BlazeProjectData loadProject(BlazeImportSettings importSettings) {
     try {
-      File file = getCacheFile(project, importSettings);
-      projectData = BlazeProjectData.loadFromDisk(importSettings.getBuildSystem(), file);
+      File indexedCacheFile = getIndexedCacheFile(project, importSettings);
+      if (useIndexedCacheFile.getValue() && indexedCacheFile.exists()) {
+        try {
+          indexedFile =
+              IndexedProjectDataFile.load(importSettings.getBuildSystem(), indexedCacheFile);
+          projectData = indexedFile.getProjectData();
+        } catch (IOException e) {
+          // e.g. written by another plugin version. Fall back to the other format if present,
+          // otherwise the next sync is a full one.
+          logger.warn("Failed to load indexed project data", e);
+        }
+      }
+      if (projectData == null) {
+        File file = getCacheFile(project, importSettings);
+        projectData = BlazeProjectData.loadFromDisk(importSettings.getBuildSystem(), file);
+      }
+      loadFingerprint(importSettings, projectData);
       return projectData;
     } catch (Throwable e) {
       if (!(e instanceof FileNotFoundException)) {
@@ -98,17 +156,42 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
     if (ApplicationManager.getApplication().isUnitTestMode()) {
       return;
     }
+    // derived data persisted from here on refers to this version of the project data
+    String fingerprintId = persistDerivedData.getValue() ? UUID.randomUUID().toString() : null;
+    this.fingerprint = fingerprintId != null ? new Fingerprint(projectData, fingerprintId) : null;
     ProgressiveTaskWithProgressIndicator.builder(project, "Saving sync data...")
         .setExecutor(writeDataExecutor)
         .submitTask(
             (ProgressIndicator indicator) -> {
               try {
-                File file = getCacheFile(project, importSettings);
+                boolean indexed = useIndexedCacheFile.getValue();
+                File file =
+                    indexed
+                        ? getIndexedCacheFile(project, importSettings)
+                        : getCacheFile(project, importSettings);
+                File staleFile =
+                    indexed
+                        ? getCacheFile(project, importSettings)
+                        : getIndexedCacheFile(project, importSettings);
                 if (!file.getParentFile().exists()) {
                   file.getParentFile().mkdirs();
                 }
+                // the fingerprint is only valid for fully written project data
+                File fingerprintFile = getFingerprintFile(project, importSettings);
+                fingerprintFile.delete();
                 synchronized (this) {
-                  projectData.saveToDisk(file);
+                  if (indexed) {
+                    // the file just written is the source of unchanged targets next time
+                    indexedFile = IndexedProjectDataFile.write(projectData, file, indexedFile);
+                  } else {
+                    indexedFile = null;
+                    projectData.saveToDisk(file);
+                  }
+                  // don't leave data in the other format around, or it may be loaded later
+                  staleFile.delete();
+                }
+                if (fingerprintId != null) {
+                  Files.write(fingerprintFile.toPath(), fingerprintId.getBytes(UTF_8));
                 }
                 logFileSize(projectData, file);
 
@@ -118,6 +201,19 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
             });
   }
 
+  private void loadFingerprint(BlazeImportSettings importSettings, BlazeProjectData projectData) {
+    File fingerprintFile = getFingerprintFile(project, importSettings);
+    if (!persistDerivedData.getValue() || !fingerprintFile.exists()) {
+      return;
+    }
+    try {
+      String id = new String(Files.readAllBytes(fingerprintFile.toPath()), UTF_8).trim();
+      fingerprint = !id.isEmpty() ? new Fingerprint(projectData, id) : null;
+    } catch (IOException e) {
+      logger.warn("Failed to read project data fingerprint", e);
+    }
+  }
+
   private static void logFileSize(BlazeProjectData projectData, File cacheFile) {
     ImmutableMap.Builder<String, String> data = ImmutableMap.builder();
     data.put("size", Long.toString(FileOperationProvider.getInstance().getFileSize(cacheFile)));
@@ -140,4 +236,13 @@ public class BlazeProjectDataManagerImpl implements BlazeProjectDataManager {
   private static File getCacheFile(Project project, BlazeImportSettings importSettings) {
     return new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), "cache.dat.gz");
   }
+
+  private static File getIndexedCacheFile(Project project, BlazeImportSettings importSettings) {
+    return new File(BlazeDataStorage.getProjectCacheDir(project, importSettings), "cache.dat");
+  }
+
+  private static File getFingerprintFile(Project project, BlazeImportSettings importSettings) {
+    return new File(
+        BlazeDataStorage.getProjectCacheDir(project, importSettings), "cache.fingerprint");
+  }
 }
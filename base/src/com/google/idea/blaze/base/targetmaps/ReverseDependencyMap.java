@@ -16,38 +16,212 @@
 package com.google.idea.blaze.base.targetmaps;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.idea.blaze.base.ideinfo.Dependency;
+import com.google.idea.blaze.base.ideinfo.TargetGraph;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.intellij.openapi.project.Project;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
 
 /** Handy class to create an reverse dep map of all targets */
-public class ReverseDependencyMap {
-  public static ImmutableMultimap<TargetKey, TargetKey> get(Project project) {
-    ImmutableMultimap<TargetKey, TargetKey> map =
+public final class ReverseDependencyMap {
+  private static final ReverseDependencyMap EMPTY =
+      new ReverseDependencyMap(ShardedMap.of(), new TargetMap(ImmutableMap.of()));
+
+  /**
+   * Returns the reverse dependency map for the current project data. After a sync it's updated
+   * rather than recomputed, touching only the edges of changed targets.
+   */
+  public static ReverseDependencyMap get(Project project) {
+    ReverseDependencyMap rdeps =
         SyncCache.getInstance(project)
-            .get(ReverseDependencyMap.class, ReverseDependencyMap::createRdepsMap);
-    return map != null ? map : ImmutableMultimap.of();
+            .getIncrementally(
+                ReverseDependencyMap.class, ReverseDependencyMap::computeState, new Persister());
+    return rdeps != null ? rdeps : EMPTY;
   }
 
   @VisibleForTesting
-  static ImmutableMultimap<TargetKey, TargetKey> createRdepsMap(
-      Project project, BlazeProjectData projectData) {
-    TargetMap targetMap = projectData.getTargetMap();
+  static ReverseDependencyMap createRdepsMap(Project project, BlazeProjectData projectData) {
+    return computeState(project, projectData, null, null);
+  }
+
+  // all reverse dependency edges, including those of dependencies not in the target map. Shared
+  // with the maps of earlier and later syncs, so never modified.
+  private final ShardedMap<TargetKey, ImmutableList<TargetKey>> allRdeps;
+  private final TargetMap targetMap;
+
+  private ReverseDependencyMap(
+      ShardedMap<TargetKey, ImmutableList<TargetKey>> allRdeps, TargetMap targetMap) {
+    this.allRdeps = allRdeps;
+    this.targetMap = targetMap;
+  }
+
+  /** Returns the targets which directly depend on the given target, if it's in the target map. */
+  public ImmutableList<TargetKey> get(TargetKey key) {
+    ImmutableList<TargetKey> rdeps = allRdeps.get(key);
+    return rdeps != null && targetMap.contains(key) ? rdeps : ImmutableList.of();
+  }
+
+  /** Copies all reverse dependency edges of targets in the target map, for tests. */
+  @VisibleForTesting
+  ImmutableMultimap<TargetKey, TargetKey> toMultimap() {
     ImmutableMultimap.Builder<TargetKey, TargetKey> builder = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : targetMap.targets()) {
-      TargetKey key = target.getKey();
-      for (Dependency dep : target.getDependencies()) {
-        TargetKey depKey = dep.getTargetKey();
-        if (targetMap.contains(depKey)) {
-          builder.put(depKey, key);
+    allRdeps.forEach(
+        (key, rdeps) -> {
+          if (targetMap.contains(key)) {
+            builder.putAll(key, rdeps);
+          }
+        });
+    return builder.build();
+  }
+
+  /**
+   * Computes the reverse dependency map. If the target map changes since the previous sync are
+   * known, only the edges of changed targets are updated, and the rest of the map is shared with
+   * the previous one.
+   */
+  @VisibleForTesting
+  static ReverseDependencyMap computeState(
+      Project project,
+      BlazeProjectData projectData,
+      @Nullable ReverseDependencyMap previous,
+      @Nullable TargetMap.Delta delta) {
+    TargetMap targetMap = projectData.getTargetMap();
+    if (previous == null || delta == null) {
+      return new ReverseDependencyMap(createAllRdeps(TargetGraph.create(targetMap)), targetMap);
+    }
+    ShardedMap.Editor<TargetKey, ImmutableList<TargetKey>> allRdeps = previous.allRdeps.edit();
+    for (TargetKey key : delta.getChangedKeys()) {
+      TargetIdeInfo previousTarget = delta.getPreviousTarget(key);
+      if (previousTarget != null) {
+        for (Dependency dep : previousTarget.getDependencies()) {
+          ImmutableList<TargetKey> rdeps = allRdeps.get(dep.getTargetKey());
+          if (rdeps == null) {
+            continue;
+          }
+          ImmutableList<TargetKey> remaining = removeOne(rdeps, key);
+          if (remaining.isEmpty()) {
+            allRdeps.remove(dep.getTargetKey());
+          } else if (remaining != rdeps) {
+            allRdeps.put(dep.getTargetKey(), remaining);
+          }
+        }
+      }
+      TargetIdeInfo target = targetMap.get(key);
+      if (target != null) {
+        for (Dependency dep : target.getDependencies()) {
+          ImmutableList<TargetKey> rdeps = allRdeps.get(dep.getTargetKey());
+          allRdeps.put(dep.getTargetKey(), append(rdeps, key));
         }
       }
     }
-    return builder.build();
+    return new ReverseDependencyMap(allRdeps.build(), targetMap);
+  }
+
+  private static ShardedMap<TargetKey, ImmutableList<TargetKey>> createAllRdeps(
+      TargetGraph graph) {
+    ListMultimap<TargetKey, TargetKey> allRdeps = ArrayListMultimap.create();
+    for (int id = 0; id < graph.getTargetCount(); id++) {
+      TargetKey key = graph.getKey(id);
+      for (int i = 0; i < graph.getDependencyCount(id); i++) {
+        allRdeps.put(graph.getKey(graph.getDependency(id, i)), key);
+      }
+    }
+    return toShardedMap(allRdeps);
+  }
+
+  private static ShardedMap<TargetKey, ImmutableList<TargetKey>> toShardedMap(
+      ListMultimap<TargetKey, TargetKey> allRdeps) {
+    Map<TargetKey, ImmutableList<TargetKey>> map = new HashMap<>(allRdeps.keySet().size());
+    allRdeps.asMap().forEach((key, rdeps) -> map.put(key, ImmutableList.copyOf(rdeps)));
+    return ShardedMap.copyOf(map);
+  }
+
+  /** Removes a single occurrence of the given key. */
+  private static ImmutableList<TargetKey> removeOne(ImmutableList<TargetKey> keys, TargetKey key) {
+    int index = keys.indexOf(key);
+    if (index < 0) {
+      return keys;
+    }
+    return ImmutableList.<TargetKey>builderWithExpectedSize(keys.size() - 1)
+        .addAll(keys.subList(0, index))
+        .addAll(keys.subList(index + 1, keys.size()))
+        .build();
+  }
+
+  private static ImmutableList<TargetKey> append(
+      @Nullable ImmutableList<TargetKey> keys, TargetKey key) {
+    if (keys == null) {
+      return ImmutableList.of(key);
+    }
+    return ImmutableList.<TargetKey>builderWithExpectedSize(keys.size() + 1)
+        .addAll(keys)
+        .add(key)
+        .build();
+  }
+
+  /** Persists all reverse dependency edges, as indices into a table of target keys. */
+  @VisibleForTesting
+  static class Persister implements SyncCache.Persister<ReverseDependencyMap> {
+    @Override
+    public int getFormatVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(ReverseDependencyMap rdeps, DataOutput out) throws IOException {
+      TargetKeyTable.Writer keys = new TargetKeyTable.Writer();
+      rdeps.allRdeps.forEach(
+          (key, values) -> {
+            keys.indexOf(key);
+            values.forEach(keys::indexOf);
+          });
+      keys.write(out);
+      out.writeInt(rdeps.allRdeps.size());
+      for (Map.Entry<TargetKey, ImmutableList<TargetKey>> entry : rdeps.allRdeps.entries()) {
+        out.writeInt(keys.indexOf(entry.getKey()));
+        out.writeInt(entry.getValue().size());
+        for (TargetKey rdep : entry.getValue()) {
+          out.writeInt(keys.indexOf(rdep));
+        }
+      }
+    }
+
+    @Override
+    public ReverseDependencyMap read(Project project, BlazeProjectData projectData, DataInput in)
+        throws IOException {
+      ImmutableList<TargetKey> keys = TargetKeyTable.read(in);
+      ListMultimap<TargetKey, TargetKey> allRdeps = ArrayListMultimap.create();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        TargetKey key = keys.get(in.readInt());
+        int rdepCount = in.readInt();
+        for (int j = 0; j < rdepCount; j++) {
+          allRdeps.put(key, keys.get(in.readInt()));
+        }
+      }
+      return new ReverseDependencyMap(toShardedMap(allRdeps), projectData.getTargetMap());
+    }
+  }
+
+  /** Computes the reverse dependency map as soon as sync completes. */
+  static class Warmer implements SyncCache.Warmer {
+    @Override
+    public void warm(Project project, BlazeProjectData projectData) {
+      get(project);
+    }
   }
 }
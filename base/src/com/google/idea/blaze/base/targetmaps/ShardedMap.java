@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable map split into many small shards. A modified copy shares every shard not containing
+ * a modified key with the original, so updating it after a sync costs time proportional to the
+ * number of changed keys rather than the size of the map, while the original stays safe to read.
+ */
+final class ShardedMap<K, V> {
+  // small enough that copying a shard on modification is cheap
+  private static final int TARGET_SHARD_SIZE = 32;
+  private static final int MAX_SHARD_COUNT = 1 << 16;
+
+  private final ImmutableMap<K, V>[] shards;
+  private final int size;
+
+  private ShardedMap(ImmutableMap<K, V>[] shards, int size) {
+    this.shards = shards;
+    this.size = size;
+  }
+
+  static <K, V> ShardedMap<K, V> of() {
+    return copyOf(ImmutableMap.of());
+  }
+
+  static <K, V> ShardedMap<K, V> copyOf(Map<K, V> map) {
+    int shardCount = 1;
+    while (shardCount < MAX_SHARD_COUNT && shardCount * TARGET_SHARD_SIZE < map.size()) {
+      shardCount <<= 1;
+    }
+    @SuppressWarnings("unchecked")
+    Map<K, V>[] builders = new Map[shardCount];
+    for (Map.Entry<K, V> entry : map.entrySet()) {
+      int index = shardIndex(entry.getKey(), shardCount);
+      if (builders[index] == null) {
+        builders[index] = new HashMap<>();
+      }
+      builders[index].put(entry.getKey(), entry.getValue());
+    }
+    @SuppressWarnings("unchecked")
+    ImmutableMap<K, V>[] shards = new ImmutableMap[shardCount];
+    for (int i = 0; i < shardCount; i++) {
+      shards[i] = builders[i] != null ? ImmutableMap.copyOf(builders[i]) : ImmutableMap.of();
+    }
+    return new ShardedMap<>(shards, map.size());
+  }
+
+  private static int shardIndex(Object key, int shardCount) {
+    int hash = key.hashCode();
+    // spread the high bits, as for HashMap
+    return (hash ^ (hash >>> 16)) & (shardCount - 1);
+  }
+
+  @Nullable
+  V get(Object key) {
+    return shards[shardIndex(key, shards.length)].get(key);
+  }
+
+  V getOrDefault(Object key, V defaultValue) {
+    V value = get(key);
+    return value != null ? value : defaultValue;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void forEach(BiConsumer<? super K, ? super V> action) {
+    for (ImmutableMap<K, V> shard : shards) {
+      shard.forEach(action);
+    }
+  }
+
+  Iterable<Map.Entry<K, V>> entries() {
+    return Iterables.concat(Iterables.transform(Arrays.asList(shards), ImmutableMap::entrySet));
+  }
+
+  /** Returns an editor for a modified copy of this map. This map itself is never modified. */
+  Editor<K, V> edit() {
+    return new Editor<>(this);
+  }
+
+  /** Accumulates modifications, copying only the shards they touch. */
+  static final class Editor<K, V> {
+    private final ShardedMap<K, V> base;
+    private final Map<Integer, Map<K, V>> modifiedShards = new HashMap<>();
+    private int size;
+
+    private Editor(ShardedMap<K, V> base) {
+      this.base = base;
+      this.size = base.size;
+    }
+
+    private Map<K, V> modifiableShard(Object key) {
+      int index = shardIndex(key, base.shards.length);
+      return modifiedShards.computeIfAbsent(index, i -> new HashMap<>(base.shards[i]));
+    }
+
+    @Nullable
+    V get(Object key) {
+      Map<K, V> shard = modifiedShards.get(shardIndex(key, base.shards.length));
+      return shard != null ? shard.get(key) : base.get(key);
+    }
+
+    void put(K key, V value) {
+      if (modifiableShard(key).put(key, value) == null) {
+        size++;
+      }
+    }
+
+    void remove(Object key) {
+      if (modifiableShard(key).remove(key) != null) {
+        size--;
+      }
+    }
+
+    ShardedMap<K, V> build() {
+      if (modifiedShards.isEmpty()) {
+        return base;
+      }
+      if (size > base.shards.length * TARGET_SHARD_SIZE * 4
+          && base.shards.length < MAX_SHARD_COUNT) {
+        // the map has outgrown its shards, so reshard it rather than copying ever larger shards
+        Map<K, V> all = new HashMap<>(size);
+        for (int i = 0; i < base.shards.length; i++) {
+          Map<K, V> modified = modifiedShards.get(i);
+          all.putAll(modified != null ? modified : base.shards[i]);
+        }
+        return copyOf(all);
+      }
+      ImmutableMap<K, V>[] shards = base.shards.clone();
+      modifiedShards.forEach((index, shard) -> shards[index] = ImmutableMap.copyOf(shard));
+      return new ShardedMap<>(shards, size);
+    }
+  }
+}
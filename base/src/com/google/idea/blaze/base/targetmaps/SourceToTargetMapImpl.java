@@ -17,19 +17,29 @@ package com.google.idea.blaze.base.targetmaps;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetGraph;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.intellij.openapi.project.Project;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 import javax.annotation.Nullable;
 
@@ -61,33 +71,200 @@ public class SourceToTargetMapImpl implements SourceToTargetMap {
 
   @Override
   public ImmutableCollection<TargetKey> getRulesForSourceFile(File sourceFile) {
-    ImmutableMultimap<File, TargetKey> sourceToTargetMap = getSourceToTargetMap();
-    if (sourceToTargetMap == null) {
+    SourceToTargetState state = getSourceToTargetState();
+    if (state == null) {
       return ImmutableList.of();
     }
-    return sourceToTargetMap.get(sourceFile);
+    return state.get(sourceFile);
   }
 
   @Nullable
-  private synchronized ImmutableMultimap<File, TargetKey> getSourceToTargetMap() {
+  private SourceToTargetState getSourceToTargetState() {
+    return getSourceToTargetState(project);
+  }
+
+  @Nullable
+  private static SourceToTargetState getSourceToTargetState(Project project) {
     return SyncCache.getInstance(project)
-        .get(SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeSourceToTargetMap);
+        .getIncrementally(
+            SourceToTargetMapImpl.class, SourceToTargetMapImpl::computeState, new Persister());
+  }
+
+  /** The source to target map for a single sync, never modified once computed. */
+  @VisibleForTesting
+  static final class SourceToTargetState {
+    private final ArtifactLocationDecoder decoder;
+    // shared with the states of earlier and later syncs
+    private final ShardedMap<File, ImmutableList<TargetKey>> sourceToTargets;
+
+    private SourceToTargetState(
+        ArtifactLocationDecoder decoder,
+        ShardedMap<File, ImmutableList<TargetKey>> sourceToTargets) {
+      this.decoder = decoder;
+      this.sourceToTargets = sourceToTargets;
+    }
+
+    ImmutableList<TargetKey> get(File sourceFile) {
+      return sourceToTargets.getOrDefault(sourceFile, ImmutableList.of());
+    }
+
+    @VisibleForTesting
+    ImmutableMultimap<File, TargetKey> toMultimap() {
+      ImmutableMultimap.Builder<File, TargetKey> builder = ImmutableMultimap.builder();
+      sourceToTargets.forEach(builder::putAll);
+      return builder.build();
+    }
   }
 
+  /**
+   * Computes the source to target map. If the target map changes since the previous sync are
+   * known, only the sources of changed targets are resolved, and the rest of the map is shared.
+   */
+  @VisibleForTesting
   @SuppressWarnings("unused")
-  private static ImmutableMultimap<File, TargetKey> computeSourceToTargetMap(
-      Project project, BlazeProjectData blazeProjectData) {
+  static SourceToTargetState computeState(
+      Project project,
+      BlazeProjectData blazeProjectData,
+      @Nullable SourceToTargetState previous,
+      @Nullable TargetMap.Delta delta) {
     ArtifactLocationDecoder decoder = blazeProjectData.getArtifactLocationDecoder();
-    ImmutableMultimap.Builder<File, TargetKey> sourceToTargetMap = ImmutableMultimap.builder();
-    for (TargetIdeInfo target : blazeProjectData.getTargetMap().targets()) {
-      TargetKey key = target.getKey();
-      for (ArtifactLocation sourceArtifact : target.getSources()) {
-        File file = decoder.resolveSource(sourceArtifact);
+    if (previous == null || delta == null || !previous.decoder.equals(decoder)) {
+      return new SourceToTargetState(
+          decoder,
+          computeSourceToTargetMap(decoder, TargetGraph.create(blazeProjectData.getTargetMap())));
+    }
+    // only the modified shards are copied, as the previous map may still be in use
+    ShardedMap.Editor<File, ImmutableList<TargetKey>> sourceToTargets =
+        previous.sourceToTargets.edit();
+    for (TargetKey key : delta.getChangedKeys()) {
+      TargetIdeInfo previousTarget = delta.getPreviousTarget(key);
+      if (previousTarget != null) {
+        for (ArtifactLocation source : previousTarget.getSources()) {
+          File file = decoder.resolveSource(source);
+          if (file != null) {
+            ImmutableList<TargetKey> keys = sourceToTargets.get(file);
+            if (keys == null) {
+              continue;
+            }
+            ImmutableList<TargetKey> remaining = removeOne(keys, key);
+            if (remaining == null) {
+              sourceToTargets.remove(file);
+            } else if (remaining != keys) {
+              sourceToTargets.put(file, remaining);
+            }
+          }
+        }
+      }
+      TargetIdeInfo target = blazeProjectData.getTargetMap().get(key);
+      if (target != null) {
+        for (ArtifactLocation source : target.getSources()) {
+          File file = decoder.resolveSource(source);
+          if (file != null) {
+            ImmutableList<TargetKey> keys = sourceToTargets.get(file);
+            sourceToTargets.put(
+                file, keys != null ? concat(keys, ImmutableList.of(key)) : ImmutableList.of(key));
+          }
+        }
+      }
+    }
+    return new SourceToTargetState(decoder, sourceToTargets.build());
+  }
+
+  private static ShardedMap<File, ImmutableList<TargetKey>> computeSourceToTargetMap(
+      ArtifactLocationDecoder decoder, TargetGraph graph) {
+    // resolve each distinct source once, however many targets it belongs to
+    File[] files = new File[graph.getSourceCount()];
+    for (int sourceId = 0; sourceId < files.length; sourceId++) {
+      files[sourceId] = decoder.resolveSource(graph.getSource(sourceId));
+    }
+    ListMultimap<File, TargetKey> sourceToTargetMap = ArrayListMultimap.create();
+    for (int id = 0; id < graph.getTargetCount(); id++) {
+      TargetKey key = graph.getKey(id);
+      for (int i = 0; i < graph.getSourceCount(id); i++) {
+        File file = files[graph.getSourceId(id, i)];
         if (file != null) {
           sourceToTargetMap.put(file, key);
         }
       }
     }
-    return sourceToTargetMap.build();
+    Map<File, ImmutableList<TargetKey>> result = new HashMap<>(sourceToTargetMap.keySet().size());
+    sourceToTargetMap.asMap().forEach((file, keys) -> result.put(file, ImmutableList.copyOf(keys)));
+    return ShardedMap.copyOf(result);
+  }
+
+  /** Removes a single occurrence of the given key, returning null if none remain. */
+  @Nullable
+  private static ImmutableList<TargetKey> removeOne(ImmutableList<TargetKey> keys, TargetKey key) {
+    int index = keys.indexOf(key);
+    if (index < 0) {
+      return keys;
+    }
+    if (keys.size() == 1) {
+      return null;
+    }
+    return ImmutableList.<TargetKey>builderWithExpectedSize(keys.size() - 1)
+        .addAll(keys.subList(0, index))
+        .addAll(keys.subList(index + 1, keys.size()))
+        .build();
+  }
+
+  private static ImmutableList<TargetKey> concat(
+      ImmutableList<TargetKey> first, ImmutableList<TargetKey> second) {
+    return ImmutableList.<TargetKey>builderWithExpectedSize(first.size() + second.size())
+        .addAll(first)
+        .addAll(second)
+        .build();
+  }
+
+  /** Persists the resolved source files, and their targets as indices into a table of keys. */
+  @VisibleForTesting
+  static class Persister implements SyncCache.Persister<SourceToTargetState> {
+    @Override
+    public int getFormatVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(SourceToTargetState state, DataOutput out) throws IOException {
+      TargetKeyTable.Writer keys = new TargetKeyTable.Writer();
+      state.sourceToTargets.forEach((file, targets) -> targets.forEach(keys::indexOf));
+      keys.write(out);
+      out.writeInt(state.sourceToTargets.size());
+      for (Map.Entry<File, ImmutableList<TargetKey>> entry : state.sourceToTargets.entries()) {
+        out.writeUTF(entry.getKey().getPath());
+        out.writeInt(entry.getValue().size());
+        for (TargetKey key : entry.getValue()) {
+          out.writeInt(keys.indexOf(key));
+        }
+      }
+    }
+
+    @Override
+    public SourceToTargetState read(
+        Project project, BlazeProjectData blazeProjectData, DataInput in) throws IOException {
+      ImmutableList<TargetKey> keys = TargetKeyTable.read(in);
+      int count = in.readInt();
+      Map<File, ImmutableList<TargetKey>> sourceToTargets = new HashMap<>(count);
+      for (int i = 0; i < count; i++) {
+        File file = new File(in.readUTF());
+        int targetCount = in.readInt();
+        ImmutableList.Builder<TargetKey> targets =
+            ImmutableList.builderWithExpectedSize(targetCount);
+        for (int j = 0; j < targetCount; j++) {
+          targets.add(keys.get(in.readInt()));
+        }
+        sourceToTargets.put(file, targets.build());
+      }
+      return new SourceToTargetState(
+          blazeProjectData.getArtifactLocationDecoder(), ShardedMap.copyOf(sourceToTargets));
+    }
+  }
+
+  /** Computes the source to target map as soon as sync completes. */
+  static class Warmer implements SyncCache.Warmer {
+    @Override
+    public void warm(Project project, BlazeProjectData projectData) {
+      getSourceToTargetState(project);
+    }
   }
 }
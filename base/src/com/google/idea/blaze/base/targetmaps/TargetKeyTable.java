@@ -0,0 +1,72 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.sync.SyncCache;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serializes each distinct {@link TargetKey} of a persisted target map once, so the map itself can
+ * refer to keys by index.
+ */
+final class TargetKeyTable {
+  private TargetKeyTable() {}
+
+  /**
+   * Assigns indices to keys, in the order they're first seen. All keys must be seen before the
+   * table is written, and the map after it.
+   */
+  static final class Writer {
+    private final Map<TargetKey, Integer> indices = new HashMap<>();
+    private final ImmutableList.Builder<TargetKey> keys = ImmutableList.builder();
+
+    int indexOf(TargetKey key) {
+      Integer index = indices.get(key);
+      if (index == null) {
+        index = indices.size();
+        indices.put(key, index);
+        keys.add(key);
+      }
+      return index;
+    }
+
+    void write(DataOutput out) throws IOException {
+      ImmutableList<TargetKey> keys = this.keys.build();
+      out.writeInt(keys.size());
+      for (TargetKey key : keys) {
+        SyncCache.Persister.writeMessage(out, key.toProto());
+      }
+    }
+  }
+
+  static ImmutableList<TargetKey> read(DataInput in) throws IOException {
+    int count = in.readInt();
+    ImmutableList.Builder<TargetKey> keys = ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      keys.add(
+          TargetKey.fromProto(
+              SyncCache.Persister.readMessage(in, IntellijIdeInfo.TargetKey.parser())));
+    }
+    return keys.build();
+  }
+}
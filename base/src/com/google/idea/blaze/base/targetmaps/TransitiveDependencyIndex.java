@@ -0,0 +1,317 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.ideinfo.TargetGraph;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A compact view of the dependency graph of a {@link TargetMap}, used to answer transitive
+ * dependency queries without repeatedly traversing {@link TargetIdeInfo} objects.
+ *
+ * <p>Each target key is assigned a dense int ID, and the direct dependencies of each target are
+ * stored as an int array. As with {@link TransitiveDependencyMap#getTransitiveDependenciesStream},
+ * all dependencies are treated as plain targets. The transitive closures of recently queried
+ * targets are cached.
+ *
+ * <p>An index can be derived from the index of a previous target map, in which case IDs are
+ * retained and only the dependencies of changed targets are recomputed.
+ */
+final class TransitiveDependencyIndex {
+
+  private static final int[] NO_DEPS = new int[0];
+  private static final int MAX_CACHED_CLOSURES = 256;
+
+  /** The transitive dependencies of a single target, in breadth-first order. */
+  private static final class Closure {
+    final int[] order;
+    final BitSet members;
+
+    Closure(int[] order, BitSet members) {
+      this.order = order;
+      this.members = members;
+    }
+  }
+
+  private final Map<TargetKey, Integer> ids;
+  private final TargetKey[] keys;
+  // the targets each index was computed from, used to detect unchanged targets
+  private final TargetIdeInfo[] targets;
+  private final int[][] deps;
+  private final Cache<Integer, Closure> closures =
+      CacheBuilder.newBuilder().maximumSize(MAX_CACHED_CLOSURES).build();
+
+  private TransitiveDependencyIndex(
+      Map<TargetKey, Integer> ids, TargetKey[] keys, TargetIdeInfo[] targets, int[][] deps) {
+    this.ids = ids;
+    this.keys = keys;
+    this.targets = targets;
+    this.deps = deps;
+  }
+
+  /** Builds an index from scratch. */
+  static TransitiveDependencyIndex create(TargetMap targetMap) {
+    return update(null, targetMap, null);
+  }
+
+  /**
+   * Builds an index for the given target map, reusing IDs, dependency arrays and any still-valid
+   * cached closures from {@code previous}. If known, {@code delta} identifies the targets which
+   * changed since {@code previous} was built; otherwise targets are compared by identity.
+   */
+  static TransitiveDependencyIndex update(
+      @Nullable TransitiveDependencyIndex previous,
+      TargetMap targetMap,
+      @Nullable TargetMap.Delta delta) {
+    if (previous != null && previous.keys.length > 2 * targetMap.size() + 1024) {
+      // too many stale IDs from removed targets; start afresh
+      previous = null;
+    }
+    Map<TargetKey, Integer> ids = previous != null ? new HashMap<>(previous.ids) : new HashMap<>();
+    List<TargetKey> keys =
+        previous != null ? new ArrayList<>(Arrays.asList(previous.keys)) : new ArrayList<>();
+    int previousSize = keys.size();
+    List<TargetIdeInfo> targets = new ArrayList<>(previousSize);
+    List<int[]> deps = new ArrayList<>(previousSize);
+    for (int i = 0; i < previousSize; i++) {
+      // filled in below, for targets still present
+      targets.add(null);
+      deps.add(NO_DEPS);
+    }
+
+    TargetGraph graph = TargetGraph.create(targetMap);
+    // index IDs of the graph's keys, converted to plain targets; -1 until first needed
+    int[] indexIds = new int[graph.getKeyCount()];
+    Arrays.fill(indexIds, -1);
+    BitSet changed = new BitSet();
+    for (int graphId = 0; graphId < graph.getTargetCount(); graphId++) {
+      TargetIdeInfo target = graph.getTarget(graphId);
+      int id = idFor(target.getKey(), ids, keys, targets, deps);
+      if (previous != null
+          && id < previousSize
+          && previous.targets[id] != null
+          && (previous.targets[id] == target
+              || (delta != null && !delta.getChangedKeys().contains(target.getKey())))) {
+        targets.set(id, target);
+        deps.set(id, previous.deps[id]);
+        continue;
+      }
+      int[] targetDeps = getDependencies(graph, graphId, indexIds, ids, keys, targets, deps);
+      targets.set(id, target);
+      deps.set(id, targetDeps);
+      boolean unchanged =
+          previous != null && id < previousSize && Arrays.equals(previous.deps[id], targetDeps);
+      if (!unchanged) {
+        changed.set(id);
+      }
+    }
+    if (previous != null) {
+      for (int id = 0; id < previousSize; id++) {
+        if (targets.get(id) == null && previous.deps[id].length > 0) {
+          // removed from the target map
+          changed.set(id);
+        }
+      }
+    }
+
+    TransitiveDependencyIndex index =
+        new TransitiveDependencyIndex(
+            ids,
+            keys.toArray(new TargetKey[0]),
+            targets.toArray(new TargetIdeInfo[0]),
+            deps.toArray(new int[0][]));
+    if (previous != null) {
+      previous
+          .closures
+          .asMap()
+          .forEach(
+              (id, closure) -> {
+                if (!changed.get(id) && !closure.members.intersects(changed)) {
+                  index.closures.put(id, closure);
+                }
+              });
+    }
+    return index;
+  }
+
+  private static int idFor(
+      TargetKey key,
+      Map<TargetKey, Integer> ids,
+      List<TargetKey> keys,
+      List<TargetIdeInfo> targets,
+      List<int[]> deps) {
+    Integer id = ids.get(key);
+    if (id != null) {
+      return id;
+    }
+    int newId = keys.size();
+    ids.put(key, newId);
+    keys.add(key);
+    targets.add(null);
+    deps.add(NO_DEPS);
+    return newId;
+  }
+
+  private static int[] getDependencies(
+      TargetGraph graph,
+      int graphId,
+      int[] indexIds,
+      Map<TargetKey, Integer> ids,
+      List<TargetKey> keys,
+      List<TargetIdeInfo> targets,
+      List<int[]> deps) {
+    int dependencyCount = graph.getDependencyCount(graphId);
+    if (dependencyCount == 0) {
+      return NO_DEPS;
+    }
+    int[] result = new int[dependencyCount];
+    int count = 0;
+    for (int i = 0; i < dependencyCount; i++) {
+      int graphDep = graph.getDependency(graphId, i);
+      int depId = indexIds[graphDep];
+      if (depId < 0) {
+        TargetKey depKey = graph.getKey(graphDep);
+        if (!depKey.isPlainTarget()) {
+          depKey = TargetKey.forPlainTarget(depKey.getLabel());
+        }
+        depId = idFor(depKey, ids, keys, targets, deps);
+        indexIds[graphDep] = depId;
+      }
+      if (!contains(result, count, depId)) {
+        result[count++] = depId;
+      }
+    }
+    return count == result.length ? result : Arrays.copyOf(result, count);
+  }
+
+  private static boolean contains(int[] array, int length, int value) {
+    for (int i = 0; i < length; i++) {
+      if (array[i] == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns true if {@code possibleDependent} transitively depends on {@code possibleDependency}.
+   */
+  boolean hasTransitiveDependency(TargetKey possibleDependent, TargetKey possibleDependency) {
+    Integer dependent = ids.get(possibleDependent);
+    Integer dependency = ids.get(possibleDependency);
+    if (dependent == null || dependency == null) {
+      return false;
+    }
+    return getClosure(dependent).members.get(dependency);
+  }
+
+  /**
+   * Returns the targets in {@code possibleDependencies} which {@code possibleDependent} depends on,
+   * in breadth-first order.
+   */
+  ImmutableSet<TargetKey> filterPossibleTransitiveDeps(
+      TargetKey possibleDependent, Collection<TargetKey> possibleDependencies) {
+    Integer dependent = ids.get(possibleDependent);
+    if (dependent == null || possibleDependencies.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    Closure closure = getClosure(dependent);
+    BitSet candidates = new BitSet();
+    for (TargetKey key : possibleDependencies) {
+      Integer id = ids.get(key);
+      if (id != null && closure.members.get(id)) {
+        candidates.set(id);
+      }
+    }
+    if (candidates.isEmpty()) {
+      return ImmutableSet.of();
+    }
+    ImmutableSet.Builder<TargetKey> result = ImmutableSet.builder();
+    int remaining = candidates.cardinality();
+    for (int i = 0; i < closure.order.length && remaining > 0; i++) {
+      if (candidates.get(closure.order[i])) {
+        result.add(keys[closure.order[i]]);
+        remaining--;
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns the transitive dependencies of the given target, in breadth-first order. */
+  ImmutableSet<TargetKey> getTransitiveDependencies(TargetKey targetKey) {
+    Integer id = ids.get(targetKey);
+    if (id == null) {
+      return ImmutableSet.of();
+    }
+    int[] order = getClosure(id).order;
+    ImmutableSet.Builder<TargetKey> result = ImmutableSet.builderWithExpectedSize(order.length);
+    for (int dep : order) {
+      result.add(keys[dep]);
+    }
+    return result.build();
+  }
+
+  private Closure getClosure(int id) {
+    Closure closure = closures.getIfPresent(id);
+    if (closure == null) {
+      closure = computeClosure(id);
+      closures.put(id, closure);
+    }
+    return closure;
+  }
+
+  /**
+   * A breadth-first traversal from the given target, matching the order of {@link
+   * TransitiveDependencyMap#getTransitiveDependenciesStream}.
+   */
+  private Closure computeClosure(int source) {
+    BitSet members = new BitSet(keys.length);
+    int[] queue = new int[16];
+    int tail = 0;
+    for (int dep : deps[source]) {
+      members.set(dep);
+      queue = ensureCapacity(queue, tail + 1);
+      queue[tail++] = dep;
+    }
+    for (int head = 0; head < tail; head++) {
+      for (int dep : deps[queue[head]]) {
+        if (!members.get(dep)) {
+          members.set(dep);
+          queue = ensureCapacity(queue, tail + 1);
+          queue[tail++] = dep;
+        }
+      }
+    }
+    return new Closure(Arrays.copyOf(queue, tail), members);
+  }
+
+  private static int[] ensureCapacity(int[] array, int size) {
+    return size <= array.length ? array : Arrays.copyOf(array, Math.max(size, array.length * 2));
+  }
+}
@@ -23,8 +23,7 @@ import com.google.idea.blaze.base.ideinfo.Dependency;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
-import com.google.idea.blaze.base.model.BlazeProjectData;
-import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.google.idea.blaze.base.sync.SyncCache;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.project.Project;
 import java.util.Collection;
@@ -34,6 +33,7 @@ import java.util.LinkedHashSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 
 /** Handy class to find all transitive dependencies of a given target */
 public class TransitiveDependencyMap {
@@ -53,15 +53,8 @@ public class TransitiveDependencyMap {
    */
   public boolean hasTransitiveDependency(
       TargetKey possibleDependent, TargetKey possibleDependency) {
-
-    BlazeProjectData blazeProjectData =
-        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData == null) {
-      return false;
-    }
-
-    return getTransitiveDependenciesStream(possibleDependent, blazeProjectData.getTargetMap())
-        .anyMatch(possibleDependency::equals);
+    TransitiveDependencyIndex index = getIndex();
+    return index != null && index.hasTransitiveDependency(possibleDependent, possibleDependency);
   }
 
   /**
@@ -73,27 +66,32 @@ public class TransitiveDependencyMap {
    */
   public ImmutableSet<TargetKey> filterPossibleTransitiveDeps(
       TargetKey possibleDependent, Collection<TargetKey> possibleDependencies) {
-    BlazeProjectData blazeProjectData =
-        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData == null) {
+    TransitiveDependencyIndex index = getIndex();
+    if (index == null) {
       return ImmutableSet.of();
     }
-    ImmutableSet<TargetKey> possibleDepsSet = ImmutableSet.copyOf(possibleDependencies);
-    return getTransitiveDependenciesStream(possibleDependent, blazeProjectData.getTargetMap())
-        .filter(possibleDepsSet::contains)
-        .distinct()
-        .limit(possibleDepsSet.size())
-        .collect(ImmutableSet.toImmutableSet());
+    return index.filterPossibleTransitiveDeps(possibleDependent, possibleDependencies);
   }
 
   public ImmutableCollection<TargetKey> getTransitiveDependencies(TargetKey targetKey) {
-    BlazeProjectData blazeProjectData =
-        BlazeProjectDataManager.getInstance(project).getBlazeProjectData();
-    if (blazeProjectData == null) {
+    TransitiveDependencyIndex index = getIndex();
+    if (index == null) {
       return ImmutableSet.of();
     }
-    // TODO: see if we need caching.
-    return getTransitiveDependencies(targetKey, blazeProjectData.getTargetMap());
+    return index.getTransitiveDependencies(targetKey);
+  }
+
+  /**
+   * Returns the dependency index for the current project data, computing it once per sync. After a
+   * partial sync, the index is patched from the previous one rather than rebuilt.
+   */
+  @Nullable
+  private TransitiveDependencyIndex getIndex() {
+    return SyncCache.getInstance(project)
+        .getIncrementally(
+            TransitiveDependencyIndex.class,
+            (p, projectData, previous, delta) ->
+                TransitiveDependencyIndex.update(previous, projectData.getTargetMap(), delta));
   }
 
   public static ImmutableCollection<TargetKey> getTransitiveDependencies(
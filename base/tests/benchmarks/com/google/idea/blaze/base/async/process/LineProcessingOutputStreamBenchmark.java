@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.idea.blaze.base.async.process.LineProcessingOutputStream.CharSequenceLineProcessor;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures splitting {@value #LOG_SIZE_MB}MB of synthetic build output into lines, written in
+ * {@value #CHUNK_SIZE} byte chunks as the process output pump does. Each operation processes the
+ * whole log, so a throughput of 3 ops/s or more corresponds to at least 200MB/s.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class LineProcessingOutputStreamBenchmark {
+
+  private static final int LOG_SIZE_MB = 64;
+  private static final int CHUNK_SIZE = 8192;
+
+  private byte[] log;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(LOG_SIZE_MB << 20);
+    int line = 0;
+    while (out.size() < LOG_SIZE_MB << 20) {
+      String text;
+      switch (random.nextInt(4)) {
+        case 0:
+          text = "INFO: From Compiling java/com/example/p" + line + "/Source.java:\n";
+          break;
+        case 1:
+          text =
+              "java/com/example/p"
+                  + line
+                  + "/Source.java:42: warning: [deprecation] método obsoleto ✓\r\n";
+          break;
+        case 2:
+          text = "[" + line + " / 200,000] 16 actions running\r";
+          break;
+        default:
+          text = "    at com.example.Source.method(Source.java:" + line + ")\n";
+      }
+      byte[] bytes = text.getBytes(UTF_8);
+      out.write(bytes, 0, bytes.length);
+      line++;
+    }
+    log = out.toByteArray();
+  }
+
+  @Benchmark
+  public void stringLines(Blackhole blackhole) {
+    write(
+        LineProcessingOutputStream.of(
+            line -> {
+              blackhole.consume(line);
+              return true;
+            }));
+  }
+
+  @Benchmark
+  public void charSequenceLines(Blackhole blackhole) {
+    CharSequenceLineProcessor processor =
+        line -> {
+          blackhole.consume(line.length());
+          return true;
+        };
+    write(LineProcessingOutputStream.of(processor));
+  }
+
+  private void write(LineProcessingOutputStream stream) {
+    for (int off = 0; off < log.length; off += CHUNK_SIZE) {
+      stream.write(log, off, Math.min(CHUNK_SIZE, log.length - off));
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.benchmarks;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.io.FileOperationProvider;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.model.primitives.RuleType;
+import com.google.idea.common.experiments.ExperimentService;
+import com.google.idea.common.experiments.MockExperimentService;
+import com.google.idea.testing.ServiceHelper;
+import com.google.idea.testing.TestUtils;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+
+/**
+ * A mock IntelliJ application and project for benchmarks, with the services needed by the sync
+ * code paths being measured. Create one per JMH trial, and dispose of it in the trial's teardown.
+ */
+public final class BenchmarkEnvironment {
+
+  /** The rule kind of all synthetic targets. */
+  public static final String SYNTHETIC_KIND = "java_library";
+
+  private final Disposable disposable = Disposer.newDisposable();
+  private final Project project;
+
+  private BenchmarkEnvironment() {
+    TestUtils.createMockApplication(disposable);
+    project =
+        TestUtils.mockProject(ApplicationManager.getApplication().getPicoContainer(), disposable);
+    ServiceHelper.registerApplicationService(
+        ExperimentService.class, new MockExperimentService(), disposable);
+    ServiceHelper.registerApplicationService(
+        FileOperationProvider.class, new FileOperationProvider(), disposable);
+    ServiceHelper.registerApplicationService(
+        Kind.ApplicationState.class, new Kind.ApplicationState(), disposable);
+    ServiceHelper.registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class, disposable);
+    ServiceHelper.registerExtension(Kind.Provider.EP_NAME, new GenericBlazeRules(), disposable);
+    Kind syntheticKind = Kind.Provider.create(SYNTHETIC_KIND, LanguageClass.JAVA, RuleType.LIBRARY);
+    ServiceHelper.registerExtension(
+        Kind.Provider.EP_NAME, () -> ImmutableSet.of(syntheticKind), disposable);
+  }
+
+  public static BenchmarkEnvironment create() {
+    return new BenchmarkEnvironment();
+  }
+
+  public Project getProject() {
+    return project;
+  }
+
+  /** Disposed along with this environment, for registering additional services and extensions. */
+  public Disposable getDisposable() {
+    return disposable;
+  }
+
+  public void dispose() {
+    Disposer.dispose(disposable);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.benchmarks;
+
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.BuildFinishedId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.BuildStartedId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.ConfigurationId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TargetCompletedId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildFinished;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildStarted;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.Configuration;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.OutputGroup;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TargetComplete;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * Generates serialized build event protocol streams resembling those of a sync build, with one
+ * completed target per synthetic target, each reporting its aspect outputs in a named set of files
+ * which also references the named sets of a couple of its dependencies.
+ */
+public final class SyntheticBuildEvents {
+
+  private static final String CONFIG_ID = "config-id";
+  private static final String OUTPUT_ROOT = "/execroot/main/bazel-out/k8-fastbuild/bin/";
+
+  private SyntheticBuildEvents() {}
+
+  /** Returns a length-delimited BEP stream reporting {@code targetCount} completed targets. */
+  public static byte[] stream(int targetCount) {
+    Random random = new Random(targetCount);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      BuildEvent.newBuilder()
+          .setId(BuildEventId.newBuilder().setStarted(BuildStartedId.getDefaultInstance()))
+          .setStarted(
+              BuildStarted.newBuilder().setUuid("synthetic-build").setStartTimeMillis(1_000_000L))
+          .build()
+          .writeDelimitedTo(out);
+      BuildEvent.newBuilder()
+          .setId(
+              BuildEventId.newBuilder()
+                  .setConfiguration(ConfigurationId.newBuilder().setId(CONFIG_ID)))
+          .setConfiguration(Configuration.newBuilder().setMnemonic("k8-fastbuild"))
+          .build()
+          .writeDelimitedTo(out);
+      for (int i = 0; i < targetCount; i++) {
+        NamedSetOfFiles.Builder namedSet =
+            NamedSetOfFiles.newBuilder()
+                .addFiles(file("target" + i + ".java-manifest"))
+                .addFiles(file("libtarget" + i + ".jar"))
+                .addFiles(file("target" + i + ".intellij-info.txt"));
+        for (int d = 0; d < 2 && i > 0; d++) {
+          namedSet.addFileSets(setId(random.nextInt(i)));
+        }
+        BuildEvent.newBuilder()
+            .setId(BuildEventId.newBuilder().setNamedSet(setId(i)))
+            .setNamedSetOfFiles(namedSet)
+            .build()
+            .writeDelimitedTo(out);
+        BuildEvent.newBuilder()
+            .setId(
+                BuildEventId.newBuilder()
+                    .setTargetCompleted(
+                        TargetCompletedId.newBuilder()
+                            .setLabel(SyntheticTargets.label(i))
+                            .setConfiguration(ConfigurationId.newBuilder().setId(CONFIG_ID))))
+            .setCompleted(
+                TargetComplete.newBuilder()
+                    .addOutputGroup(
+                        OutputGroup.newBuilder()
+                            .setName("intellij-info-java")
+                            .addFileSets(setId(i))))
+            .build()
+            .writeDelimitedTo(out);
+      }
+      BuildEvent.newBuilder()
+          .setId(BuildEventId.newBuilder().setBuildFinished(BuildFinishedId.getDefaultInstance()))
+          .setFinished(
+              BuildFinished.newBuilder()
+                  .setExitCode(BuildFinished.ExitCode.newBuilder().setCode(0)))
+          .build()
+          .writeDelimitedTo(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static NamedSetOfFilesId setId(int index) {
+    return NamedSetOfFilesId.newBuilder().setId(Integer.toString(index)).build();
+  }
+
+  private static BuildEventStreamProtos.File file(String name) {
+    return BuildEventStreamProtos.File.newBuilder()
+        .setName(name)
+        .setUri("file://" + OUTPUT_ROOT + name)
+        .build();
+  }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.benchmarks;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.intellij.aspect.Common;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import java.util.Random;
+
+/**
+ * Generates large, deterministic synthetic target graphs.
+ *
+ * <p>Targets are spread over packages of {@value #TARGETS_PER_PACKAGE}, and each depends on a
+ * handful of earlier targets, mostly nearby ones, so the graph is acyclic with a realistic mix of
+ * short and long dependency chains. A small fraction of dependencies refer to external targets
+ * which aren't in the target map.
+ */
+public final class SyntheticTargets {
+
+  private static final int TARGETS_PER_PACKAGE = 20;
+  private static final int MAX_DEPS = 8;
+  private static final int MAX_SOURCES = 6;
+
+  private SyntheticTargets() {}
+
+  /** Returns the aspect output protos of {@code count} targets. */
+  public static ImmutableList<IntellijIdeInfo.TargetIdeInfo> protos(int count) {
+    Random random = new Random(count);
+    ImmutableList.Builder<IntellijIdeInfo.TargetIdeInfo> protos =
+        ImmutableList.builderWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      IntellijIdeInfo.TargetIdeInfo.Builder target =
+          IntellijIdeInfo.TargetIdeInfo.newBuilder()
+              .setKindString(BenchmarkEnvironment.SYNTHETIC_KIND)
+              .setKey(key(label(i)))
+              .setBuildFileArtifactLocation(source(packagePath(i) + "/BUILD"));
+      int depCount = i == 0 ? 0 : random.nextInt(MAX_DEPS);
+      for (int d = 0; d < depCount; d++) {
+        String depLabel;
+        if (random.nextInt(20) == 0) {
+          depLabel = "@external" + random.nextInt(100) + "//lib:lib";
+        } else {
+          // favour nearby targets, but occasionally reach all the way back
+          int distance =
+              random.nextInt(10) == 0 ? random.nextInt(i) : random.nextInt(Math.min(i, 50));
+          depLabel = label(i - 1 - distance);
+        }
+        target.addDeps(IntellijIdeInfo.Dependency.newBuilder().setTarget(key(depLabel)));
+      }
+      IntellijIdeInfo.JavaIdeInfo.Builder java = IntellijIdeInfo.JavaIdeInfo.newBuilder();
+      int sourceCount = 1 + random.nextInt(MAX_SOURCES);
+      for (int s = 0; s < sourceCount; s++) {
+        java.addSources(source(packagePath(i) + "/Source" + i + "_" + s + ".java"));
+      }
+      java.addJars(
+          IntellijIdeInfo.LibraryArtifact.newBuilder()
+              .setJar(output(packagePath(i) + "/libtarget" + i + ".jar")));
+      protos.add(target.setJavaIdeInfo(java).build());
+    }
+    return protos.build();
+  }
+
+  /** Returns a target map of {@code count} targets. */
+  public static TargetMap targetMap(int count) {
+    ImmutableMap.Builder<TargetKey, TargetIdeInfo> targets =
+        ImmutableMap.builderWithExpectedSize(count);
+    for (IntellijIdeInfo.TargetIdeInfo proto : protos(count)) {
+      TargetIdeInfo target = TargetIdeInfo.fromProto(proto);
+      targets.put(target.getKey(), target);
+    }
+    return new TargetMap(targets.build());
+  }
+
+  public static String label(int index) {
+    return "//" + packagePath(index) + ":target" + index;
+  }
+
+  private static String packagePath(int index) {
+    int pkg = index / TARGETS_PER_PACKAGE;
+    return "java/com/example/p" + (pkg / 100) + "/p" + pkg;
+  }
+
+  private static IntellijIdeInfo.TargetKey key(String label) {
+    return IntellijIdeInfo.TargetKey.newBuilder().setLabel(label).build();
+  }
+
+  private static Common.ArtifactLocation source(String relativePath) {
+    return Common.ArtifactLocation.newBuilder()
+        .setRelativePath(relativePath)
+        .setIsSource(true)
+        .build();
+  }
+
+  private static Common.ArtifactLocation output(String relativePath) {
+    return Common.ArtifactLocation.newBuilder()
+        .setRelativePath(relativePath)
+        .setRootExecutionPathFragment("bazel-out/k8-fastbuild/bin")
+        .build();
+  }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import com.google.idea.blaze.base.benchmarks.BenchmarkEnvironment;
+import com.google.idea.blaze.base.benchmarks.SyntheticBuildEvents;
+import com.google.idea.blaze.base.command.buildresult.BuildEventStreamProvider.BuildEventStreamException;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures parsing the build event protocol output of a sync build. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true"})
+public class ParsedBepOutputBenchmark {
+
+  @Param({"10000", "50000", "200000"})
+  public int targetCount;
+
+  private BenchmarkEnvironment environment;
+  private byte[] stream;
+
+  @Setup
+  public void setup() {
+    environment = BenchmarkEnvironment.create();
+    stream = SyntheticBuildEvents.stream(targetCount);
+  }
+
+  @TearDown
+  public void tearDown() {
+    environment.dispose();
+  }
+
+  @Benchmark
+  public ParsedBepOutput parseBepArtifacts() throws BuildEventStreamException {
+    return ParsedBepOutput.parseBepArtifacts(new ByteArrayInputStream(stream));
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.benchmarks.BenchmarkEnvironment;
+import com.google.idea.blaze.base.benchmarks.SyntheticTargets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures converting aspect output protos to {@link TargetIdeInfo}s, and the heap retained by the
+ * converted targets.
+ *
+ * <p>With {@code decodeLanguageInfos} set, every target's lazily decoded java info is also read, as
+ * a worst case where all language-specific data is used after sync.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true"})
+public class TargetIdeInfoBenchmark {
+
+  @Param({"10000", "100000", "200000"})
+  public int targetCount;
+
+  @Param({"false", "true"})
+  public boolean decodeLanguageInfos;
+
+  private BenchmarkEnvironment environment;
+  private ImmutableList<IntellijIdeInfo.TargetIdeInfo> protos;
+  private ImmutableList<TargetIdeInfo> previousTargets;
+  private ImmutableList<TargetIdeInfo> currentTargets;
+
+  @Setup
+  public void setup() {
+    environment = BenchmarkEnvironment.create();
+    protos = SyntheticTargets.protos(targetCount);
+    previousTargets = protos.stream().map(this::convert).collect(ImmutableList.toImmutableList());
+    currentTargets = protos.stream().map(this::convert).collect(ImmutableList.toImmutableList());
+  }
+
+  @TearDown
+  public void tearDown() {
+    environment.dispose();
+  }
+
+  @Benchmark
+  public void fromProto(Blackhole blackhole) {
+    for (IntellijIdeInfo.TargetIdeInfo proto : protos) {
+      blackhole.consume(convert(proto));
+    }
+  }
+
+  /** Compares every target with its equal from a previous sync, as diffing the target map does. */
+  @Benchmark
+  public int compareWithPreviousSync() {
+    int unchanged = 0;
+    for (int i = 0; i < currentTargets.size(); i++) {
+      if (currentTargets.get(i).equals(previousTargets.get(i))) {
+        unchanged++;
+      }
+    }
+    return unchanged;
+  }
+
+  /**
+   * Reports the heap retained by one sync's worth of converted targets, as the 'retainedBytes'
+   * counter. Run with {@code -bm ss} and several forks for stable numbers.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  public List<TargetIdeInfo> retainedHeap(HeapCounters counters) {
+    long before = usedHeapAfterGc();
+    List<TargetIdeInfo> targets = new ArrayList<>(protos.size());
+    for (IntellijIdeInfo.TargetIdeInfo proto : protos) {
+      targets.add(convert(proto));
+    }
+    counters.retainedBytes = usedHeapAfterGc() - before;
+    return targets;
+  }
+
+  private TargetIdeInfo convert(IntellijIdeInfo.TargetIdeInfo proto) {
+    TargetIdeInfo target = TargetIdeInfo.fromProto(proto);
+    if (decodeLanguageInfos) {
+      target.getJavaIdeInfo();
+    }
+    return target;
+  }
+
+  private static long usedHeapAfterGc() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /** Extra per-iteration results reported by {@link #retainedHeap}. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class HeapCounters {
+    public long retainedBytes;
+  }
+}
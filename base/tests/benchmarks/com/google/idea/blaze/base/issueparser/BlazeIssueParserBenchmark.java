@@ -0,0 +1,148 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.issueparser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.benchmarks.BenchmarkEnvironment;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.projectview.ProjectViewSet;
+import com.google.idea.blaze.base.run.filter.FileResolver;
+import com.google.idea.testing.ServiceHelper;
+import com.intellij.openapi.project.Project;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures parsing build console output for issues, using the default set of issue parsers.
+ *
+ * <p>By default, parses a synthetic log of a verbose build, with mostly progress and info lines
+ * and the occasional warning or error. To measure a recorded build log instead, pass its path with
+ * {@code -p logFile=/path/to/build.log}.
+ *
+ * <p>{@code unfilteredParsers} runs each parser's regex against every line, as a baseline for the
+ * line filters used by {@link BlazeIssueParser}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class BlazeIssueParserBenchmark {
+
+  private static final int SYNTHETIC_LINE_COUNT = 200_000;
+
+  @Param({""})
+  public String logFile;
+
+  private BenchmarkEnvironment environment;
+  private ImmutableList<BlazeIssueParser.Parser> parsers;
+  private List<String> lines;
+
+  @Setup
+  public void setup() throws IOException {
+    environment = BenchmarkEnvironment.create();
+    ServiceHelper.registerExtensionPoint(
+        FileResolver.EP_NAME, FileResolver.class, environment.getDisposable());
+    Project project = environment.getProject();
+    ProjectViewSet projectViewSet = ProjectViewSet.builder().build();
+    parsers =
+        ImmutableList.of(
+            new BlazeIssueParser.PythonCompileParser(project),
+            new BlazeIssueParser.DefaultCompileParser(project),
+            new BlazeIssueParser.TracebackParser(),
+            new BlazeIssueParser.BuildParser(),
+            new BlazeIssueParser.SkylarkErrorParser(),
+            new BlazeIssueParser.LinelessBuildParser(),
+            new BlazeIssueParser.ProjectViewLabelParser(projectViewSet),
+            new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
+                projectViewSet, "no such package '(.*)': BUILD file not found on package path"),
+            new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
+                projectViewSet, "no targets found beneath '(.*?)'"),
+            new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
+                projectViewSet, "ERROR: invalid target format '(.*?)'"),
+            new BlazeIssueParser.InvalidTargetProjectViewPackageParser(
+                projectViewSet, "ERROR: Skipping '(.*?)'"),
+            new BlazeIssueParser.FileNotFoundBuildParser(new WorkspaceRoot(new File("/root"))),
+            BlazeIssueParser.GenericErrorParser.INSTANCE);
+    lines = logFile.isEmpty() ? syntheticLog() : Files.readAllLines(Paths.get(logFile), UTF_8);
+  }
+
+  @TearDown
+  public void tearDown() {
+    environment.dispose();
+  }
+
+  @Benchmark
+  public void blazeIssueParser(Blackhole blackhole) {
+    BlazeIssueParser parser = new BlazeIssueParser(parsers);
+    for (String line : lines) {
+      blackhole.consume(parser.parseIssue(line));
+    }
+  }
+
+  @Benchmark
+  public void unfilteredParsers(Blackhole blackhole) {
+    for (String line : lines) {
+      for (BlazeIssueParser.Parser parser : parsers) {
+        blackhole.consume(parser.parse(line, ImmutableList.of()));
+      }
+    }
+  }
+
+  private static ImmutableList<String> syntheticLog() {
+    Random random = new Random(0);
+    ImmutableList.Builder<String> lines = ImmutableList.builder();
+    for (int i = 0; i < SYNTHETIC_LINE_COUNT; i++) {
+      String path = "java/com/example/p" + (i / 20) + "/Source" + i + ".java";
+      int kind = random.nextInt(100);
+      if (kind < 40) {
+        lines.add("[" + i + " / 200,000] Compiling " + path + "; 3s remote-cache, linux-sandbox");
+      } else if (kind < 70) {
+        lines.add("INFO: From Compiling " + path + ":");
+      } else if (kind < 85) {
+        lines.add("    at com.example.p" + (i / 20) + ".Source" + i + ".method(Source.java:42)");
+      } else if (kind < 95) {
+        lines.add(path + ":" + (i % 500) + ": warning: [deprecation] method() is deprecated");
+      } else if (kind < 98) {
+        lines.add("Target //java/com/example/p" + (i / 20) + ":lib up-to-date:");
+      } else {
+        lines.add("ERROR: /root/java/com/example/p" + (i / 20) + "/BUILD:12:8: Building failed");
+      }
+    }
+    return lines.build();
+  }
+}
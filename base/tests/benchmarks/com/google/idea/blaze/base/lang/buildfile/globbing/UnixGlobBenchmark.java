@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.globbing;
+
+import com.google.idea.blaze.base.benchmarks.BenchmarkEnvironment;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures evaluating BUILD file glob patterns against a synthetic source tree on the local file
+ * system. Results include file system access, so are best compared on the same machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class UnixGlobBenchmark {
+
+  private static final int FILES_PER_DIRECTORY = 50;
+
+  @Param({"1000", "10000", "50000"})
+  public int fileCount;
+
+  private BenchmarkEnvironment environment;
+  private File root;
+
+  @Setup
+  public void setup() throws IOException {
+    environment = BenchmarkEnvironment.create();
+    root = Files.createTempDirectory("glob-benchmark").toFile();
+    for (int i = 0; i < fileCount; i++) {
+      int dir = i / FILES_PER_DIRECTORY;
+      File parent = new File(root, "src/d" + (dir / 10) + "/d" + dir);
+      String name;
+      if (i % 5 == 0) {
+        name = "Test" + i + ".java";
+      } else if (i % 7 == 0) {
+        name = "data" + i + ".txt";
+      } else {
+        name = "Src" + i + ".java";
+      }
+      FileUtil.createIfDoesntExist(new File(parent, name));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtil.delete(root);
+    environment.dispose();
+  }
+
+  @Benchmark
+  public List<File> recursiveGlobWithExcludes() throws IOException, InterruptedException {
+    return UnixGlob.forPath(root)
+        .addPattern("**/*.java")
+        .addExcludes("**/Test*.java")
+        .setExcludeDirectories(true)
+        .glob();
+  }
+}
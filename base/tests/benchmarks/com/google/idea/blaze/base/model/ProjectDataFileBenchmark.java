@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import com.google.idea.blaze.base.benchmarks.BenchmarkEnvironment;
+import com.google.idea.blaze.base.benchmarks.SyntheticTargets;
+import com.google.idea.blaze.base.settings.BuildSystemName;
+import com.intellij.openapi.util.io.FileUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures loading persisted project data, in both the gzipped proto format and the indexed format
+ * whose targets are decoded lazily.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true"})
+public class ProjectDataFileBenchmark {
+
+  @Param({"10000", "50000", "200000"})
+  public int targetCount;
+
+  private BenchmarkEnvironment environment;
+  private File directory;
+  private File protoFile;
+  private File indexedFile;
+
+  @Setup
+  public void setup() throws IOException {
+    environment = BenchmarkEnvironment.create();
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setTargetMap(SyntheticTargets.targetMap(targetCount))
+            .build();
+    directory = Files.createTempDirectory("project-data-benchmark").toFile();
+    protoFile = new File(directory, "project.data");
+    indexedFile = new File(directory, "project.idata");
+    projectData.saveToDisk(protoFile);
+    IndexedProjectDataFile.write(projectData, indexedFile, /* previous= */ null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    FileUtil.delete(directory);
+    environment.dispose();
+  }
+
+  @Benchmark
+  public BlazeProjectData loadFromDisk() throws IOException {
+    return BlazeProjectData.loadFromDisk(BuildSystemName.Bazel, protoFile);
+  }
+
+  @Benchmark
+  public BlazeProjectData loadIndexed() throws IOException {
+    return IndexedProjectDataFile.load(BuildSystemName.Bazel, indexedFile).getProjectData();
+  }
+
+  /** Loads the indexed format and decodes every target, as a full traversal would. */
+  @Benchmark
+  public int loadIndexedAndDecodeAll() throws IOException {
+    BlazeProjectData projectData =
+        IndexedProjectDataFile.load(BuildSystemName.Bazel, indexedFile).getProjectData();
+    return projectData.getTargetMap().map().size();
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.benchmarks.BenchmarkEnvironment;
+import com.google.idea.blaze.base.benchmarks.SyntheticTargets;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.Label;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures computing the indexes derived from a {@link TargetMap}: the reverse dependency map, and
+ * transitive dependency queries. Each computation builds its own transient {@link
+ * com.google.idea.blaze.base.ideinfo.TargetGraph}, so its cost is included in every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-Djava.awt.headless=true"})
+public class TargetMapBenchmark {
+
+  private static final int QUERIES = 100;
+
+  @Param({"10000", "50000", "100000", "200000"})
+  public int targetCount;
+
+  private BenchmarkEnvironment environment;
+  private BlazeProjectData projectData;
+  private TargetKey[] queries;
+
+  @Setup
+  public void setup() {
+    environment = BenchmarkEnvironment.create();
+    projectData =
+        MockBlazeProjectDataBuilder.builder()
+            .setTargetMap(SyntheticTargets.targetMap(targetCount))
+            .build();
+    Random random = new Random(targetCount);
+    queries = new TargetKey[QUERIES];
+    for (int i = 0; i < QUERIES; i++) {
+      // the last targets have the largest transitive closures
+      int index = targetCount - 1 - random.nextInt(Math.min(targetCount, 1000));
+      queries[i] = TargetKey.forPlainTarget(Label.create(SyntheticTargets.label(index)));
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    environment.dispose();
+  }
+
+  @Benchmark
+  public ReverseDependencyMap createRdepsMap() {
+    return ReverseDependencyMap.createRdepsMap(environment.getProject(), projectData);
+  }
+
+  @Benchmark
+  public void createTransitiveDependencyIndex(Blackhole blackhole) {
+    // TransitiveDependencyIndex isn't public, so can't be returned to the generated harness
+    blackhole.consume(TransitiveDependencyIndex.create(projectData.getTargetMap()));
+  }
+
+  /**
+   * A freshly built index for each invocation. The index caches the closures it computes, so
+   * reusing one across invocations would only measure cache hits.
+   */
+  @State(Scope.Thread)
+  public static class IndexState {
+    TransitiveDependencyIndex index;
+
+    @Setup(Level.Invocation)
+    public void setup(TargetMapBenchmark benchmark) {
+      index = TransitiveDependencyIndex.create(benchmark.projectData.getTargetMap());
+    }
+  }
+
+  /** Queries the transitive dependencies of {@value #QUERIES} targets, using an uncached index. */
+  @Benchmark
+  public int transitiveDependencyQueries(IndexState state) {
+    TransitiveDependencyIndex index = state.index;
+    int total = 0;
+    for (TargetKey key : queries) {
+      ImmutableSet<TargetKey> deps = index.getTransitiveDependencies(key);
+      total += deps.size();
+    }
+    return total;
+  }
+
+  /**
+   * The same queries as {@link #transitiveDependencyQueries}, using the breadth-first traversal of
+   * the target map which the index replaced, as a baseline.
+   */
+  @Benchmark
+  public int transitiveDependencyQueriesBaseline() {
+    TargetMap targetMap = projectData.getTargetMap();
+    int total = 0;
+    for (TargetKey key : queries) {
+      total +=
+          (int) TransitiveDependencyMap.getTransitiveDependenciesStream(key, targetMap).count();
+    }
+    return total;
+  }
+}
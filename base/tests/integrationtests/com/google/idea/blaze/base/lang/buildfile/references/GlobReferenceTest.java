@@ -22,9 +22,14 @@ import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
 import com.google.idea.blaze.base.lang.buildfile.psi.GlobExpression;
 import com.google.idea.blaze.base.lang.buildfile.psi.util.PsiUtils;
 import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.ResolveResult;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
@@ -171,6 +176,45 @@ public class GlobReferenceTest extends BuildFileIntegrationTestCase {
     assertThat(references).isEmpty();
   }
 
+  @Test
+  public void testCachedGlobUpdatedWhenFilesAdded() {
+    PsiFile ref1 = workspace.createPsiFile(new WorkspacePath("java/com/google/Test.java"));
+    BuildFile file =
+        createBuildFile(new WorkspacePath("java/com/google/BUILD"), "glob(['**/*.java'])");
+    GlobExpression glob = PsiUtils.findFirstChildOfClassRecursive(file, GlobExpression.class);
+    assertThat(multiResolve(glob)).containsExactly(ref1);
+
+    PsiFile ref2 = workspace.createPsiFile(new WorkspacePath("java/com/google/sub/Foo.java"));
+
+    assertThat(multiResolve(glob)).containsExactly(ref1, ref2);
+  }
+
+  @Test
+  public void testCachedGlobUpdatedWhenFilesDeleted() {
+    PsiFile ref1 = workspace.createPsiFile(new WorkspacePath("java/com/google/Test.java"));
+    PsiFile ref2 = workspace.createPsiFile(new WorkspacePath("java/com/google/sub/Foo.java"));
+    BuildFile file =
+        createBuildFile(new WorkspacePath("java/com/google/BUILD"), "glob(['**/*.java'])");
+    GlobExpression glob = PsiUtils.findFirstChildOfClassRecursive(file, GlobExpression.class);
+    assertThat(multiResolve(glob)).containsExactly(ref1, ref2);
+
+    delete(ref2.getVirtualFile().getParent());
+
+    assertThat(multiResolve(glob)).containsExactly(ref1);
+  }
+
+  private void delete(VirtualFile file) {
+    ApplicationManager.getApplication()
+        .invokeAndWait(
+            () -> {
+              try {
+                WriteAction.run(() -> file.delete(this));
+              } catch (IOException e) {
+                throw new UncheckedIOException(e);
+              }
+            });
+  }
+
   private List<PsiElement> multiResolve(GlobExpression glob) {
     ResolveResult[] result = glob.getReference().multiResolve(false);
     return Arrays.stream(result)
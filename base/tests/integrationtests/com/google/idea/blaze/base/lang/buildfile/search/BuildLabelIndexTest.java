@@ -0,0 +1,97 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.StringLiteral;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.search.GlobalSearchScope;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that {@link BuildLabelIndex} indexes labels in the way we expect. */
+@RunWith(JUnit4.class)
+public class BuildLabelIndexTest extends BuildFileIntegrationTestCase {
+
+  @Test
+  public void testAbsoluteLabelSpellingsShareKey() {
+    createBuildFile(
+        new WorkspacePath("java/com/google/BUILD"),
+        "java_library(",
+        "    name = 'other',",
+        "    deps = ['//java/com/google/lib', '//java/com/google/lib:lib'],",
+        ")");
+
+    List<String> contents =
+        findStrings(BuildLabelIndex.labelKey(Label.create("//java/com/google/lib:lib")));
+
+    assertThat(contents).containsExactly("//java/com/google/lib", "//java/com/google/lib:lib");
+    assertThat(find(BuildLabelIndex.packageKey(Label.create("//java/com/google/lib:lib"))))
+        .hasSize(1);
+    assertThat(find(BuildLabelIndex.localKey("lib"))).isEmpty();
+  }
+
+  @Test
+  public void testPackageLocalLabelsKeyedByTargetName() {
+    createBuildFile(
+        new WorkspacePath("java/com/google/BUILD"),
+        "java_library(name = 'target')",
+        "java_library(name = 'other', deps = [':target'], srcs = ['Source.java'])");
+
+    assertThat(findStrings(BuildLabelIndex.localKey("target")))
+        .containsExactly("target", ":target");
+    assertThat(findStrings(BuildLabelIndex.localKey("Source.java")))
+        .containsExactly("Source.java");
+  }
+
+  @Test
+  public void testDeprecatedLoadFormIndexed() {
+    createBuildFile(
+        new WorkspacePath("java/com/google/BUILD"),
+        "load('//java/com/google/tools/build_defs.bzl', 'function')");
+
+    String path = "//java/com/google/tools/build_defs.bzl";
+    assertThat(findStrings(BuildLabelIndex.deprecatedLoadKey(path))).containsExactly(path);
+  }
+
+  private List<Pair<VirtualFile, List<Integer>>> find(String key) {
+    return BuildLabelIndex.find(getProject(), key, GlobalSearchScope.allScope(getProject()));
+  }
+
+  /** Returns the contents of the string literals indexed under the key. */
+  private List<String> findStrings(String key) {
+    return find(key).stream()
+        .flatMap(
+            hit ->
+                hit.second.stream()
+                    .map(
+                        offset ->
+                            BuildLabelIndex.findStringLiteral(
+                                PsiManager.getInstance(getProject()).findFile(hit.first),
+                                offset)))
+        .map(StringLiteral::getStringContents)
+        .collect(Collectors.toList());
+  }
+}
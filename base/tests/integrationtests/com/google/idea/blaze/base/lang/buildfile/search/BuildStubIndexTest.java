@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.search;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.psi.impl.source.PsiFileImpl;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link BuildRuleNameIndex} and {@link LoadedSymbolIndex}, on a generated BUILD file as
+ * large as those which motivated them.
+ */
+@RunWith(JUnit4.class)
+public class BuildStubIndexTest extends BuildFileIntegrationTestCase {
+
+  // five lines per rule, so a 20k line file
+  private static final int RULE_COUNT = 4000;
+
+  @Test
+  public void testFindRuleInLargeFileDoesNotLoadAst() {
+    BuildFile file = createLargeBuildFile();
+
+    FuncallExpression rule = file.findRule("rule_3999");
+
+    assertThat(rule).isNotNull();
+    assertThat(rule.getFunctionName()).isEqualTo("java_library");
+    assertThat(BuildRuleNameIndex.find(file, "rule_3999")).containsExactly(rule);
+    assertThat(file.findRule("rule_4000")).isNull();
+    assertThat(isAstLoaded(file)).isFalse();
+  }
+
+  @Test
+  public void testFindRulesWithPrefix() {
+    BuildFile file = createLargeBuildFile();
+
+    List<String> names = new ArrayList<>();
+    for (FuncallExpression rule : BuildRuleNameIndex.findWithPrefix(file, "rule_399")) {
+      names.add(rule.getName());
+    }
+
+    assertThat(names)
+        .containsExactly(
+            "rule_399",
+            "rule_3990",
+            "rule_3991",
+            "rule_3992",
+            "rule_3993",
+            "rule_3994",
+            "rule_3995",
+            "rule_3996",
+            "rule_3997",
+            "rule_3998",
+            "rule_3999");
+    assertThat(isAstLoaded(file)).isFalse();
+  }
+
+  @Test
+  public void testOtherFilesNotSearched() {
+    BuildFile file =
+        createBuildFile(new WorkspacePath("java/com/google/BUILD"), "java_library(name = 'lib')");
+    BuildFile other =
+        createBuildFile(new WorkspacePath("java/com/other/BUILD"), "java_library(name = 'other')");
+
+    assertThat(file.findRule("other")).isNull();
+    assertThat(BuildRuleNameIndex.find(file, "other")).isEmpty();
+    assertThat(other.findRule("other")).isNotNull();
+  }
+
+  @Test
+  public void testIndexNotUsedOnceAstLoaded() {
+    BuildFile file =
+        createBuildFile(new WorkspacePath("java/com/google/BUILD"), "java_library(name = 'lib')");
+    file.getNode();
+
+    // the AST is searched directly instead, and may have unindexed changes
+    assertThat(BuildRuleNameIndex.find(file, "lib")).isNull();
+    assertThat(file.findRule("lib")).isNotNull();
+  }
+
+  @Test
+  public void testFindLoadedFunction() {
+    createBuildFile(
+        new WorkspacePath("java/com/google/build_defs.bzl"), "def function(name):", "  pass");
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "load(':build_defs.bzl', 'unused')",
+            "load(':build_defs.bzl', alias = 'function')",
+            "alias(name = 'lib')");
+
+    assertThat(LoadedSymbolIndex.find(file, "alias")).hasSize(1);
+    assertThat(LoadedSymbolIndex.find(file, "function")).isEmpty();
+
+    FunctionStatement function = file.findLoadedFunction("alias");
+    assertThat(function).isNotNull();
+    assertThat(function.getName()).isEqualTo("function");
+    assertThat(file.findLoadedFunction("function")).isNull();
+  }
+
+  private BuildFile createLargeBuildFile() {
+    List<String> lines = new ArrayList<>();
+    lines.add("load(':build_defs.bzl', 'macro')");
+    for (int i = 0; i < RULE_COUNT; i++) {
+      lines.add("java_library(");
+      lines.add(String.format("    name = 'rule_%d',", i));
+      lines.add(String.format("    srcs = ['Source%d.java'],", i));
+      lines.add(String.format("    deps = [':rule_%d'],", Math.max(0, i - 1)));
+      lines.add(")");
+    }
+    return createBuildFile(
+        new WorkspacePath("java/com/google/generated/BUILD"), lines.toArray(new String[0]));
+  }
+
+  private static boolean isAstLoaded(BuildFile file) {
+    return ((PsiFileImpl) file).getTreeElement() != null;
+  }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.lang.buildfile.stubs;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.lang.buildfile.BuildFileIntegrationTestCase;
+import com.google.idea.blaze.base.lang.buildfile.psi.BuildFile;
+import com.google.idea.blaze.base.lang.buildfile.psi.FuncallExpression;
+import com.google.idea.blaze.base.lang.buildfile.psi.FunctionStatement;
+import com.google.idea.blaze.base.lang.buildfile.psi.LoadStatement;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.intellij.psi.impl.source.PsiFileImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests that top-level BUILD file elements can be looked up from stubs, without parsing. */
+@RunWith(JUnit4.class)
+public class BuildFileStubTest extends BuildFileIntegrationTestCase {
+
+  @Test
+  public void testFindRuleDoesNotLoadAst() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/BUILD"),
+            "java_library(name = 'lib', deps = [':dep'])",
+            "java_library(name = 'dep', srcs = glob(['*.java']))");
+
+    FuncallExpression rule = file.findRule("dep");
+
+    assertThat(rule).isNotNull();
+    assertThat(rule.getFunctionName()).isEqualTo("java_library");
+    assertThat(rule.isTopLevel()).isTrue();
+    assertThat(file.getTopLevelFuncalls()).hasLength(2);
+    assertThat(file.findRule("glob")).isNull();
+    assertThat(isAstLoaded(file)).isFalse();
+
+    // the stub-based element is bound to the AST once it's loaded
+    assertThat(rule.getNameArgumentValueNode().getStringContents()).isEqualTo("dep");
+    assertThat(file.findRule("dep")).isEqualTo(rule);
+  }
+
+  @Test
+  public void testFunctionsAndLoadsDoNotLoadAst() {
+    BuildFile file =
+        createBuildFile(
+            new WorkspacePath("java/com/google/build_defs.bzl"),
+            "load(':other.bzl', 'loaded', alias = 'original')",
+            "def function(name, deps):",
+            "  def nested():",
+            "    pass",
+            "  native.java_library(name = name)");
+
+    FunctionStatement[] functions = file.getFunctionDeclarations();
+    LoadStatement[] loads = file.getLoadStatements();
+
+    assertThat(functions).hasLength(1);
+    assertThat(functions[0].getName()).isEqualTo("function");
+    assertThat(file.findDeclaredFunction("nested")).isNull();
+    assertThat(file.getTopLevelFuncalls()).isEmpty();
+    assertThat(loads).hasLength(1);
+    assertThat(loads[0].getImportedPath()).isEqualTo(":other.bzl");
+    assertThat(loads[0].getVisibleSymbolNames()).asList().containsExactly("loaded", "alias");
+    assertThat(isAstLoaded(file)).isFalse();
+  }
+
+  private static boolean isAstLoaded(BuildFile file) {
+    return ((PsiFileImpl) file).getTreeElement() != null;
+  }
+}
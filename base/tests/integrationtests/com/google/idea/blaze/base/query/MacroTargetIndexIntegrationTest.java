@@ -0,0 +1,128 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.query;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.idea.blaze.base.BlazeIntegrationTestCase;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.model.primitives.WorkspacePath;
+import com.google.idea.blaze.base.query.GeneratedTarget.MacroData;
+import com.intellij.openapi.application.WriteAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vfs.AsyncVfsEventsPostProcessorImpl;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Integration tests for the lookups and invalidation of {@link MacroTargetIndex}. */
+@RunWith(JUnit4.class)
+public class MacroTargetIndexIntegrationTest extends BlazeIntegrationTestCase {
+  private final FakeMacroTargetProvider provider = new FakeMacroTargetProvider();
+  private MacroTargetIndex index;
+
+  @Before
+  public final void before() {
+    registerExtensionFirst(MacroTargetProvider.EP_NAME, provider);
+    index = MacroTargetIndex.getInstance(getProject());
+  }
+
+  @Test
+  public void testLookupReturnsIndexedTargets() throws Exception {
+    VirtualFile buildFile = createBuildFile("foo");
+    provider.targets = ImmutableList.of(target("//foo:gen"));
+
+    assertThat(index.getTargets(buildFile)).isNull();
+    index.index(buildFile, Label.create("//foo:BUILD")).get();
+
+    assertThat(labels(index.getTargets(buildFile))).containsExactly("//foo:gen");
+  }
+
+  @Test
+  public void testEveryBuildFileInSubtreeIsIndexed() throws Exception {
+    VirtualFile foo = createBuildFile("foo");
+    VirtualFile bar = createBuildFile("foo/bar");
+    VirtualFile baz = createBuildFile("foo/baz");
+    VirtualFile other = createBuildFile("other");
+    provider.targets = ImmutableList.of(target("//foo:gen"), target("//foo/bar:gen"));
+
+    index.index(foo, Label.create("//foo:BUILD")).get();
+
+    assertThat(labels(index.getTargets(bar))).containsExactly("//foo/bar:gen");
+    // packages without generated targets still get an entry, so they aren't queried again
+    assertThat(index.getTargets(baz)).isEmpty();
+    assertThat(index.getTargets(other)).isNull();
+    assertThat(provider.recursiveQueries.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testModifiedBuildFileIsStale() throws Exception {
+    VirtualFile buildFile = createBuildFile("foo");
+    provider.targets = ImmutableList.of(target("//foo:gen"));
+    index.index(buildFile, Label.create("//foo:BUILD")).get();
+    assertThat(index.getTargets(buildFile)).isNotNull();
+
+    byte[] contents = "my_macro(name = 'changed')".getBytes(StandardCharsets.UTF_8);
+    WriteAction.runAndWait(() -> buildFile.setBinaryContent(contents));
+
+    assertThat(index.getTargets(buildFile)).isNull();
+  }
+
+  private VirtualFile createBuildFile(String directory) {
+    VirtualFile file =
+        workspace.createFile(
+            new WorkspacePath(directory + "/BUILD"),
+            "load(':macros.bzl', 'my_macro')",
+            "my_macro(name = '" + directory + "')");
+    // stop the creation events invalidating the index later on
+    AsyncVfsEventsPostProcessorImpl.waitEventsProcessed();
+    return file;
+  }
+
+  private static GeneratedTarget target(String label) {
+    return new GeneratedTarget("genrule", Label.create(label), new MacroData(2, "my_macro", null));
+  }
+
+  private static ImmutableList<String> labels(@Nullable ImmutableList<GeneratedTarget> targets) {
+    assertThat(targets).isNotNull();
+    return targets.stream().map(t -> t.label.toString()).collect(toImmutableList());
+  }
+
+  private static class FakeMacroTargetProvider implements MacroTargetProvider {
+    final AtomicInteger recursiveQueries = new AtomicInteger();
+    volatile ImmutableList<GeneratedTarget> targets = ImmutableList.of();
+
+    @Nullable
+    @Override
+    public ImmutableList<GeneratedTarget> doFindTargets(Project project, Label buildPackage) {
+      return null;
+    }
+
+    @Override
+    public ImmutableList<GeneratedTarget> doFindTargetsRecursively(
+        Project project, WorkspacePath directory) {
+      recursiveQueries.incrementAndGet();
+      return targets;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.async.process;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.idea.blaze.base.async.process.LineProcessingOutputStream.CharSequenceLineProcessor;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link LineProcessingOutputStream}. */
+@RunWith(JUnit4.class)
+public class LineProcessingOutputStreamTest {
+
+  @Test
+  public void testSplitsLinesOnAllLineBreaks() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(lines::add);
+
+    write(stream, "one\ntwo\r\nthree\rfour\n\nfive");
+
+    assertThat(lines).containsExactly("one", "two", "three", "four", "").inOrder();
+  }
+
+  @Test
+  public void testLinesSplitAcrossWrites() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(lines::add);
+
+    write(stream, "first ha");
+    write(stream, "lf");
+    write(stream, "\nsecond");
+    write(stream, " line\r");
+    write(stream, "\nthird\n");
+
+    assertThat(lines).containsExactly("first half", "second line", "third").inOrder();
+  }
+
+  @Test
+  public void testMultiByteCharactersSplitAcrossWrites() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(lines::add);
+
+    byte[] bytes = "héllo wörld ✓ 😀\n".getBytes(UTF_8);
+    for (byte b : bytes) {
+      stream.write(new byte[] {b}, 0, 1);
+    }
+
+    assertThat(lines).containsExactly("héllo wörld ✓ 😀");
+  }
+
+  @Test
+  public void testStopsProcessingLineWhenProcessorReturnsFalse() {
+    List<String> first = new ArrayList<>();
+    List<String> second = new ArrayList<>();
+    LineProcessingOutputStream stream =
+        LineProcessingOutputStream.of(
+            line -> {
+              first.add(line);
+              return !line.startsWith("skip");
+            },
+            second::add);
+
+    write(stream, "keep\nskip\n");
+
+    assertThat(first).containsExactly("keep", "skip").inOrder();
+    assertThat(second).containsExactly("keep");
+  }
+
+  @Test
+  public void testCharSequenceProcessorsReceiveDecodedLines() {
+    List<String> lines = new ArrayList<>();
+    CharSequenceLineProcessor processor =
+        line -> {
+          lines.add(line.toString());
+          return true;
+        };
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(processor);
+
+    byte[] bytes = "ünïcode\npartial".getBytes(UTF_8);
+    stream.write(bytes, 0, 2);
+    stream.write(bytes, 2, bytes.length - 2);
+    write(stream, " line\n");
+
+    assertThat(lines).containsExactly("ünïcode", "partial line").inOrder();
+  }
+
+  @Test
+  public void testLongLinesAreBuffered() {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(lines::add);
+    StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 100_000; i++) {
+      longLine.append((char) ('a' + i % 26));
+    }
+
+    for (int i = 0; i < longLine.length(); i += 1000) {
+      write(stream, longLine.substring(i, i + 1000));
+    }
+    write(stream, "\nshort\n");
+
+    assertThat(lines).containsExactly(longLine.toString(), "short").inOrder();
+  }
+
+  @Test
+  public void testIgnoresOutputAfterClose() throws Exception {
+    List<String> lines = new ArrayList<>();
+    LineProcessingOutputStream stream = LineProcessingOutputStream.of(lines::add);
+
+    write(stream, "before\n");
+    stream.close();
+    write(stream, "after\n");
+
+    assertThat(lines).containsExactly("before");
+  }
+
+  private static void write(LineProcessingOutputStream stream, String text) {
+    byte[] bytes = text.getBytes(UTF_8);
+    stream.write(bytes, 0, bytes.length);
+  }
+}
@@ -21,6 +21,7 @@ import static com.google.common.truth.Truth.assertThat;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Streams;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
@@ -30,12 +31,14 @@ import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.Bui
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TargetCompletedId;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TargetConfiguredId;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TestResultId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.TestSummaryId;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.Configuration;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.OutputGroup;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TargetComplete;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TargetConfigured;
 import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TestResult;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.TestSummary;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
 import com.google.idea.blaze.base.model.primitives.GenericBlazeRules.RuleTypes;
@@ -50,6 +53,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.EnumSet;
@@ -456,6 +460,66 @@ public class BuildEventProtocolOutputReaderTest extends BlazeTestCase {
     assertThat(BlazeArtifact.getLocalFiles(outputs)).containsExactlyElementsIn(allOutputs);
   }
 
+  @Test
+  public void parseAllArtifactsInOutputGroups_transitiveFileSets_returnsTransitiveOutputs()
+      throws Exception {
+    ImmutableList<String> fileSet1 = ImmutableList.of("/usr/out/genfiles/foo.pb.h");
+    ImmutableList<String> fileSet2 = ImmutableList.of("/usr/out/genfiles/bar.pb.h");
+    ImmutableList<String> fileSet3 = ImmutableList.of("/usr/out/genfiles/baz.pb.h");
+
+    List<BuildEvent.Builder> events =
+        ImmutableList.of(
+            BuildEvent.newBuilder()
+                .setStarted(BuildEventStreamProtos.BuildStarted.getDefaultInstance()),
+            configuration("config-id", "k8-opt"),
+            setOfFiles(fileSet3, "set-3"),
+            setOfFiles(fileSet2, "set-2", ImmutableList.of("set-3")),
+            setOfFiles(fileSet1, "set-1", ImmutableList.of("set-2", "set-3")),
+            targetComplete(
+                "//some:target",
+                "config-id",
+                ImmutableList.of(outputGroup("group-1", ImmutableList.of("set-1")))));
+
+    ParsedBepOutput output = ParsedBepOutput.parseBepArtifacts(asInputStream(events));
+
+    assertThat(BlazeArtifact.getLocalFiles(output.getOutputGroupArtifacts("group-1", p -> true)))
+        .containsExactly(
+            new File("/usr/out/genfiles/baz.pb.h"),
+            new File("/usr/out/genfiles/bar.pb.h"),
+            new File("/usr/out/genfiles/foo.pb.h"));
+    assertThat(output.getOutputGroupArtifacts("group-2", p -> true)).isEmpty();
+    assertThat(
+            BlazeArtifact.getLocalFiles(
+                output.getDirectArtifactsForTarget(Label.create("//some:target"), p -> true)))
+        .containsExactly(new File("/usr/out/genfiles/foo.pb.h"));
+    assertThat(output.getFullArtifactData()).hasSize(3);
+    for (BepArtifactData data : output.getFullArtifactData().values()) {
+      assertThat(data.outputGroups).containsExactly("group-1");
+      assertThat(data.topLevelTargets).containsExactly("//some:target");
+    }
+  }
+
+  @Test
+  public void parseAllArtifactsInOutputGroups_unknownConfiguration_ignoresFileSets()
+      throws Exception {
+    List<BuildEvent.Builder> events =
+        ImmutableList.of(
+            BuildEvent.newBuilder()
+                .setStarted(BuildEventStreamProtos.BuildStarted.getDefaultInstance()),
+            setOfFiles(ImmutableList.of("/usr/out/genfiles/foo.pb.h"), "set-1"),
+            targetComplete(
+                "//some:target",
+                "config-id",
+                ImmutableList.of(outputGroup("group-1", ImmutableList.of("set-1")))));
+
+    ParsedBepOutput output = ParsedBepOutput.parseBepArtifacts(asInputStream(events));
+
+    assertThat(output.getOutputGroupArtifacts("group-1", p -> true)).isEmpty();
+    assertThat(output.getAllOutputArtifacts(p -> true)).isEmpty();
+    assertThat(output.getDirectArtifactsForTarget(Label.create("//some:target"), p -> true))
+        .isEmpty();
+  }
+
   @Test
   public void testStatusEnum_handlesAllProtoEnumValues() {
     Set<String> protoValues =
@@ -641,6 +705,48 @@ public class BuildEventProtocolOutputReaderTest extends BlazeTestCase {
         .containsExactly(new File("/usr/local/tmp/_cache/second_result.xml"));
   }
 
+  @Test
+  public void streamTestResults_passesOnEachTargetAfterItsTestSummary() throws Exception {
+    String test1 = "//java/com/google:Test1";
+    String test2 = "//java/com/google:Test2";
+    List<BuildEvent.Builder> events =
+        ImmutableList.of(
+            testResultEvent(
+                test1,
+                BuildEventStreamProtos.TestStatus.PASSED,
+                ImmutableList.of("/usr/local/tmp/_cache/shard1_of_2.xml")),
+            testResultEvent(
+                test2,
+                BuildEventStreamProtos.TestStatus.FAILED,
+                ImmutableList.of("/usr/local/tmp/_cache/test_result.xml")),
+            testResultEvent(
+                test1,
+                BuildEventStreamProtos.TestStatus.PASSED,
+                ImmutableList.of("/usr/local/tmp/_cache/shard2_of_2.xml")),
+            testSummaryEvent(test1));
+
+    List<Label> labels = new ArrayList<>();
+    List<List<BlazeTestResult>> results = new ArrayList<>();
+    BuildEventProtocolOutputReader.streamTestResults(
+        BuildEventStreamProvider.fromInputStream(asInputStream(events)),
+        (label, targetResults) -> {
+          labels.add(label);
+          results.add(targetResults);
+        });
+
+    // targets without a test summary are passed on at the end of the stream
+    assertThat(labels).containsExactly(Label.create(test1), Label.create(test2)).inOrder();
+    assertThat(
+            results.get(0).stream()
+                .flatMap(r -> getOutputXmlFiles(r).stream())
+                .collect(toImmutableList()))
+        .containsExactly(
+            new File("/usr/local/tmp/_cache/shard1_of_2.xml"),
+            new File("/usr/local/tmp/_cache/shard2_of_2.xml"));
+    assertThat(Iterables.getOnlyElement(results.get(1)).getTestStatus())
+        .isEqualTo(TestStatus.FAILED);
+  }
+
   private static ImmutableList<File> getOutputXmlFiles(BlazeTestResult result) {
     return BlazeArtifact.getLocalFiles(result.getOutputXmlFiles());
   }
@@ -684,6 +790,12 @@ public class BuildEventProtocolOutputReaderTest extends BlazeTestCase {
                     filePaths.stream().map(this::toFileEvent).collect(toImmutableList())));
   }
 
+  private static BuildEvent.Builder testSummaryEvent(String label) {
+    return BuildEvent.newBuilder()
+        .setId(BuildEventId.newBuilder().setTestSummary(TestSummaryId.newBuilder().setLabel(label)))
+        .setTestSummary(TestSummary.getDefaultInstance());
+  }
+
   private BuildEvent.Builder targetComplete(
       String label, String configId, List<OutputGroup> outputGroups) {
     return BuildEvent.newBuilder()
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEvent;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.BuildEventId.NamedSetOfFilesId;
+import com.google.devtools.build.lib.buildeventstream.BuildEventStreamProtos.NamedSetOfFiles;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TailingBuildEventStreamProvider}. */
+@RunWith(JUnit4.class)
+public class TailingBuildEventStreamProviderTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  @Test
+  public void getNext_finishedBuild_returnsAllEventsThenNull() throws Exception {
+    File bepFile = tmpFolder.newFile("bep.out");
+    try (OutputStream out = new FileOutputStream(bepFile)) {
+      namedSet("set-1").writeDelimitedTo(out);
+      namedSet("set-2").writeDelimitedTo(out);
+    }
+
+    try (TailingBuildEventStreamProvider provider = new TailingBuildEventStreamProvider(bepFile)) {
+      provider.buildFinished();
+
+      assertThat(provider.getNext().getId().getNamedSet().getId()).isEqualTo("set-1");
+      assertThat(provider.getNext().getId().getNamedSet().getId()).isEqualTo("set-2");
+      assertThat(provider.getNext()).isNull();
+    }
+  }
+
+  @Test
+  public void getNext_partiallyWrittenEvent_waitsForRemainder() throws Exception {
+    File bepFile = new File(tmpFolder.getRoot(), "bep.out");
+    ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+    namedSet("set-1").writeDelimitedTo(serialized);
+    byte[] bytes = serialized.toByteArray();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (TailingBuildEventStreamProvider provider = new TailingBuildEventStreamProvider(bepFile)) {
+      Future<BuildEvent> next = executor.submit(provider::getNext);
+      try (OutputStream out = new FileOutputStream(bepFile)) {
+        out.write(bytes, 0, bytes.length / 2);
+        out.flush();
+        Thread.sleep(200);
+        assertThat(next.isDone()).isFalse();
+
+        out.write(bytes, bytes.length / 2, bytes.length - bytes.length / 2);
+      }
+      assertThat(next.get(10, TimeUnit.SECONDS).getId().getNamedSet().getId())
+          .isEqualTo("set-1");
+
+      provider.buildFinished();
+      assertThat(provider.getNext()).isNull();
+      assertThat(provider.getBytesConsumed()).isEqualTo(bytes.length);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static BuildEvent namedSet(String id) {
+    return BuildEvent.newBuilder()
+        .setId(BuildEventId.newBuilder().setNamedSet(NamedSetOfFilesId.newBuilder().setId(id)))
+        .setNamedSetOfFiles(NamedSetOfFiles.getDefaultInstance())
+        .build();
+  }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult.cas;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link CasBlobFetcher}, {@link DigestDiskCache} and {@link BytestreamUri}, against
+ * an {@link InMemoryContentAddressableStorage}.
+ */
+@RunWith(JUnit4.class)
+public class CasBlobFetcherTest {
+
+  private static final String INSTANCE = "projects/foo/instances/default";
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private DigestDiskCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    cache = new DigestDiskCache(folder.newFolder("cas"), Long.MAX_VALUE);
+  }
+
+  @Test
+  public void fetch_smallBlobs_readInBatchesWithinSizeLimit() throws IOException {
+    InMemoryContentAddressableStorage storage = new InMemoryContentAddressableStorage(10);
+    Digest first = storage.add(INSTANCE, "12345");
+    Digest second = storage.add(INSTANCE, "abcde");
+    Digest third = storage.add(INSTANCE, "xyz");
+
+    new CasBlobFetcher(storage, INSTANCE, cache).fetch(ImmutableList.of(first, second, third));
+
+    assertThat(storage.getBatchReads())
+        .containsExactly(ImmutableList.of(first, second), ImmutableList.of(third))
+        .inOrder();
+    assertThat(storage.getStreamedReads()).isEmpty();
+    assertThat(readCached(first)).isEqualTo("12345");
+    assertThat(readCached(second)).isEqualTo("abcde");
+    assertThat(readCached(third)).isEqualTo("xyz");
+  }
+
+  @Test
+  public void fetch_largeBlob_isStreamed() throws IOException {
+    InMemoryContentAddressableStorage storage = new InMemoryContentAddressableStorage(4);
+    Digest large = storage.add(INSTANCE, "larger than a batch");
+
+    new CasBlobFetcher(storage, INSTANCE, cache).fetch(ImmutableList.of(large));
+
+    assertThat(storage.getBatchReads()).isEmpty();
+    assertThat(storage.getStreamedReads()).containsExactly(large);
+    assertThat(readCached(large)).isEqualTo("larger than a batch");
+  }
+
+  @Test
+  public void fetch_cachedBlobs_areNotFetchedAgain() throws Exception {
+    InMemoryContentAddressableStorage storage = new InMemoryContentAddressableStorage();
+    Digest digest = storage.add(INSTANCE, "contents");
+    CasBlobFetcher fetcher = new CasBlobFetcher(storage, INSTANCE, cache);
+
+    fetcher.fetch(ImmutableList.of(digest), MoreExecutors.newDirectExecutorService()).get();
+    fetcher.fetch(ImmutableList.of(digest, digest), MoreExecutors.newDirectExecutorService()).get();
+
+    assertThat(storage.getBatchReads()).containsExactly(ImmutableList.of(digest));
+  }
+
+  @Test
+  public void fetch_missingBlob_fails() throws IOException {
+    InMemoryContentAddressableStorage storage = new InMemoryContentAddressableStorage();
+    Digest missing = Digest.of("missing".getBytes(StandardCharsets.UTF_8));
+
+    try {
+      new CasBlobFetcher(storage, INSTANCE, cache).fetch(ImmutableList.of(missing));
+      fail("Expected a missing blob to fail");
+    } catch (FileNotFoundException expected) {
+      // expected
+    }
+    assertThat(cache.get(missing)).isNull();
+  }
+
+  @Test
+  public void fetchAsync_missingBlob_failsFuture() throws InterruptedException {
+    InMemoryContentAddressableStorage storage = new InMemoryContentAddressableStorage();
+    Digest missing = Digest.of("missing".getBytes(StandardCharsets.UTF_8));
+
+    try {
+      new CasBlobFetcher(storage, INSTANCE, cache)
+          .fetch(ImmutableList.of(missing), MoreExecutors.newDirectExecutorService())
+          .get();
+      fail("Expected a missing blob to fail");
+    } catch (ExecutionException expected) {
+      assertThat(expected).hasCauseThat().isInstanceOf(FileNotFoundException.class);
+    }
+  }
+
+  @Test
+  public void fetch_corruptBlob_isNotCached() {
+    InMemoryContentAddressableStorage storage = new InMemoryContentAddressableStorage();
+    Digest digest = Digest.of("expected".getBytes(StandardCharsets.UTF_8));
+    storage.addCorrupt(INSTANCE, digest, "corrupt!".getBytes(StandardCharsets.UTF_8));
+
+    try {
+      new CasBlobFetcher(storage, INSTANCE, cache).fetch(ImmutableList.of(digest));
+      fail("Expected a corrupt blob to fail");
+    } catch (IOException expected) {
+      // expected
+    }
+    assertThat(cache.get(digest)).isNull();
+  }
+
+  @Test
+  public void trimToSize_deletesLeastRecentlyUsedBlobs() throws IOException {
+    Digest older = Digest.of("older".getBytes(StandardCharsets.UTF_8));
+    Digest newer = Digest.of("newer".getBytes(StandardCharsets.UTF_8));
+    cache.put(older, "older".getBytes(StandardCharsets.UTF_8));
+    cache.put(newer, "newer".getBytes(StandardCharsets.UTF_8));
+
+    cache.trimToSize(5);
+
+    assertThat(cache.get(older)).isNull();
+    assertThat(cache.get(newer)).isNotNull();
+  }
+
+  @Test
+  public void trimToSize_getMarksBlobRecentlyUsedWithoutTouchingFile() throws IOException {
+    Digest first = Digest.of("first".getBytes(StandardCharsets.UTF_8));
+    Digest second = Digest.of("other".getBytes(StandardCharsets.UTF_8));
+    File firstFile = cache.put(first, "first".getBytes(StandardCharsets.UTF_8));
+    cache.put(second, "other".getBytes(StandardCharsets.UTF_8));
+    assertThat(firstFile.setLastModified(1000)).isTrue();
+
+    assertThat(cache.get(first)).isNotNull();
+    cache.trimToSize(5);
+
+    assertThat(firstFile.lastModified()).isEqualTo(1000);
+    assertThat(cache.get(first)).isNotNull();
+    assertThat(cache.get(second)).isNull();
+  }
+
+  @Test
+  public void trimToSize_blobsFromEarlierSessions_deletedByModificationTime() throws IOException {
+    File root = folder.newFolder("shared");
+    Digest older = Digest.of("older".getBytes(StandardCharsets.UTF_8));
+    Digest newer = Digest.of("newer".getBytes(StandardCharsets.UTF_8));
+    DigestDiskCache previous = new DigestDiskCache(root, Long.MAX_VALUE);
+    File olderFile = previous.put(older, "older".getBytes(StandardCharsets.UTF_8));
+    previous.put(newer, "newer".getBytes(StandardCharsets.UTF_8));
+    assertThat(olderFile.setLastModified(0)).isTrue();
+
+    DigestDiskCache current = new DigestDiskCache(root, Long.MAX_VALUE);
+    current.trimToSize(5);
+
+    assertThat(current.get(older)).isNull();
+    assertThat(current.get(newer)).isNotNull();
+  }
+
+  @Test
+  public void trimToSize_ignoresInProgressTempFiles() throws IOException {
+    Digest digest = Digest.of("blob".getBytes(StandardCharsets.UTF_8));
+    File blob = cache.put(digest, "blob".getBytes(StandardCharsets.UTF_8));
+    File temp = new File(blob.getParentFile(), blob.getName() + "12345.tmp");
+    Files.write(temp.toPath(), "partially written".getBytes(StandardCharsets.UTF_8));
+    assertThat(temp.setLastModified(0)).isTrue();
+
+    cache.trimToSize(4);
+
+    assertThat(temp.exists()).isTrue();
+    assertThat(cache.get(digest)).isNotNull();
+  }
+
+  @Test
+  public void parseBytestreamUri_withInstanceName() {
+    BytestreamUri uri =
+        BytestreamUri.parse("bytestream://cache.example.com:443/" + INSTANCE + "/blobs/abc123/42");
+
+    assertThat(uri).isNotNull();
+    assertThat(uri.authority()).isEqualTo("cache.example.com:443");
+    assertThat(uri.instanceName()).isEqualTo(INSTANCE);
+    assertThat(uri.digest()).isEqualTo(Digest.create("abc123", 42));
+  }
+
+  @Test
+  public void parseBytestreamUri_defaultInstance() {
+    BytestreamUri uri = BytestreamUri.parse("bytestream://localhost/blobs/abc123/0");
+
+    assertThat(uri).isNotNull();
+    assertThat(uri.instanceName()).isEmpty();
+    assertThat(uri.digest()).isEqualTo(Digest.create("abc123", 0));
+  }
+
+  @Test
+  public void parseBytestreamUri_invalidUris_returnNull() {
+    assertThat(BytestreamUri.parse("file:///tmp/blobs/abc123/42")).isNull();
+    assertThat(BytestreamUri.parse("bytestream://localhost/abc123/42")).isNull();
+    assertThat(BytestreamUri.parse("bytestream://localhost/blobs/abc123/size")).isNull();
+    assertThat(BytestreamUri.parse("bytestream://localhost/blobs/../42")).isNull();
+    assertThat(BytestreamUri.parse("bytestream:///blobs/abc123/42")).isNull();
+  }
+
+  private String readCached(Digest digest) throws IOException {
+    File file = cache.get(digest);
+    assertThat(file).isNotNull();
+    return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+  }
+}
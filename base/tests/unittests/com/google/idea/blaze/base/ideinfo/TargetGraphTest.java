@@ -0,0 +1,112 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Kind.Provider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TargetGraph}. */
+@RunWith(JUnit4.class)
+public class TargetGraphTest extends BlazeTestCase {
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testTargetsPrecedeExternalDependencies() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//l:l1")
+                    .setKind("proto_library")
+                    .addDependency("//external:dep")
+                    .addDependency("//l:l2"))
+            .addTarget(TargetIdeInfo.builder().setLabel("//l:l2").setKind("proto_library"))
+            .build();
+
+    TargetGraph graph = TargetGraph.create(targetMap);
+    assertThat(graph.getTargetCount()).isEqualTo(2);
+    assertThat(graph.getKeyCount()).isEqualTo(3);
+
+    int l1 = graph.getId(key("//l:l1"));
+    int l2 = graph.getId(key("//l:l2"));
+    int external = graph.getId(key("//external:dep"));
+    assertThat(graph.isTarget(l1)).isTrue();
+    assertThat(graph.isTarget(l2)).isTrue();
+    assertThat(graph.isTarget(external)).isFalse();
+    assertThat(graph.getTarget(external)).isNull();
+    assertThat(graph.getTarget(l2)).isSameAs(targetMap.get(key("//l:l2")));
+
+    assertThat(graph.getDependencyCount(l1)).isEqualTo(2);
+    assertThat(graph.getDependency(l1, 0)).isEqualTo(external);
+    assertThat(graph.getDependency(l1, 1)).isEqualTo(l2);
+    assertThat(graph.getDependencyCount(l2)).isEqualTo(0);
+    assertThat(graph.getId(key("//l:missing"))).isEqualTo(-1);
+  }
+
+  @Test
+  public void testSharedSourcesAreStoredOnce() {
+    ArtifactLocation shared = source("l/shared.proto");
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//l:l1")
+                    .setKind("proto_library")
+                    .addSource(shared)
+                    .addSource(source("l/l1.proto")))
+            .addTarget(
+                TargetIdeInfo.builder()
+                    .setLabel("//l:l2")
+                    .setKind("proto_library")
+                    .addSource(shared))
+            .build();
+
+    TargetGraph graph = TargetGraph.create(targetMap);
+    int l1 = graph.getId(key("//l:l1"));
+    int l2 = graph.getId(key("//l:l2"));
+    assertThat(graph.getSourceCount()).isEqualTo(2);
+    assertThat(graph.getSourceCount(l1)).isEqualTo(2);
+    assertThat(graph.getSourceCount(l2)).isEqualTo(1);
+    assertThat(graph.getSourceId(l2, 0)).isEqualTo(graph.getSourceId(l1, 0));
+    assertThat(graph.getSource(graph.getSourceId(l2, 0))).isEqualTo(shared);
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
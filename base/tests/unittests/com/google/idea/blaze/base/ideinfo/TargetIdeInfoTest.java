@@ -0,0 +1,170 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.ideinfo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.intellij.aspect.Common;
+import com.google.devtools.intellij.ideinfo.IntellijIdeInfo;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link TargetIdeInfo} and its lazily decoded {@link LazyIdeInfo}s. */
+@RunWith(JUnit4.class)
+public class TargetIdeInfoTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Kind.Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void fromProto_sourcesIncludeThoseOfLazilyDecodedInfos() {
+    TargetIdeInfo target = TargetIdeInfo.fromProto(targetProto());
+
+    assertThat(target.getSources())
+        .containsExactly(
+            artifactLocation("com/google/lib/Source.java"),
+            artifactLocation("native/source.cc"),
+            artifactLocation("native/header.h"),
+            artifactLocation("native/textual.inc"));
+  }
+
+  @Test
+  public void fromProto_languageInfosDecodedOnAccess() {
+    TargetIdeInfo target = TargetIdeInfo.fromProto(targetProto());
+
+    assertThat(target.getJavaIdeInfo()).isNotNull();
+    assertThat(target.getJavaIdeInfo().getJars()).hasSize(1);
+    assertThat(target.getcIdeInfo()).isNotNull();
+    assertThat(target.getcIdeInfo().getLocalCopts()).containsExactly("-Wall");
+    assertThat(target.getPyIdeInfo()).isNull();
+  }
+
+  @Test
+  public void fromProto_unchangedBySerializationRoundTrip() {
+    IntellijIdeInfo.TargetIdeInfo proto = targetProto();
+
+    assertThat(TargetIdeInfo.fromProto(proto).toProto()).isEqualTo(proto);
+  }
+
+  @Test
+  public void fromProto_equalTargetsFromSameProto() {
+    TargetIdeInfo first = TargetIdeInfo.fromProto(targetProto());
+    TargetIdeInfo second = TargetIdeInfo.fromProto(targetProto());
+
+    assertThat(first).isEqualTo(second);
+    assertThat(first.hashCode()).isEqualTo(second.hashCode());
+  }
+
+  @Test
+  public void lazy_decodesOnceAndCaches() {
+    AtomicInteger decodeCount = new AtomicInteger();
+    IntellijIdeInfo.JavaIdeInfo proto = javaProto();
+    LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> lazy =
+        LazyIdeInfo.lazy(
+            proto,
+            IntellijIdeInfo.JavaIdeInfo.parser(),
+            p -> {
+              decodeCount.incrementAndGet();
+              return JavaIdeInfo.fromProto(p);
+            });
+
+    assertThat(lazy.isDecoded()).isFalse();
+    assertThat(lazy.toProto()).isEqualTo(proto);
+    assertThat(decodeCount.get()).isEqualTo(0);
+
+    JavaIdeInfo decoded = lazy.get();
+    assertThat(lazy.isDecoded()).isTrue();
+    assertThat(lazy.get()).isSameAs(decoded);
+    assertThat(decodeCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void lazy_comparedWithoutDecoding() {
+    LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> first = lazyJava(javaProto());
+    LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> second = lazyJava(javaProto());
+    LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> different =
+        lazyJava(javaProto().toBuilder().setMainClass("com.google.Main").build());
+
+    assertThat(first).isEqualTo(second);
+    assertThat(first.hashCode()).isEqualTo(second.hashCode());
+    assertThat(first).isNotEqualTo(different);
+    assertThat(first.isDecoded()).isFalse();
+    assertThat(second.isDecoded()).isFalse();
+    assertThat(different.isDecoded()).isFalse();
+  }
+
+  @Test
+  public void lazy_equalToDecodedValue() {
+    LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> lazy = lazyJava(javaProto());
+    LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> decoded =
+        LazyIdeInfo.of(JavaIdeInfo.fromProto(javaProto()));
+
+    assertThat(lazy).isEqualTo(decoded);
+    assertThat(decoded).isEqualTo(lazy);
+    assertThat(lazy.hashCode()).isEqualTo(decoded.hashCode());
+  }
+
+  private static LazyIdeInfo<IntellijIdeInfo.JavaIdeInfo, JavaIdeInfo> lazyJava(
+      IntellijIdeInfo.JavaIdeInfo proto) {
+    return LazyIdeInfo.lazy(proto, IntellijIdeInfo.JavaIdeInfo.parser(), JavaIdeInfo::fromProto);
+  }
+
+  private static IntellijIdeInfo.TargetIdeInfo targetProto() {
+    return IntellijIdeInfo.TargetIdeInfo.newBuilder()
+        .setKey(IntellijIdeInfo.TargetKey.newBuilder().setLabel("//com/google/lib:lib"))
+        .setKindString("sh_library")
+        .setJavaIdeInfo(javaProto())
+        .setCIdeInfo(
+            IntellijIdeInfo.CIdeInfo.newBuilder()
+                .addSource(artifactLocationProto("native/source.cc"))
+                .addHeader(artifactLocationProto("native/header.h"))
+                .addTextualHeader(artifactLocationProto("native/textual.inc"))
+                .addTargetCopt("-Wall"))
+        .build();
+  }
+
+  private static IntellijIdeInfo.JavaIdeInfo javaProto() {
+    return IntellijIdeInfo.JavaIdeInfo.newBuilder()
+        .addSources(artifactLocationProto("com/google/lib/Source.java"))
+        .addJars(
+            IntellijIdeInfo.LibraryArtifact.newBuilder()
+                .setJar(artifactLocationProto("lib.jar"))
+                .setInterfaceJar(artifactLocationProto("lib.ijar")))
+        .build();
+  }
+
+  private static ArtifactLocation artifactLocation(String relativePath) {
+    return ArtifactLocation.fromProto(artifactLocationProto(relativePath));
+  }
+
+  private static Common.ArtifactLocation artifactLocationProto(String relativePath) {
+    return Common.ArtifactLocation.newBuilder().setRelativePath(relativePath).build();
+  }
+}
@@ -42,7 +42,10 @@ import com.google.idea.common.experiments.ExperimentService;
 import com.google.idea.common.experiments.MockExperimentService;
 import com.intellij.openapi.util.TextRange;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -553,6 +556,80 @@ public class BlazeIssueParserTest extends BlazeTestCase {
         .isEqualTo(TextRange.create(0, "File \"foo/bar.py\", line 123".length()));
   }
 
+  @Test
+  public void testLineFilterFromRegex() {
+    BlazeIssueParser.LineFilter anchored = BlazeIssueParser.LineFilter.fromRegex("^ERROR: (.*)$");
+    assertThat(anchored.test("ERROR: foo")).isTrue();
+    assertThat(anchored.test("INFO: ERROR: foo")).isFalse();
+
+    BlazeIssueParser.LineFilter unanchored =
+        BlazeIssueParser.LineFilter.fromRegex("no such target '(.*)'");
+    assertThat(unanchored.test("ERROR: no such target '//foo:bar'")).isTrue();
+    assertThat(unanchored.test("ERROR: no such package 'foo'")).isFalse();
+
+    BlazeIssueParser.LineFilter quantified = BlazeIssueParser.LineFilter.fromRegex("^abc?d");
+    assertThat(quantified.test("abd")).isTrue();
+    assertThat(quantified.test("acd")).isFalse();
+
+    assertThat(BlazeIssueParser.LineFilter.fromRegex("^foo|bar").test("bar")).isTrue();
+    assertThat(BlazeIssueParser.LineFilter.fromRegex("^(foo|bar)").test("baz")).isTrue();
+  }
+
+  @Test
+  public void testLineFiltersPassAllMatchingLines() {
+    String[] lines =
+        new String[] {
+          "File \"foo/bar.py\", line 123, in foo: bad option in return type [bad-return-type]",
+          "java/com/google/Foo.java:17:5: error: cannot find symbol",
+          "ERROR: /home/plumpy/whatever:9:12: Traceback (most recent call last):",
+          "ERROR: /path/to/BUILD:42:12: Couldn't build file foo/bar.jar: Executing genrule",
+          "ERROR: /path/to/rules.bzl:42:12: name 'foo' is not defined",
+          "ERROR: /home/plumpy/whatever:char offsets 1222--1229: name 'grubber' is not defined",
+          "ERROR: no such target '//package/path:hello4': target 'hello4' not declared in package "
+              + "'package/path' defined by /path/to/BUILD",
+          "ERROR: no such package 'foo/bar': BUILD file not found on package path",
+          "ERROR: no targets found beneath 'tests/com/google/a/b/c/d/baz'",
+          "ERROR: invalid target format '//foo/...:all': invalid package name",
+          "ERROR: /path/to/BUILD:1:1: Unable to load file '//foo:defs.bzl': file doesn't exist",
+          "ERROR: Build did NOT complete successfully",
+          "INFO: Analyzed 12 targets (0 packages loaded, 0 targets configured).",
+        };
+    for (BlazeIssueParser.Parser parser : parsers) {
+      if (!(parser instanceof BlazeIssueParser.SingleLineParser)) {
+        continue;
+      }
+      Pattern pattern = ((BlazeIssueParser.SingleLineParser) parser).pattern;
+      for (String line : lines) {
+        if (pattern.matcher(line).find()) {
+          assertThat(parser.lineFilter().test(line)).isTrue();
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testParsersNotCalledForFilteredLines() {
+    List<String> parsedLines = new ArrayList<>();
+    BlazeIssueParser.Parser parser =
+        new BlazeIssueParser.SingleLineParser("^TEST (.*)$") {
+          @Override
+          BlazeIssueParser.ParseResult parse(String line) {
+            parsedLines.add(line);
+            return super.parse(line);
+          }
+
+          @Override
+          protected IssueOutput createIssue(Matcher matcher) {
+            return IssueOutput.warn(matcher.group(1)).build();
+          }
+        };
+    BlazeIssueParser blazeIssueParser = new BlazeIssueParser(ImmutableList.of(parser));
+
+    assertThat(blazeIssueParser.parseIssue("INFO: TEST message")).isNull();
+    assertThat(blazeIssueParser.parseIssue("TEST message")).isNotNull();
+    assertThat(parsedLines).containsExactly("TEST message");
+  }
+
   /** Simple Parser for testing */
   private static class TestParser extends BlazeIssueParser.SingleLineParser {
 
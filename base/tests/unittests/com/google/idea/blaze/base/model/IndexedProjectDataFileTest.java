@@ -0,0 +1,269 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.model;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Kind.Provider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.settings.BuildSystemName;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.Instant;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link IndexedProjectDataFile}. */
+@RunWith(JUnit4.class)
+public class IndexedProjectDataFileTest extends BlazeTestCase {
+  private static final Instant FIRST_SYNC = Instant.ofEpochMilli(1000);
+  private static final Instant SECOND_SYNC = Instant.ofEpochMilli(2000);
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private File file;
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    file = new File(temporaryFolder.getRoot(), "cache.dat");
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    BlazeProjectData projectData =
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//a:a").addDependency("//b:b").addSource(source("a/A.proto")))
+                .addTarget(target("//b:b"))
+                .addTarget(target("//c:c").setSyncTime(null))
+                .build());
+
+    IndexedProjectDataFile.write(projectData, file, /* previous= */ null);
+    BlazeProjectData loaded =
+        IndexedProjectDataFile.load(BuildSystemName.Bazel, file).getProjectData();
+
+    assertThat(loaded.getTargetMap().map()).isEqualTo(projectData.getTargetMap().map());
+    assertThat(loaded.getTargetMap().get(key("//a:a")).getSyncTime()).isEqualTo(FIRST_SYNC);
+    assertThat(loaded.getTargetMap().get(key("//c:c")).getSyncTime()).isNull();
+    assertThat(loaded.getBlazeInfo().getExecutionRoot())
+        .isEqualTo(projectData.getBlazeInfo().getExecutionRoot());
+    assertThat(loaded.getWorkspaceLanguageSettings())
+        .isEqualTo(projectData.getWorkspaceLanguageSettings());
+  }
+
+  @Test
+  public void testTargetLookupsDecodeOnlyThoseTargets() throws IOException {
+    BlazeProjectData projectData =
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//a:a"))
+                .addTarget(target("//b:b"))
+                .addTarget(target("//c:c"))
+                .build());
+    IndexedProjectDataFile.write(projectData, file, /* previous= */ null);
+
+    IndexedProjectDataFile loaded = IndexedProjectDataFile.load(BuildSystemName.Bazel, file);
+    TargetMap targetMap = loaded.getProjectData().getTargetMap();
+    assertThat(loaded.getDecodedTargetCount()).isEqualTo(0);
+
+    assertThat(targetMap.size()).isEqualTo(3);
+    assertThat(targetMap.contains(key("//missing:missing"))).isFalse();
+    assertThat(targetMap.get(key("//b:b"))).isNotNull();
+    assertThat(loaded.getDecodedTargetCount()).isEqualTo(1);
+
+    // bulk accessors decode everything
+    assertThat(targetMap.map()).hasSize(3);
+    assertThat(loaded.getDecodedTargetCount()).isEqualTo(3);
+  }
+
+  @Test
+  public void testVersionMismatchIsRejected() throws IOException {
+    IndexedProjectDataFile.write(
+        projectData(TargetMapBuilder.builder().addTarget(target("//a:a")).build()),
+        file,
+        /* previous= */ null);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      // the version follows the magic number
+      raf.seek(4);
+      raf.writeInt(raf.readInt() + 1);
+    }
+
+    assertLoadFails();
+  }
+
+  @Test
+  public void testCorruptHeaderIsRejected() throws IOException {
+    IndexedProjectDataFile.write(
+        projectData(TargetMapBuilder.builder().addTarget(target("//a:a")).build()),
+        file,
+        /* previous= */ null);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      // the index offset follows the magic number and version
+      raf.seek(8);
+      raf.writeLong(raf.length() + 100);
+    }
+
+    assertLoadFails();
+  }
+
+  @Test
+  public void testTruncatedFileIsRejected() throws IOException {
+    IndexedProjectDataFile.write(
+        projectData(TargetMapBuilder.builder().addTarget(target("//a:a")).build()),
+        file,
+        /* previous= */ null);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+
+    assertLoadFails();
+  }
+
+  @Test
+  public void testCorruptTargetIsRejected() throws IOException {
+    IndexedProjectDataFile.write(
+        projectData(TargetMapBuilder.builder().addTarget(target("//a:a")).build()),
+        file,
+        /* previous= */ null);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      // the first target follows the header
+      raf.seek(32);
+      int b = raf.read();
+      raf.seek(32);
+      raf.write(b ^ 0xff);
+    }
+
+    // rejected on load, rather than once the target is decoded
+    assertLoadFails();
+  }
+
+  @Test
+  public void testUnchangedTargetsAreCopiedOnConsecutiveWrites() throws IOException {
+    TargetIdeInfo a = target("//a:a").build();
+    TargetIdeInfo b = target("//b:b").build();
+    IndexedProjectDataFile first =
+        IndexedProjectDataFile.write(
+            projectData(TargetMapBuilder.builder().addTarget(a).addTarget(b).build()),
+            file,
+            /* previous= */ null);
+    assertThat(first.getCopiedTargetCount()).isEqualTo(0);
+
+    // a is unchanged other than its sync time, b was rebuilt and c is new
+    TargetIdeInfo resyncedA = a.updateSyncTime(SECOND_SYNC);
+    IndexedProjectDataFile second =
+        IndexedProjectDataFile.write(
+            projectData(
+                TargetMapBuilder.builder()
+                    .addTarget(resyncedA)
+                    .addTarget(target("//b:b").addDependency("//c:c").setSyncTime(SECOND_SYNC))
+                    .addTarget(target("//c:c").setSyncTime(SECOND_SYNC))
+                    .build()),
+            file,
+            first);
+    assertThat(second.getCopiedTargetCount()).isEqualTo(1);
+
+    // the file just written is itself the source of unchanged targets for the next write
+    IndexedProjectDataFile third =
+        IndexedProjectDataFile.write(second.getProjectData(), file, second);
+    assertThat(third.getCopiedTargetCount()).isEqualTo(3);
+
+    BlazeProjectData loaded =
+        IndexedProjectDataFile.load(BuildSystemName.Bazel, file).getProjectData();
+    assertThat(loaded.getTargetMap().map())
+        .isEqualTo(second.getProjectData().getTargetMap().map());
+    // the copied segment still holds the old sync time, which the index overrides
+    assertThat(loaded.getTargetMap().get(key("//a:a")).getSyncTime()).isEqualTo(SECOND_SYNC);
+  }
+
+  @Test
+  public void testDecodedTargetsAreCopiedAfterLoad() throws IOException {
+    IndexedProjectDataFile.write(
+        projectData(
+            TargetMapBuilder.builder()
+                .addTarget(target("//a:a"))
+                .addTarget(target("//b:b"))
+                .build()),
+        file,
+        /* previous= */ null);
+    IndexedProjectDataFile loaded = IndexedProjectDataFile.load(BuildSystemName.Bazel, file);
+    TargetMap targetMap = loaded.getProjectData().getTargetMap();
+
+    IndexedProjectDataFile written =
+        IndexedProjectDataFile.write(
+            projectData(
+                new TargetMap(
+                    ImmutableMap.of(
+                        key("//a:a"),
+                        targetMap.get(key("//a:a")).updateSyncTime(SECOND_SYNC),
+                        key("//b:b"),
+                        target("//b:b").setSyncTime(SECOND_SYNC).build()))),
+            file,
+            loaded);
+
+    assertThat(written.getCopiedTargetCount()).isEqualTo(1);
+  }
+
+  private void assertLoadFails() {
+    try {
+      IndexedProjectDataFile.load(BuildSystemName.Bazel, file);
+      fail("Expected the file to be rejected");
+    } catch (IOException expected) {
+      // the caller falls back to loading the project data as a whole
+    }
+  }
+
+  private static BlazeProjectData projectData(TargetMap targetMap) {
+    return MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build();
+  }
+
+  private static TargetIdeInfo.Builder target(String label) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(source(label.substring(2, label.indexOf(':')) + "/BUILD"))
+        .setLabel(label)
+        .setKind("proto_library")
+        .setSyncTime(FIRST_SYNC);
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.idea.blaze.base.prefetch.FetchExecutor.Lane;
+import com.google.idea.blaze.base.prefetch.FetchExecutor.Priority;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link AdaptiveIoScheduler}. */
+@RunWith(JUnit4.class)
+public class AdaptiveIoSchedulerTest {
+
+  /** Holds submitted tasks until the test runs them. */
+  private static class ManualExecutor implements Executor {
+    final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+    @Override
+    public void execute(Runnable command) {
+      tasks.add(command);
+    }
+
+    void runNext() {
+      tasks.poll().run();
+    }
+  }
+
+  private final ManualExecutor threadPool = new ManualExecutor();
+  private long nowNanos = 0;
+
+  private AdaptiveIoScheduler createScheduler(int minLimit, int initialLimit, int maxLimit) {
+    return new AdaptiveIoScheduler(
+        Lane.LOCAL, threadPool, () -> 0L, minLimit, initialLimit, maxLimit);
+  }
+
+  @Test
+  public void execute_respectsConcurrencyLimit() {
+    AdaptiveIoScheduler scheduler = createScheduler(1, 2, 4);
+
+    for (int i = 0; i < 5; i++) {
+      scheduler.execute(Priority.BACKGROUND, () -> {});
+    }
+
+    assertThat(threadPool.tasks).hasSize(2);
+    assertThat(scheduler.getMetrics().queuedBackgroundTasks).isEqualTo(3);
+
+    threadPool.runNext();
+
+    assertThat(threadPool.tasks).hasSize(2);
+    assertThat(scheduler.getMetrics().queuedBackgroundTasks).isEqualTo(2);
+  }
+
+  @Test
+  public void execute_startsSyncBlockingTasksBeforeBackgroundTasks() {
+    AdaptiveIoScheduler scheduler = createScheduler(1, 1, 1);
+    List<String> order = new ArrayList<>();
+
+    scheduler.execute(Priority.BACKGROUND, () -> order.add("first"));
+    scheduler.execute(Priority.BACKGROUND, () -> order.add("background"));
+    scheduler.execute(Priority.SYNC_BLOCKING, () -> order.add("sync blocking"));
+    while (!threadPool.tasks.isEmpty()) {
+      threadPool.runNext();
+    }
+
+    assertThat(order).containsExactly("first", "sync blocking", "background").inOrder();
+  }
+
+  @Test
+  public void execute_tasksSubmittingFurtherTasks_areNotTimed() {
+    AdaptiveIoScheduler scheduler =
+        new AdaptiveIoScheduler(Lane.LOCAL, threadPool, () -> nowNanos, 1, 2, 4);
+
+    scheduler.execute(
+        Priority.SYNC_BLOCKING,
+        () -> {
+          scheduler.execute(Priority.SYNC_BLOCKING, () -> nowNanos += 1_000_000);
+          // the parent task waiting for its child
+          nowNanos += 100_000_000;
+        });
+    while (!threadPool.tasks.isEmpty()) {
+      threadPool.runNext();
+    }
+
+    FetchExecutor.LaneMetrics metrics = scheduler.getMetrics();
+    assertThat(metrics.completedTasks).isEqualTo(2);
+    assertThat(metrics.runningTasks).isEqualTo(0);
+    assertThat(metrics.latencyMillis).isEqualTo(1);
+  }
+
+  @Test
+  public void onTaskCompleted_stableLatencyWhileBusy_increasesLimit() {
+    AdaptiveIoScheduler scheduler = createScheduler(1, 4, 8);
+
+    completeTasks(scheduler, /* count= */ 200, /* latencyNanos= */ 1000, /* busy= */ true);
+
+    assertThat(scheduler.getLimit()).isGreaterThan(4);
+    assertThat(scheduler.getLimit()).isAtMost(8);
+  }
+
+  @Test
+  public void onTaskCompleted_stableLatencyWhileIdle_keepsLimit() {
+    AdaptiveIoScheduler scheduler = createScheduler(1, 4, 8);
+
+    completeTasks(scheduler, /* count= */ 200, /* latencyNanos= */ 1000, /* busy= */ false);
+
+    assertThat(scheduler.getLimit()).isEqualTo(4);
+  }
+
+  @Test
+  public void onTaskCompleted_latencySpike_decreasesLimit() {
+    AdaptiveIoScheduler scheduler = createScheduler(2, 8, 8);
+    completeTasks(scheduler, /* count= */ 100, /* latencyNanos= */ 1000, /* busy= */ false);
+
+    completeTasks(scheduler, /* count= */ 100, /* latencyNanos= */ 100_000, /* busy= */ false);
+
+    assertThat(scheduler.getLimit()).isLessThan(8);
+    assertThat(scheduler.getLimit()).isAtLeast(2);
+  }
+
+  /**
+   * Reports completed tasks directly, one microsecond apart. If 'busy' is set, the scheduler is
+   * filled to its limit before each completion.
+   */
+  private void completeTasks(
+      AdaptiveIoScheduler scheduler, int count, long latencyNanos, boolean busy) {
+    for (int i = 0; i < count; i++) {
+      int running = busy ? scheduler.getLimit() : 1;
+      for (int j = 0; j < running; j++) {
+        scheduler.execute(Priority.BACKGROUND, () -> {});
+      }
+      // onTaskCompleted releases one slot per call; release all the slots taken above
+      for (int j = 0; j < running; j++) {
+        nowNanos += 1000;
+        scheduler.onTaskCompleted(0, latencyNanos, nowNanos);
+      }
+    }
+  }
+}
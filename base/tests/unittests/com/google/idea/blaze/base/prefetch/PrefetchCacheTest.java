@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.prefetch;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.idea.blaze.base.prefetch.PrefetchStats.SourceStats;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PrefetchCache} and {@link PrefetchStats}. */
+@RunWith(JUnit4.class)
+public class PrefetchCacheTest {
+
+  private static final long REFETCH_PERIOD = 1000;
+
+  @Test
+  public void markPrefetched_unchangedFileWithinRefetchPeriod_isSkipped() {
+    PrefetchCache cache = new PrefetchCache(REFETCH_PERIOD, 100);
+
+    assertThat(cache.markPrefetched("/src/Foo.java", 1, 0)).isTrue();
+    assertThat(cache.markPrefetched("/src/Foo.java", 1, REFETCH_PERIOD - 1)).isFalse();
+  }
+
+  @Test
+  public void markPrefetched_afterRefetchPeriod_isPrefetchedAgain() {
+    PrefetchCache cache = new PrefetchCache(REFETCH_PERIOD, 100);
+
+    assertThat(cache.markPrefetched("/src/Foo.java", 1, 0)).isTrue();
+    assertThat(cache.markPrefetched("/src/Foo.java", 1, REFETCH_PERIOD)).isTrue();
+    assertThat(cache.markPrefetched("/src/Foo.java", 1, REFETCH_PERIOD + 1)).isFalse();
+  }
+
+  @Test
+  public void markPrefetched_modifiedFile_isPrefetchedAgain() {
+    PrefetchCache cache = new PrefetchCache(REFETCH_PERIOD, 100);
+
+    assertThat(cache.markPrefetched("/src/Foo.java", 1, 0)).isTrue();
+    assertThat(cache.markPrefetched("/src/Foo.java", 2, 1)).isTrue();
+  }
+
+  @Test
+  public void markPrefetched_filesWithCollidingHashCodes_areTrackedSeparately() {
+    // "Aa" and "BB" have the same String#hashCode
+    assertThat("/src/Aa".hashCode()).isEqualTo("/src/BB".hashCode());
+    PrefetchCache cache = new PrefetchCache(REFETCH_PERIOD, 100);
+
+    assertThat(cache.markPrefetched("/src/Aa", 1, 0)).isTrue();
+    assertThat(cache.markPrefetched("/src/BB", 1, 0)).isTrue();
+  }
+
+  @Test
+  public void clear_forgetsPrefetchedFiles() {
+    PrefetchCache cache = new PrefetchCache(REFETCH_PERIOD, 100);
+    cache.markPrefetched("/src/Foo.java", 1, 0);
+
+    cache.clear();
+
+    assertThat(cache.markPrefetched("/src/Foo.java", 1, 1)).isTrue();
+  }
+
+  @Test
+  public void prefetchStats_combine_sumsStatsPerSource() {
+    PrefetchStats first =
+        PrefetchStats.create(
+            10,
+            ImmutableMap.of(
+                "sources", SourceStats.create(1, 2), "jars", SourceStats.create(3, 4)));
+    PrefetchStats second =
+        PrefetchStats.create(5, ImmutableMap.of("jars", SourceStats.create(10, 20)));
+
+    PrefetchStats combined = first.combine(second);
+
+    assertThat(combined.bytesPrefetched()).isEqualTo(15);
+    assertThat(combined.sourceStats())
+        .containsExactly(
+            "sources", SourceStats.create(1, 2), "jars", SourceStats.create(13, 24));
+  }
+}
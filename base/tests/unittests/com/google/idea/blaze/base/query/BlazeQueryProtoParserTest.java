@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.query;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Attribute;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.QueryResult;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Rule;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.SourceFile;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.Target;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.query.BlazeQueryProtoParser.StreamedProtoOutputStream;
+import com.google.idea.blaze.base.query.GeneratedTarget.MacroData;
+import com.google.protobuf.CodedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BlazeQueryProtoParser}. */
+@RunWith(JUnit4.class)
+public class BlazeQueryProtoParserTest {
+
+  private static final ImmutableList<Target> TARGETS =
+      ImmutableList.of(
+          generatedRule("//foo:lib", "java_library", "/root/foo/BUILD:12:3", "my_macro", "lib"),
+          rule("//foo:plain", "java_library", stringAttribute("visibility", "//visibility:public")),
+          Target.newBuilder()
+              .setType(Target.Discriminator.SOURCE_FILE)
+              .setSourceFile(SourceFile.newBuilder().setName("//foo:Source.java"))
+              .build(),
+          // no line number in the location, so it's ignored
+          generatedRule("//foo:bad", "java_library", "/root/foo/BUILD", "my_macro", "bad"),
+          generatedRule("//foo:test", "java_test", "/root/foo/BUILD:20", "other_macro", "test"));
+
+  @Test
+  public void parseProtoOutput_returnsGeneratedRules() throws IOException {
+    byte[] output = QueryResult.newBuilder().addAllTarget(TARGETS).build().toByteArray();
+
+    ImmutableList<GeneratedTarget> targets =
+        BlazeQueryProtoParser.parseProtoOutput(new ByteArrayInputStream(output));
+
+    assertExpectedTargets(targets);
+  }
+
+  @Test
+  public void parseStreamedProtoOutput_returnsGeneratedRules() throws IOException {
+    ImmutableList<GeneratedTarget> targets =
+        BlazeQueryProtoParser.parseStreamedProtoOutput(
+            new ByteArrayInputStream(streamedOutput(TARGETS)));
+
+    assertExpectedTargets(targets);
+  }
+
+  @Test
+  public void streamedProtoOutputStream_handlesTargetsSplitAcrossWrites() throws IOException {
+    byte[] output = streamedOutput(TARGETS);
+    StreamedProtoOutputStream out = new StreamedProtoOutputStream();
+    for (int i = 0; i < output.length; i += 3) {
+      out.write(output, i, Math.min(3, output.length - i));
+    }
+
+    assertExpectedTargets(out.getGeneratedTargets());
+  }
+
+  @Test
+  public void streamedProtoOutputStream_handlesMultiByteSizePrefix() throws IOException {
+    Rule.Builder rule =
+        Rule.newBuilder()
+            .setName("//foo:big")
+            .setRuleClass("genrule")
+            .addAttribute(stringAttribute("generator_location", "/root/foo/BUILD:7"))
+            .addAttribute(stringAttribute("generator_function", "big_macro"));
+    for (int i = 0; i < 1000; i++) {
+      rule.addAttribute(stringAttribute("attr" + i, "value" + i));
+    }
+    Target target = Target.newBuilder().setType(Target.Discriminator.RULE).setRule(rule).build();
+    byte[] output = streamedOutput(ImmutableList.of(target));
+    StreamedProtoOutputStream out = new StreamedProtoOutputStream();
+    for (byte b : output) {
+      out.write(b);
+    }
+
+    ImmutableList<GeneratedTarget> targets = out.getGeneratedTargets();
+
+    assertThat(targets).hasSize(1);
+    assertThat(targets.get(0).label).isEqualTo(Label.create("//foo:big"));
+    assertThat(targets.get(0).macro).isEqualTo(new MacroData(7, "big_macro", null));
+  }
+
+  @Test
+  public void streamedProtoOutputStream_truncatedOutput_throws() {
+    byte[] output = streamedOutput(TARGETS);
+    StreamedProtoOutputStream out = new StreamedProtoOutputStream();
+    out.write(output, 0, output.length - 1);
+
+    try {
+      out.getGeneratedTargets();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  @Test
+  public void streamedProtoOutputStream_corruptOutput_throwsAndIgnoresLaterOutput() {
+    byte[] output = streamedOutput(TARGETS);
+    byte[] corrupt = Arrays.copyOf(output, output.length);
+    // overwrite the first field tag of the first target; a wire type of 7 is never valid
+    int prefixSize = CodedOutputStream.computeUInt32SizeNoTag(TARGETS.get(0).getSerializedSize());
+    corrupt[prefixSize] = (byte) 0xff;
+    StreamedProtoOutputStream out = new StreamedProtoOutputStream();
+    out.write(corrupt, 0, corrupt.length);
+    out.write(output, 0, output.length);
+
+    try {
+      out.getGeneratedTargets();
+      fail("Expected IOException");
+    } catch (IOException expected) {
+      // expected
+    }
+  }
+
+  private static void assertExpectedTargets(ImmutableList<GeneratedTarget> targets) {
+    assertThat(targets).hasSize(2);
+    assertThat(targets.get(0).label).isEqualTo(Label.create("//foo:lib"));
+    assertThat(targets.get(0).ruleType).isEqualTo("java_library");
+    assertThat(targets.get(0).macro).isEqualTo(new MacroData(12, "my_macro", "lib"));
+    assertThat(targets.get(1).label).isEqualTo(Label.create("//foo:test"));
+    assertThat(targets.get(1).ruleType).isEqualTo("java_test");
+    assertThat(targets.get(1).macro).isEqualTo(new MacroData(20, "other_macro", "test"));
+  }
+
+  private static byte[] streamedOutput(ImmutableList<Target> targets) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      for (Target target : targets) {
+        target.writeDelimitedTo(out);
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return out.toByteArray();
+  }
+
+  private static Target generatedRule(
+      String label, String ruleClass, String location, String function, String name) {
+    return rule(
+        label,
+        ruleClass,
+        stringAttribute("generator_name", name),
+        stringAttribute("generator_function", function),
+        stringAttribute("generator_location", location));
+  }
+
+  private static Target rule(String label, String ruleClass, Attribute... attributes) {
+    return Target.newBuilder()
+        .setType(Target.Discriminator.RULE)
+        .setRule(
+            Rule.newBuilder()
+                .setName(label)
+                .setRuleClass(ruleClass)
+                .addAllAttribute(Arrays.asList(attributes)))
+        .build();
+  }
+
+  private static Attribute stringAttribute(String name, String value) {
+    return Attribute.newBuilder()
+        .setName(name)
+        .setType(Attribute.Discriminator.STRING)
+        .setStringValue(value)
+        .build();
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.query;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.query.GeneratedTarget.MacroData;
+import com.google.idea.blaze.base.query.MacroTargetIndex.Entry;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for the serialization of {@link MacroTargetIndex}. */
+@RunWith(JUnit4.class)
+public class MacroTargetIndexTest {
+
+  @Test
+  public void writeThenRead_preservesEntries() throws IOException {
+    HashCode fooHash = HashCode.fromLong(1234L);
+    HashCode barHash = HashCode.fromLong(5678L);
+    ImmutableMap<String, Entry> entries =
+        ImmutableMap.of(
+            "/root/foo/BUILD",
+            new Entry(
+                fooHash,
+                /* modificationStamp= */ 1,
+                ImmutableList.of(
+                    new GeneratedTarget(
+                        "java_library",
+                        Label.create("//foo:lib"),
+                        new MacroData(12, "my_macro", "lib")),
+                    new GeneratedTarget(
+                        "genrule", Label.create("//foo:gen"), new MacroData(20, "other", null)))),
+            "/root/foo/bar/BUILD",
+            new Entry(barHash, /* modificationStamp= */ 2, ImmutableList.of()));
+
+    Map<String, Entry> read = roundTrip(entries);
+
+    assertThat(read.keySet()).containsExactly("/root/foo/BUILD", "/root/foo/bar/BUILD");
+    assertThat(read.get("/root/foo/BUILD").contentHash).isEqualTo(fooHash);
+    assertThat(read.get("/root/foo/bar/BUILD").contentHash).isEqualTo(barHash);
+    assertThat(read.get("/root/foo/bar/BUILD").targets).isEmpty();
+
+    ImmutableList<GeneratedTarget> targets = read.get("/root/foo/BUILD").targets;
+    assertThat(targets).hasSize(2);
+    assertThat(targets.get(0).ruleType).isEqualTo("java_library");
+    assertThat(targets.get(0).label).isEqualTo(Label.create("//foo:lib"));
+    assertThat(targets.get(0).macro).isEqualTo(new MacroData(12, "my_macro", "lib"));
+    assertThat(targets.get(1).ruleType).isEqualTo("genrule");
+    assertThat(targets.get(1).label).isEqualTo(Label.create("//foo:gen"));
+    assertThat(targets.get(1).macro).isEqualTo(new MacroData(20, "other", null));
+  }
+
+  @Test
+  public void read_unknownFormatVersion_returnsNoEntries() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(-1);
+    out.writeInt(1);
+    out.flush();
+
+    Map<String, Entry> read =
+        MacroTargetIndex.readEntries(
+            new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertThat(read).isEmpty();
+  }
+
+  private static Map<String, Entry> roundTrip(Map<String, Entry> entries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    MacroTargetIndex.writeEntries(entries, out);
+    out.flush();
+    return MacroTargetIndex.readEntries(
+        new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+  }
+}
@@ -18,6 +18,7 @@ package com.google.idea.blaze.base.run.smrunner;
 import static com.google.common.truth.Truth.assertThat;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.ErrorOrFailureOrSkipped;
@@ -26,6 +27,8 @@ import com.google.idea.blaze.base.run.smrunner.BlazeXmlSchema.TestSuite;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Collectors;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -212,9 +215,64 @@ public class BlazeXmlSchemaTest {
     assertThat(BlazeXmlSchema.getErrorContent(testCase.errors.get(0))).isNull();
   }
 
+  @Test
+  public void testStreamingParsePassesOnEachTopLevelSuite() throws Exception {
+    List<String> suiteNames = new ArrayList<>();
+    boolean wrapped =
+        BlazeXmlSchema.parse(
+            asStream(
+                "<?xml version='1.0' encoding='UTF-8'?>",
+                "<testsuites>",
+                "  <testsuite name='foo'>",
+                "    <testsuite name='foo.inner'/>",
+                "  </testsuite>",
+                "  <properties><property name='a' value='b'/></properties>",
+                "  <testsuite name='bar'/>",
+                "</testsuites>"),
+            suite -> suiteNames.add(suite.name));
+
+    assertThat(wrapped).isTrue();
+    assertThat(suiteNames).containsExactly("foo", "bar").inOrder();
+  }
+
+  @Test
+  public void testErrorContentIsSplitAtChildElements() {
+    TestSuite parsed =
+        parseXml(
+            "<testsuite name='com.google.ConfigTest'>",
+            "  <testcase name='testCase1' status='run'>",
+            "    <failure message='failed'>first<expected><value>a</value></expected>",
+            "<![CDATA[second]]><unknown>ignored</unknown></failure>",
+            "  </testcase>",
+            "</testsuite>");
+
+    ErrorOrFailureOrSkipped failure = parsed.testCases.get(0).failures.get(0);
+    assertThat(BlazeXmlSchema.getErrorContent(failure)).isEqualTo("first\nsecond");
+    assertThat(failure.expected.values).containsExactly("a");
+  }
+
+  @Test
+  public void testLongOutputIsTruncated() {
+    String output = Strings.repeat("x", BlazeXmlSchema.MAX_TEXT_LENGTH + 10);
+    TestSuite parsed =
+        parseXml(
+            "<testsuite name='com.google.ConfigTest'>",
+            "  <testcase name='testCase1' status='run'>",
+            "    <system-out><![CDATA[" + output + "]]></system-out>",
+            "  </testcase>",
+            "</testsuite>");
+
+    String sysOut = parsed.testCases.get(0).sysOut;
+    assertThat(sysOut).startsWith(output.substring(0, BlazeXmlSchema.MAX_TEXT_LENGTH));
+    assertThat(sysOut).doesNotContain(output);
+    assertThat(sysOut).contains("10 more characters not shown");
+  }
+
   private static TestSuite parseXml(String... lines) {
-    InputStream stream =
-        new ByteArrayInputStream(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
-    return BlazeXmlSchema.parse(stream);
+    return BlazeXmlSchema.parse(asStream(lines));
+  }
+
+  private static InputStream asStream(String... lines) {
+    return new ByteArrayInputStream(Joiner.on('\n').join(lines).getBytes(StandardCharsets.UTF_8));
   }
 }
@@ -0,0 +1,347 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataManager;
+import com.google.idea.blaze.base.model.primitives.WorkspaceRoot;
+import com.google.idea.blaze.base.sync.data.BlazeProjectDataManager;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.impl.ProgressManagerImpl;
+import com.intellij.openapi.project.Project;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SyncCache}. */
+@RunWith(JUnit4.class)
+public class SyncCacheTest extends BlazeTestCase {
+
+  private final WorkspaceRoot workspaceRoot = new WorkspaceRoot(new File("/"));
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+  private BlazeProjectData projectData;
+  private MockBlazeProjectDataManager projectDataManager;
+  private ExtensionPointImpl<SyncCache.Warmer> warmers;
+  private SyncCache syncCache;
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(ProgressManager.class, new ProgressManagerImpl());
+    projectData = MockBlazeProjectDataBuilder.builder(workspaceRoot).build();
+    projectDataManager = new MockBlazeProjectDataManager(projectData);
+    projectServices.register(BlazeProjectDataManager.class, projectDataManager);
+    warmers = registerExtensionPoint(SyncCache.Warmer.EP_NAME, SyncCache.Warmer.class);
+    syncCache = new SyncCache(project);
+    projectServices.register(SyncCache.class, syncCache);
+  }
+
+  @After
+  public void shutDownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void get_computesOncePerSync() {
+    AtomicInteger computeCount = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable = (p, pd) -> computeCount.incrementAndGet();
+
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+    syncCache.clear();
+    assertThat(syncCache.get("key", computable)).isEqualTo(2);
+  }
+
+  @Test
+  public void get_slowComputationDoesNotBlockOtherKeys() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> slow =
+        executor.submit(
+            () ->
+                syncCache.get(
+                    "slow",
+                    (p, pd) -> {
+                      started.countDown();
+                      awaitUninterruptibly(release);
+                      return "slow value";
+                    }));
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+    Future<String> fast = executor.submit(() -> syncCache.get("fast", (p, pd) -> "fast value"));
+
+    assertThat(fast.get(10, TimeUnit.SECONDS)).isEqualTo("fast value");
+    assertThat(slow.isDone()).isFalse();
+    release.countDown();
+    assertThat(slow.get(10, TimeUnit.SECONDS)).isEqualTo("slow value");
+  }
+
+  @Test
+  public void get_concurrentLookupsShareOneComputation() throws Exception {
+    AtomicInteger computeCount = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    SyncCache.SyncCacheComputable<Integer> computable =
+        (p, pd) -> {
+          started.countDown();
+          awaitUninterruptibly(release);
+          return computeCount.incrementAndGet();
+        };
+    Future<Integer> first = executor.submit(() -> syncCache.get("key", computable));
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    Future<Integer> second = executor.submit(() -> syncCache.get("key", computable));
+
+    release.countDown();
+
+    assertThat(first.get(10, TimeUnit.SECONDS)).isEqualTo(1);
+    assertThat(second.get(10, TimeUnit.SECONDS)).isEqualTo(1);
+    assertThat(computeCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void get_waiterRecomputesWhenComputingThreadIsCanceled() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    Future<String> canceled =
+        executor.submit(
+            () ->
+                syncCache.get(
+                    "key",
+                    (p, pd) -> {
+                      started.countDown();
+                      awaitUninterruptibly(release);
+                      throw new ProcessCanceledException();
+                    }));
+    assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+    Future<String> waiter = executor.submit(() -> syncCache.get("key", (p, pd) -> "value"));
+
+    release.countDown();
+
+    assertThat(waiter.get(10, TimeUnit.SECONDS)).isEqualTo("value");
+    try {
+      canceled.get(10, TimeUnit.SECONDS);
+      fail("Expected the computing thread's cancellation to be rethrown to it");
+    } catch (ExecutionException expected) {
+      assertThat(expected).hasCauseThat().isInstanceOf(ProcessCanceledException.class);
+    }
+  }
+
+  @Test
+  public void get_failedComputationIsRetried() {
+    try {
+      syncCache.get(
+          "key",
+          (p, pd) -> {
+            throw new IllegalArgumentException("failed");
+          });
+      fail("Expected the computation's exception to be rethrown");
+    } catch (IllegalArgumentException expected) {
+      assertThat(expected).hasMessageThat().isEqualTo("failed");
+    }
+
+    assertThat(syncCache.get("key", (p, pd) -> "value")).isEqualTo("value");
+  }
+
+  @Test
+  public void get_recordsComputationStats() {
+    syncCache.get(SyncCacheTest.class, (p, pd) -> "value");
+
+    assertThat(syncCache.getComputationStats()).containsKey(SyncCacheTest.class.getName());
+  }
+
+  @Test
+  public void warm_precomputesRegisteredValues() throws Exception {
+    AtomicInteger computeCount = new AtomicInteger();
+    SyncCache.SyncCacheComputable<Integer> computable = (p, pd) -> computeCount.incrementAndGet();
+    warmers.registerExtension((p, data) -> SyncCache.getInstance(p).get("key", computable));
+
+    syncCache.warm(projectData, MoreExecutors.newDirectExecutorService()).get();
+
+    assertThat(computeCount.get()).isEqualTo(1);
+    assertThat(syncCache.get("key", computable)).isEqualTo(1);
+  }
+
+  @Test
+  public void warm_failingWarmerDoesNotAffectOthers() throws Exception {
+    warmers.registerExtension(
+        (p, data) -> {
+          throw new IllegalStateException("failed");
+        });
+    warmers.registerExtension(
+        (p, data) -> SyncCache.getInstance(p).get("key", (p2, pd) -> "value"));
+
+    syncCache.warm(projectData, MoreExecutors.newDirectExecutorService()).get();
+
+    assertThat(syncCache.getComputationStats()).containsKey("key");
+  }
+
+  @Test
+  public void get_persistedValueLoadedAfterRestart() throws IOException {
+    File dir = folder.newFolder("sync_cache");
+    projectDataManager.setFingerprint("sync-1");
+    AtomicInteger computeCount = new AtomicInteger();
+    SyncCache.SyncCacheComputable<String> computable =
+        (p, pd) -> "value " + computeCount.incrementAndGet();
+
+    assertThat(persistingSyncCache(dir).get("key", computable, new StringPersister()))
+        .isEqualTo("value 1");
+    assertThat(persistingSyncCache(dir).get("key", computable, new StringPersister()))
+        .isEqualTo("value 1");
+    assertThat(computeCount.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void get_persistedValueOfOtherSyncIsRecomputed() throws IOException {
+    File dir = folder.newFolder("sync_cache");
+    AtomicInteger computeCount = new AtomicInteger();
+    SyncCache.SyncCacheComputable<String> computable =
+        (p, pd) -> "value " + computeCount.incrementAndGet();
+    projectDataManager.setFingerprint("sync-1");
+    persistingSyncCache(dir).get("key", computable, new StringPersister());
+
+    projectDataManager.setFingerprint("sync-2");
+
+    assertThat(persistingSyncCache(dir).get("key", computable, new StringPersister()))
+        .isEqualTo("value 2");
+  }
+
+  @Test
+  public void get_unreadablePersistedValueIsRecomputed() throws IOException {
+    File dir = folder.newFolder("sync_cache");
+    projectDataManager.setFingerprint("sync-1");
+    persistingSyncCache(dir).get("key", (p, pd) -> "value", new StringPersister());
+    for (File file : dir.listFiles()) {
+      Files.write(file.toPath(), new byte[] {1, 2, 3});
+    }
+
+    SyncCache restarted = persistingSyncCache(dir);
+    assertThat(restarted.get("key", (p, pd) -> "recomputed", new StringPersister()))
+        .isEqualTo("recomputed");
+  }
+
+  @Test
+  public void getIncrementally_persistedValueSeedsNextSync() throws IOException {
+    File dir = folder.newFolder("sync_cache");
+    projectDataManager.setFingerprint("sync-1");
+    persistingSyncCache(dir)
+        .getIncrementally("key", (p, pd, previous, delta) -> "value", new StringPersister());
+
+    SyncCache restarted = persistingSyncCache(dir);
+    assertThat(
+            restarted.getIncrementally(
+                "key",
+                (p, pd, previous, delta) -> previous + " recomputed",
+                new StringPersister()))
+        .isEqualTo("value");
+  }
+
+  @Test
+  public void getIncrementally_persistedInBackgroundBeforeNextSyncUpdatesValue()
+      throws IOException {
+    File dir = folder.newFolder("sync_cache");
+    List<Runnable> writes = new ArrayList<>();
+    SyncCache cache = new SyncCache(project, dir, writes::add);
+    projectDataManager.setFingerprint("sync-1");
+    cache.getIncrementally("key", (p, pd, previous, delta) -> "value", new StringPersister());
+
+    // nothing is written on the computing thread
+    assertThat(dir.listFiles()).isEmpty();
+    assertThat(writes).hasSize(1);
+
+    projectDataManager.setBlazeProjectData(
+        MockBlazeProjectDataBuilder.builder(workspaceRoot).build());
+    projectDataManager.setFingerprint("sync-2");
+    cache.clear();
+    AtomicBoolean writtenBeforeUpdate = new AtomicBoolean();
+    assertThat(
+            cache.getIncrementally(
+                "key",
+                (p, pd, previous, delta) -> {
+                  writtenBeforeUpdate.set(dir.listFiles().length == 1);
+                  return previous + " updated";
+                },
+                new StringPersister()))
+        .isEqualTo("value updated");
+    assertThat(writtenBeforeUpdate.get()).isTrue();
+
+    writes.forEach(Runnable::run);
+    assertThat(
+            persistingSyncCache(dir)
+                .getIncrementally(
+                    "key", (p, pd, previous, delta) -> "recomputed", new StringPersister()))
+        .isEqualTo("value updated");
+  }
+
+  /** Returns a cache persisting values to the given directory, on the calling thread. */
+  private SyncCache persistingSyncCache(File dir) {
+    return new SyncCache(project, dir, MoreExecutors.directExecutor());
+  }
+
+  private static class StringPersister implements SyncCache.Persister<String> {
+    @Override
+    public int getFormatVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(String value, DataOutput out) throws IOException {
+      out.writeUTF(value);
+    }
+
+    @Override
+    public String read(Project project, BlazeProjectData projectData, DataInput in)
+        throws IOException {
+      return in.readUTF();
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.sync.aspects;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.command.buildresult.LocalFileOutputArtifact;
+import com.google.idea.blaze.base.command.buildresult.OutputArtifact;
+import com.google.idea.blaze.base.prefetch.MockPrefetchService;
+import com.google.idea.blaze.base.prefetch.PrefetchService;
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.jetbrains.annotations.NotNull;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link PipelinedAspectOutputReader}. */
+@RunWith(JUnit4.class)
+public class PipelinedAspectOutputReaderTest extends BlazeTestCase {
+
+  private final ListeningExecutorService executor =
+      MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    applicationServices.register(PrefetchService.class, new MockPrefetchService());
+  }
+
+  @After
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void testEveryFileIsParsedOnceWithCorrectIndex() throws Exception {
+    ImmutableList<OutputArtifact> files = files(103);
+    Set<Integer> parsed = ConcurrentHashMap.newKeySet();
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+
+    PipelinedAspectOutputReader.Pipeline pipeline =
+        new PipelinedAspectOutputReader("project", executor, /* batchSize= */ 10, 2)
+            .start(
+                files,
+                (firstIndex, batch) -> {
+                  maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                  for (int i = 0; i < batch.size(); i++) {
+                    assertThat(batch.get(i)).isSameAs(files.get(firstIndex + i));
+                    assertThat(parsed.add(firstIndex + i)).isTrue();
+                  }
+                  Thread.sleep(5);
+                  inFlight.decrementAndGet();
+                });
+    pipeline.parsed().get();
+
+    assertThat(parsed).hasSize(103);
+    assertThat(pipeline.remoteFetched().isDone()).isTrue();
+    assertThat(pipeline.localFetched().isDone()).isTrue();
+    assertThat(maxInFlight.get()).isAtMost(2);
+  }
+
+  @Test
+  public void testParseFailureIsPropagated() throws Exception {
+    AtomicInteger batchesParsed = new AtomicInteger();
+    try {
+      new PipelinedAspectOutputReader("project", executor, /* batchSize= */ 1, 1)
+          .start(
+              files(50),
+              (firstIndex, batch) -> {
+                batchesParsed.incrementAndGet();
+                if (firstIndex == 3) {
+                  throw new IOException("corrupt aspect output");
+                }
+              })
+          .parsed()
+          .get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+    }
+    // no new batches are started once one has failed
+    assertThat(batchesParsed.get()).isLessThan(50);
+  }
+
+  @Test
+  public void testCancelStopsStartingBatchesAndFailsFetchPhases() throws Exception {
+    CountDownLatch firstBatchStarted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger batchesParsed = new AtomicInteger();
+    PipelinedAspectOutputReader.Pipeline pipeline =
+        new PipelinedAspectOutputReader("project", executor, /* batchSize= */ 1, 1)
+            .start(
+                files(50),
+                (firstIndex, batch) -> {
+                  batchesParsed.incrementAndGet();
+                  firstBatchStarted.countDown();
+                  release.await();
+                });
+    firstBatchStarted.await();
+
+    pipeline.cancel();
+    release.countDown();
+
+    assertThat(pipeline.parsed().isCancelled()).isTrue();
+    // callers waiting on an earlier phase mustn't block forever
+    try {
+      pipeline.localFetched().get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertThat(e).hasCauseThat().isInstanceOf(CancellationException.class);
+    }
+    assertThat(batchesParsed.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void testNoFiles() throws Exception {
+    PipelinedAspectOutputReader.Pipeline pipeline =
+        new PipelinedAspectOutputReader("project", executor)
+            .start(ImmutableList.of(), (firstIndex, batch) -> fail("Unexpected batch"));
+
+    assertThat(pipeline.remoteFetched().isDone()).isTrue();
+    assertThat(pipeline.localFetched().isDone()).isTrue();
+    assertThat(pipeline.parsed().isDone()).isTrue();
+  }
+
+  private static ImmutableList<OutputArtifact> files(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(
+            i ->
+                new LocalFileOutputArtifact(
+                    new File("/out/" + i + ".intellij-info.txt"),
+                    "k8-fastbuild/bin/" + i + ".intellij-info.txt",
+                    "k8-fastbuild"))
+        .collect(toImmutableList());
+  }
+}
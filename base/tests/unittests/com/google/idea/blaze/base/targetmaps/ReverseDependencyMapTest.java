@@ -17,19 +17,30 @@ package com.google.idea.blaze.base.targetmaps;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.ideinfo.TargetMap;
 import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
 import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
 import com.google.idea.blaze.base.model.primitives.Kind;
 import com.google.idea.blaze.base.model.primitives.Kind.Provider;
 import com.google.idea.blaze.base.model.primitives.Label;
 import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -68,7 +79,8 @@ public class ReverseDependencyMapTest extends BlazeTestCase {
 
     ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
         ReverseDependencyMap.createRdepsMap(
-            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build());
+            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build())
+            .toMultimap();
     assertThat(reverseDependencies)
         .containsEntry(
             TargetKey.forPlainTarget(Label.create("//l:l2")),
@@ -101,7 +113,8 @@ public class ReverseDependencyMapTest extends BlazeTestCase {
 
     ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
         ReverseDependencyMap.createRdepsMap(
-            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build());
+            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build())
+            .toMultimap();
     assertThat(reverseDependencies)
         .containsEntry(
             TargetKey.forPlainTarget(Label.create("//l:l2")),
@@ -138,7 +151,8 @@ public class ReverseDependencyMapTest extends BlazeTestCase {
 
     ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
         ReverseDependencyMap.createRdepsMap(
-            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build());
+            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build())
+            .toMultimap();
     assertThat(reverseDependencies)
         .containsEntry(
             TargetKey.forPlainTarget(Label.create("//l:l3")),
@@ -187,7 +201,8 @@ public class ReverseDependencyMapTest extends BlazeTestCase {
 
     ImmutableMultimap<TargetKey, TargetKey> reverseDependencies =
         ReverseDependencyMap.createRdepsMap(
-            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build());
+            getProject(), MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build())
+            .toMultimap();
     assertThat(reverseDependencies)
         .containsEntry(
             TargetKey.forPlainTarget(Label.create("//l:l3")),
@@ -206,6 +221,218 @@ public class ReverseDependencyMapTest extends BlazeTestCase {
             TargetKey.forPlainTarget(Label.create("//l:l5")));
   }
 
+  @Test
+  public void testIncrementalUpdateMatchesFullComputation() {
+    TargetMap oldTargetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1").addDependency("//l:l2"))
+            .addTarget(target("//l:l2"))
+            .addTarget(target("//l:l3").addDependency("//l:l2"))
+            .addTarget(target("//l:l4").addDependency("//l:l5"))
+            .addTarget(target("//l:l6"))
+            .addTarget(target("//l:l7").addDependency("//l:l6"))
+            .addTarget(target("//l:l8"))
+            .build();
+    ReverseDependencyMap oldState =
+        ReverseDependencyMap.computeState(
+            getProject(),
+            MockBlazeProjectDataBuilder.builder().setTargetMap(oldTargetMap).build(),
+            null,
+            null);
+
+    // l3 now depends on l6 rather than l2, and the previously missing l5 is added
+    TargetMap newTargetMap =
+        TargetMap.derivedFrom(
+            oldTargetMap,
+            TargetMapBuilder.builder()
+                .addTarget(oldTargetMap.get(key("//l:l1")))
+                .addTarget(oldTargetMap.get(key("//l:l2")))
+                .addTarget(target("//l:l3").addDependency("//l:l6"))
+                .addTarget(oldTargetMap.get(key("//l:l4")))
+                .addTarget(target("//l:l5"))
+                .addTarget(oldTargetMap.get(key("//l:l6")))
+                .addTarget(oldTargetMap.get(key("//l:l7")))
+                .addTarget(oldTargetMap.get(key("//l:l8")))
+                .build()
+                .map(),
+            ImmutableSet.of(key("//l:l3"), key("//l:l5")));
+    TargetMap.Delta delta = newTargetMap.getDeltaFrom(oldTargetMap);
+    assertThat(delta).isNotNull();
+
+    BlazeProjectData newProjectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(newTargetMap).build();
+    ReverseDependencyMap newState =
+        ReverseDependencyMap.computeState(getProject(), newProjectData, oldState, delta);
+
+    assertThat(newState.toMultimap())
+        .containsExactlyEntriesIn(
+            ReverseDependencyMap.createRdepsMap(getProject(), newProjectData).toMultimap());
+    assertThat(newState.toMultimap()).containsEntry(key("//l:l5"), key("//l:l4"));
+    assertThat(newState.toMultimap()).containsEntry(key("//l:l6"), key("//l:l3"));
+    assertThat(newState.toMultimap()).containsEntry(key("//l:l6"), key("//l:l7"));
+    assertThat(newState.toMultimap()).doesNotContainEntry(key("//l:l2"), key("//l:l3"));
+  }
+
+  @Test
+  public void testIncrementalUpdateDoesNotModifyPreviousMap() {
+    TargetMap oldTargetMap =
+        withUnchangedTargets(TargetMapBuilder.builder())
+            .addTarget(target("//l:l1").addDependency("//l:l2"))
+            .addTarget(target("//l:l2"))
+            .addTarget(target("//l:l3"))
+            .build();
+    ReverseDependencyMap oldState =
+        ReverseDependencyMap.computeState(
+            getProject(),
+            MockBlazeProjectDataBuilder.builder().setTargetMap(oldTargetMap).build(),
+            null,
+            null);
+    ImmutableMultimap<TargetKey, TargetKey> oldRdeps = oldState.toMultimap();
+
+    TargetMap newTargetMap =
+        TargetMap.derivedFrom(
+            oldTargetMap,
+            withUnchangedTargets(TargetMapBuilder.builder())
+                .addTarget(target("//l:l1").addDependency("//l:l3"))
+                .addTarget(oldTargetMap.get(key("//l:l2")))
+                .addTarget(oldTargetMap.get(key("//l:l3")))
+                .build()
+                .map(),
+            ImmutableSet.of(key("//l:l1")));
+    TargetMap.Delta delta = newTargetMap.getDeltaFrom(oldTargetMap);
+    assertThat(delta).isNotNull();
+    ReverseDependencyMap newState =
+        ReverseDependencyMap.computeState(
+            getProject(),
+            MockBlazeProjectDataBuilder.builder().setTargetMap(newTargetMap).build(),
+            oldState,
+            delta);
+
+    assertThat(newState.get(key("//l:l3"))).containsExactly(key("//l:l1"));
+    assertThat(oldState.toMultimap()).containsExactlyEntriesIn(oldRdeps);
+    assertThat(oldState.get(key("//l:l2"))).containsExactly(key("//l:l1"));
+    assertThat(oldState.get(key("//l:l3"))).isEmpty();
+  }
+
+  @Test
+  public void testRepeatedIncrementalUpdatesMatchFullComputation() {
+    // enough targets for the map to be split into many shards
+    int targetCount = 2000;
+    Random random = new Random(42);
+    Map<TargetKey, TargetIdeInfo> targets = new LinkedHashMap<>();
+    for (int i = 0; i < targetCount; i++) {
+      TargetIdeInfo target = randomTarget(random, i, targetCount);
+      targets.put(target.getKey(), target);
+    }
+    TargetMap targetMap = new TargetMap(ImmutableMap.copyOf(targets));
+    ReverseDependencyMap state =
+        ReverseDependencyMap.computeState(
+            getProject(),
+            MockBlazeProjectDataBuilder.builder().setTargetMap(targetMap).build(),
+            null,
+            null);
+
+    for (int sync = 0; sync < 10; sync++) {
+      ImmutableSet.Builder<TargetKey> changedKeys = ImmutableSet.builder();
+      for (int j = 0; j < 50; j++) {
+        int i = random.nextInt(targetCount + 100);
+        TargetKey key = key("//l:l" + i);
+        changedKeys.add(key);
+        if (random.nextInt(4) == 0) {
+          targets.remove(key);
+        } else {
+          targets.put(key, randomTarget(random, i, targetCount));
+        }
+      }
+      TargetMap newTargetMap =
+          TargetMap.derivedFrom(targetMap, ImmutableMap.copyOf(targets), changedKeys.build());
+      TargetMap.Delta delta = newTargetMap.getDeltaFrom(targetMap);
+      assertThat(delta).isNotNull();
+      BlazeProjectData projectData =
+          MockBlazeProjectDataBuilder.builder().setTargetMap(newTargetMap).build();
+
+      state = ReverseDependencyMap.computeState(getProject(), projectData, state, delta);
+
+      assertThat(state.toMultimap())
+          .containsExactlyEntriesIn(
+              ReverseDependencyMap.createRdepsMap(getProject(), projectData).toMultimap());
+      targetMap = newTargetMap;
+    }
+  }
+
+  /** Adds enough unchanged targets for small changes to be applied incrementally. */
+  private static TargetMapBuilder withUnchangedTargets(TargetMapBuilder builder) {
+    for (int i = 0; i < 20; i++) {
+      builder.addTarget(target("//unchanged:t" + i));
+    }
+    return builder;
+  }
+
+  private static TargetIdeInfo randomTarget(Random random, int index, int targetCount) {
+    TargetIdeInfo.Builder target = target("//l:l" + index);
+    // some dependencies are missing from the target map
+    random
+        .ints(random.nextInt(5), 0, targetCount + 100)
+        .distinct()
+        .forEach(dep -> target.addDependency("//l:l" + dep));
+    return target.build();
+  }
+
+  @Test
+  public void testPersistedStateRoundTrip() throws IOException {
+    TargetMap oldTargetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//l:l1").addDependency("//l:l2"))
+            .addTarget(target("//l:l2"))
+            .addTarget(target("//l:l4").addDependency("//l:l5"))
+            .build();
+    BlazeProjectData oldProjectData =
+        MockBlazeProjectDataBuilder.builder().setTargetMap(oldTargetMap).build();
+    ReverseDependencyMap state =
+        ReverseDependencyMap.computeState(getProject(), oldProjectData, null, null);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    new ReverseDependencyMap.Persister().write(state, new DataOutputStream(bytes));
+    ReverseDependencyMap loaded =
+        new ReverseDependencyMap.Persister()
+            .read(
+                getProject(),
+                oldProjectData,
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    assertThat(loaded.toMultimap()).containsExactlyEntriesIn(state.toMultimap());
+
+    // edges of dependencies missing from the target map are persisted too
+    TargetMap newTargetMap =
+        TargetMap.derivedFrom(
+            oldTargetMap,
+            TargetMapBuilder.builder()
+                .addTarget(oldTargetMap.get(key("//l:l1")))
+                .addTarget(oldTargetMap.get(key("//l:l2")))
+                .addTarget(oldTargetMap.get(key("//l:l4")))
+                .addTarget(target("//l:l5"))
+                .build()
+                .map(),
+            ImmutableSet.of(key("//l:l5")));
+    ReverseDependencyMap newState =
+        ReverseDependencyMap.computeState(
+            getProject(),
+            MockBlazeProjectDataBuilder.builder().setTargetMap(newTargetMap).build(),
+            loaded,
+            newTargetMap.getDeltaFrom(oldTargetMap));
+    assertThat(newState.toMultimap()).containsEntry(key("//l:l5"), key("//l:l4"));
+  }
+
+  private static TargetIdeInfo.Builder target(String label) {
+    return TargetIdeInfo.builder()
+        .setBuildFile(sourceRoot("test/BUILD"))
+        .setLabel(label)
+        .setKind("proto_library");
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
   private static ArtifactLocation sourceRoot(String relativePath) {
     return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
   }
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.BlazeProjectData;
+import com.google.idea.blaze.base.model.MockBlazeProjectDataBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Kind.Provider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
+import com.google.idea.blaze.base.targetmaps.SourceToTargetMapImpl.SourceToTargetState;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for the incremental updates of {@link SourceToTargetMapImpl}. */
+@RunWith(JUnit4.class)
+public class SourceToTargetMapImplTest extends BlazeTestCase {
+  private ArtifactLocationDecoder decoder;
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+    decoder = MockBlazeProjectDataBuilder.builder().build().getArtifactLocationDecoder();
+  }
+
+  @Test
+  public void testIncrementalUpdateMatchesFullComputation() {
+    TargetMap oldTargetMap =
+        withUnchangedTargets(TargetMapBuilder.builder())
+            .addTarget(target("//a:a", "a/A.java", "a/Shared.java"))
+            .addTarget(target("//a:b", "a/B.java", "a/Shared.java"))
+            .addTarget(target("//c:c", "c/C.java"))
+            .build();
+    SourceToTargetState oldState = computeFull(oldTargetMap);
+    ImmutableMultimap<File, TargetKey> oldSourceToTargets = oldState.toMultimap();
+
+    // b no longer includes the shared source, c is removed and d is added
+    TargetMap newTargetMap =
+        TargetMap.derivedFrom(
+            oldTargetMap,
+            withUnchangedTargets(TargetMapBuilder.builder())
+                .addTarget(oldTargetMap.get(key("//a:a")))
+                .addTarget(target("//a:b", "a/B.java"))
+                .addTarget(target("//d:d", "d/D.java", "c/C.java"))
+                .build()
+                .map(),
+            ImmutableSet.of(key("//a:b"), key("//c:c"), key("//d:d")));
+    SourceToTargetState newState = computeIncrementally(newTargetMap, oldTargetMap, oldState);
+
+    assertThat(newState.toMultimap())
+        .containsExactlyEntriesIn(computeFull(newTargetMap).toMultimap());
+    assertThat(newState.get(file("a/Shared.java"))).containsExactly(key("//a:a"));
+    assertThat(newState.get(file("c/C.java"))).containsExactly(key("//d:d"));
+    // the previous state may still be in use, so mustn't be modified
+    assertThat(oldState.toMultimap()).containsExactlyEntriesIn(oldSourceToTargets);
+  }
+
+  @Test
+  public void testRepeatedIncrementalUpdatesMatchFullComputation() {
+    // enough sources for the map to be split into many shards
+    int targetCount = 2000;
+    Random random = new Random(42);
+    Map<TargetKey, TargetIdeInfo> targets = new LinkedHashMap<>();
+    for (int i = 0; i < targetCount; i++) {
+      TargetIdeInfo target = randomTarget(random, i, targetCount);
+      targets.put(target.getKey(), target);
+    }
+    TargetMap targetMap = new TargetMap(ImmutableMap.copyOf(targets));
+    SourceToTargetState state = computeFull(targetMap);
+
+    for (int sync = 0; sync < 10; sync++) {
+      ImmutableSet.Builder<TargetKey> changedKeys = ImmutableSet.builder();
+      for (int j = 0; j < 50; j++) {
+        int i = random.nextInt(targetCount + 100);
+        TargetKey key = key("//l:l" + i);
+        changedKeys.add(key);
+        if (random.nextInt(4) == 0) {
+          targets.remove(key);
+        } else {
+          targets.put(key, randomTarget(random, i, targetCount));
+        }
+      }
+      TargetMap newTargetMap =
+          TargetMap.derivedFrom(targetMap, ImmutableMap.copyOf(targets), changedKeys.build());
+
+      state = computeIncrementally(newTargetMap, targetMap, state);
+
+      assertThat(state.toMultimap())
+          .containsExactlyEntriesIn(computeFull(newTargetMap).toMultimap());
+      targetMap = newTargetMap;
+    }
+  }
+
+  /** Adds enough unchanged targets for small changes to be applied incrementally. */
+  private static TargetMapBuilder withUnchangedTargets(TargetMapBuilder builder) {
+    for (int i = 0; i < 20; i++) {
+      builder.addTarget(target("//unchanged:t" + i, "unchanged/T" + i + ".java"));
+    }
+    return builder;
+  }
+
+  private SourceToTargetState computeFull(TargetMap targetMap) {
+    return SourceToTargetMapImpl.computeState(getProject(), projectData(targetMap), null, null);
+  }
+
+  private SourceToTargetState computeIncrementally(
+      TargetMap targetMap, TargetMap previousTargetMap, SourceToTargetState previous) {
+    TargetMap.Delta delta = targetMap.getDeltaFrom(previousTargetMap);
+    assertThat(delta).isNotNull();
+    return SourceToTargetMapImpl.computeState(
+        getProject(), projectData(targetMap), previous, delta);
+  }
+
+  private BlazeProjectData projectData(TargetMap targetMap) {
+    return MockBlazeProjectDataBuilder.builder()
+        .setTargetMap(targetMap)
+        .setArtifactLocationDecoder(decoder)
+        .build();
+  }
+
+  private File file(String relativePath) {
+    return decoder.resolveSource(source(relativePath));
+  }
+
+  private static TargetIdeInfo randomTarget(Random random, int index, int targetCount) {
+    TargetIdeInfo.Builder target = target("//l:l" + index);
+    // sources are often shared between targets
+    random
+        .ints(random.nextInt(4), 0, targetCount)
+        .distinct()
+        .forEach(source -> target.addSource(source("l/Source" + source + ".java")));
+    return target.build();
+  }
+
+  private static TargetIdeInfo.Builder target(String label, String... sources) {
+    TargetIdeInfo.Builder target =
+        TargetIdeInfo.builder()
+            .setBuildFile(source("test/BUILD"))
+            .setLabel(label)
+            .setKind("proto_library");
+    for (String source : sources) {
+      target.addSource(source(source));
+    }
+    return target;
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+
+  private static ArtifactLocation source(String relativePath) {
+    return ArtifactLocation.builder().setRelativePath(relativePath).setIsSource(true).build();
+  }
+}
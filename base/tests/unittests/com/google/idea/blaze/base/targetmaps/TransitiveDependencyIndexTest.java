@@ -0,0 +1,249 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.targetmaps;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.idea.blaze.base.BlazeTestCase;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
+import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
+import com.google.idea.blaze.base.ideinfo.TargetKey;
+import com.google.idea.blaze.base.ideinfo.TargetMap;
+import com.google.idea.blaze.base.ideinfo.TargetMapBuilder;
+import com.google.idea.blaze.base.model.primitives.GenericBlazeRules;
+import com.google.idea.blaze.base.model.primitives.Kind;
+import com.google.idea.blaze.base.model.primitives.Kind.Provider;
+import com.google.idea.blaze.base.model.primitives.Label;
+import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TransitiveDependencyIndex}. */
+@RunWith(JUnit4.class)
+public class TransitiveDependencyIndexTest extends BlazeTestCase {
+
+  @Override
+  protected void initTest(
+      @NotNull Container applicationServices, @NotNull Container projectServices) {
+    super.initTest(applicationServices, projectServices);
+    ExtensionPointImpl<Provider> kindProvider =
+        registerExtensionPoint(Kind.Provider.EP_NAME, Kind.Provider.class);
+    kindProvider.registerExtension(new GenericBlazeRules());
+    applicationServices.register(Kind.ApplicationState.class, new Kind.ApplicationState());
+  }
+
+  @Test
+  public void testClosuresMatchBreadthFirstTraversal() {
+    TargetMap targetMap = randomTargetMap(new Random(42), 500);
+    TransitiveDependencyIndex index = TransitiveDependencyIndex.create(targetMap);
+
+    for (TargetKey key : targetMap.map().keySet()) {
+      assertThat(index.getTransitiveDependencies(key))
+          .containsExactlyElementsIn(traverse(key, targetMap))
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void testCyclesAndMissingDependencies() {
+    TargetMap targetMap =
+        TargetMapBuilder.builder()
+            .addTarget(target("//a:a", "//b:b"))
+            .addTarget(target("//b:b", "//a:a", "//missing:missing"))
+            .build();
+    TransitiveDependencyIndex index = TransitiveDependencyIndex.create(targetMap);
+
+    assertThat(index.getTransitiveDependencies(key("//a:a")))
+        .containsExactly(key("//b:b"), key("//a:a"), key("//missing:missing"))
+        .inOrder();
+    assertThat(index.hasTransitiveDependency(key("//a:a"), key("//missing:missing"))).isTrue();
+    assertThat(index.hasTransitiveDependency(key("//missing:missing"), key("//a:a"))).isFalse();
+    assertThat(
+            index.filterPossibleTransitiveDeps(
+                key("//a:a"), ImmutableSet.of(key("//missing:missing"), key("//other:other"))))
+        .containsExactly(key("//missing:missing"));
+  }
+
+  @Test
+  public void testUpdateInvalidatesCachedClosuresOfChangedTargets() {
+    TargetMap oldTargetMap =
+        withUnchangedTargets(TargetMapBuilder.builder())
+            .addTarget(target("//a:a", "//b:b"))
+            .addTarget(target("//b:b", "//c:c"))
+            .addTarget(target("//c:c"))
+            .addTarget(target("//x:x", "//y:y"))
+            .addTarget(target("//y:y"))
+            .build();
+    TransitiveDependencyIndex oldIndex = TransitiveDependencyIndex.create(oldTargetMap);
+    // populate the closure cache
+    assertThat(oldIndex.getTransitiveDependencies(key("//a:a")))
+        .containsExactly(key("//b:b"), key("//c:c"));
+    assertThat(oldIndex.getTransitiveDependencies(key("//x:x"))).containsExactly(key("//y:y"));
+
+    // c gains a dependency, so a's cached closure is stale; x's is still valid
+    TargetMap newTargetMap =
+        TargetMap.derivedFrom(
+            oldTargetMap,
+            withUnchangedTargets(TargetMapBuilder.builder())
+                .addTarget(oldTargetMap.get(key("//a:a")))
+                .addTarget(oldTargetMap.get(key("//b:b")))
+                .addTarget(target("//c:c", "//d:d"))
+                .addTarget(target("//d:d"))
+                .addTarget(oldTargetMap.get(key("//x:x")))
+                .addTarget(oldTargetMap.get(key("//y:y")))
+                .build()
+                .map(),
+            ImmutableSet.of(key("//c:c"), key("//d:d")));
+    TargetMap.Delta delta = newTargetMap.getDeltaFrom(oldTargetMap);
+    assertThat(delta).isNotNull();
+    TransitiveDependencyIndex newIndex =
+        TransitiveDependencyIndex.update(oldIndex, newTargetMap, delta);
+
+    assertThat(newIndex.getTransitiveDependencies(key("//a:a")))
+        .containsExactly(key("//b:b"), key("//c:c"), key("//d:d"))
+        .inOrder();
+    assertThat(newIndex.hasTransitiveDependency(key("//a:a"), key("//d:d"))).isTrue();
+    assertThat(newIndex.getTransitiveDependencies(key("//x:x"))).containsExactly(key("//y:y"));
+    // the previous index may still be in use, so mustn't be modified
+    assertThat(oldIndex.getTransitiveDependencies(key("//a:a")))
+        .containsExactly(key("//b:b"), key("//c:c"));
+  }
+
+  @Test
+  public void testUpdateAfterRemovingTarget() {
+    TargetMap oldTargetMap =
+        withUnchangedTargets(TargetMapBuilder.builder())
+            .addTarget(target("//a:a", "//b:b"))
+            .addTarget(target("//b:b", "//c:c"))
+            .addTarget(target("//c:c"))
+            .build();
+    TransitiveDependencyIndex oldIndex = TransitiveDependencyIndex.create(oldTargetMap);
+    assertThat(oldIndex.getTransitiveDependencies(key("//a:a"))).hasSize(2);
+
+    TargetMap newTargetMap =
+        TargetMap.derivedFrom(
+            oldTargetMap,
+            withUnchangedTargets(TargetMapBuilder.builder())
+                .addTarget(oldTargetMap.get(key("//a:a")))
+                .addTarget(oldTargetMap.get(key("//c:c")))
+                .build()
+                .map(),
+            ImmutableSet.of(key("//b:b")));
+    TransitiveDependencyIndex newIndex =
+        TransitiveDependencyIndex.update(
+            oldIndex, newTargetMap, newTargetMap.getDeltaFrom(oldTargetMap));
+
+    // a still lists b as a dependency, but b's own dependencies are gone
+    assertThat(newIndex.getTransitiveDependencies(key("//a:a"))).containsExactly(key("//b:b"));
+  }
+
+  @Test
+  public void testRepeatedUpdatesMatchFullComputation() {
+    Random random = new Random(7);
+    int targetCount = 500;
+    Map<TargetKey, TargetIdeInfo> targets =
+        new LinkedHashMap<>(randomTargetMap(random, targetCount).map());
+    TargetMap targetMap = new TargetMap(ImmutableMap.copyOf(targets));
+    TransitiveDependencyIndex index = TransitiveDependencyIndex.create(targetMap);
+
+    for (int sync = 0; sync < 10; sync++) {
+      // query some targets first, so there are cached closures to invalidate
+      for (int i = 0; i < 50; i++) {
+        index.getTransitiveDependencies(key("//l:l" + random.nextInt(targetCount)));
+      }
+      ImmutableSet.Builder<TargetKey> changedKeys = ImmutableSet.builder();
+      for (int j = 0; j < 20; j++) {
+        int i = random.nextInt(targetCount + 20);
+        TargetKey key = key("//l:l" + i);
+        changedKeys.add(key);
+        if (random.nextInt(4) == 0) {
+          targets.remove(key);
+        } else {
+          targets.put(key, randomTarget(random, i, targetCount));
+        }
+      }
+      TargetMap newTargetMap =
+          TargetMap.derivedFrom(targetMap, ImmutableMap.copyOf(targets), changedKeys.build());
+      // alternate between updates with and without a known delta
+      TargetMap.Delta delta = sync % 2 == 0 ? newTargetMap.getDeltaFrom(targetMap) : null;
+      index = TransitiveDependencyIndex.update(index, newTargetMap, delta);
+
+      for (TargetKey key : newTargetMap.map().keySet()) {
+        assertThat(index.getTransitiveDependencies(key))
+            .containsExactlyElementsIn(traverse(key, newTargetMap))
+            .inOrder();
+      }
+      targetMap = newTargetMap;
+    }
+  }
+
+  /** The reference breadth-first traversal the index replaced. */
+  private static Iterable<TargetKey> traverse(TargetKey key, TargetMap targetMap) {
+    return TransitiveDependencyMap.getTransitiveDependenciesStream(key, targetMap)
+        .collect(toImmutableList());
+  }
+
+  /** Adds enough unchanged targets for small changes to be applied incrementally. */
+  private static TargetMapBuilder withUnchangedTargets(TargetMapBuilder builder) {
+    for (int i = 0; i < 20; i++) {
+      builder.addTarget(target("//unchanged:t" + i));
+    }
+    return builder;
+  }
+
+  private static TargetMap randomTargetMap(Random random, int targetCount) {
+    TargetMapBuilder builder = TargetMapBuilder.builder();
+    for (int i = 0; i < targetCount; i++) {
+      builder.addTarget(randomTarget(random, i, targetCount));
+    }
+    return builder.build();
+  }
+
+  /** Mostly depends on lower-numbered targets, with the occasional cycle. */
+  private static TargetIdeInfo randomTarget(Random random, int index, int targetCount) {
+    TargetIdeInfo.Builder target = target("//l:l" + index);
+    random
+        .ints(random.nextInt(4), 0, random.nextInt(20) == 0 ? targetCount : Math.max(1, index))
+        .distinct()
+        .forEach(dep -> target.addDependency("//l:l" + dep));
+    return target.build();
+  }
+
+  private static TargetIdeInfo.Builder target(String label, String... deps) {
+    TargetIdeInfo.Builder target =
+        TargetIdeInfo.builder()
+            .setBuildFile(
+                ArtifactLocation.builder().setRelativePath("test/BUILD").setIsSource(true).build())
+            .setLabel(label)
+            .setKind("proto_library");
+    for (String dep : deps) {
+      target.addDependency(dep);
+    }
+    return target;
+  }
+
+  private static TargetKey key(String label) {
+    return TargetKey.forPlainTarget(Label.create(label));
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.base.command.buildresult.cas;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-process {@link ContentAddressableStorage} for tests, which records the requests made to
+ * it.
+ */
+public class InMemoryContentAddressableStorage implements ContentAddressableStorage {
+
+  private final long maxBatchSizeBytes;
+  private final Map<String, Map<Digest, byte[]>> instances = new ConcurrentHashMap<>();
+  private final List<ImmutableList<Digest>> batchReads = new ArrayList<>();
+  private final List<Digest> streamedReads = new ArrayList<>();
+
+  public InMemoryContentAddressableStorage() {
+    this(DEFAULT_MAX_BATCH_SIZE_BYTES);
+  }
+
+  public InMemoryContentAddressableStorage(long maxBatchSizeBytes) {
+    this.maxBatchSizeBytes = maxBatchSizeBytes;
+  }
+
+  /** Adds a blob to the given instance, returning its digest. */
+  public Digest add(String instanceName, byte[] content) {
+    Digest digest = Digest.of(content);
+    instances.computeIfAbsent(instanceName, k -> new ConcurrentHashMap<>()).put(digest, content);
+    return digest;
+  }
+
+  public Digest add(String instanceName, String content) {
+    return add(instanceName, content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** Stores content under a digest it doesn't match, as a corrupt remote cache might. */
+  public void addCorrupt(String instanceName, Digest digest, byte[] content) {
+    instances.computeIfAbsent(instanceName, k -> new ConcurrentHashMap<>()).put(digest, content);
+  }
+
+  @Override
+  public synchronized Map<Digest, byte[]> batchReadBlobs(
+      String instanceName, Collection<Digest> digests) throws IOException {
+    long totalSize = digests.stream().mapToLong(Digest::sizeBytes).sum();
+    if (totalSize > maxBatchSizeBytes) {
+      throw new IOException("Batch of " + totalSize + " bytes exceeds the limit");
+    }
+    batchReads.add(ImmutableList.copyOf(digests));
+    Map<Digest, byte[]> blobs = instances.getOrDefault(instanceName, ImmutableMap.of());
+    ImmutableMap.Builder<Digest, byte[]> result = ImmutableMap.builder();
+    for (Digest digest : digests) {
+      byte[] content = blobs.get(digest);
+      if (content != null) {
+        result.put(digest, content);
+      }
+    }
+    return result.build();
+  }
+
+  @Override
+  public synchronized InputStream read(String instanceName, Digest digest) throws IOException {
+    streamedReads.add(digest);
+    byte[] content = instances.getOrDefault(instanceName, ImmutableMap.of()).get(digest);
+    if (content == null) {
+      throw new FileNotFoundException("Blob " + digest + " not found");
+    }
+    return new ByteArrayInputStream(content);
+  }
+
+  @Override
+  public long getMaxBatchSizeBytes() {
+    return maxBatchSizeBytes;
+  }
+
+  /** Returns the digests requested by each {@link #batchReadBlobs} call, in order. */
+  public synchronized ImmutableList<ImmutableList<Digest>> getBatchReads() {
+    return ImmutableList.copyOf(batchReads);
+  }
+
+  /** Returns the digests requested by each {@link #read} call, in order. */
+  public synchronized ImmutableList<Digest> getStreamedReads() {
+    return ImmutableList.copyOf(streamedReads);
+  }
+}
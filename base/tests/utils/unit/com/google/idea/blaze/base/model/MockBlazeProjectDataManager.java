@@ -21,6 +21,7 @@ import javax.annotation.Nullable;
 /** Mocks the blaze project data manager. */
 public class MockBlazeProjectDataManager implements BlazeProjectDataManager {
   @Nullable private BlazeProjectData blazeProjectData;
+  @Nullable private String fingerprint;
 
   public MockBlazeProjectDataManager(BlazeProjectData blazeProjectData) {
     this.blazeProjectData = blazeProjectData;
@@ -35,4 +36,15 @@ public class MockBlazeProjectDataManager implements BlazeProjectDataManager {
   public void setBlazeProjectData(@Nullable BlazeProjectData blazeProjectData) {
     this.blazeProjectData = blazeProjectData;
   }
+
+  @Nullable
+  @Override
+  public String getFingerprint(BlazeProjectData projectData) {
+    return projectData == blazeProjectData ? fingerprint : null;
+  }
+
+  /** Sets the fingerprint of the current project data. */
+  public void setFingerprint(@Nullable String fingerprint) {
+    this.fingerprint = fingerprint;
+  }
 }
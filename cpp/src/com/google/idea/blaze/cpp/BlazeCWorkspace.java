@@ -18,10 +18,17 @@ package com.google.idea.blaze.cpp;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Stopwatch;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.errorprone.annotations.Keep;
+import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.model.BlazeProjectData;
@@ -41,6 +48,7 @@ import com.intellij.openapi.application.TransactionGuard;
 import com.intellij.openapi.components.ProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -68,14 +76,17 @@ import com.jetbrains.cidr.lang.workspace.compiler.CompilerInfoCache.Session;
 import com.jetbrains.cidr.lang.workspace.compiler.OCCompilerKind;
 import com.jetbrains.cidr.lang.workspace.compiler.TempFilesPool;
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 
 /** Main entry point for C/CPP configuration data. */
 public final class BlazeCWorkspace implements ProjectComponent {
@@ -83,11 +94,11 @@ public final class BlazeCWorkspace implements ProjectComponent {
   // This component is never actually serialized, and this should not ever need to change
   private static final int SERIALIZATION_VERSION = 1;
   private static final Logger logger = Logger.getInstance(BlazeCWorkspace.class);
+  private static final ImmutableList<OCLanguageKind> SUPPORTED_LANGUAGES =
+      ImmutableList.of(CLanguageKind.C, CLanguageKind.CPP);
 
   private final BlazeConfigurationResolver configurationResolver;
   private BlazeConfigurationResolverResult resolverResult;
-  private final ImmutableList<OCLanguageKind> supportedLanguages =
-      ImmutableList.of(CLanguageKind.C, CLanguageKind.CPP);
 
   private final Project project;
   private final CidrToolEnvironment toolEnvironment = new CidrToolEnvironment();
@@ -132,6 +143,7 @@ public final class BlazeCWorkspace implements ProjectComponent {
             new Task.Backgroundable(project, "Configuration Sync", false) {
               @Override
               public void run(ProgressIndicator indicator) {
+                boolean updated = true;
                 if (!syncMode.equals(SyncMode.FULL)
                     && oldResult.isEquivalentConfigurations(newResult)) {
                   logger.info("Skipping update configurations -- no changes");
@@ -143,225 +155,367 @@ public final class BlazeCWorkspace implements ProjectComponent {
                   OCWorkspaceImpl.ModifiableModel model =
                       calculateConfigurations(
                           blazeProjectData, workspaceRoot, newResult, indicator);
-                  ImmutableList<String> issues =
-                      commit(model, SERIALIZATION_VERSION, toolEnvironment, workspaceRoot);
-                  logger.info(
-                      String.format(
-                          "Update configurations took %dms", s.elapsed(TimeUnit.MILLISECONDS)));
-                  if (!issues.isEmpty()) {
-                    showSetupIssues(issues, context);
+                  if (model == null) {
+                    // leave the previous result in place, so the next sync tries again
+                    updated = false;
+                  } else {
+                    ImmutableList<String> issues =
+                        commit(model, SERIALIZATION_VERSION, toolEnvironment, workspaceRoot);
+                    logger.info(
+                        String.format(
+                            "Update configurations took %dms",
+                            s.elapsed(TimeUnit.MILLISECONDS)));
+                    if (!issues.isEmpty()) {
+                      showSetupIssues(issues, context);
+                    }
                   }
                 }
-                resolverResult = newResult;
+                if (updated) {
+                  resolverResult = newResult;
+                }
+                // listeners are notified even if the update failed, as the sync has still
+                // changed the project data their cached state is derived from
                 incModificationTrackers();
               }
             });
   }
 
+  @Nullable
   private OCWorkspaceImpl.ModifiableModel calculateConfigurations(
       BlazeProjectData blazeProjectData,
       WorkspaceRoot workspaceRoot,
       BlazeConfigurationResolverResult configResolveData,
       ProgressIndicator indicator) {
-
-    OCWorkspaceImpl.ModifiableModel workspaceModifiable =
-        OCWorkspaceImpl.getInstanceImpl(project).getModifiableModel(/* clear= */ true);
-    ImmutableList<BlazeResolveConfiguration> configurations =
-        configResolveData.getAllConfigurations();
     ExecutionRootPathResolver executionRootPathResolver =
         new ExecutionRootPathResolver(
             Blaze.getBuildSystemProvider(project),
             workspaceRoot,
             blazeProjectData.getBlazeInfo().getExecutionRoot(),
             blazeProjectData.getWorkspacePathResolver());
+    ImmutableList<ConfigurationData> results;
+    try {
+      results =
+          calculateConfigurationData(
+              blazeProjectData,
+              configResolveData,
+              executionRootPathResolver,
+              BlazeExecutor.getInstance().getExecutor(),
+              indicator);
+    } catch (ProcessCanceledException e) {
+      return null;
+    } catch (ExecutionException e) {
+      logger.error("Could not calculate C resolve configurations", e);
+      return null;
+    }
 
-    int progress = 0;
+    OCWorkspaceImpl.ModifiableModel workspaceModifiable =
+        OCWorkspaceImpl.getInstanceImpl(project).getModifiableModel(/* clear= */ true);
+    // many files share identical switches, so share a single instance between them
+    Map<ImmutableList<String>, CidrCompilerSwitches> sharedSwitches = new HashMap<>();
+    for (ConfigurationData data : results) {
+      addConfiguration(workspaceModifiable, data, workspaceRoot.directory(), sharedSwitches);
+    }
+    return workspaceModifiable;
+  }
 
+  /**
+   * Calculates the compiler settings of each resolve configuration. Configurations are independent
+   * of each other, so are calculated in parallel on the given executor, and returned in their
+   * original order.
+   *
+   * @throws ProcessCanceledException if the indicator is canceled
+   * @throws ExecutionException if calculating any configuration fails
+   */
+  @VisibleForTesting
+  static ImmutableList<ConfigurationData> calculateConfigurationData(
+      BlazeProjectData blazeProjectData,
+      BlazeConfigurationResolverResult configResolveData,
+      ExecutionRootPathResolver executionRootPathResolver,
+      ListeningExecutorService executor,
+      ProgressIndicator indicator)
+      throws ExecutionException {
+    ImmutableList<BlazeResolveConfiguration> configurations =
+        configResolveData.getAllConfigurations();
+    IncludeSwitches includeSwitches =
+        new IncludeSwitches(executionRootPathResolver, configResolveData);
+    AtomicInteger progress = new AtomicInteger();
+    List<ListenableFuture<ConfigurationData>> futures = new ArrayList<>(configurations.size());
     for (BlazeResolveConfiguration resolveConfiguration : configurations) {
-      indicator.setText2(resolveConfiguration.getDisplayName());
-      indicator.setFraction(((double) progress) / configurations.size());
-      BlazeCompilerSettings compilerSettings = resolveConfiguration.getCompilerSettings();
-      Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages = new HashMap<>();
-      Map<VirtualFile, PerFileCompilerOpts> configSourceFiles = new HashMap<>();
-      for (TargetKey targetKey : resolveConfiguration.getTargets()) {
-        TargetIdeInfo targetIdeInfo = blazeProjectData.getTargetMap().get(targetKey);
-        if (targetIdeInfo == null || targetIdeInfo.getcIdeInfo() == null) {
-          continue;
-        }
+      futures.add(
+          executor.submit(
+              () -> {
+                ConfigurationData data =
+                    calculateConfiguration(
+                        blazeProjectData, resolveConfiguration, includeSwitches, indicator);
+                indicator.setText2(resolveConfiguration.getDisplayName());
+                indicator.setFraction(
+                    ((double) progress.incrementAndGet()) / configurations.size());
+                return data;
+              }));
+    }
+    try {
+      return ImmutableList.copyOf(Futures.allAsList(futures).get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof ProcessCanceledException) {
+        throw (ProcessCanceledException) e.getCause();
+      }
+      throw e;
+    } finally {
+      // stop any workers still running after a failure or cancellation
+      futures.forEach(f -> f.cancel(true));
+    }
+  }
 
-        // defines and include directories are the same for all sources in a given target, so lets
-        // collect them once and reuse for each source file's options
-
-        UnfilteredCompilerOptions coptsExtractor =
-            UnfilteredCompilerOptions.builder()
-                .registerSingleOrSplitOption("-I")
-                .build(targetIdeInfo.getcIdeInfo().getLocalCopts());
-        ImmutableList<String> plainLocalCopts =
-            filterIncompatibleFlags(coptsExtractor.getUninterpretedOptions());
-        ImmutableList<ExecutionRootPath> localIncludes =
-            coptsExtractor.getExtractedOptionValues("-I").stream()
-                .map(ExecutionRootPath::new)
-                .collect(toImmutableList());
-
-        // transitiveDefines are sourced from a target's (and transitive deps) "defines" attribute
-        ImmutableList<String> transitiveDefineOptions =
-            targetIdeInfo.getcIdeInfo().getTransitiveDefines().stream()
-                .map(s -> "-D" + s)
-                .collect(toImmutableList());
-
-        Function<ExecutionRootPath, Stream<File>> resolver =
-            executionRootPath ->
-                executionRootPathResolver.resolveToIncludeDirectories(executionRootPath).stream();
-        // localIncludes are sourced from -I options in a target's "copts" attribute. They  can be
-        // arbitrarily declared and may not exist in configResolveData.
-        // transitiveIncludeDirectories are sourced from CcSkylarkApiProvider.include_directories
-
-        ImmutableList<String> iOptionIncludeDirectories =
-            Stream.concat(
-                    localIncludes.stream().flatMap(resolver),
-                    targetIdeInfo.getcIdeInfo().getTransitiveIncludeDirectories().stream()
-                        .flatMap(resolver)
-                        .filter(configResolveData::isValidHeaderRoot))
-                .map(file -> "-I" + file.getAbsolutePath())
-                .collect(toImmutableList());
-
-        // transitiveQuoteIncludeDirectories are sourced from
-        // CcSkylarkApiProvider.quote_include_directories
-        ImmutableList<String> iquoteOptionIncludeDirectories =
-            targetIdeInfo.getcIdeInfo().getTransitiveQuoteIncludeDirectories().stream()
-                .flatMap(resolver)
-                .filter(configResolveData::isValidHeaderRoot)
-                .map(file -> "-iquote" + file.getAbsolutePath())
-                .collect(toImmutableList());
-        // transitiveSystemIncludeDirectories are sourced from
-        // CcSkylarkApiProvider.system_include_directories
-        // Note: We would ideally use -isystem here, but it interacts badly with the switches
-        // that get built by ClangUtils::addIncludeDirectories (it uses -I for system libraries).
-        ImmutableList<String> isystemOptionIncludeDirectories =
-            targetIdeInfo.getcIdeInfo().getTransitiveSystemIncludeDirectories().stream()
-                .flatMap(resolver)
-                .filter(configResolveData::isValidHeaderRoot)
-                .map(file -> "-I" + file.getAbsolutePath())
-                .collect(toImmutableList());
-
-        for (VirtualFile vf : resolveConfiguration.getSources(targetKey)) {
-          OCLanguageKind kind = resolveConfiguration.getDeclaredLanguageKind(vf);
-          if (kind == null) {
-            kind = CLanguageKind.CPP;
-          }
+  /** The compiler settings of a single resolve configuration. */
+  @AutoValue
+  abstract static class ConfigurationData {
+    abstract String id();
 
-          CidrSwitchBuilder fileSpecificSwitchBuilder = new CidrSwitchBuilder();
-
-          ImmutableList<String> baseSwitches = compilerSettings.getCompilerSwitches(kind, vf);
-          fileSpecificSwitchBuilder.addAllRaw(baseSwitches);
-          fileSpecificSwitchBuilder.addAllRaw(transitiveDefineOptions);
-          fileSpecificSwitchBuilder.addAllRaw(iquoteOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(iOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(isystemOptionIncludeDirectories);
-          fileSpecificSwitchBuilder.addAllRaw(plainLocalCopts);
-
-          PerFileCompilerOpts perFileCompilerOpts =
-              new PerFileCompilerOpts(kind, fileSpecificSwitchBuilder.build());
-          configSourceFiles.put(vf, perFileCompilerOpts);
-          if (!configLanguages.containsKey(kind)) {
-            addConfigLanguageSwitches(
-                configLanguages, compilerSettings,
-                // If a file isn't found in configSourceFiles (newly created files), CLion uses the
-                // configLanguages switches. We want some basic header search roots (genfiles),
-                // which are part of every target's iquote directories. See:
-                // https://github.com/bazelbuild/bazel/blob/2c493e8a2132d54f4b2fb8046f6bcef11e92cd22/src/main/java/com/google/devtools/build/lib/rules/cpp/CcCompilationHelper.java#L911
-                iquoteOptionIncludeDirectories, kind);
-          }
-        }
+    abstract ImmutableMap<OCLanguageKind, PerLanguageCompilerOpts> configLanguages();
+
+    abstract ImmutableMap<VirtualFile, PerFileCompilerOpts> configSourceFiles();
+
+    static ConfigurationData create(
+        String id,
+        Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages,
+        Map<VirtualFile, PerFileCompilerOpts> configSourceFiles) {
+      return new AutoValue_BlazeCWorkspace_ConfigurationData(
+          id, ImmutableMap.copyOf(configLanguages), ImmutableMap.copyOf(configSourceFiles));
+    }
+  }
+
+  private static ConfigurationData calculateConfiguration(
+      BlazeProjectData blazeProjectData,
+      BlazeResolveConfiguration resolveConfiguration,
+      IncludeSwitches includeSwitches,
+      ProgressIndicator indicator) {
+    BlazeCompilerSettings compilerSettings = resolveConfiguration.getCompilerSettings();
+    Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages = new HashMap<>();
+    Map<VirtualFile, PerFileCompilerOpts> configSourceFiles = new HashMap<>();
+    for (TargetKey targetKey : resolveConfiguration.getTargets()) {
+      // workers don't run under the task's progress indicator, so check it explicitly
+      indicator.checkCanceled();
+      TargetIdeInfo targetIdeInfo = blazeProjectData.getTargetMap().get(targetKey);
+      if (targetIdeInfo == null || targetIdeInfo.getcIdeInfo() == null) {
+        continue;
       }
 
-      for (OCLanguageKind language : supportedLanguages) {
-        if (!configLanguages.containsKey(language)) {
+      // defines and include directories are the same for all sources in a given target, so lets
+      // collect them once and reuse for each source file's options
+
+      UnfilteredCompilerOptions coptsExtractor =
+          UnfilteredCompilerOptions.builder()
+              .registerSingleOrSplitOption("-I")
+              .build(targetIdeInfo.getcIdeInfo().getLocalCopts());
+      ImmutableList<String> plainLocalCopts =
+          filterIncompatibleFlags(coptsExtractor.getUninterpretedOptions());
+      ImmutableList<ExecutionRootPath> localIncludes =
+          coptsExtractor.getExtractedOptionValues("-I").stream()
+              .map(ExecutionRootPath::new)
+              .collect(toImmutableList());
+
+      // transitiveDefines are sourced from a target's (and transitive deps) "defines" attribute
+      ImmutableList<String> transitiveDefineOptions =
+          targetIdeInfo.getcIdeInfo().getTransitiveDefines().stream()
+              .map(s -> "-D" + s)
+              .collect(toImmutableList());
+
+      // localIncludes are sourced from -I options in a target's "copts" attribute. They  can be
+      // arbitrarily declared and may not exist in configResolveData.
+      // transitiveIncludeDirectories are sourced from CcSkylarkApiProvider.include_directories
+      ImmutableList<String> iOptionIncludeDirectories =
+          ImmutableList.<String>builder()
+              .addAll(includeSwitches.get("-I", localIncludes, /* filterHeaderRoots= */ false))
+              .addAll(
+                  includeSwitches.get(
+                      "-I",
+                      targetIdeInfo.getcIdeInfo().getTransitiveIncludeDirectories(),
+                      /* filterHeaderRoots= */ true))
+              .build();
+
+      // transitiveQuoteIncludeDirectories are sourced from
+      // CcSkylarkApiProvider.quote_include_directories
+      ImmutableList<String> iquoteOptionIncludeDirectories =
+          includeSwitches.get(
+              "-iquote",
+              targetIdeInfo.getcIdeInfo().getTransitiveQuoteIncludeDirectories(),
+              /* filterHeaderRoots= */ true);
+      // transitiveSystemIncludeDirectories are sourced from
+      // CcSkylarkApiProvider.system_include_directories
+      // Note: We would ideally use -isystem here, but it interacts badly with the switches
+      // that get built by ClangUtils::addIncludeDirectories (it uses -I for system libraries).
+      ImmutableList<String> isystemOptionIncludeDirectories =
+          includeSwitches.get(
+              "-I",
+              targetIdeInfo.getcIdeInfo().getTransitiveSystemIncludeDirectories(),
+              /* filterHeaderRoots= */ true);
+
+      for (VirtualFile vf : resolveConfiguration.getSources(targetKey)) {
+        OCLanguageKind kind = resolveConfiguration.getDeclaredLanguageKind(vf);
+        if (kind == null) {
+          kind = CLanguageKind.CPP;
+        }
+
+        ImmutableList<String> baseSwitches = compilerSettings.getCompilerSwitches(kind, vf);
+        ImmutableList<String> allSwitches =
+            ImmutableList.<String>builder()
+                .addAll(baseSwitches)
+                .addAll(transitiveDefineOptions)
+                .addAll(iquoteOptionIncludeDirectories)
+                .addAll(iOptionIncludeDirectories)
+                .addAll(isystemOptionIncludeDirectories)
+                .addAll(plainLocalCopts)
+                .build();
+        configSourceFiles.put(vf, PerFileCompilerOpts.create(kind, allSwitches));
+        if (!configLanguages.containsKey(kind)) {
           addConfigLanguageSwitches(
-              configLanguages, compilerSettings, ImmutableList.of(), language);
+              configLanguages, compilerSettings,
+              // If a file isn't found in configSourceFiles (newly created files), CLion uses the
+              // configLanguages switches. We want some basic header search roots (genfiles),
+              // which are part of every target's iquote directories. See:
+              // https://github.com/bazelbuild/bazel/blob/2c493e8a2132d54f4b2fb8046f6bcef11e92cd22/src/main/java/com/google/devtools/build/lib/rules/cpp/CcCompilationHelper.java#L911
+              iquoteOptionIncludeDirectories, kind);
         }
       }
+    }
 
-      String id = resolveConfiguration.getDisplayName();
+    for (OCLanguageKind language : SUPPORTED_LANGUAGES) {
+      if (!configLanguages.containsKey(language)) {
+        addConfigLanguageSwitches(configLanguages, compilerSettings, ImmutableList.of(), language);
+      }
+    }
+    return ConfigurationData.create(
+        resolveConfiguration.getDisplayName(), configLanguages, configSourceFiles);
+  }
 
-      addConfiguration(
-          workspaceModifiable,
-          id,
-          id,
-          workspaceRoot.directory(),
-          configLanguages,
-          configSourceFiles);
-      progress++;
+  /**
+   * Resolves include directories to compiler switches, caching the result for each distinct list
+   * of directories. Many targets share the same transitive include directories. Thread-safe.
+   */
+  private static class IncludeSwitches {
+    private final ExecutionRootPathResolver executionRootPathResolver;
+    private final BlazeConfigurationResolverResult configResolveData;
+    private final Map<Key, ImmutableList<String>> cache = new ConcurrentHashMap<>();
+
+    IncludeSwitches(
+        ExecutionRootPathResolver executionRootPathResolver,
+        BlazeConfigurationResolverResult configResolveData) {
+      this.executionRootPathResolver = executionRootPathResolver;
+      this.configResolveData = configResolveData;
+    }
+
+    ImmutableList<String> get(
+        String prefix, List<ExecutionRootPath> directories, boolean filterHeaderRoots) {
+      if (directories.isEmpty()) {
+        return ImmutableList.of();
+      }
+      return cache.computeIfAbsent(
+          Key.create(prefix, directories, filterHeaderRoots),
+          key ->
+              directories.stream()
+                  .flatMap(
+                      path -> executionRootPathResolver.resolveToIncludeDirectories(path).stream())
+                  .filter(file -> !filterHeaderRoots || configResolveData.isValidHeaderRoot(file))
+                  .map(file -> prefix + file.getAbsolutePath())
+                  .collect(toImmutableList()));
+    }
+
+    @AutoValue
+    abstract static class Key {
+      abstract String prefix();
+
+      abstract ImmutableList<ExecutionRootPath> directories();
+
+      abstract boolean filterHeaderRoots();
+
+      static Key create(
+          String prefix, List<ExecutionRootPath> directories, boolean filterHeaderRoots) {
+        return new AutoValue_BlazeCWorkspace_IncludeSwitches_Key(
+            prefix, ImmutableList.copyOf(directories), filterHeaderRoots);
+      }
     }
-    return workspaceModifiable;
   }
 
   private static void addConfiguration(
       OCWorkspaceImpl.ModifiableModel workspaceModifiable,
-      String id,
-      String displayName,
+      ConfigurationData data,
       File directory,
-      Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages,
-      Map<VirtualFile, PerFileCompilerOpts> configSourceFiles) {
+      Map<ImmutableList<String>, CidrCompilerSwitches> sharedSwitches) {
     OCResolveConfigurationImpl.ModifiableModel config =
         workspaceModifiable.addConfiguration(
-            id, displayName, null, OCResolveConfiguration.DEFAULT_FILE_SEPARATORS);
+            data.id(), data.id(), null, OCResolveConfiguration.DEFAULT_FILE_SEPARATORS);
     for (Map.Entry<OCLanguageKind, PerLanguageCompilerOpts> languageEntry :
-        configLanguages.entrySet()) {
+        data.configLanguages().entrySet()) {
       OCCompilerSettings.ModifiableModel langSettings =
           config.getLanguageCompilerSettings(languageEntry.getKey());
       PerLanguageCompilerOpts configForLanguage = languageEntry.getValue();
-      langSettings.setCompiler(configForLanguage.kind, configForLanguage.compiler, directory);
-      langSettings.setCompilerSwitches(configForLanguage.switches);
+      langSettings.setCompiler(configForLanguage.kind(), configForLanguage.compiler(), directory);
+      langSettings.setCompilerSwitches(
+          compilerSwitches(configForLanguage.switches(), sharedSwitches));
     }
 
-    for (Map.Entry<VirtualFile, PerFileCompilerOpts> fileEntry : configSourceFiles.entrySet()) {
+    for (Map.Entry<VirtualFile, PerFileCompilerOpts> fileEntry :
+        data.configSourceFiles().entrySet()) {
       PerFileCompilerOpts compilerOpts = fileEntry.getValue();
       OCCompilerSettings.ModifiableModel fileCompilerSettings =
-          config.addSource(fileEntry.getKey(), compilerOpts.kind);
-      fileCompilerSettings.setCompilerSwitches(compilerOpts.switches);
+          config.addSource(fileEntry.getKey(), compilerOpts.kind());
+      fileCompilerSettings.setCompilerSwitches(
+          compilerSwitches(compilerOpts.switches(), sharedSwitches));
     }
   }
 
+  private static CidrCompilerSwitches compilerSwitches(
+      ImmutableList<String> switches,
+      Map<ImmutableList<String>, CidrCompilerSwitches> sharedSwitches) {
+    return sharedSwitches.computeIfAbsent(
+        switches, list -> new CidrSwitchBuilder().addAllRaw(list).build());
+  }
+
   /** Group compiler options for a specific file. */
-  private static class PerFileCompilerOpts {
-    final OCLanguageKind kind;
-    final CidrCompilerSwitches switches;
+  @AutoValue
+  abstract static class PerFileCompilerOpts {
+    abstract OCLanguageKind kind();
+
+    abstract ImmutableList<String> switches();
 
-    private PerFileCompilerOpts(OCLanguageKind kind, CidrCompilerSwitches switches) {
-      this.kind = kind;
-      this.switches = switches;
+    static PerFileCompilerOpts create(OCLanguageKind kind, ImmutableList<String> switches) {
+      return new AutoValue_BlazeCWorkspace_PerFileCompilerOpts(kind, switches);
     }
   }
 
   /** Group compiler options for a specific language. */
-  private static class PerLanguageCompilerOpts {
-    final OCCompilerKind kind;
-    final File compiler;
-    final CidrCompilerSwitches switches;
-
-    private PerLanguageCompilerOpts(
-        OCCompilerKind kind, File compiler, CidrCompilerSwitches switches) {
-      this.kind = kind;
-      this.compiler = compiler;
-      this.switches = switches;
+  @AutoValue
+  abstract static class PerLanguageCompilerOpts {
+    abstract OCCompilerKind kind();
+
+    @Nullable
+    abstract File compiler();
+
+    abstract ImmutableList<String> switches();
+
+    static PerLanguageCompilerOpts create(
+        OCCompilerKind kind, @Nullable File compiler, ImmutableList<String> switches) {
+      return new AutoValue_BlazeCWorkspace_PerLanguageCompilerOpts(kind, compiler, switches);
     }
   }
 
-  private void addConfigLanguageSwitches(
+  private static void addConfigLanguageSwitches(
       Map<OCLanguageKind, PerLanguageCompilerOpts> configLanguages,
       BlazeCompilerSettings compilerSettings,
       List<String> additionalSwitches,
       OCLanguageKind language) {
     OCCompilerKind compilerKind = compilerSettings.getCompiler(language);
     File executable = compilerSettings.getCompilerExecutable(language);
-    CidrSwitchBuilder switchBuilder = new CidrSwitchBuilder();
-    ImmutableList<String> switches = compilerSettings.getCompilerSwitches(language, null);
-    switchBuilder.addAllRaw(switches);
-    switchBuilder.addAllRaw(additionalSwitches);
-    PerLanguageCompilerOpts perLanguageCompilerOpts =
-        new PerLanguageCompilerOpts(compilerKind, executable, switchBuilder.build());
-    configLanguages.put(language, perLanguageCompilerOpts);
+    ImmutableList<String> switches =
+        ImmutableList.<String>builder()
+            .addAll(compilerSettings.getCompilerSwitches(language, null))
+            .addAll(additionalSwitches)
+            .build();
+    configLanguages.put(
+        language, PerLanguageCompilerOpts.create(compilerKind, executable, switches));
   }
 
   /**
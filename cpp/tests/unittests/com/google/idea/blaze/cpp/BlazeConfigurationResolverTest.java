@@ -21,6 +21,8 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.idea.blaze.base.BlazeTestCase;
 import com.google.idea.blaze.base.async.executor.BlazeExecutor;
 import com.google.idea.blaze.base.async.executor.MockBlazeExecutor;
@@ -53,9 +55,11 @@ import com.google.idea.blaze.base.scope.ErrorCollector;
 import com.google.idea.blaze.base.scope.output.IssueOutput;
 import com.google.idea.blaze.base.settings.BlazeImportSettings;
 import com.google.idea.blaze.base.settings.BlazeImportSettingsManager;
+import com.google.idea.blaze.base.sync.workspace.ExecutionRootPathResolver;
 import com.google.idea.common.experiments.ExperimentService;
 import com.google.idea.common.experiments.MockExperimentService;
 import com.intellij.openapi.extensions.impl.ExtensionPointImpl;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.impl.ProgressManagerImpl;
 import com.intellij.openapi.vfs.LocalFileSystem;
@@ -67,6 +71,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -375,104 +380,7 @@ public class BlazeConfigurationResolverTest extends BlazeTestCase {
 
   @Test
   public void testComplexProject() {
-    ProjectView projectView =
-        projectView(
-            directories("foo/bar", "foo/baz"),
-            targets("//foo:test", "//foo/bar:binary", "//foo/baz:test"));
-    TargetMap targetMap =
-        TargetMapBuilder.builder()
-            .addTarget(createCcToolchain())
-            .addTarget(
-                createCcTarget(
-                        "//foo:test",
-                        CppBlazeRules.RuleTypes.CC_TEST.getKind(),
-                        ImmutableList.of(src("foo/test.cc")),
-                        "//:toolchain")
-                    .addDependency("//foo:library")
-                    .addDependency("//foo/bar:library")
-                    .addDependency("//third_party:library"))
-            .addTarget(
-                createCcTarget(
-                    "//foo:library",
-                    CppBlazeRules.RuleTypes.CC_TEST.getKind(),
-                    ImmutableList.of(src("foo/library.cc")),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                        "//foo/bar:binary",
-                        CppBlazeRules.RuleTypes.CC_BINARY.getKind(),
-                        ImmutableList.of(src("foo/bar/binary.cc")),
-                        ImmutableList.of("-DSOME_DEFINE=1"),
-                        "//:toolchain")
-                    .addDependency("//foo/bar:library")
-                    .addDependency("//foo/bar:empty")
-                    .addDependency("//foo/bar:generated")
-                    .addDependency("//foo/bar:mixed")
-                    .addDependency("//third_party:library"))
-            .addTarget(
-                createCcTarget(
-                    "//foo/bar:library",
-                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
-                    ImmutableList.of(src("foo/bar/library.cc")),
-                    ImmutableList.of("-DSOME_DEFINE=2"),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                    "//foo/bar:empty",
-                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
-                    ImmutableList.of(),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                    "//foo/bar:generated",
-                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
-                    ImmutableList.of(gen("foo/bar/generated.cc")),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                    "//foo/bar:mixed",
-                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
-                    ImmutableList.of(src("foo/bar/mixed_src.cc"), gen("foo/bar/mixed_gen.cc")),
-                    ImmutableList.of("-DSOME_DEFINE=3"),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                        "//foo/baz:test",
-                        CppBlazeRules.RuleTypes.CC_TEST.getKind(),
-                        ImmutableList.of(src("foo/baz/test.cc")),
-                        ImmutableList.of("-DSOME_DEFINE=4"),
-                        "//:toolchain")
-                    .addDependency("//foo/baz:binary")
-                    .addDependency("//foo/baz:library")
-                    .addDependency("//foo/qux:library"))
-            .addTarget(
-                createCcTarget(
-                    "//foo/baz:binary",
-                    CppBlazeRules.RuleTypes.CC_BINARY.getKind(),
-                    ImmutableList.of(src("foo/baz/binary.cc")),
-                    ImmutableList.of("-DSOME_DEFINE=5"),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                    "//foo/baz:library",
-                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
-                    ImmutableList.of(src("foo/baz/library.cc")),
-                    ImmutableList.of("-DSOME_DEFINE=6"),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                    "//foo/qux:library",
-                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
-                    ImmutableList.of(src("foo/qux/library.cc")),
-                    "//:toolchain"))
-            .addTarget(
-                createCcTarget(
-                    "//third_party:library",
-                    CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
-                    ImmutableList.of(src("third_party/library.cc")),
-                    "//:toolchain"))
-            .build();
-    assertThatResolving(projectView, targetMap)
+    assertThatResolving(complexProjectView(), complexProjectTargetMap())
         .producesConfigurationsFor(
             "//foo/bar:binary",
             "//foo/bar:library",
@@ -483,6 +391,169 @@ public class BlazeConfigurationResolverTest extends BlazeTestCase {
             "//foo:test");
   }
 
+  @Test
+  public void testParallelWorkspaceConfigurationsMatchSequential() throws Exception {
+    for (String source :
+        ImmutableList.of(
+            "foo/test.cc",
+            "foo/library.cc",
+            "foo/bar/binary.cc",
+            "foo/bar/library.cc",
+            "foo/bar/mixed_src.cc",
+            "foo/baz/test.cc",
+            "foo/baz/binary.cc",
+            "foo/baz/library.cc",
+            "foo/qux/library.cc",
+            "third_party/library.cc")) {
+      createVirtualFile("/root/" + source);
+    }
+    BlazeProjectData projectData =
+        MockBlazeProjectDataBuilder.builder(workspaceRoot)
+            .setTargetMap(complexProjectTargetMap())
+            .build();
+    resolverResult =
+        resolver.update(
+            context,
+            workspaceRoot,
+            ProjectViewSet.builder().add(complexProjectView()).build(),
+            projectData,
+            resolverResult);
+    ExecutionRootPathResolver executionRootPathResolver =
+        new ExecutionRootPathResolver(
+            getBuildSystemProvider(),
+            workspaceRoot,
+            projectData.getBlazeInfo().getExecutionRoot(),
+            projectData.getWorkspacePathResolver());
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    ImmutableList<BlazeCWorkspace.ConfigurationData> parallel;
+    try {
+      parallel =
+          BlazeCWorkspace.calculateConfigurationData(
+              projectData,
+              resolverResult,
+              executionRootPathResolver,
+              executor,
+              new EmptyProgressIndicator());
+    } finally {
+      executor.shutdown();
+    }
+    ImmutableList<BlazeCWorkspace.ConfigurationData> sequential =
+        BlazeCWorkspace.calculateConfigurationData(
+            projectData,
+            resolverResult,
+            executionRootPathResolver,
+            MoreExecutors.newDirectExecutorService(),
+            new EmptyProgressIndicator());
+
+    assertThat(parallel).hasSize(resolverResult.getAllConfigurations().size());
+    assertThat(parallel.stream().mapToInt(data -> data.configSourceFiles().size()).sum())
+        .isGreaterThan(0);
+    assertThat(parallel).containsExactlyElementsIn(sequential).inOrder();
+  }
+
+  private static ProjectView complexProjectView() {
+    return projectView(
+        directories("foo/bar", "foo/baz"),
+        targets("//foo:test", "//foo/bar:binary", "//foo/baz:test"));
+  }
+
+  private static TargetMap complexProjectTargetMap() {
+    return TargetMapBuilder.builder()
+        .addTarget(createCcToolchain())
+        .addTarget(
+            createCcTarget(
+                    "//foo:test",
+                    CppBlazeRules.RuleTypes.CC_TEST.getKind(),
+                    ImmutableList.of(src("foo/test.cc")),
+                    "//:toolchain")
+                .addDependency("//foo:library")
+                .addDependency("//foo/bar:library")
+                .addDependency("//third_party:library"))
+        .addTarget(
+            createCcTarget(
+                "//foo:library",
+                CppBlazeRules.RuleTypes.CC_TEST.getKind(),
+                ImmutableList.of(src("foo/library.cc")),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                    "//foo/bar:binary",
+                    CppBlazeRules.RuleTypes.CC_BINARY.getKind(),
+                    ImmutableList.of(src("foo/bar/binary.cc")),
+                    ImmutableList.of("-DSOME_DEFINE=1"),
+                    "//:toolchain")
+                .addDependency("//foo/bar:library")
+                .addDependency("//foo/bar:empty")
+                .addDependency("//foo/bar:generated")
+                .addDependency("//foo/bar:mixed")
+                .addDependency("//third_party:library"))
+        .addTarget(
+            createCcTarget(
+                "//foo/bar:library",
+                CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                ImmutableList.of(src("foo/bar/library.cc")),
+                ImmutableList.of("-DSOME_DEFINE=2"),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                "//foo/bar:empty",
+                CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                ImmutableList.of(),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                "//foo/bar:generated",
+                CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                ImmutableList.of(gen("foo/bar/generated.cc")),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                "//foo/bar:mixed",
+                CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                ImmutableList.of(src("foo/bar/mixed_src.cc"), gen("foo/bar/mixed_gen.cc")),
+                ImmutableList.of("-DSOME_DEFINE=3"),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                    "//foo/baz:test",
+                    CppBlazeRules.RuleTypes.CC_TEST.getKind(),
+                    ImmutableList.of(src("foo/baz/test.cc")),
+                    ImmutableList.of("-DSOME_DEFINE=4"),
+                    "//:toolchain")
+                .addDependency("//foo/baz:binary")
+                .addDependency("//foo/baz:library")
+                .addDependency("//foo/qux:library"))
+        .addTarget(
+            createCcTarget(
+                "//foo/baz:binary",
+                CppBlazeRules.RuleTypes.CC_BINARY.getKind(),
+                ImmutableList.of(src("foo/baz/binary.cc")),
+                ImmutableList.of("-DSOME_DEFINE=5"),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                "//foo/baz:library",
+                CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                ImmutableList.of(src("foo/baz/library.cc")),
+                ImmutableList.of("-DSOME_DEFINE=6"),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                "//foo/qux:library",
+                CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                ImmutableList.of(src("foo/qux/library.cc")),
+                "//:toolchain"))
+        .addTarget(
+            createCcTarget(
+                "//third_party:library",
+                CppBlazeRules.RuleTypes.CC_LIBRARY.getKind(),
+                ImmutableList.of(src("third_party/library.cc")),
+                "//:toolchain"))
+        .build();
+  }
+
   @Test
   public void firstResolve_testNotIncremental() {
     ProjectView projectView = projectView(directories("foo/bar"), targets("//foo/bar:binary"));
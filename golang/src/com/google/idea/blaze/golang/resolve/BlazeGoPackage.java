@@ -57,10 +57,14 @@ import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.util.Processor;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -141,7 +145,10 @@ public class BlazeGoPackage extends GoPackage {
       Project project, BlazeProjectData projectData) {
     ImmutableMultimap<Label, File> map =
         SyncCache.getInstance(project)
-            .get(GO_TARGET_TO_FILE_MAP_KEY, BlazeGoPackage::getUncachedTargetToFileMap);
+            .get(
+                GO_TARGET_TO_FILE_MAP_KEY,
+                BlazeGoPackage::getUncachedTargetToFileMap,
+                new TargetToFileMapPersister());
     if (map == null) {
       logger.error("Unexpected null target to file map from SyncCache.");
       return getUncachedTargetToFileMap(project, projectData);
@@ -515,4 +522,50 @@ public class BlazeGoPackage extends GoPackage {
   public String toString() {
     return "Package: " + this.importPath;
   }
+
+  /** Persists the target to file map, as label and path strings. */
+  static class TargetToFileMapPersister
+      implements SyncCache.Persister<ImmutableMultimap<Label, File>> {
+    @Override
+    public int getFormatVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(ImmutableMultimap<Label, File> map, DataOutput out) throws IOException {
+      out.writeInt(map.keySet().size());
+      for (Map.Entry<Label, Collection<File>> entry : map.asMap().entrySet()) {
+        out.writeUTF(entry.getKey().toString());
+        out.writeInt(entry.getValue().size());
+        for (File file : entry.getValue()) {
+          out.writeUTF(file.getPath());
+        }
+      }
+    }
+
+    @Override
+    public ImmutableMultimap<Label, File> read(
+        Project project, BlazeProjectData projectData, DataInput in) throws IOException {
+      ImmutableMultimap.Builder<Label, File> builder = ImmutableMultimap.builder();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Label label = Label.create(in.readUTF());
+        int fileCount = in.readInt();
+        for (int j = 0; j < fileCount; j++) {
+          builder.put(label, new File(in.readUTF()));
+        }
+      }
+      return builder.build();
+    }
+  }
+
+  /** Computes the target to file map as soon as sync completes, for projects using go. */
+  static class TargetToFileMapWarmer implements SyncCache.Warmer {
+    @Override
+    public void warm(Project project, BlazeProjectData projectData) {
+      if (projectData.getWorkspaceLanguageSettings().isLanguageActive(LanguageClass.GO)) {
+        getTargetToFileMap(project, projectData);
+      }
+    }
+  }
 }
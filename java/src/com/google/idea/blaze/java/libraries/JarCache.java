@@ -247,6 +247,13 @@ public class JarCache {
 
       // repackage cached jars after cache has been updated
       repackageJarsInBackground(projectData, updated.values());
+
+      SharedJarStore sharedStore = SharedJarStore.getInstance();
+      if (sharedStore != null) {
+        // other projects' cache files may have been removed since, so check periodically
+        FetchExecutor.executor(FetchExecutor.Lane.LOCAL, FetchExecutor.Priority.BACKGROUND)
+            .submit(sharedStore::collectGarbage);
+      }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       context.setCancelled();
@@ -309,7 +316,7 @@ public class JarCache {
     updated.forEach(
         (key, artifact) ->
             futures.add(
-                FetchExecutor.EXECUTOR.submit(
+                FetchExecutor.forArtifact(artifact).submit(
                     () -> {
                       File destination = jarCacheFolderProvider.getCacheFileByKey(key);
                       try {
@@ -326,6 +333,11 @@ public class JarCache {
   }
 
   private static void copyLocally(BlazeArtifact output, File destination) throws IOException {
+    SharedJarStore sharedStore = SharedJarStore.getInstance();
+    if (sharedStore != null) {
+      sharedStore.materialize(output, destination);
+      return;
+    }
     if (output instanceof LocalFileArtifact) {
       File source = ((LocalFileArtifact) output).getFile();
       Files.copy(
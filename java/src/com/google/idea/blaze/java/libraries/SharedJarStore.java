@@ -0,0 +1,258 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact;
+import com.google.idea.blaze.base.command.buildresult.BlazeArtifact.LocalFileArtifact;
+import com.google.idea.blaze.base.command.buildresult.RemoteOutputArtifact;
+import com.google.idea.common.experiments.BoolExperiment;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A content-addressed store of jars shared between all projects. Per-project jar cache entries are
+ * hard links to store entries where possible, so each distinct jar is only written to disk once.
+ *
+ * <p>Remote artifacts are keyed by their remote hash ID, and local artifacts by a digest of their
+ * contents, so identical jars built in different checkouts share an entry. Digests are remembered
+ * by path, size and modification time, so unchanged local jars aren't hashed again.
+ *
+ * <p>A store entry with no links other than its own isn't referenced by any project, and is removed
+ * by {@link #collectGarbage}.
+ */
+final class SharedJarStore {
+
+  private static final Logger logger = Logger.getInstance(SharedJarStore.class);
+
+  private static final BoolExperiment enabled =
+      new BoolExperiment("blaze.jar.cache.shared.store", false);
+
+  // unreferenced entries younger than this may be about to be linked by another process
+  private static final long GARBAGE_GRACE_PERIOD_MILLIS = TimeUnit.HOURS.toMillis(1);
+  private static final long GARBAGE_COLLECTION_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(6);
+  // an entry can be collected between being looked up and linked, in which case it's re-added
+  private static final int MAX_LINK_ATTEMPTS = 3;
+
+  @Nullable private static volatile SharedJarStore instance;
+
+  private final File root;
+  private final AtomicLong lastGarbageCollectionMillis = new AtomicLong();
+  private final Map<Path, LocalDigest> localDigests = new ConcurrentHashMap<>();
+  private final AtomicInteger hashedFileCount = new AtomicInteger();
+
+  @VisibleForTesting
+  SharedJarStore(File root) {
+    this.root = root;
+  }
+
+  /**
+   * Returns the shared store, or null if it's disabled or unsupported on this platform. Hard link
+   * counts are needed to tell which entries are still referenced, so only unix file systems are
+   * supported.
+   */
+  @Nullable
+  static SharedJarStore getInstance() {
+    if (!enabled.getValue()
+        || !FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+      return null;
+    }
+    if (instance == null) {
+      synchronized (SharedJarStore.class) {
+        if (instance == null) {
+          instance = new SharedJarStore(new File(PathManager.getSystemPath(), "blaze/jar_store"));
+        }
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Writes the contents of {@code artifact} to {@code destination}, as a hard link to the shared
+   * store entry if possible, otherwise as a copy of it.
+   */
+  void materialize(BlazeArtifact artifact, File destination) throws IOException {
+    String name = entryName(artifact);
+    Path target = destination.toPath();
+    for (int attempt = 1; ; attempt++) {
+      Path entry = getOrAddEntry(name, artifact);
+      try {
+        link(entry, target);
+        return;
+      } catch (NoSuchFileException e) {
+        // the entry was garbage collected, possibly by another process, since it was looked up
+        if (attempt == MAX_LINK_ATTEMPTS) {
+          throw e;
+        }
+      }
+    }
+  }
+
+  private static void link(Path entry, Path target) throws IOException {
+    if (Files.exists(target) && Files.isSameFile(target, entry)) {
+      // linked files share the entry's timestamp, so local jars built with a different timestamp
+      // to the entry's are reported as updated by each sync, despite being linked already
+      return;
+    }
+    Files.deleteIfExists(target);
+    try {
+      Files.createLink(target, entry);
+    } catch (NoSuchFileException e) {
+      throw e;
+    } catch (IOException | UnsupportedOperationException e) {
+      // e.g. the project data directory is on a different file system
+      Files.copy(
+          entry, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+  }
+
+  private Path getOrAddEntry(String name, BlazeArtifact artifact) throws IOException {
+    Path entry = new File(root, name).toPath();
+    if (Files.exists(entry)) {
+      return entry;
+    }
+    Files.createDirectories(root.toPath());
+    Path temp = Files.createTempFile(root.toPath(), "entry", ".tmp");
+    try {
+      if (artifact instanceof LocalFileArtifact) {
+        Files.copy(
+            ((LocalFileArtifact) artifact).getFile().toPath(),
+            temp,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.COPY_ATTRIBUTES);
+      } else {
+        try (InputStream stream = artifact.getInputStream()) {
+          Files.copy(stream, temp, StandardCopyOption.REPLACE_EXISTING);
+        }
+      }
+      // entries are immutable, so if another process added this one concurrently, either wins
+      Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    return entry;
+  }
+
+  private String entryName(BlazeArtifact artifact) throws IOException {
+    if (artifact instanceof RemoteOutputArtifact) {
+      String hashId = ((RemoteOutputArtifact) artifact).getHashId();
+      return "r" + Hashing.sha256().hashString(hashId, UTF_8) + ".jar";
+    }
+    if (artifact instanceof LocalFileArtifact) {
+      return "l" + digest(((LocalFileArtifact) artifact).getFile().toPath()) + ".jar";
+    }
+    throw new IOException("Unhandled BlazeArtifact type: " + artifact.getClass());
+  }
+
+  /** Returns a digest of the file's contents, only reading them if it's changed since last time. */
+  private String digest(Path file) throws IOException {
+    // read before hashing, so that a change while hashing is picked up next time
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    long size = attributes.size();
+    long modifiedMillis = attributes.lastModifiedTime().toMillis();
+    LocalDigest known = localDigests.get(file);
+    if (known != null && known.size == size && known.modifiedMillis == modifiedMillis) {
+      return known.digest;
+    }
+    String digest = MoreFiles.asByteSource(file).hash(Hashing.sha256()).toString();
+    hashedFileCount.incrementAndGet();
+    localDigests.put(file, new LocalDigest(size, modifiedMillis, digest));
+    return digest;
+  }
+
+  @VisibleForTesting
+  int getHashedFileCount() {
+    return hashedFileCount.get();
+  }
+
+  /**
+   * Removes store entries which are no longer linked from any project. Does nothing if this was
+   * already done recently.
+   */
+  void collectGarbage() {
+    long now = System.currentTimeMillis();
+    long last = lastGarbageCollectionMillis.get();
+    if (now - last < GARBAGE_COLLECTION_INTERVAL_MILLIS
+        || !lastGarbageCollectionMillis.compareAndSet(last, now)) {
+      return;
+    }
+    collectGarbage(now - GARBAGE_GRACE_PERIOD_MILLIS);
+  }
+
+  /**
+   * Removes unreferenced entries, and temporary files left behind by interrupted writes, which
+   * were last linked or added before the given time.
+   */
+  @VisibleForTesting
+  int collectGarbage(long cutoffMillis) {
+    if (!root.isDirectory()) {
+      return 0;
+    }
+    int removed = 0;
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(root.toPath(), "*.{jar,tmp}")) {
+      for (Path entry : entries) {
+        try {
+          int links = (Integer) Files.getAttribute(entry, "unix:nlink");
+          // creating or removing a link updates the inode change time
+          FileTime changed = (FileTime) Files.getAttribute(entry, "unix:ctime");
+          boolean unreferenced = links <= 1 || entry.toString().endsWith(".tmp");
+          if (unreferenced && changed.toMillis() < cutoffMillis && Files.deleteIfExists(entry)) {
+            removed++;
+          }
+        } catch (IOException | UnsupportedOperationException | IllegalArgumentException e) {
+          logger.warn("Failed to check shared jar store entry " + entry, e);
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Failed to collect garbage from the shared jar store", e);
+    }
+    return removed;
+  }
+
+  /** The digest of a local file's contents, as of the given size and modification time. */
+  private static final class LocalDigest {
+    final long size;
+    final long modifiedMillis;
+    final String digest;
+
+    LocalDigest(long size, long modifiedMillis, String digest) {
+      this.size = size;
+      this.modifiedMillis = modifiedMillis;
+      this.digest = digest;
+    }
+  }
+}
@@ -158,7 +158,12 @@ public class JdepsFileReader {
                 /* outputArtifacts= */ BlazeArtifact.getRemoteArtifacts(outputArtifacts));
     ListenableFuture<?> fetchLocalFilesFuture =
         PrefetchService.getInstance()
-            .prefetchFiles(BlazeArtifact.getLocalFiles(outputArtifacts), true, false);
+            .prefetchFiles(
+                "jdeps",
+                BlazeArtifact.getLocalFiles(outputArtifacts),
+                /* refetchCachedFiles= */ true,
+                /* fetchFileTypes= */ false,
+                FetchExecutor.Priority.SYNC_BLOCKING);
     if (!FutureUtil.waitForFuture(
             context, Futures.allAsList(downloadArtifactsFuture, fetchLocalFilesFuture))
         .timed("FetchJdeps", EventType.Prefetching)
@@ -39,6 +39,7 @@ import com.google.idea.blaze.base.filecache.RemoteOutputsCache;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetKey;
 import com.google.idea.blaze.base.io.InputStreamProvider;
+import com.google.idea.blaze.base.prefetch.FetchExecutor;
 import com.google.idea.blaze.base.prefetch.PrefetchService;
 import com.google.idea.blaze.base.prefetch.PrefetchStats;
 import com.google.idea.blaze.base.prefetch.RemoteArtifactPrefetcher;
@@ -114,7 +115,12 @@ public class PackageManifestReader {
         RemoteArtifactPrefetcher.getInstance().downloadArtifacts(project.getName(), toDownload);
     ListenableFuture<PrefetchStats> fetchLocalFilesFuture =
         PrefetchService.getInstance()
-            .prefetchFiles(BlazeArtifact.getLocalFiles(diff.getUpdatedOutputs()), true, false);
+            .prefetchFiles(
+                "package manifests",
+                BlazeArtifact.getLocalFiles(diff.getUpdatedOutputs()),
+                /* refetchCachedFiles= */ true,
+                /* fetchFileTypes= */ false,
+                FetchExecutor.Priority.SYNC_BLOCKING);
 
     if (!FutureUtil.waitForFuture(
             context, Futures.allAsList(fetchRemoteArtifactFuture, fetchLocalFilesFuture))
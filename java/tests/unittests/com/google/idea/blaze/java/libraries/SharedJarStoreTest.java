@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023 The Bazel Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.idea.blaze.java.libraries;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.idea.blaze.base.command.buildresult.SourceArtifact;
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SharedJarStore}. */
+@RunWith(JUnit4.class)
+public class SharedJarStoreTest {
+
+  @Rule public TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private SharedJarStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("unix"));
+    store = new SharedJarStore(tmpFolder.newFolder("store"));
+  }
+
+  @Test
+  public void materialize_sameContent_linksSingleEntry() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    Files.write(jar.toPath(), "contents".getBytes(UTF_8));
+    File first = new File(tmpFolder.newFolder("project1"), "lib_1.jar");
+    File second = new File(tmpFolder.newFolder("project2"), "lib_2.jar");
+
+    store.materialize(new SourceArtifact(jar), first);
+    store.materialize(new SourceArtifact(jar), second);
+
+    assertThat(Files.isSameFile(first.toPath(), second.toPath())).isTrue();
+    assertThat(Files.readAllBytes(second.toPath())).isEqualTo("contents".getBytes(UTF_8));
+    assertThat(first.lastModified()).isEqualTo(jar.lastModified());
+  }
+
+  @Test
+  public void materialize_sameContentInDifferentCheckouts_linksSingleEntry() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    Files.write(jar.toPath(), "contents".getBytes(UTF_8));
+    File otherJar = tmpFolder.newFile("other_checkout_lib.jar");
+    Files.write(otherJar.toPath(), "contents".getBytes(UTF_8));
+    assertThat(otherJar.setLastModified(jar.lastModified() - 60_000)).isTrue();
+    File first = new File(tmpFolder.newFolder("project1"), "lib_1.jar");
+    File second = new File(tmpFolder.newFolder("project2"), "lib_2.jar");
+
+    store.materialize(new SourceArtifact(jar), first);
+    store.materialize(new SourceArtifact(otherJar), second);
+
+    assertThat(Files.isSameFile(first.toPath(), second.toPath())).isTrue();
+  }
+
+  @Test
+  public void materialize_unchangedLocalJar_notHashedAgain() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    Files.write(jar.toPath(), "contents".getBytes(UTF_8));
+    File cached = new File(tmpFolder.newFolder("project"), "lib_1.jar");
+
+    store.materialize(new SourceArtifact(jar), cached);
+    store.materialize(new SourceArtifact(jar), cached);
+    assertThat(store.getHashedFileCount()).isEqualTo(1);
+
+    Files.write(jar.toPath(), "changed contents".getBytes(UTF_8));
+    store.materialize(new SourceArtifact(jar), cached);
+    assertThat(store.getHashedFileCount()).isEqualTo(2);
+    assertThat(Files.readAllBytes(cached.toPath())).isEqualTo("changed contents".getBytes(UTF_8));
+  }
+
+  @Test
+  public void materialize_afterEntryCollected_addsItAgain() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    Files.write(jar.toPath(), "contents".getBytes(UTF_8));
+    File projectDir = tmpFolder.newFolder("project");
+    File first = new File(projectDir, "lib_1.jar");
+    store.materialize(new SourceArtifact(jar), first);
+    Files.delete(first.toPath());
+    assertThat(store.collectGarbage(System.currentTimeMillis() + 60_000)).isEqualTo(1);
+
+    File second = new File(projectDir, "lib_2.jar");
+    store.materialize(new SourceArtifact(jar), second);
+
+    assertThat(Files.readAllBytes(second.toPath())).isEqualTo("contents".getBytes(UTF_8));
+    assertThat(store.getHashedFileCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void collectGarbage_removesOnlyUnreferencedEntries() throws Exception {
+    File referencedJar = tmpFolder.newFile("referenced.jar");
+    Files.write(referencedJar.toPath(), "referenced".getBytes(UTF_8));
+    File unreferencedJar = tmpFolder.newFile("unreferenced.jar");
+    Files.write(unreferencedJar.toPath(), "unreferenced".getBytes(UTF_8));
+    File projectDir = tmpFolder.newFolder("project");
+    File referenced = new File(projectDir, "referenced_1.jar");
+    File unreferenced = new File(projectDir, "unreferenced_1.jar");
+    store.materialize(new SourceArtifact(referencedJar), referenced);
+    store.materialize(new SourceArtifact(unreferencedJar), unreferenced);
+
+    Files.delete(unreferenced.toPath());
+    long future = System.currentTimeMillis() + 60_000;
+
+    assertThat(store.collectGarbage(future)).isEqualTo(1);
+    assertThat(store.collectGarbage(future)).isEqualTo(0);
+    assertThat(Files.readAllBytes(referenced.toPath())).isEqualTo("referenced".getBytes(UTF_8));
+  }
+
+  @Test
+  public void collectGarbage_keepsRecentlyUnreferencedEntries() throws Exception {
+    File jar = tmpFolder.newFile("lib.jar");
+    Files.write(jar.toPath(), "contents".getBytes(UTF_8));
+    File cached = new File(tmpFolder.newFolder("project"), "lib_1.jar");
+    store.materialize(new SourceArtifact(jar), cached);
+    Files.delete(cached.toPath());
+
+    assertThat(store.collectGarbage(System.currentTimeMillis() - 60_000)).isEqualTo(0);
+  }
+}
@@ -154,7 +154,7 @@ class AddTsConfigNotificationProvider
     if (packageLabel == null) {
       return null;
     }
-    return Arrays.stream(blazePackage.buildFile.findChildrenByClass(FuncallExpression.class))
+    return Arrays.stream(blazePackage.buildFile.getTopLevelFuncalls())
         .filter(e -> Objects.equals(e.getFunctionName(), "ts_config"))
         .map(FuncallExpression::getName)
         .filter(Objects::nonNull)
@@ -18,11 +18,14 @@ package com.google.idea.blaze.python.resolve.provider;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.devtools.intellij.aspect.Common;
 import com.google.idea.blaze.base.command.buildresult.OutputArtifactResolver;
 import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.google.idea.blaze.base.ideinfo.TargetIdeInfo;
 import com.google.idea.blaze.base.model.BlazeProjectData;
 import com.google.idea.blaze.base.model.primitives.LanguageClass;
+import com.google.idea.blaze.base.settings.Blaze;
+import com.google.idea.blaze.base.settings.BuildSystemName;
 import com.google.idea.blaze.base.sync.SyncCache;
 import com.google.idea.blaze.base.sync.workspace.ArtifactLocationDecoder;
 import com.google.idea.blaze.python.resolve.BlazePyResolverUtils;
@@ -38,7 +41,10 @@ import com.jetbrains.python.PyNames;
 import com.jetbrains.python.codeInsight.imports.AutoImportQuickFix;
 import com.jetbrains.python.psi.PyUtil;
 import com.jetbrains.python.psi.resolve.PyQualifiedNameResolveContext;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -89,29 +95,77 @@ public abstract class AbstractPyImportResolverStrategy implements PyImportResolv
 
   @Nullable
   private PySourcesIndex getSourcesIndex(Project project) {
-    return SyncCache.getInstance(project).get(getClass(), this::buildSourcesIndex);
+    return SyncCache.getInstance(project)
+        .get(getClass(), this::buildSourcesIndex, new SourcesIndexPersister(this));
   }
 
-  @SuppressWarnings("unused")
   private PySourcesIndex buildSourcesIndex(Project project, BlazeProjectData projectData) {
+    ImmutableList.Builder<ArtifactLocation> sources = ImmutableList.builder();
+    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
+      sources.addAll(getPySources(target));
+    }
+    return indexSources(project, projectData, sources.build());
+  }
+
+  private PySourcesIndex indexSources(
+      Project project, BlazeProjectData projectData, ImmutableList<ArtifactLocation> sources) {
+    ImmutableList.Builder<ArtifactLocation> indexed = ImmutableList.builder();
     ImmutableSetMultimap.Builder<String, QualifiedName> shortNames = ImmutableSetMultimap.builder();
     Map<QualifiedName, PsiElementProvider> map = new HashMap<>();
     ArtifactLocationDecoder decoder = projectData.getArtifactLocationDecoder();
-    for (TargetIdeInfo target : projectData.getTargetMap().targets()) {
-      for (ArtifactLocation source : getPySources(target)) {
-        QualifiedName name = toImportString(source);
-        if (name == null || name.getLastComponent() == null) {
-          continue;
-        }
-        shortNames.put(name.getLastComponent(), name);
-        PsiElementProvider psiProvider = psiProviderFromArtifact(project, decoder, source);
-        map.put(name, psiProvider);
-        if (includeParentDirectory(source)) {
-          map.put(name.removeTail(1), PsiElementProvider.getParent(psiProvider));
-        }
+    for (ArtifactLocation source : sources) {
+      QualifiedName name = toImportString(source);
+      if (name == null || name.getLastComponent() == null) {
+        continue;
+      }
+      indexed.add(source);
+      shortNames.put(name.getLastComponent(), name);
+      PsiElementProvider psiProvider = psiProviderFromArtifact(project, decoder, source);
+      map.put(name, psiProvider);
+      if (includeParentDirectory(source)) {
+        map.put(name.removeTail(1), PsiElementProvider.getParent(psiProvider));
       }
     }
-    return new PySourcesIndex(shortNames.build(), ImmutableMap.copyOf(map));
+    return new PySourcesIndex(indexed.build(), shortNames.build(), ImmutableMap.copyOf(map));
+  }
+
+  /**
+   * Persists the indexed sources, so after a restart the index is rebuilt from them rather than
+   * from the target map.
+   */
+  private static class SourcesIndexPersister implements SyncCache.Persister<PySourcesIndex> {
+    private final AbstractPyImportResolverStrategy strategy;
+
+    SourcesIndexPersister(AbstractPyImportResolverStrategy strategy) {
+      this.strategy = strategy;
+    }
+
+    @Override
+    public int getFormatVersion() {
+      return 1;
+    }
+
+    @Override
+    public void write(PySourcesIndex index, DataOutput out) throws IOException {
+      out.writeInt(index.sources.size());
+      for (ArtifactLocation source : index.sources) {
+        SyncCache.Persister.writeMessage(out, source.toProto());
+      }
+    }
+
+    @Override
+    public PySourcesIndex read(Project project, BlazeProjectData projectData, DataInput in)
+        throws IOException {
+      int count = in.readInt();
+      ImmutableList.Builder<ArtifactLocation> sources =
+          ImmutableList.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        sources.add(
+            ArtifactLocation.fromProto(
+                SyncCache.Persister.readMessage(in, Common.ArtifactLocation.parser())));
+      }
+      return strategy.indexSources(project, projectData, sources.build());
+    }
   }
 
   private static PsiElementProvider psiProviderFromArtifact(
@@ -151,4 +205,24 @@ public abstract class AbstractPyImportResolverStrategy implements PyImportResolv
     relativePath = StringUtil.trimExtensions(relativePath);
     return QualifiedName.fromComponents(StringUtil.split(relativePath, File.separator));
   }
+
+  /**
+   * Builds the sources index of each applicable strategy as soon as sync completes, for projects
+   * using python.
+   */
+  static class SourcesIndexWarmer implements SyncCache.Warmer {
+    @Override
+    public void warm(Project project, BlazeProjectData projectData) {
+      if (!projectData.getWorkspaceLanguageSettings().isLanguageActive(LanguageClass.PYTHON)) {
+        return;
+      }
+      BuildSystemName buildSystem = Blaze.getBuildSystemName(project);
+      for (PyImportResolverStrategy strategy : PyImportResolverStrategy.EP_NAME.getExtensions()) {
+        if (strategy instanceof AbstractPyImportResolverStrategy
+            && strategy.appliesToBuildSystem(buildSystem)) {
+          ((AbstractPyImportResolverStrategy) strategy).getSourcesIndex(project);
+        }
+      }
+    }
+  }
 }
@@ -15,18 +15,24 @@
  */
 package com.google.idea.blaze.python.resolve.provider;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSetMultimap;
+import com.google.idea.blaze.base.ideinfo.ArtifactLocation;
 import com.intellij.psi.util.QualifiedName;
 
 /** An index of python sources and their associated import strings. */
 class PySourcesIndex {
+  // the indexed sources, from which the index can be rebuilt without reading the target map
+  final ImmutableList<ArtifactLocation> sources;
   final ImmutableSetMultimap<String, QualifiedName> shortNames;
   final ImmutableMap<QualifiedName, PsiElementProvider> sourceMap;
 
   PySourcesIndex(
+      ImmutableList<ArtifactLocation> sources,
       ImmutableSetMultimap<String, QualifiedName> shortNames,
       ImmutableMap<QualifiedName, PsiElementProvider> sourceMap) {
+    this.sources = sources;
     this.shortNames = shortNames;
     this.sourceMap = sourceMap;
   }